@@ -34,6 +34,7 @@ import org.wikipedia.miner.util.*;
 public class Context {
 		
 	private Vector<Article> contextArticles ;
+	private Article[] contextArray ;
 	private double totalWeight ;
 	private RelatednessCache relatednessCache ;
 	
@@ -64,14 +65,19 @@ public class Context {
 			}
 		}
 		
+		//compare all senses to each other in one block, so the links of each are gathered only once
+		Anchor.Sense[] senseArray = senses.toArray(new Anchor.Sense[senses.size()]) ;
+		double[][] relatedness = this.relatednessCache.getRelatedness(senseArray, senseArray) ;
+		
 		TreeSet<Article> sortedContextArticles = new TreeSet<Article>() ;
-		for (Anchor.Sense s:senses) {
+		for (int i=0 ; i<senseArray.length ; i++) {
+			Anchor.Sense s = senseArray[i] ;
 			double linkProb = s.getWeight() ;
 			
 			double avgRelatedness = 0 ;
 			
-			for (Anchor.Sense s2: senses) 
-				avgRelatedness += this.relatednessCache.getRelatedness(s, s2) ; 
+			for (double r:relatedness[i]) 
+				avgRelatedness += r ; 
 				
 			avgRelatedness = avgRelatedness / (senses.size()) ;
 			
@@ -91,7 +97,8 @@ public class Context {
 			
 			totalWeight += art.getWeight() ;
 			contextArticles.add(art) ;			
-		}		
+		} 
+		contextArray = contextArticles.toArray(new Article[contextArticles.size()]) ;		
 	}
 	
 	
@@ -126,14 +133,19 @@ public class Context {
 			}
 		}
 		
+		//compare all senses to each other in one block, so the links of each are gathered only once
+		Anchor.Sense[] senseArray = senses.toArray(new Anchor.Sense[senses.size()]) ;
+		double[][] relatedness = this.relatednessCache.getRelatedness(senseArray, senseArray) ;
+		
 		TreeSet<Article> sortedContextArticles = new TreeSet<Article>() ;
-		for (Anchor.Sense s:senses) {
+		for (int i=0 ; i<senseArray.length ; i++) {
+			Anchor.Sense s = senseArray[i] ;
 			double linkProb = s.getWeight() ;
 			
 			double avgRelatedness = 0 ;
 			
-			for (Anchor.Sense s2: senses) 
-				avgRelatedness += this.relatednessCache.getRelatedness(s, s2) ; 
+			for (double r:relatedness[i]) 
+				avgRelatedness += r ; 
 				
 			avgRelatedness = avgRelatedness / (senses.size()) ;
 			
@@ -151,7 +163,8 @@ public class Context {
 			
 			totalWeight += art.getWeight() ;
 			contextArticles.add(art) ;			
-		}	
+		} 
+		contextArray = contextArticles.toArray(new Article[contextArticles.size()]) ;	
 	}
 
 	/**
@@ -175,12 +188,11 @@ public class Context {
 
 		double relatedness = 0 ;
 		
-		for (Article contextArt: contextArticles) { 
-			
-			double r = relatednessCache.getRelatedness(art, contextArt) ;
-			r = r * contextArt.getWeight() ;
-			relatedness = relatedness + r ;
-		}
+		//compare to all context articles at once, so the links of the given article are gathered only once
+		double[] r = relatednessCache.getRelatedness(art, contextArray) ;
+		
+		for (int i=0 ; i<contextArray.length ; i++) 
+			relatedness = relatedness + (r[i] * contextArray[i].getWeight()) ;
 		
 		return relatedness / totalWeight ;
 	}
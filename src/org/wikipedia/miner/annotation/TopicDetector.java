@@ -50,6 +50,8 @@ public class TopicDetector {
 	private boolean strictDisambiguation ;
 	private boolean allowDisambiguations ;
 	
+	private RelatednessMatrix.Cutoff relatednessCutoff ;
+	
 	/**
 	 * Initializes a new topic detector.
 	 * 
@@ -131,14 +133,30 @@ public class TopicDetector {
 		return topics ;
 	}
 	
+	/**
+	 * Sets a cutoff that skips pairs of topics which cannot possibly be strongly related, when measuring how related each 
+	 * topic is to all of the others. Skipped pairs count as entirely unrelated. 
+	 * 
+	 * @param cutoff the cutoff to use, or null (the default) if every pair of topics should be compared.
+	 */
+	public void setRelatednessCutoff(RelatednessMatrix.Cutoff cutoff) {
+		this.relatednessCutoff = cutoff ;
+	}
+	
 	private void calculateRelatedness(Collection<Topic> topics, RelatednessCache cache) throws SQLException{
 		
-		for (Topic topicA: topics) {
+		//each pair is only compared once, and rows of comparisons are spread over several threads
+		Topic[] topicArray = topics.toArray(new Topic[topics.size()]) ;
+		RelatednessMatrix matrix = new RelatednessMatrix(wikipedia.getDatabase(), cache, relatednessCutoff) ;
+		double[][] relatedness = matrix.getRelatedness(topicArray) ;
+		
+		for (int i=0 ; i<topicArray.length ; i++) {
+			Topic topicA = topicArray[i] ;
 			double avgRelatedness = 0 ;
 			
-			for (Topic topicB: topics) {
-				if (!topicA.equals(topicB)) {
-					avgRelatedness += cache.getRelatedness(topicA, topicB) ; 
+			for (int j=0 ; j<topicArray.length ; j++) {
+				if (!topicA.equals(topicArray[j])) {
+					avgRelatedness += relatedness[i][j] ; 
 				}
 			}
 			avgRelatedness = avgRelatedness / (topics.size()-1) ;
@@ -19,14 +19,16 @@
 
 
 package org.wikipedia.miner.model;
+import org.wikipedia.miner.model.storage.AnchorRecord ;
 import org.wikipedia.miner.util.text.*;
 import org.wikipedia.miner.util.*;
-import org.wikipedia.miner.model.WikipediaDatabase.CachedAnchor ;
 
 import java.text.DecimalFormat;
 import java.sql.*;
 import java.io.* ;
 
+import gnu.trove.* ;
+
 /**
  * This class represents a term or phrase that is used to link to pages in Wikipedia.  
  * 
@@ -74,11 +76,11 @@ public class Anchor implements Comparable<Anchor>{
 		if (tp != null)
 			t = tp.processText(t) ;
 		
-		CachedAnchor ca = database.cachedAnchors.get(t) ;
+		int ordinal = database.cachedAnchors.lookup(t) ;
 		
-		if (ca != null) {
-			linkCount = ca.linkCount ;
-			occCount = ca.occCount ;
+		if (ordinal >= 0) {
+			linkCount = database.cachedAnchors.getLinkCount(ordinal) ;
+			occCount = database.cachedAnchors.getOccCount(ordinal) ;
 			// no need to setup senses. They are sitting in memory already, so getSenses() can look them up efficiently  
 		} else {
 			//given text was never used as an anchor.
@@ -89,50 +91,99 @@ public class Anchor implements Comparable<Anchor>{
 	
 	private void initializeFromDatabase() throws SQLException{
 		
-		Statement stmt = database.createStatement() ;
+		PreparedStatement stmt ;
 		ResultSet rs ;
 		
+		TIntArrayList senseIds = null ;
+		TIntArrayList senseCounts = null ;
+		
+		String processedText = (tp==null) ? text : tp.processText(text) ;
+		
 		if (database.areAnchorOccurancesSummarized()) {
 			occCount = 0 ;
 			linkCount = 0 ;
 			//	will leave loading of senses for when getSenses() is called
 
-			if (tp==null) 
-				rs = stmt.executeQuery("SELECT ao_linkCount, ao_occCount FROM anchor_occurance WHERE ao_text=\"" + database.addEscapes(text) + "\"") ;
-			else 
-				rs = stmt.executeQuery("SELECT ao_linkCount, ao_occCount FROM anchor_occurance_" + tp.getName() + " WHERE ao_text=\"" + database.addEscapes(tp.processText(text)) + "\"") ;
-			
-			if (rs.first()) {
-				linkCount = rs.getInt(1) ;
-				occCount = rs.getInt(2) ;
+			stmt = database.prepareAnchorStatement("anchorOccurances", tp) ;
+			try {
+				stmt.setString(1, processedText) ;
+				rs = stmt.executeQuery() ;
+				
+				if (rs.first()) {
+					linkCount = rs.getInt(1) ;
+					occCount = rs.getInt(2) ;
+				}
+				rs.close();
+			} finally {
+				stmt.close();
 			}
 		} else {
 			linkCount = 0 ;
 			occCount = -1 ; //flag this as being unavailable
 			
 			//we have to iterate though all senses to get link count, so lets load them up now
-			senses = new SortedVector<Sense>() ;
+			senseIds = new TIntArrayList() ;
+			senseCounts = new TIntArrayList() ;
+			
+			loadSenses(processedText, senseIds, senseCounts) ;
 			
-			if (tp==null)
-				rs = stmt.executeQuery("SELECT an_to, an_count FROM anchor WHERE an_text=\"" + text + "\" ORDER BY an_count DESC, an_to") ;
-			else 
-				rs = stmt.executeQuery("SELECT an_to, an_count FROM anchor_" + tp.getName() + " WHERE an_text=\"" + tp.processText(text) + "\" ORDER BY an_count DESC, an_to") ;
+			for (int i=0 ; i<senseCounts.size() ; i++)
+				linkCount = linkCount + senseCounts.get(i) ;
+		}
+		
+		if (senseIds != null)
+			senses = createSenses(senseIds, senseCounts, true) ;
+	}
+	
+	/**
+	 * Gathers the ids and link counts of this anchor's senses, when they are not cached. Anchors that have not been 
+	 * processed are read from the database's store (see WikipediaDatabase.getStore()), while those prepared with a 
+	 * text processor are read from the anchor tables for that processor.
+	 */
+	private void loadSenses(String processedText, TIntArrayList senseIds, TIntArrayList senseCounts) throws SQLException {
+		
+		if (tp == null) {
+			AnchorRecord record = database.getStore().getAnchor(processedText) ;
 			
+			if (record != null) {
+				senseIds.add(record.getSenseIds()) ;
+				senseCounts.add(record.getSenseCounts()) ;
+			}
+			return ;
+		}
+		
+		PreparedStatement stmt = database.prepareAnchorStatement("anchorSenses", tp) ;
+		try {
+			stmt.setString(1, processedText) ;
+			ResultSet rs = stmt.executeQuery() ;
+		
 			while (rs.next()) {
-				int an_to = rs.getInt(1) ;
-				int an_count = rs.getInt(2) ;
-
-				linkCount = linkCount + an_count ;
-
-				try{
-					Sense sense = new Sense(an_to, an_count, database) ;
-					senses.add(sense, true) ;
-				} catch (Exception e) { };
+				senseIds.add(rs.getInt(1)) ;
+				senseCounts.add(rs.getInt(2)) ;
 			}
+			rs.close();
+		} finally {
+			stmt.close() ;
+		}
+	}
+	
+	/**
+	 * Gathers the pages for all senses at once, rather than retrieving each one separately.
+	 */
+	private SortedVector<Sense> createSenses(TIntArrayList senseIds, TIntArrayList senseCounts, boolean assumeOrdering) throws SQLException {
+		
+		SortedVector<Sense> senses = new SortedVector<Sense>() ;
+		
+		Page[] pages = database.getPagesById(senseIds.toNativeArray()) ;
+		
+		for (int i=0 ; i<pages.length ; i++) {
+			Page p = pages[i] ;
+			
+			if (p != null && (p.getType() == Page.ARTICLE || p.getType() == Page.DISAMBIGUATION)) 
+				senses.add(new Sense(p.getId(), p.getTitle(), p.getType(), senseCounts.get(i), database), assumeOrdering) ;
 		}
 		
-		rs.close();
-		stmt.close();
+		return senses ;
 	}
 	
 	/**
@@ -212,43 +263,30 @@ public class Anchor implements Comparable<Anchor>{
 			if (tp != null)
 				t = tp.processText(t) ;
 			
-			CachedAnchor ca = database.cachedAnchors.get(t) ;
+			AnchorDictionary anchors = database.cachedAnchors ;
+			int ordinal = anchors.lookup(t) ;
 			
-			if (ca == null)
+			if (ordinal < 0)
 				return senses ;
 			
-			for (int[] s:ca.senses) {
-				try{
-					Sense sense = new Sense(s[0], s[1], database) ;
-					senses.add(sense, false) ;
-				} catch (Exception e) {} ;		
+			TIntArrayList senseIds = new TIntArrayList() ;
+			TIntArrayList senseCounts = new TIntArrayList() ;
+			
+			for (int i=0 ; i<anchors.getSenseCount(ordinal) ; i++) {
+				senseIds.add(anchors.getSenseId(ordinal, i)) ;
+				senseCounts.add(anchors.getSenseLinkCount(ordinal, i)) ;
 			}
 			
-			return senses ;
+			return createSenses(senseIds, senseCounts, false) ;
 		} else {
 			// load senses from cache. Save to this.senses, so we dont have to do this again next time
 			
-			this.senses = new SortedVector<Sense>() ;
+			TIntArrayList senseIds = new TIntArrayList() ;
+			TIntArrayList senseCounts = new TIntArrayList() ;
 			
-			Statement stmt = database.createStatement() ;
-			ResultSet rs ;
+			loadSenses((tp == null) ? text : tp.processText(text), senseIds, senseCounts) ;
 			
-			if (tp == null)
-				rs = stmt.executeQuery("SELECT an_to, an_count FROM anchor WHERE an_text=\"" + database.addEscapes(text) + "\" ORDER BY an_count DESC") ;
-			else
-				rs = stmt.executeQuery("SELECT an_to, an_count FROM anchor_" + tp.getName() + " WHERE an_text=\"" + database.addEscapes(tp.processText(text)) + "\" ORDER BY an_count DESC") ;
-			
-			while (rs.next()) {
-				int an_to = rs.getInt(1) ;
-				int an_count = rs.getInt(2) ;
-				
-				try{
-					Sense sense = new Sense(an_to, an_count, database) ;
-					this.senses.add(sense, false) ;
-				} catch (Exception e) {} ;
-			}
-			rs.close();
-			stmt.close();
+			this.senses = createSenses(senseIds, senseCounts, false) ;
 			
 			return senses ;
 		}
@@ -268,6 +306,18 @@ public class Anchor implements Comparable<Anchor>{
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public double getRelatednessTo(Anchor anchor) throws SQLException{
+		return getRelatednessTo(anchor, null) ;
+	}
+	
+	/**
+	 * Returns the semantic relatedness of this anchor to another, as above. 
+	 * 
+	 * @param anchor the anchor to which this should be compared.
+	 * @param rc a cache in which relatedness measures between senses will be saved so they aren't repeatedly calculated. This may be null.
+	 * @return see above.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public double getRelatednessTo(Anchor anchor, RelatednessCache rc) throws SQLException{
 		
 		Cleaner cleaner = null ;
 				
@@ -299,8 +349,7 @@ public class Anchor implements Comparable<Anchor>{
 				Article artA = new Article(database, senseA.getId(), senseA.getTitle()) ;
 				Article artB = new Article(database, senseB.getId(), senseB.getTitle()) ;
 
-				//double relatedness = artA.getRelatednessTo(artB) ;
-				double relatedness = artA.getRelatednessTo(artB) ;
+				double relatedness = (rc == null) ? artA.getRelatednessTo(artB) : rc.getRelatedness(artA, artB) ;
 				double obviousness = (senseA.getProbability() + senseB.getProbability()) / 2 ;
 
 				if (relatedness > (benchmark_relatedness - benchmark_distance)) {
@@ -350,6 +399,22 @@ public class Anchor implements Comparable<Anchor>{
 			setWeight(this.occCount) ;
 		}
 		
+		/**
+		 * Initializes a sense, without consulting the database
+		 * 
+		 * @param id the id of the relevant article (or disambiguation)
+		 * @param title the title of the relevant article
+		 * @param type the type of the relevant article (ARTICLE or DISAMBIGUATION)
+		 * @param occCount the number of times the anchor goes to this destination
+		 * @param wd an active Wikipedia database
+		 */
+		public Sense(int id, String title, int type, int occCount, WikipediaDatabase wd) {
+			super(wd, id, title, type) ;
+			
+			this.occCount = occCount ;
+			setWeight(this.occCount) ;
+		}
+		
 		/**
 		 * @return the number of times the anchor goes to this destination
 		 */
@@ -20,8 +20,9 @@
 package org.wikipedia.miner.model;
 
 import java.io.*;
+import java.nio.IntBuffer ;
+import java.sql.PreparedStatement ;
 import java.sql.ResultSet ;
-import java.sql.Statement ;
 import java.sql.SQLException ;
 import java.text.DecimalFormat;
 import java.util.* ; 
@@ -38,14 +39,17 @@ import org.wikipedia.miner.util.* ;
 public class Article extends Page {
 
 	/**
-	 * ids of incoming links - needed every time we calculate sr, so lets cache it
+	 * ids of incoming links - needed every time we calculate sr, so lets cache it. 
+	 * This is only assigned once it is complete, so other threads never see it half loaded.
 	 */
-	private int inLinkIds[] ;
+	private volatile int inLinkIds[] ;
 
 	/**
-	 * ids and counts of outgoing links - needed every time we calculate sr, so lets cache it
+	 * ids and counts of outgoing links - needed every time we calculate sr, so lets cache it.
+	 * Counts are assigned before ids, so any thread that sees the ids also sees the counts.
 	 */
-	private int outLinkIdsAndCounts[][] ;
+	private volatile int outLinkIds[] ;
+	private volatile int outLinkCounts[] ;
 
 
 	/**
@@ -90,6 +94,10 @@ public class Article extends Page {
 		super(database, title, type) ;
 	}
 	
+	protected Article(WikipediaDatabase database, int id, String title, int type) {
+		super(database, id, title, type) ;
+	}
+	
 	/**
 	 * Returns a SortedVector of Redirects that point to this article.
 	 * 
@@ -99,19 +107,11 @@ public class Article extends Page {
 	public SortedVector<Redirect> getRedirects() throws SQLException{
 		SortedVector<Redirect> redirects = new SortedVector<Redirect>() ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM redirect, page WHERE page_id=rd_from AND rd_to=" + id) ;
-
-		while(rs.next()) {
-			try {
-				Redirect wr = new Redirect(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				redirects.add(wr, true) ;
-			} catch (Exception e) {} ;	
+		for (Page p:database.getPagesById(database.getStore().getRedirects(id))) {
+			if (p != null && p.getType() == REDIRECT)
+				redirects.add((Redirect)p, true) ;
 		}
 
-		rs.close() ;
-		stmt.close() ;
-
 		return redirects ;	
 	}
 	
@@ -120,15 +120,12 @@ public class Article extends Page {
 	 */
 	public int[] getParentCategoryIds() {
 		
-		int[] parentIds = null;
-		
-		if (database.areParentIdsCached())
-			parentIds = database.cachedParentIds.get(id) ;
+		LinkStore parentIds = database.cachedParentIds ;
 		
 		if (parentIds == null)
-			parentIds = new int[0] ;
+			return new int[0] ;
 		
-		return parentIds ;
+		return parentIds.getTargetArray(id) ;
 	}
 
 	/**
@@ -140,24 +137,19 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */
 	public SortedVector<Category> getParentCategories() throws SQLException {
-		//TODO: use cached parent ids
+		int[] parentIds ;
+		if (database.areParentIdsCached())
+			parentIds = getParentCategoryIds() ;
+		else
+			parentIds = database.getStore().getParentCategories(id) ;
 		
 		SortedVector<Category> parentCategories = new SortedVector<Category>() ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_parent=page_id AND cl_child=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) {
-
-			try {
-				Category wc = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				parentCategories.add(wc, true) ;
-			} catch (Exception e) {} ;	
+		for (Page p:database.getPagesById(parentIds)) {
+			if (p != null && p.getType() == CATEGORY)
+				parentCategories.add((Category)p, true) ;
 		}
 
-		rs.close() ;
-		stmt.close() ;
-
 		return parentCategories ;
 	}
 
@@ -176,17 +168,21 @@ public class Article extends Page {
 
 		Category equivalentCategory = null ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_cat AND eq_art=" + id) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("equivalentCategory") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		if (rs.first()) {
-			try {
-				equivalentCategory = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-			} catch (Exception e) {} ;
-		}
+			if (rs.first()) {
+				try {
+					equivalentCategory = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
+				} catch (Exception e) {} ;
+			}
 
-		rs.close() ;
-		stmt.close() ;	
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 
 		return equivalentCategory ;
 	}
@@ -203,30 +199,9 @@ public class Article extends Page {
 
 		SortedVector<Article> articles = new SortedVector<Article>() ;	
 
-		String query = "" ;
-
-		for (int linkIn: getLinksInIds()) {
-			query = query + linkIn + "," ;
-		}
-
-		if (query.length() > 0) {
-			query = query.substring(0, query.length()-1) ;
-
-			Statement stmt = getWikipediaDatabase().createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM page WHERE page_id IN (" + query + ") ORDER BY page_id") ;
-
-			while(rs.next()) {
-				int type = rs.getInt(3) ;
-				try {
-					if (type == Page.ARTICLE) 
-						articles.add(new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-
-					if (type == Page.DISAMBIGUATION) 
-						articles.add(new Disambiguation(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-				} catch (Exception e) {} ;	
-			}
-			rs.close() ;
-			stmt.close() ;
+		for (Page p:database.getPagesById(getLinksInIds())) {
+			if (p != null && (p.getType() == Page.ARTICLE || p.getType() == Page.DISAMBIGUATION)) 
+				articles.add((Article)p, false) ;
 		}
 
 		return articles ;
@@ -244,30 +219,9 @@ public class Article extends Page {
 
 		SortedVector<Article> articles = new SortedVector<Article>() ;	
 
-		String query = "" ;
-
-		for (int linksOut[]: getLinksOutIdsAndCounts()) {
-			query = query + linksOut[0] + "," ;
-		}
-
-		if (query.length() > 0) {
-			query = query.substring(0, query.length()-1) ;
-
-			Statement stmt = getWikipediaDatabase().createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM page WHERE page_id IN (" + query + ") ORDER BY page_id") ;
-
-			while(rs.next()) {
-				int type = rs.getInt(3) ;
-				try {
-					if (type == Page.ARTICLE) 
-						articles.add(new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-
-					if (type == Page.DISAMBIGUATION) 
-						articles.add(new Disambiguation(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-				} catch (Exception e) {} ;	
-			}
-			rs.close() ;
-			stmt.close() ;
+		for (Page p:database.getPagesById(getLinksOutIds())) {
+			if (p != null && (p.getType() == Page.ARTICLE || p.getType() == Page.DISAMBIGUATION)) 
+				articles.add((Article)p, false) ;
 		}
 
 		return articles ;
@@ -280,18 +234,7 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */	
 	public Vector<String> getAvaliableLanguages() throws SQLException {
-		Vector<String> languages = new Vector<String>() ; 
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT tl_lang FROM translation WHERE tl_id=" + id) ; 
-
-		while(rs.next())
-			languages.add(rs.getString(1)) ;
-
-		rs.close() ;
-		stmt.close() ;
-
-		return languages ;
+		return new Vector<String>(getTranslations().keySet()) ;
 	}
 
 	/**
@@ -303,20 +246,7 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */	
 	public String getTranslation(String languageCode) throws SQLException {
-		String translation = null ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT tl_text FROM translation WHERE tl_id=" + id + " AND tl_lang=\"" + languageCode + "\"") ; 
-
-		try {
-			if(rs.first())
-				translation = new String(rs.getBytes(1), "UTF-8") ;
-		} catch (Exception e) {} ;			
-
-		rs.close() ;
-		stmt.close() ;
-
-		return translation ;
+		return getTranslations().get(languageCode) ;
 	}
 
 	/**
@@ -326,22 +256,7 @@ public class Article extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */	
 	public HashMap<String,String> getTranslations() throws SQLException{
-		HashMap<String,String> translations = new HashMap<String,String>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT tl_lang, tl_text FROM translation WHERE tl_id=" + id) ; 
-
-		try {
-			while(rs.next())
-				translations.put(rs.getString(1), new String(rs.getBytes(2), "UTF-8")) ;
-		} catch (Exception e) {
-			e.printStackTrace() ;			
-		}
-
-		rs.close() ;
-		stmt.close() ;
-
-		return translations ;
+		return database.getStore().getTranslations(id) ;
 	}
 
 	/**
@@ -374,16 +289,91 @@ public class Article extends Page {
 	 */
 	public double getRelatednessTo(Article article) throws SQLException{
 		
-		if (database.areOutLinksCached() && database.areInLinksCached()) 
-			return (getRelatednessFromInLinks(article) + getRelatednessFromOutLinks(article))/2 ;
+		//cached links are compared with precomputed weights, without creating any objects
+		RelatednessEngine engine = database.getRelatednessEngine() ;
+		if (engine != null) 
+			return engine.getRelatedness(id, article.getId()) ;
+		
+		return (getRelatednessFromInLinks(article) + getRelatednessFromOutLinks(article))/2 ;
+	}
+	
+	/**
+	 * Returns the semantic relatedness of this article to each of the given articles, in a single pass. The links of this 
+	 * article are only gathered once (from the cache or the database), rather than once per comparison.
+	 * 
+	 * @param articles the other articles of interest
+	 * @return the relatedness of this article to each of the given articles, in the same order. Each is identical to 
+	 * the result of getRelatednessTo(Article).
+	 * @throws SQLException if there is a problem with the wikipedia database
+	 */
+	public double[] getRelatednessTo(Article[] articles) throws SQLException{
+		
+		double[] relatedness = new double[articles.length] ;
+		
+		RelatednessEngine engine = database.getRelatednessEngine() ;
+		if (engine != null) {
+			int[] ids = new int[articles.length] ;
+			for (int i=0 ; i<articles.length ; i++)
+				ids[i] = articles[i].getId() ;
 			
-		if (database.areOutLinksCached()) 
-			return getRelatednessFromOutLinks(article) ;
+			engine.getRelatedness(id, ids, relatedness) ;
+			return relatedness ;
+		}
 		
-		if (database.areInLinksCached()) 
-			return getRelatednessFromInLinks(article) ;
+		//links out are remembered by this article once loaded, but links in would be queried again for every comparison
+		IntBuffer linksIn = getLinksInIdBuffer() ;
 		
-		return (getRelatednessFromInLinks(article) + getRelatednessFromOutLinks(article))/2 ;
+		for (int i=0 ; i<articles.length ; i++) 
+			relatedness[i] = (getRelatednessFromInLinks(linksIn, articles[i]) + getRelatednessFromOutLinks(articles[i]))/2 ;
+		
+		return relatedness ;
+	}
+
+	/**
+	 * Returns the articles that are most related to this one, as measured from the links made to them. Rather than 
+	 * comparing this article to every other, only articles that share links with it are considered (see RelatednessEngine.getMostRelated()), 
+	 * so this is fast enough to be used interactively.
+	 * <p>
+	 * Both links in and links out must be cached.
+	 * 
+	 * @param limit the maximum number of articles to return
+	 * @return the most related articles, sorted so the most related come first. The weight of each article is its relatedness to this one.
+	 * @throws SQLException if there is a problem with the wikipedia database
+	 * @throws IllegalArgumentException if limit is negative
+	 */
+	public SortedVector<Article> getMostRelatedArticles(int limit) throws SQLException {
+		
+		if (limit < 0)
+			throw new IllegalArgumentException("limit must not be negative") ;
+		
+		RelatednessEngine engine = database.getRelatednessEngine() ;
+		if (engine == null) 
+			throw new IllegalStateException("links in and out must be cached") ;
+		
+		//no more articles can be found than there are
+		limit = Math.min(limit, database.getArticleCount()) ;
+		
+		int[] ids = new int[limit] ;
+		double[] relatedness = new double[limit] ;
+		int count = engine.getMostRelated(id, ids, relatedness) ;
+		
+		int[] foundIds = new int[count] ;
+		System.arraycopy(ids, 0, foundIds, 0, count) ;
+		
+		//pages are gathered all at once, and those that cannot be found are skipped
+		Page[] pages = database.getPagesById(foundIds) ;
+		
+		SortedVector<Article> articles = new SortedVector<Article>() ;
+		for (int i=0 ; i<count ; i++) {
+			if (pages[i] == null || pages[i].getType() != ARTICLE)
+				continue ;
+			
+			Article art = (Article)pages[i] ;
+			art.setWeight(relatedness[i]) ;
+			articles.add(art, true) ;
+		}
+		
+		return articles ;
 	}
 
 	/**
@@ -392,41 +382,22 @@ public class Article extends Page {
 	 */
 	public int[] getLinksInIds() throws SQLException{
 
-		if (inLinkIds != null)
-			return inLinkIds ;
+		int[] linkIds = inLinkIds ;
+		if (linkIds != null)
+			return linkIds ;
 
 		if (database.areInLinksCached()){
-			//if this stuff is cached then we just want to grab it. Dont save it to this.inLinkIds, otherwise we would have duplicate copies in memory
-
-			if (database.cachedInLinks.containsKey(id))
-				return database.cachedInLinks.get(id) ;
-			else
-				return new int[0] ; 
-		}
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT li_data FROM pagelink_in WHERE li_id=" + id) ;
-
-		inLinkIds = new int[0] ;
-		
-		
-
-		if (rs.first()) {
-			String data = rs.getString(1) ;
-			if (!data.equals("")) {
-				String[] l = data.split(":") ;
-				inLinkIds = new int[l.length] ;
-				for (int i=0 ; i<l.length ; i++) 
-					inLinkIds[i] = new Integer(l[i]).intValue() ;
-			}
+			//if this stuff is cached then we just want to grab a copy. Dont save it to this.inLinkIds, otherwise we would have duplicate copies in memory
+			if (database.areInLinksCompressed())
+				return database.cachedCompressedInLinks.get(id) ;
+			
+			return database.cachedInLinks.getTargetArray(id) ;
 		}
-		
-		
 
-		rs.close() ;
-		stmt.close() ;
+		linkIds = database.getStore().getLinksIn(id) ;
 
-		return inLinkIds ;
+		inLinkIds = linkIds ;
+		return linkIds ;
 	}
 	
 	/**
@@ -437,14 +408,18 @@ public class Article extends Page {
 		
 		int linkCount = 0 ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT lc_in FROM linkcount WHERE lc_id=" + id) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("linkCountIn") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 		
-		if (rs.first())
-			linkCount = rs.getInt(1) ;
+			if (rs.first())
+				linkCount = rs.getInt(1) ;
 		
-		rs.close() ;
-		stmt.close() ;
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 		
 		return linkCount ;
 	}
@@ -457,14 +432,18 @@ public class Article extends Page {
 		
 		int linkCount = 0 ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT lc_out FROM linkcount WHERE lc_id=" + id) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("linkCountOut") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 		
-		if (rs.first())
-			linkCount = rs.getInt(1) ;
+			if (rs.first())
+				linkCount = rs.getInt(1) ;
 		
-		rs.close() ;
-		stmt.close() ;
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 		
 		return linkCount ;
 	}
@@ -475,56 +454,89 @@ public class Article extends Page {
 	 */
 	public int[] getLinksOutIds() throws SQLException {
 		
-		int[][] idsAndCounts = getLinksOutIdsAndCounts() ;
+		if (database.areOutLinksCached()) 
+			return database.cachedOutLinks.getTargetArray(id) ;
+		
+		loadLinksOut() ;
+		return outLinkIds ;		
+	}
+	
+	/**
+	 * @return a read-only view of the ordered ids of articles that link to this one. If links are cached, this is backed directly by the cache, so nothing is copied.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	protected IntBuffer getLinksInIdBuffer() throws SQLException {
 		
-		int[] idsOnly = new int[idsAndCounts.length] ;
+		if (database.areInLinksCached() && !database.areInLinksCompressed())
+			return database.cachedInLinks.getTargets(id) ;
 		
-		for (int i=0 ; i<idsAndCounts.length ; i++)
-			idsOnly[i] = idsAndCounts[i][0] ;
-
-		return idsOnly ;		
+		return IntBuffer.wrap(getLinksInIds()) ;
+	}
+	
+	/**
+	 * @return a read-only view of the ordered ids of articles that this one links to. If links are cached, this is backed directly by the cache, so nothing is copied.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	protected IntBuffer getLinksOutIdBuffer() throws SQLException {
+		
+		if (database.areOutLinksCached())
+			return database.cachedOutLinks.getTargets(id) ;
+		
+		loadLinksOut() ;
+		return IntBuffer.wrap(outLinkIds) ;
+	}
+	
+	/**
+	 * @return a read-only view of the number of articles that link to each of the articles this one links to, in the same order as getLinksOutIdBuffer().
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	protected IntBuffer getLinksOutCountBuffer() throws SQLException {
+		
+		if (database.areOutLinksCached())
+			return database.cachedOutLinks.getCounts(id) ;
+		
+		loadLinksOut() ;
+		return IntBuffer.wrap(outLinkCounts) ;
 	}
 
-	private int[][] getLinksOutIdsAndCounts() throws SQLException {
-
-		if (outLinkIdsAndCounts != null)
-			return outLinkIdsAndCounts ;
+	private void loadLinksOut() throws SQLException {
 
-		if (database.areOutLinksCached()) {
-			//if this stuff is cached then we just want to grab it. Dont save it to this.inLinkIds, otherwise we would have duplicate copies in memory
-			if (database.cachedOutLinks.containsKey(id))
-				return database.cachedOutLinks.get(id) ;
-			else
-				return new int[0][2] ; 
-		}
+		if (outLinkIds != null)
+			return ;
 
 		String data = "" ;
 
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT lo_data FROM pagelink_out WHERE lo_id = " + id) ;
+		PreparedStatement stmt = database.prepareStatement("linksOut") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		if (rs.first()) 
-			data = rs.getString(1) ;
+			if (rs.first()) 
+				data = rs.getString(1) ;
 
-		stmt.close() ;
-		rs.close();
+			rs.close();
+		} finally {
+			stmt.close() ;
+		}
 
 		String[] values = data.split(";") ;
 
-		outLinkIdsAndCounts = new int[values.length][2] ;
+		int[] ids = new int[values.length] ;
+		int[] counts = new int[values.length] ;
 
 		int index = 0 ;
 		for (String value:values) {
 			String values2[] = value.split(":") ;
 			
 			if (values2.length == 2) {
-				outLinkIdsAndCounts[index][0] = Integer.parseInt(values2[0]) ;
-				outLinkIdsAndCounts[index][1] = Integer.parseInt(values2[1]) ;
+				ids[index] = Integer.parseInt(values2[0]) ;
+				counts[index] = Integer.parseInt(values2[1]) ;
+				index ++ ;
 			}
-			index ++ ;
 		}
 
-		return outLinkIdsAndCounts ;
+		outLinkCounts = Arrays.copyOf(counts, index) ;
+		outLinkIds = Arrays.copyOf(ids, index) ;
 	}
 
 	private double getRelatednessFromOutLinks(Article art) throws SQLException{
@@ -534,65 +546,57 @@ public class Article extends Page {
 		}
 
 		int totalArticles = database.getArticleCount() ;
-		int[][] dataA = getLinksOutIdsAndCounts() ;
-		int[][] dataB = art.getLinksOutIdsAndCounts() ;
+		IntBuffer idsA = getLinksOutIdBuffer() ;
+		IntBuffer countsA = getLinksOutCountBuffer() ;
+		IntBuffer idsB = art.getLinksOutIdBuffer() ;
+		IntBuffer countsB = art.getLinksOutCountBuffer() ;
+		
+		int lengthA = idsA.limit() ;
+		int lengthB = idsB.limit() ;
 
-		if (dataA.length == 0 || dataB.length == 0)
+		if (lengthA == 0 || lengthB == 0)
 			return 0 ;
 
 		int indexA = 0 ;
 		int indexB = 0 ;
 
-		Vector<Double> vectA = new Vector<Double>() ;
-		Vector<Double> vectB = new Vector<Double>() ;
+		// calculate angle between vectors, in which each link is weighted by how rarely its target is linked to
+		double dotProduct = 0 ;
+		double magnitudeA = 0 ;
+		double magnitudeB = 0 ;
 
-		while (indexA < dataA.length || indexB < dataB.length) {
+		while (indexA < lengthA || indexB < lengthB) {
 
 			int idA = -1 ;
 			int idB = -1 ;
 
-			if (indexA < dataA.length)
-				idA = dataA[indexA][0] ;
+			if (indexA < lengthA)
+				idA = idsA.get(indexA) ;
 
-			if (indexB < dataB.length)
-				idB = dataB[indexB][0] ;
+			if (indexB < lengthB)
+				idB = idsB.get(indexB) ;
 
 			if (idA == idB) {
-				double probability = Math.log((double)totalArticles/dataA[indexA][1]) ;
-				vectA.add(new Double(probability)) ;
-				vectB.add(new Double(probability)) ;
+				double probability = Math.log((double)totalArticles/countsA.get(indexA)) ;
+				dotProduct = dotProduct + (probability * probability) ;
+				magnitudeA = magnitudeA + (probability * probability) ;
+				magnitudeB = magnitudeB + (probability * probability) ;
 
 				indexA ++ ;
 				indexB ++ ;
 			} else if ((idA < idB && idA > 0)|| idB < 0) {
-				double probability = Math.log((double)totalArticles/dataA[indexA][1]) ;
-				vectA.add(new Double(probability)) ;
-				vectB.add(new Double(0)) ;
+				double probability = Math.log((double)totalArticles/countsA.get(indexA)) ;
+				magnitudeA = magnitudeA + (probability * probability) ;
 
 				indexA ++ ;
 			} else {
-				double probability = Math.log((double)totalArticles/dataB[indexB][1]) ;
-				vectA.add(new Double(0)) ;
-				vectB.add(new Double(probability)) ;
+				double probability = Math.log((double)totalArticles/countsB.get(indexB)) ;
+				magnitudeB = magnitudeB + (probability * probability) ;
 
 				indexB ++ ;
 			}
 		}
 
-		// calculate angle between vectors
-		double dotProduct = 0 ;
-		double magnitudeA = 0 ;
-		double magnitudeB = 0 ;
-
-		for (int x=0;x<vectA.size();x++) {
-			double valA = ((Double)vectA.elementAt(x)).doubleValue() ;
-			double valB = ((Double)vectB.elementAt(x)).doubleValue() ;
-
-			dotProduct = dotProduct + (valA * valB) ;
-			magnitudeA = magnitudeA + (valA * valA) ;
-			magnitudeB = magnitudeB + (valB * valB) ;
-		}
-
 		magnitudeA = Math.sqrt(magnitudeA) ;
 		magnitudeB = Math.sqrt(magnitudeB) ;
 
@@ -606,18 +610,31 @@ public class Article extends Page {
 	
 	private double getRelatednessFromInLinks(Article article) throws SQLException{
 
-		int[] linksA = this.getLinksInIds() ; 
-		int[] linksB = article.getLinksInIds() ; 
+		if (database.areInLinksCompressed()) {
+			//count common links without decompressing them
+			CompressedPostings links = database.cachedCompressedInLinks ;
+			return getRelatednessFromInLinkCounts(links.getLength(id), links.getLength(article.getId()), links.countCommon(id, article.getId())) ;
+		}
+
+		return getRelatednessFromInLinks(this.getLinksInIdBuffer(), article) ;
+	}
+	
+	private double getRelatednessFromInLinks(IntBuffer linksA, Article article) throws SQLException{
+
+		IntBuffer linksB = article.getLinksInIdBuffer() ; 
+		
+		int lengthA = linksA.limit() ;
+		int lengthB = linksB.limit() ;
 
 		int linksBoth = 0 ;
 
 		int indexA = 0 ;
 		int indexB = 0 ;
 
-		while (indexA < linksA.length && indexB < linksB.length) {
+		while (indexA < lengthA && indexB < lengthB) {
 
-			long idA = linksA[indexA] ;
-			long idB = linksB[indexB] ;
+			long idA = linksA.get(indexA) ;
+			long idB = linksB.get(indexB) ;
 
 			if (idA == idB) {
 				linksBoth ++ ;
@@ -630,8 +647,13 @@ public class Article extends Page {
 			}
 		}
 
-		double a = Math.log(linksA.length) ;
-		double b = Math.log(linksB.length) ;
+		return getRelatednessFromInLinkCounts(lengthA, lengthB, linksBoth) ;
+	}
+	
+	private double getRelatednessFromInLinkCounts(int linksA, int linksB, int linksBoth) {
+
+		double a = Math.log(linksA) ;
+		double b = Math.log(linksB) ;
 		double ab = Math.log(linksBoth) ;
 		double m = Math.log(database.getArticleCount()) ;
 
@@ -657,14 +679,22 @@ public class Article extends Page {
 
 		SortedVector<AnchorText> anchors = new SortedVector<AnchorText>() ;
 
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT an_text, an_count FROM anchor WHERE an_to = " + id + " ORDER BY an_count DESC") ;
+		PreparedStatement stmt = database.prepareStatement("anchorTexts") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		while (rs.next()) {
-			try {
-				AnchorText at = new AnchorText(new String(rs.getBytes(1), "UTF-8"), this, rs.getInt(2)) ;
-				anchors.add(at, true) ;
-			} catch (Exception e) {} ;	
+			while (rs.next()) {
+				try {
+					AnchorText at = new AnchorText(new String(rs.getBytes(1), "UTF-8"), this, rs.getInt(2)) ;
+					anchors.add(at, true) ;
+				} catch (Exception e) {} ;	
+			}
+
+			rs.close() ;
+		} finally {
+			//pooled connections are only handed back once the statement is closed
+			stmt.close() ;
 		}
 
 		return anchors ;
@@ -0,0 +1,381 @@
+/*
+ *    CachePlan.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.* ;
+import java.text.DecimalFormat ;
+import java.util.Vector ;
+
+import org.wikipedia.miner.util.ParallelCsvReader ;
+import org.wikipedia.miner.util.ProgressNotifier ;
+
+/**
+ * Decides which caches to gather, and how aggressively to filter them, so that they fit within a memory budget.
+ * <p>
+ * Footprints are estimated before anything is loaded, from the sizes of the csv files in a data directory and from
+ * linkcount.csv, which says exactly how many links in and out of each page would be kept at any minimum link count
+ * (see WikipediaDatabase.getValidPageIds()). The plan keeps as many of the requested caches as it can (in the order
+ * PAGES, ANCHORS, IN_LINKS, GENERALITY, CATEGORY_GRAPH, OUT_LINKS), filtered by the smallest minimum link count that
+ * lets them all fit.
+ * <p>
+ * Plans should be created with WikipediaDatabase.planCaches(), and carried out with WikipediaDatabase.cache().
+ *
+ * @author David Milne
+ */
+public class CachePlan {
+
+	/**
+	 * pages, their titles, and redirects (see WikipediaDatabase.cachePages())
+	 */
+	public static final int PAGES = 1 ;
+
+	/**
+	 * anchors and their senses (see WikipediaDatabase.cacheAnchors())
+	 */
+	public static final int ANCHORS = 2 ;
+
+	/**
+	 * links in to pages (see WikipediaDatabase.cacheInLinks())
+	 */
+	public static final int IN_LINKS = 4 ;
+
+	/**
+	 * generality of pages (see WikipediaDatabase.cacheGenerality())
+	 */
+	public static final int GENERALITY = 8 ;
+
+	/**
+	 * parents and children of categories (see WikipediaDatabase.cacheCategoryGraph())
+	 */
+	public static final int CATEGORY_GRAPH = 16 ;
+
+	/**
+	 * links out from pages (see WikipediaDatabase.cacheOutLinks())
+	 */
+	public static final int OUT_LINKS = 32 ;
+
+	/**
+	 * every cache
+	 */
+	public static final int ALL = PAGES | ANCHORS | IN_LINKS | GENERALITY | CATEGORY_GRAPH | OUT_LINKS ;
+
+	/**
+	 * every cache, in order of priority
+	 */
+	public static final int[] CACHES = {PAGES, ANCHORS, IN_LINKS, GENERALITY, CATEGORY_GRAPH, OUT_LINKS} ;
+
+	/**
+	 * the minimum link counts that are considered, in the order they are tried
+	 */
+	public static final int[] MIN_LINK_COUNTS = {1, 2, 3, 4, 5, 7, 10, 15, 20, 30, 50, 100} ;
+
+	//approximate bytes used by each entry of a trove int->int map
+	private static final int INT_MAP_ENTRY_BYTES = 18 ;
+
+	//bytes used by each page in the page cache, besides its title, and by the title index
+	private static final int PAGE_ENTRY_BYTES = 4 + 4 + 1 + 16 ;
+
+	//amount of a file that is read to estimate the length of its lines
+	private static final int SAMPLE_BYTES = 1 << 20 ;
+
+	private int caches ;
+	private int minLinkCount ;
+	private long budget ;
+	private long[] estimates ;
+
+	private CachePlan(int caches, int minLinkCount, long budget, long[] estimates) {
+		this.caches = caches ;
+		this.minLinkCount = minLinkCount ;
+		this.budget = budget ;
+		this.estimates = estimates ;
+	}
+
+	/**
+	 * @return the caches (PAGES, ANCHORS, etc, or'ed together) that should be gathered
+	 */
+	public int getCaches() {
+		return caches ;
+	}
+
+	/**
+	 * @param cache a single cache (PAGES, ANCHORS, etc)
+	 * @return true if the given cache should be gathered, otherwise false
+	 */
+	public boolean includes(int cache) {
+		return (caches & cache) != 0 ;
+	}
+
+	/**
+	 * @return the minimum number of links in and out that a page needs in order to be cached (see WikipediaDatabase.getValidPageIds())
+	 */
+	public int getMinLinkCount() {
+		return minLinkCount ;
+	}
+
+	/**
+	 * @param cache a single cache (PAGES, ANCHORS, etc)
+	 * @return the estimated number of bytes the given cache will need, at the planned minimum link count
+	 */
+	public long getEstimatedFootprint(int cache) {
+		return estimates[indexOf(cache)] ;
+	}
+
+	/**
+	 * @return the estimated number of bytes needed by all of the planned caches
+	 */
+	public long getEstimatedFootprint() {
+		long total = 0 ;
+		for (int cache:CACHES) {
+			if (includes(cache))
+				total += getEstimatedFootprint(cache) ;
+		}
+		return total ;
+	}
+
+	/**
+	 * @return a description of the plan, with the estimated footprint of each cache
+	 */
+	public String toString() {
+
+		StringBuffer sb = new StringBuffer() ;
+		sb.append("Cache plan (minimum link count " + minLinkCount + ", " + formatBytes(getEstimatedFootprint()) + " of " + formatBytes(budget) + ")\n") ;
+
+		for (int cache:CACHES) {
+			sb.append(" - " + getName(cache) + ": " + formatBytes(getEstimatedFootprint(cache))) ;
+			if (!includes(cache))
+				sb.append(" (skipped)") ;
+			sb.append("\n") ;
+		}
+
+		return sb.toString() ;
+	}
+
+	/**
+	 * @param cache a single cache (PAGES, ANCHORS, etc)
+	 * @return the name of the given cache
+	 */
+	public static String getName(int cache) {
+		switch (cache) {
+		case PAGES: return "pages" ;
+		case ANCHORS: return "anchors" ;
+		case IN_LINKS: return "links in" ;
+		case GENERALITY: return "generality" ;
+		case CATEGORY_GRAPH: return "category graph" ;
+		case OUT_LINKS: return "links out" ;
+		default: return "unknown cache " + cache ;
+		}
+	}
+
+	/**
+	 * @param bytes a number of bytes
+	 * @return the given number of bytes in megabytes, formatted for display
+	 */
+	public static String formatBytes(long bytes) {
+		return new DecimalFormat("#,##0.0").format(bytes / (1024.0 * 1024.0)) + " MB" ;
+	}
+
+	/**
+	 * @param entries the number of entries in a trove int->int map
+	 * @return the approximate number of bytes used by the map
+	 */
+	protected static long estimateIntMap(int entries) {
+		return (long)INT_MAP_ENTRY_BYTES * entries ;
+	}
+
+	/**
+	 * Estimates the footprint of each cache from the files in the given data directory, and chooses the caches
+	 * and minimum link count that fit within the given budget.
+	 *
+	 * @param dataDirectory the directory containing csv files extracted from a Wikipedia dump.
+	 * @param budget the number of bytes that caches may use
+	 * @param requestedCaches the caches that are wanted (PAGES, ANCHORS, etc, or'ed together)
+	 * @param categoryCount the number of categories, which are always considered valid regardless of link counts
+	 * @param threads the number of threads to read files with
+	 * @param pn an optional progress notifier
+	 * @return the plan
+	 * @throws IOException if the relevant files cannot be read
+	 */
+	protected static CachePlan create(File dataDirectory, long budget, int requestedCaches, int categoryCount, int threads, ProgressNotifier pn) throws IOException {
+
+		LinkCountProfile profile = readProfile(new File(dataDirectory, "linkcount.csv"), threads, pn) ;
+
+		long pageBytes = new File(dataDirectory, "page.csv").length() ;
+		long anchorBytes = new File(dataDirectory, "anchor_summary.csv").length() ;
+		File categoryFile = new File(dataDirectory, "categorylink.csv") ;
+		long categoryLinks = categoryFile.length() / Math.max(1, sampleLineLength(categoryFile)) ;
+
+		//try every threshold, dropping the least important caches until something fits
+		int caches = requestedCaches ;
+		for (int dropped=CACHES.length-1 ; dropped>=-1 ; dropped--) {
+
+			for (int minLinkCount:MIN_LINK_COUNTS) {
+				long[] estimates = estimate(profile, minLinkCount, categoryCount, pageBytes, anchorBytes, categoryLinks) ;
+				CachePlan plan = new CachePlan(caches, minLinkCount, budget, estimates) ;
+
+				if (plan.getEstimatedFootprint() <= budget)
+					return plan ;
+			}
+
+			if (dropped >= 0)
+				caches = caches & ~CACHES[dropped] ;
+		}
+
+		int minLinkCount = MIN_LINK_COUNTS[MIN_LINK_COUNTS.length-1] ;
+		return new CachePlan(0, minLinkCount, budget, estimate(profile, minLinkCount, categoryCount, pageBytes, anchorBytes, categoryLinks)) ;
+	}
+
+	private static long[] estimate(LinkCountProfile profile, int minLinkCount, int categoryCount, long pageBytes, long anchorBytes, long categoryLinks) {
+
+		long[] estimates = new long[CACHES.length] ;
+
+		long pages = profile.getPages(minLinkCount) + categoryCount ;
+		long allPages = Math.max(1, profile.getPages(0) + categoryCount) ;
+		long offsets = 4L * (profile.maxId + 2) ;
+
+		//titles make up most of each line of page.csv
+		estimates[indexOf(PAGES)] = (pageBytes * pages / allPages) + PAGE_ENTRY_BYTES * pages ;
+
+		//the anchor dictionary is about the size of its csv file, and is filtered by the destinations of links
+		estimates[indexOf(ANCHORS)] = anchorBytes * profile.getInLinks(minLinkCount) / Math.max(1, profile.getInLinks(0)) ;
+
+		estimates[indexOf(IN_LINKS)] = offsets + 4L * profile.getInLinks(minLinkCount) ;
+		//links out also need the length of each article's vector for measuring relatedness (see RelatednessEngine)
+		estimates[indexOf(OUT_LINKS)] = 3 * offsets + 8L * profile.getOutLinks(minLinkCount) ;
+		estimates[indexOf(GENERALITY)] = INT_MAP_ENTRY_BYTES * pages ;
+
+		//every link is stored under its child, and under its parent as either a child category or a child article
+		estimates[indexOf(CATEGORY_GRAPH)] = 3 * offsets + 8L * categoryLinks ;
+
+		return estimates ;
+	}
+
+	private static int indexOf(int cache) {
+		for (int i=0 ; i<CACHES.length ; i++) {
+			if (CACHES[i] == cache)
+				return i ;
+		}
+		throw new IllegalArgumentException(cache + " is not a single cache") ;
+	}
+
+	private static int sampleLineLength(File file) throws IOException {
+
+		if (!file.canRead())
+			return 1 ;
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file)) ;
+		try {
+			int bytes = 0 ;
+			int lines = 0 ;
+			int b ;
+			while (bytes < SAMPLE_BYTES && (b = in.read()) >= 0) {
+				bytes++ ;
+				if (b == '\n')
+					lines++ ;
+			}
+			return lines == 0 ? Math.max(bytes, 1) : bytes / lines ;
+		} finally {
+			in.close() ;
+		}
+	}
+
+	private static LinkCountProfile readProfile(File linkCountFile, int threads, ProgressNotifier pn) throws IOException {
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(linkCountFile.length(), "estimating cache footprints") ;
+
+		Vector<LinkCountProfile> chunks = new ParallelCsvReader(threads).read(linkCountFile, new ParallelCsvReader.LineHandler<LinkCountProfile>() {
+
+			public LinkCountProfile createChunk() {
+				return new LinkCountProfile() ;
+			}
+
+			public void handleLine(byte[] data, int start, int end, LinkCountProfile chunk) {
+
+				int sep1 = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				int sep2 = ParallelCsvReader.indexOf(data, (byte)',', sep1+1, end) ;
+				if (sep1 < 0 || sep2 < 0)
+					return ;
+
+				try {
+					chunk.add(ParallelCsvReader.parseInt(data, start, sep1), ParallelCsvReader.parseInt(data, sep1+1, sep2), ParallelCsvReader.parseInt(data, sep2+1, end)) ;
+				} catch (NumberFormatException e) {
+					//ignore malformed lines
+				}
+			}
+		}, pn, 0) ;
+
+		LinkCountProfile profile = new LinkCountProfile() ;
+		for (LinkCountProfile chunk:chunks)
+			profile.addAll(chunk) ;
+
+		return profile ;
+	}
+
+	/**
+	 * Counts pages and links, bucketed by the smaller of each page's link counts, so that the number kept at any
+	 * minimum link count can be found without reading linkcount.csv again.
+	 */
+	private static class LinkCountProfile {
+
+		int maxId = 0 ;
+
+		long[] pages = new long[MIN_LINK_COUNTS[MIN_LINK_COUNTS.length-1] + 1] ;
+		long[] inLinks = new long[pages.length] ;
+		long[] outLinks = new long[pages.length] ;
+
+		void add(int id, int linksIn, int linksOut) {
+			int bucket = Math.min(Math.min(linksIn, linksOut), pages.length-1) ;
+
+			pages[bucket]++ ;
+			inLinks[bucket] += linksIn ;
+			outLinks[bucket] += linksOut ;
+
+			if (id > maxId) maxId = id ;
+		}
+
+		void addAll(LinkCountProfile p) {
+			for (int i=0 ; i<pages.length ; i++) {
+				pages[i] += p.pages[i] ;
+				inLinks[i] += p.inLinks[i] ;
+				outLinks[i] += p.outLinks[i] ;
+			}
+			if (p.maxId > maxId) maxId = p.maxId ;
+		}
+
+		long getPages(int minLinkCount) {
+			return sumFrom(pages, minLinkCount) ;
+		}
+
+		long getInLinks(int minLinkCount) {
+			return sumFrom(inLinks, minLinkCount) ;
+		}
+
+		long getOutLinks(int minLinkCount) {
+			return sumFrom(outLinks, minLinkCount) ;
+		}
+
+		private long sumFrom(long[] counts, int minLinkCount) {
+			long sum = 0 ;
+			for (int i=Math.max(0, minLinkCount) ; i<counts.length ; i++)
+				sum += counts[i] ;
+			return sum ;
+		}
+	}
+}
@@ -0,0 +1,437 @@
+/*
+ *    CacheSnapshot.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.FileChannel;
+
+import gnu.trove.* ;
+
+import org.wikipedia.miner.util.AnchorDictionary;
+import org.wikipedia.miner.util.CompressedPostings;
+import org.wikipedia.miner.util.LinkStore;
+import org.wikipedia.miner.util.ProgressNotifier;
+import org.wikipedia.miner.util.text.TextProcessor;
+
+/**
+ * Reads and writes binary snapshots of the data cached by a WikipediaDatabase.
+ * <p>
+ * Parsing the csv files extracted from a Wikipedia dump is slow, so the caches only need to be built from
+ * csv once. After that they can be saved as a snapshot, which is memory mapped when it is loaded, so
+ * restarts are quick and the operating system can share the snapshot between JVMs on the same machine.
+ * <p>
+ * A snapshot begins with a header (magic number, format version and the article count of the database it
+ * was built from), followed by a sequence of sections. Each section starts with an int tag and a long
+ * byte length, so sections that are not understood (or not wanted) can be skipped.
+ * <p>
+ * Pages, links in and out of pages, the category graph, and anchors, are stored in the same layout that PageCache, LinkStore, 
+ * CompressedPostings and AnchorDictionary use in memory, so these sections are not copied at all when loaded; they are read straight from the mapped file.
+ * Each array of a link section is mapped separately, so these sections may be larger than 2GB; other sections may not.
+ * <p>
+ * Redirects and generality are small, and are decoded into trove maps on the java heap of each process that loads the snapshot, 
+ * as is the index of page titles (see TitleIndex).
+ * <p>
+ * A snapshot is only valid for the database it was built from. Snapshots of a database with a different number of articles are refused.
+ * <p>
+ * Snapshots should be created and loaded via WikipediaDatabase.saveCacheSnapshot() and
+ * WikipediaDatabase.loadCacheSnapshot().
+ *
+ * @author David Milne
+ */
+public class CacheSnapshot {
+
+	/**
+	 * identifies a file as a cache snapshot ("WMCS")
+	 */
+	public static final int MAGIC = 0x574D4353 ;
+
+	/**
+	 * the version of the snapshot format written by this class. Snapshots of any other version are rejected.
+	 */
+	public static final int VERSION = 6 ;
+
+	protected static final int SECTION_PAGES = 1 ;
+	protected static final int SECTION_ANCHORS = 2 ;
+	protected static final int SECTION_IN_LINKS = 3 ;
+	protected static final int SECTION_OUT_LINKS = 4 ;
+	protected static final int SECTION_GENERALITY = 5 ;
+	protected static final int SECTION_PARENT_IDS = 6 ;
+	protected static final int SECTION_COMPRESSED_IN_LINKS = 7 ;
+	protected static final int SECTION_REDIRECTS = 8 ;
+	protected static final int SECTION_CHILD_CATEGORY_IDS = 9 ;
+	protected static final int SECTION_CHILD_ARTICLE_IDS = 10 ;
+
+	private static final int HEADER_LENGTH = 12 ;
+	private static final int SECTION_HEADER_LENGTH = 12 ;
+
+	private CacheSnapshot() {
+	}
+
+	/**
+	 * Writes everything that is currently cached by the given database to a snapshot file. The snapshot is
+	 * written to a temporary file first, and only moved into place once it is complete.
+	 *
+	 * @param database the database whose caches are to be saved
+	 * @param file the file to write the snapshot to
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	protected static void write(WikipediaDatabase database, File file, ProgressNotifier pn) throws IOException {
+
+		File tmpFile = new File(file.getPath() + ".tmp") ;
+
+		FileOutputStream fos = new FileOutputStream(tmpFile) ;
+		FileChannel channel = fos.getChannel() ;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 20)) ;
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(6, "saving cache snapshot") ;
+
+		try {
+			out.writeInt(MAGIC) ;
+			out.writeInt(VERSION) ;
+			out.writeInt(database.getArticleCount()) ;
+
+			if (database.cachedPages != null) {
+				long start = startSection(out, channel, SECTION_PAGES) ;
+				database.cachedPages.write(out) ;
+				endSection(out, channel, start) ;
+			}
+
+			if (database.cachedRedirectTargets != null) {
+				long start = startSection(out, channel, SECTION_REDIRECTS) ;
+				writeIntMap(database.cachedRedirectTargets, out) ;
+				endSection(out, channel, start) ;
+			}
+			pn.update() ;
+
+			if (database.cachedAnchors != null) {
+				long start = startSection(out, channel, SECTION_ANCHORS) ;
+				writeAnchors(database.cachedAnchors, database.getCachedProcessor(), out) ;
+				endSection(out, channel, start) ;
+			}
+			pn.update() ;
+
+			if (database.cachedInLinks != null) {
+				long start = startSection(out, channel, SECTION_IN_LINKS) ;
+				database.cachedInLinks.write(out) ;
+				endSection(out, channel, start) ;
+			}
+			
+			if (database.cachedCompressedInLinks != null) {
+				long start = startSection(out, channel, SECTION_COMPRESSED_IN_LINKS) ;
+				database.cachedCompressedInLinks.write(out) ;
+				endSection(out, channel, start) ;
+			}
+			pn.update() ;
+
+			if (database.cachedOutLinks != null) {
+				long start = startSection(out, channel, SECTION_OUT_LINKS) ;
+				database.cachedOutLinks.write(out) ;
+				endSection(out, channel, start) ;
+			}
+			pn.update() ;
+
+			if (database.cachedGenerality != null) {
+				long start = startSection(out, channel, SECTION_GENERALITY) ;
+				writeGenerality(database.cachedGenerality, database.getMaxPageDepth(), out) ;
+				endSection(out, channel, start) ;
+			}
+			pn.update() ;
+
+			if (database.cachedParentIds != null) {
+				long start = startSection(out, channel, SECTION_PARENT_IDS) ;
+				database.cachedParentIds.write(out) ;
+				endSection(out, channel, start) ;
+			}
+			
+			if (database.cachedChildCategoryIds != null) {
+				long start = startSection(out, channel, SECTION_CHILD_CATEGORY_IDS) ;
+				database.cachedChildCategoryIds.write(out) ;
+				endSection(out, channel, start) ;
+			}
+			
+			if (database.cachedChildArticleIds != null) {
+				long start = startSection(out, channel, SECTION_CHILD_ARTICLE_IDS) ;
+				database.cachedChildArticleIds.write(out) ;
+				endSection(out, channel, start) ;
+			}
+			pn.update() ;
+
+			out.flush() ;
+		} catch (java.sql.SQLException e) {
+			throw new IOException("Could not obtain maximum page depth: " + e.getMessage()) ;
+		} finally {
+			out.close() ;
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException(file.getPath() + " could not be replaced") ;
+
+		if (!tmpFile.renameTo(file))
+			throw new IOException(tmpFile.getPath() + " could not be renamed to " + file.getPath()) ;
+	}
+
+	/**
+	 * Loads a snapshot into the caches of the given database. Each section of the snapshot is memory mapped
+	 * and decoded directly from the mapped buffer.
+	 * <p>
+	 * Anchors are only loaded if they were cached using a text processor with the same name as the one given.
+	 *
+	 * @param database the database whose caches are to be populated
+	 * @param file the snapshot file
+	 * @param tp the text processor that anchors are expected to have been cached with (may be null)
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the file cannot be read, is not a valid snapshot, or was built from a different database.
+	 */
+	protected static void load(WikipediaDatabase database, File file, TextProcessor tp, ProgressNotifier pn) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		FileChannel channel = raf.getChannel() ;
+
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(channel.size(), "loading cache snapshot") ;
+
+		try {
+			if (channel.size() < HEADER_LENGTH)
+				throw new IOException(file.getPath() + " is not a cache snapshot") ;
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH) ;
+
+			if (header.getInt() != MAGIC)
+				throw new IOException(file.getPath() + " is not a cache snapshot") ;
+
+			int version = header.getInt() ;
+			if (version != VERSION)
+				throw new IOException(file.getPath() + " is a version " + version + " snapshot, but version " + VERSION + " is required") ;
+
+			//ids in a stale snapshot would not match the database, so nothing is loaded from it
+			int articleCount = header.getInt() ;
+			if (articleCount != database.getArticleCount())
+				throw new IOException(file.getPath() + " was built from a database with " + articleCount + " articles, but this one has " + database.getArticleCount() + ". It must be rebuilt.") ;
+
+			long pos = HEADER_LENGTH ;
+
+			PageCache pages = null ;
+			TIntIntHashMap redirectTargets = null ;
+
+			while (pos < channel.size()) {
+
+				ByteBuffer sectionHeader = channel.map(FileChannel.MapMode.READ_ONLY, pos, SECTION_HEADER_LENGTH) ;
+				int tag = sectionHeader.getInt() ;
+				long length = sectionHeader.getLong() ;
+
+				pos = pos + SECTION_HEADER_LENGTH ;
+
+				switch (tag) {
+				case SECTION_PAGES:
+					pages = PageCache.map(mapSection(channel, pos, length, tag, file)) ;
+					break ;
+				case SECTION_REDIRECTS:
+					redirectTargets = readIntMap(mapSection(channel, pos, length, tag, file)) ;
+					break ;
+				case SECTION_ANCHORS:
+					readAnchors(database, mapSection(channel, pos, length, tag, file), tp) ;
+					break ;
+				case SECTION_IN_LINKS:
+					database.cachedInLinks = LinkStore.map(channel, pos) ;
+					break ;
+				case SECTION_COMPRESSED_IN_LINKS:
+					database.cachedCompressedInLinks = CompressedPostings.map(channel, pos) ;
+					break ;
+				case SECTION_OUT_LINKS:
+					database.setCachedOutLinks(LinkStore.map(channel, pos)) ;
+					break ;
+				case SECTION_GENERALITY:
+					readGenerality(database, mapSection(channel, pos, length, tag, file)) ;
+					break ;
+				case SECTION_PARENT_IDS:
+					database.cachedParentIds = LinkStore.map(channel, pos) ;
+					break ;
+				case SECTION_CHILD_CATEGORY_IDS:
+					database.cachedChildCategoryIds = LinkStore.map(channel, pos) ;
+					break ;
+				case SECTION_CHILD_ARTICLE_IDS:
+					database.cachedChildArticleIds = LinkStore.map(channel, pos) ;
+					break ;
+				default:
+					System.err.println("WARNING: skipping unknown section " + tag + " of cache snapshot") ;
+				}
+
+				pos = pos + length ;
+				pn.update(pos) ;
+			}
+
+			//pages are indexed by title once, after both they and their redirects are known
+			if (pages != null)
+				database.setCachedPages(pages, redirectTargets) ;
+		} finally {
+			channel.close() ;
+			raf.close() ;
+		}
+	}
+
+	private static ByteBuffer mapSection(FileChannel channel, long pos, long length, int tag, File file) throws IOException {
+
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("section " + tag + " of " + file.getPath() + " is too large to be mapped") ;
+
+		return channel.map(FileChannel.MapMode.READ_ONLY, pos, length) ;
+	}
+
+	private static long startSection(DataOutputStream out, FileChannel channel, int tag) throws IOException {
+		out.writeInt(tag) ;
+		out.writeLong(0) ; // placeholder for section length, patched by endSection()
+		out.flush() ;
+
+		return channel.position() ;
+	}
+
+	private static void endSection(DataOutputStream out, FileChannel channel, long start) throws IOException {
+		out.flush() ;
+		long end = channel.position() ;
+
+		ByteBuffer length = ByteBuffer.allocate(8) ;
+		length.putLong(end - start) ;
+		length.flip() ;
+
+		channel.write(length, start - 8) ;
+		channel.position(end) ;
+	}
+
+	private static void writeString(String s, DataOutputStream out) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8") ;
+		out.writeInt(bytes.length) ;
+		out.write(bytes) ;
+	}
+
+	private static String readString(ByteBuffer data) throws IOException {
+		byte[] bytes = new byte[data.getInt()] ;
+		data.get(bytes) ;
+		return new String(bytes, "UTF-8") ;
+	}
+
+	private static void writeAnchors(AnchorDictionary anchors, TextProcessor tp, DataOutputStream out) throws IOException {
+
+		if (tp == null)
+			writeString("", out) ;
+		else
+			writeString(tp.getName(), out) ;
+
+		anchors.write(out) ;
+	}
+
+	private static void readAnchors(WikipediaDatabase database, ByteBuffer data, TextProcessor tp) throws IOException {
+
+		String tpName = readString(data) ;
+
+		String expectedName = "" ;
+		if (tp != null) expectedName = tp.getName() ;
+
+		if (!tpName.equals(expectedName)) {
+			System.err.println("WARNING: anchors in cache snapshot were prepared for text processor \"" + tpName + "\" rather than \"" + expectedName + "\", so they will not be loaded.") ;
+			return ;
+		}
+
+		database.setCachedAnchors(AnchorDictionary.map(data), tp) ;
+	}
+
+	private static void writeGenerality(TIntIntHashMap generality, int maxDepth, DataOutputStream out) throws IOException {
+		out.writeInt(maxDepth) ;
+		writeIntMap(generality, out) ;
+	}
+
+	private static void readGenerality(WikipediaDatabase database, ByteBuffer data) {
+		int maxDepth = data.getInt() ;
+		database.setCachedGenerality(readIntMap(data), maxDepth) ;
+	}
+
+	private static void writeIntMap(TIntIntHashMap map, DataOutputStream out) throws IOException {
+		out.writeInt(map.size()) ;
+
+		TIntIntIterator iter = map.iterator() ;
+		while (iter.hasNext()) {
+			iter.advance() ;
+
+			out.writeInt(iter.key()) ;
+			out.writeInt(iter.value()) ;
+		}
+	}
+
+	private static TIntIntHashMap readIntMap(ByteBuffer data) {
+		int count = data.getInt() ;
+
+		TIntIntHashMap map = new TIntIntHashMap(count, 1) ;
+
+		IntBuffer ints = data.asIntBuffer() ;
+		for (int i=0 ; i<count ; i++)
+			map.put(ints.get(), ints.get()) ;
+
+		return map ;
+	}
+
+	/**
+	 * Compiles the csv files in a data directory into a cache snapshot, so that servlets (or anything else) can
+	 * load it without having to gather caches themselves. If generality.csv is missing, generality is computed from the category
+	 * graph and also saved to the generality table.
+	 * 
+	 * @param args the data directory, the snapshot file to write, the title of the root category from which generality 
+	 * is computed (e.g. "Fundamental" for the english Wikipedia, or "Main page" for the simple english one), and then 
+	 * the arguments for connecting to a wikipedia database: server and database names at a minimum, and optionally a username and password
+	 * @throws Exception if there is a problem with the wikipedia database, or with reading and writing files.
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		if (args.length < 5) 
+			throw new Exception("You must specify a data directory, a snapshot file, a root category, a server and a database. Username and password are optional") ;
+		
+		File dataDirectory = new File(args[0]) ;
+		File snapshotFile = new File(args[1]) ;
+		String rootCategory = args[2] ;
+		
+		String[] dbArgs = new String[args.length-3] ;
+		System.arraycopy(args, 3, dbArgs, 0, dbArgs.length) ;
+		
+		WikipediaDatabase database = Wikipedia.getInstanceFromArguments(dbArgs).getDatabase() ;
+		TextProcessor tp = new org.wikipedia.miner.util.text.CaseFolder() ;
+		
+		//generality is computed from the category graph if it was not summarized during extraction, and then saved to the generality table
+		boolean computeGenerality = !new File(dataDirectory.getPath() + File.separatorChar + "generality.csv").canRead() ;
+		
+		ProgressNotifier pn = new ProgressNotifier(computeGenerality ? 7 : 6) ;
+		
+		TIntHashSet ids = database.getValidPageIds(dataDirectory, 3, pn) ;
+		database.cacheParentIds(dataDirectory, pn) ;
+		
+		if (computeGenerality) {
+			database.computeGenerality(rootCategory, ids, pn) ;
+			database.saveGenerality(pn) ;
+		} else {
+			database.cacheGenerality(dataDirectory, ids, pn) ;
+		}
+		
+		database.cachePages(dataDirectory, ids, pn) ;
+		database.cacheAnchors(dataDirectory, tp, ids, 3, pn) ;
+		database.cacheInLinks(dataDirectory, ids, pn) ;
+		
+		database.saveCacheSnapshot(snapshotFile, null) ;
+	}
+}
@@ -24,6 +24,7 @@ import java.io.InputStreamReader;
 import java.sql.*;
 import java.util.* ;
 import org.wikipedia.miner.util.*; 
+import gnu.trove.* ;
 
 /**
  * This class represents categories in Wikipedia; the pages that exist to organize articles that discuss related topics. 
@@ -85,17 +86,21 @@ public class Category extends Page {
 	public Article getEquivalentArticle() throws SQLException {
 		Article equivalentArticle = null ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_art AND eq_cat=" + id) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("equivalentArticle") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		if (rs.first()) {
-			try {
-				equivalentArticle = new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-			} catch (Exception e) {} ;
-		}
+			if (rs.first()) {
+				try {
+					equivalentArticle = new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
+				} catch (Exception e) {} ;
+			}
 
-		rs.close() ;
-		stmt.close() ;	
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 
 		return equivalentArticle ;
 	}
@@ -108,21 +113,8 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */
 	public SortedVector<Category> getParentCategories() throws SQLException {
-		SortedVector<Category> parentCategories = new SortedVector<Category>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_parent=page_id AND cl_child=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) {
-			try {
-				Category wc = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				parentCategories.add(wc, true) ;
-			} catch (Exception e) {} ;
-		}
-
-		rs.close() ;
-		stmt.close() ;
-		return parentCategories ;
+		
+		return toCategories(getParentCategoryIds()) ;
 	}
 	
 	/**
@@ -130,31 +122,7 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int[] getParentCategoryIds() throws SQLException {
-		
-		if (database.areParentIdsCached())
-			return database.cachedParentIds.get(id) ;
-		
-		
-		Vector<Integer> parentCategories = new Vector<Integer>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id FROM categorylink, page WHERE cl_parent=page_id AND cl_child=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) 
-			parentCategories.add(rs.getInt(1)) ; 
-
-		rs.close() ;
-		stmt.close() ;
-		
-		int[] ids = new int[parentCategories.size()] ;
-		
-		int c=0 ;
-		for (Integer catId:parentCategories) {
-			ids[c] = catId ;
-			c++ ;
-		}
-		
-		return ids ;
+		return getParentCategoryIds(id) ;
 	}
 
 	/**
@@ -165,50 +133,17 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */
 	public SortedVector<Category> getChildCategories() throws SQLException{
-		SortedVector<Category> childCategories = new SortedVector<Category>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + CATEGORY + " AND cl_parent=" + id) ;
-
-		while(rs.next()) {
-			try {
-				Category wc = new Category(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-				childCategories.add(wc, true) ;
-			} catch (Exception e) {} ;
-		}
-
-		rs.close() ;
-		stmt.close() ;
-
-		return childCategories ;	
+		
+		return toCategories(getChildCategoryIds()) ;
 	}
 	
 	
 	/**
-	 * @return a sorted array of category ids that this category belongs to. 
+	 * @return a sorted array of the ids of categories that belong to this category. 
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int[] getChildCategoryIds() throws SQLException {
-		Vector<Integer> childCategories = new Vector<Integer>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT DISTINCT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + CATEGORY + " AND cl_parent=" + id + " ORDER BY cl_child") ;
-
-		while(rs.next()) 
-			childCategories.add(rs.getInt(1)) ; 
-
-		rs.close() ;
-		stmt.close() ;
-		
-		int[] ids = new int[childCategories.size()] ;
-		
-		int c=0 ;
-		for (Integer catId:childCategories) {
-			ids[c] = catId ;
-			c++ ;
-		}
-		
-		return ids ;
+		return getChildCategoryIds(id) ;
 	}
 
 	/**
@@ -219,16 +154,26 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database
 	 */
 	public boolean contains(Article article) throws SQLException {
+		
+		LinkStore parentIds = database.cachedParentIds ;
+		if (parentIds != null)
+			return parentIds.contains(article.getId(), id) ;
+		
 		boolean isChild = false ;
 
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT * FROM categorylink WHERE cl_parent=" + id + " AND cl_child=" + article.getId()) ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("categoryLink") ;
+		try {
+			stmt.setInt(1, id) ;
+			stmt.setInt(2, article.getId()) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		if (rs.first()) 
-			isChild = true ;
+			if (rs.first()) 
+				isChild = true ;
 
-		rs.close() ;
-		stmt.close() ;
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 		return isChild ;
 	}
 
@@ -239,29 +184,8 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the wikipedia database
 	 */
 	public SortedVector<Article> getChildArticles() throws SQLException {
-
-		SortedVector<Article> childArticles = new SortedVector<Article>() ;
-		Vector<Redirect> redirects = new Vector<Redirect>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + ARTICLE + " AND cl_parent=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) {
-			try {
-				childArticles.add(new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")), true) ;
-			} catch (Exception e) {} ;
-		}
-
-		rs.close() ;
-		stmt.close() ;
-
-		for(Redirect r: redirects) {
-			Page target = r.getTarget() ;
-			if (target != null && target.getType() == ARTICLE)
-				childArticles.add((Article)target, false) ;
-		}
-
-		return childArticles ;		
+		
+		return toArticles(getChildArticleIds()) ;
 	}
 	
 	/**
@@ -269,28 +193,177 @@ public class Category extends Page {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int[] getChildArticleIds() throws SQLException {
-		Vector<Integer> childArticles = new Vector<Integer>() ;
-
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + ARTICLE + " AND cl_parent=" + id + " ORDER BY page_id") ;
-
-		while(rs.next()) 
-			childArticles.add(rs.getInt(1)) ; 
-
-		rs.close() ;
-		stmt.close() ;	
+		return getChildArticleIds(id) ;
+	}
+	
+	/**
+	 * Gathers the categories that lie beneath this one, up to the given depth. 
+	 * <p>
+	 * If the category graph is cached (see WikipediaDatabase.cacheCategoryGraph()) then the whole traversal happens 
+	 * in memory. Otherwise it costs a query for every category visited, so large depths should be avoided.
+	 * 
+	 * @param maxDepth the number of levels to descend; 1 gathers only the child categories of this category, 
+	 * and a negative value places no limit on depth.
+	 * @return a sorted array of the ids of descendant categories (not including this one)
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public int[] getDescendantCategoryIds(int maxDepth) throws SQLException {
+		int[] ids = gatherCategoryIds(maxDepth, false).toNativeArray() ;
+		Arrays.sort(ids) ;
+		return ids ;
+	}
+	
+	/**
+	 * Gathers the articles that belong to this category, or to any category beneath it (up to the given depth).
+	 * <p>
+	 * If the category graph is cached (see WikipediaDatabase.cacheCategoryGraph()) then the whole traversal happens 
+	 * in memory. Otherwise it costs a couple of queries for every category visited, so large depths should be avoided.
+	 * 
+	 * @param maxDepth the number of levels of child categories to descend through; 0 gathers only the articles that 
+	 * belong directly to this category, and a negative value places no limit on depth.
+	 * @return a sorted array of the ids of descendant articles
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public int[] getDescendantArticleIds(int maxDepth) throws SQLException {
 		
-		int[] ids = new int[childArticles.size()] ;
+		TIntHashSet articleIds = new TIntHashSet() ;
+		articleIds.addAll(getChildArticleIds(id)) ;
 		
-		int c=0 ;
-		for (Integer catId:childArticles) {
-			ids[c] = catId ;
-			c++ ;
-		}
+		TIntArrayList categoryIds = gatherCategoryIds(maxDepth, false) ;
+		for (int i=0 ; i<categoryIds.size() ; i++)
+			articleIds.addAll(getChildArticleIds(categoryIds.get(i))) ;
 		
+		int[] ids = articleIds.toArray() ;
+		Arrays.sort(ids) ;
 		return ids ;
 	}
 	
+	/**
+	 * Returns the articles that belong to this category, or to any category beneath it (up to the given depth). 
+	 * See getDescendantArticleIds().
+	 * 
+	 * @param maxDepth the number of levels of child categories to descend through; 0 gathers only the articles that 
+	 * belong directly to this category, and a negative value places no limit on depth.
+	 * @return a SortedVector of descendant Articles
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public SortedVector<Article> getDescendantArticles(int maxDepth) throws SQLException {
+		return toArticles(getDescendantArticleIds(maxDepth)) ;
+	}
+	
+	/**
+	 * Gathers every category that lies above this one, all the way up to the root of the category graph. 
+	 * <p>
+	 * If parent ids are cached (see WikipediaDatabase.cacheCategoryGraph()) then the whole traversal happens 
+	 * in memory. Otherwise it costs a query for every category visited.
+	 * 
+	 * @return a sorted array of the ids of ancestor categories (not including this one)
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public int[] getAncestorCategoryIds() throws SQLException {
+		int[] ids = gatherCategoryIds(-1, true).toNativeArray() ;
+		Arrays.sort(ids) ;
+		return ids ;
+	}
+	
+	/**
+	 * Returns every category that lies above this one, all the way up to the root of the category graph. 
+	 * See getAncestorCategoryIds().
+	 * 
+	 * @return a SortedVector of ancestor Categories
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public SortedVector<Category> getAncestorCategories() throws SQLException {
+		return toCategories(getAncestorCategoryIds()) ;
+	}
+	
+	/**
+	 * Visits categories above or below this one in breadth first order, visiting each category only once 
+	 * (the category graph contains cycles).  
+	 */
+	private TIntArrayList gatherCategoryIds(int maxDepth, boolean upwards) throws SQLException {
+		
+		TIntArrayList categoryIds = new TIntArrayList() ;
+		
+		TIntHashSet visited = new TIntHashSet() ;
+		visited.add(id) ;
+		
+		TIntArrayList frontier = new TIntArrayList() ;
+		frontier.add(id) ;
+		
+		int depth = 0 ;
+		while (!frontier.isEmpty() && (maxDepth < 0 || depth < maxDepth)) {
+			
+			TIntArrayList nextFrontier = new TIntArrayList() ;
+			
+			for (int i=0 ; i<frontier.size() ; i++) {
+				int[] neighbourIds ;
+				if (upwards)
+					neighbourIds = getParentCategoryIds(frontier.get(i)) ;
+				else
+					neighbourIds = getChildCategoryIds(frontier.get(i)) ;
+				
+				for (int neighbourId:neighbourIds) {
+					if (visited.add(neighbourId))
+						nextFrontier.add(neighbourId) ;
+				}
+			}
+			
+			categoryIds.add(nextFrontier.toNativeArray()) ;
+			frontier = nextFrontier ;
+			depth++ ;
+		}
+		
+		return categoryIds ;
+	}
+	
+	private int[] getParentCategoryIds(int categoryId) throws SQLException {
+		
+		LinkStore parentIds = database.cachedParentIds ;
+		if (parentIds != null)
+			return parentIds.getTargetArray(categoryId) ;
+		
+		return database.getStore().getParentCategories(categoryId) ;
+	}
+	
+	private int[] getChildCategoryIds(int categoryId) throws SQLException {
+		
+		LinkStore childIds = database.cachedChildCategoryIds ;
+		if (childIds != null)
+			return childIds.getTargetArray(categoryId) ;
+		
+		return database.getStore().getChildCategories(categoryId) ;
+	}
+	
+	private int[] getChildArticleIds(int categoryId) throws SQLException {
+		
+		LinkStore childIds = database.cachedChildArticleIds ;
+		if (childIds != null)
+			return childIds.getTargetArray(categoryId) ;
+		
+		return database.getStore().getChildArticles(categoryId) ;
+	}
+	
+	private SortedVector<Category> toCategories(int[] ids) throws SQLException {
+		
+		SortedVector<Category> categories = new SortedVector<Category>() ;
+		for (Page p:database.getPagesById(ids)) {
+			if (p != null && p.getType() == CATEGORY)
+				categories.add((Category)p, true) ;
+		}
+		return categories ;
+	}
+	
+	private SortedVector<Article> toArticles(int[] ids) throws SQLException {
+		
+		SortedVector<Article> articles = new SortedVector<Article>() ;
+		for (Page p:database.getPagesById(ids)) {
+			if (p != null && p.getType() == ARTICLE)
+				articles.add((Article)p, true) ;
+		}
+		return articles ;
+	}
+	
 	/**
 	 * Provides a demo of functionality available to Categories
 	 * 
@@ -344,6 +417,9 @@ public class Category extends Page {
 				System.out.println("\n - child articles (narrower topics): ") ;
 				for (Article a: category.getChildArticles()) 
 					System.out.println("    - " + a) ; 
+				
+				System.out.println("\n - articles within two levels of child categories: " + category.getDescendantArticleIds(2).length) ;
+				System.out.println(" - ancestor categories: " + category.getAncestorCategoryIds().length) ;
 			}
 			System.out.println("") ;
 		}
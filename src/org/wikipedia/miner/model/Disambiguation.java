@@ -88,17 +88,21 @@ public class Disambiguation extends Article{
 	public SensePage getMostObviousSense() throws SQLException{
 		SensePage sense = null ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=" + id + " AND da_index=1") ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("disambiguationFirstSense") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		if (rs.first()) {
-			try {
-				sense = new SensePage(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8"), rs.getInt(3), rs.getInt(4), new String(rs.getBytes(5), "UTF-8")) ;
-			} catch (Exception e) {} ;
-		}
+			if (rs.first()) {
+				try {
+					sense = new SensePage(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8"), rs.getInt(3), rs.getInt(4), new String(rs.getBytes(5), "UTF-8")) ;
+				} catch (Exception e) {} ;
+			}
 		
-		rs.close() ;
-		stmt.close() ;
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 		
 		return sense ;
 	}
@@ -111,18 +115,22 @@ public class Disambiguation extends Article{
 		
 		SortedVector<SensePage> senses = new SortedVector<SensePage>() ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=" + id + " ORDER BY page_id") ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("disambiguationSensesById") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		while (rs.next()) {
-			try {
-				SensePage sense = new SensePage(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8"), rs.getInt(3), rs.getInt(4), new String(rs.getBytes(5), "UTF-8")) ;
-				senses.add(sense, true) ;
-			} catch (Exception e) {} ;
-		}
+			while (rs.next()) {
+				try {
+					SensePage sense = new SensePage(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8"), rs.getInt(3), rs.getInt(4), new String(rs.getBytes(5), "UTF-8")) ;
+					senses.add(sense, true) ;
+				} catch (Exception e) {} ;
+			}
 		
-		rs.close() ;
-		stmt.close() ;
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 		
 		return senses ;
 	}
@@ -138,18 +146,22 @@ public class Disambiguation extends Article{
 		
 		Vector<SensePage> senses = new Vector<SensePage>() ;
 		
-		Statement stmt = getWikipediaDatabase().createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=" + id + " ORDER BY da_index") ;
+		PreparedStatement stmt = getWikipediaDatabase().prepareStatement("disambiguationSensesByIndex") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
 
-		while (rs.next()) {
-			try {
-				SensePage sense = new SensePage(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8"), rs.getInt(3), rs.getInt(4), new String(rs.getBytes(5), "UTF-8")) ;
-				senses.add(sense) ;
-			} catch (Exception e) {} ;
-		}
+			while (rs.next()) {
+				try {
+					SensePage sense = new SensePage(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8"), rs.getInt(3), rs.getInt(4), new String(rs.getBytes(5), "UTF-8")) ;
+					senses.add(sense) ;
+				} catch (Exception e) {} ;
+			}
 		
-		rs.close() ;
-		stmt.close() ;
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
 		
 		return senses ;
 	}
@@ -23,7 +23,7 @@ import java.io.*;
 import java.sql.*;
 import java.util.Vector;
 
-import org.wikipedia.miner.model.WikipediaDatabase.CachedPage;
+import org.wikipedia.miner.model.storage.* ;
 import org.wikipedia.miner.util.*;
 
 
@@ -43,6 +43,10 @@ public abstract class Page implements Comparable<Page>{
 	protected int id ;
 	protected int type ;
 	protected String title ;
+	
+	//pages that come from the page cache decode their titles only when they are needed
+	private PageCache titleSource ;
+	private int titleIndex ;
 
 	protected String titleWithoutScope ;
 	protected String scope ;
@@ -99,30 +103,26 @@ public abstract class Page implements Comparable<Page>{
 
 		boolean detailsSet = false ;
 
-		if (database.arePagesCached()) {
-			CachedPage p = database.cachedPages.get(id) ;
+		PageCache pages = database.cachedPages ;
+		
+		if (pages != null) {
+			int index = pages.indexOf(id) ;
 
-			if (p != null) {
-				this.title = p.title ;
-				this.type = p.type ;
+			if (index >= 0) {
+				this.type = pages.getType(index) ;
+				this.titleSource = pages ;
+				this.titleIndex = index ;
 				detailsSet = true ;
 			}
 		} else {
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT page_title, page_type FROM page WHERE page_id=" + id) ;
+			PageRecord record = database.getStore().getPage(id) ;
 
-			if (rs.first()) {
-				try {
-					title = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;	
-
-				type = rs.getInt(2) ;
+			if (record != null) {
+				title = record.getTitle() ;
+				type = record.getType() ;
 
 				detailsSet = true ;
 			}
-
-			rs.close() ;
-			stmt.close();
 		}
 
 		if (!detailsSet)
@@ -144,17 +144,15 @@ public abstract class Page implements Comparable<Page>{
 
 		boolean detailsSet = false ;
 
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id FROM page WHERE page_title=\"" + title + "\" AND page_type=" + type) ;
-
-		if (rs.first()) {
-			id = rs.getInt(1) ;
-			detailsSet = true ;
+		//redirects are only guaranteed to be cached if their targets have been resolved
+		if (database.arePagesCached() && (type != REDIRECT || database.areRedirectsCached())) {
+			id = database.getCachedPageId(title, type) ;
+			detailsSet = (id >= 0) ;
+		} else {
+			id = database.getStore().getPageId(title, type) ;
+			detailsSet = (id >= 0) ;
 		}
 
-		rs.close() ;
-		stmt.close();
-
 		if (!detailsSet)
 			throw new SQLException("No page defined for title:" + title + " and type:" + type) ;
 	}
@@ -206,7 +204,7 @@ public abstract class Page implements Comparable<Page>{
 	 * @return a string representation of the page
 	 */
 	public String toString() {
-		String s = id + ": " + title ;
+		String s = id + ": " + getTitle() ;
 		return s ;
 	}
 
@@ -234,6 +232,9 @@ public abstract class Page implements Comparable<Page>{
 	 * @return the title
 	 */
 	public String getTitle() {
+		if (title == null && titleSource != null) 
+			title = titleSource.getTitle(titleIndex) ;
+		
 		return title;
 	}
 
@@ -260,17 +261,21 @@ public abstract class Page implements Comparable<Page>{
 			if (database.cachedGenerality.containsKey(id))
 				depth = database.cachedGenerality.get(id) ;
 		} else {
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT gn_depth FROM generality WHERE gn_id=" + id) ;
-
-			if (rs.first()) {
-				try {
-					depth = rs.getInt(1) ; 
-				} catch (Exception e) {} ;
+			PreparedStatement stmt = database.prepareStatement("generality") ;
+			try {
+				stmt.setInt(1, id) ;
+				ResultSet rs = stmt.executeQuery() ;
+
+				if (rs.first()) {
+					try {
+						depth = rs.getInt(1) ; 
+					} catch (Exception e) {} ;
+				}
+
+				rs.close() ;
+			} finally {
+				stmt.close() ;
 			}
-
-			rs.close() ;
-			stmt.close() ;
 		}
 
 		if (depth < 0) {
@@ -292,19 +297,7 @@ public abstract class Page implements Comparable<Page>{
 		if (!database.isContentImported()) {
 			throw new SQLException("Page content has not been imported") ;
 		} else {
-			String content = null ;
-
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT co_content FROM content WHERE co_id=" + id) ;
-
-			if (rs.first()) {
-				try {
-					content = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;
-			}
-
-			rs.close() ;
-			stmt.close() ;
+			String content = database.getStore().getContent(id) ;
 
 			if (content != null) {
 				//content.replaceAll("\\{","{") ;
@@ -331,26 +324,27 @@ public abstract class Page implements Comparable<Page>{
 			throw new SQLException("Page content has not been imported") ;
 
 		if (database.areDefinitionsSummarized()) {
-			String fs = "" ;
-			
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT df_firstSentence FROM definition WHERE df_id=" + id) ;
-
-			if (rs.first()) {
-				try {
-					fs = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;	
-			}
-
-			rs.close() ;
-			stmt.close() ;
+			String fs = database.getStore().getFirstSentence(id) ;
 
-			return fs ;	
+			return (fs == null) ? "" : fs ;	
 		}
 
 		if (paragraph==null)
 			paragraph = getFirstParagraph() ;
 
+		return extractFirstSentence(paragraph, ss) ;
+	}
+	
+	/**
+	 * Extracts the first sentence from a paragraph that has already been cleaned of markup (see extractFirstParagraph()).
+	 * 
+	 * @param paragraph the first paragraph of a page 
+	 * @param ss an optional sentence splitter (one will be created if this is null)
+	 * @return the first sentence of the paragraph
+	 * @throws Exception if the sentence splitter cannot be created
+	 */
+	public static String extractFirstSentence(String paragraph, SentenceSplitter ss) throws Exception {
+		
 		if (paragraph.equals(""))
 			return "" ;
 
@@ -369,7 +363,6 @@ public abstract class Page implements Comparable<Page>{
 		}
 
 		return sb.toString() ;
-
 	}
 
 	/**
@@ -387,54 +380,53 @@ public abstract class Page implements Comparable<Page>{
 
 		String fp = null ;
 		
-		if (database.areDefinitionsSummarized()) {
-			
-			Statement stmt = database.createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT df_firstParagraph FROM definition WHERE df_id=" + id) ;
-
-			if (rs.first()) {
-				try {
-					fp = new String(rs.getBytes(1), "UTF-8") ;
-				} catch (Exception e) {} ;	
-			}
+		if (database.areDefinitionsSummarized()) 
+			fp = database.getStore().getFirstParagraph(id) ;
 
-			rs.close() ;
-			stmt.close() ;
+		if (fp == null) 
+			fp = extractFirstParagraph(getContent()) ;
+		
+		return fp ;
+	}
+
+	/**
+	 * Extracts the first paragraph from the given media wiki markup, cleaned of all markup except links and 
+	 * basic formating. 
+	 * 
+	 * @param content the content of a page, in media wiki markup
+	 * @return the first paragraph of the content.
+	 */
+	public static String extractFirstParagraph(String content) {
+
+		content = content.replaceAll("={2,}(.+)={2,}", "\n") ; //clear section headings completely - not just formating, but content as well.			
+		content = MarkupStripper.stripTemplates(content) ;
+		content = MarkupStripper.stripImages(content) ;
+		content = MarkupStripper.stripExternalLinks(content) ;
+		content = MarkupStripper.stripIsolatedLinks(content) ;
+		content = MarkupStripper.stripTables(content) ;
+		content = MarkupStripper.stripHTML(content) ;
+		content = MarkupStripper.stripMagicWords(content) ;
+		content = MarkupStripper.stripListItems(content) ;
+		content = MarkupStripper.stripOrphanedBrackets(content) ;
+		content = MarkupStripper.stripIndentedStart(content) ;
+		content = MarkupStripper.stripExcessNewlines(content) ;
+
+		String fp = "" ;
+		int pos = content.indexOf("\n\n") ;
+
+		while (pos>=0) {
+			fp = content.substring(0, pos) ;
+
+			if (pos > 150) 
+				break ;
+
+			pos = content.indexOf("\n\n", pos+2) ;
 		}
 
-		if (fp == null) {
+		fp = fp.replaceAll("\n", " ") ;
+		fp = fp.replaceAll("\\s+", " ") ;  //turn all whitespace into spaces, and collapse them.
+		fp = fp.trim();
 		
-			String content = getContent() ;
-
-			content = content.replaceAll("={2,}(.+)={2,}", "\n") ; //clear section headings completely - not just formating, but content as well.			
-			content = MarkupStripper.stripTemplates(content) ;
-			content = MarkupStripper.stripImages(content) ;
-			content = MarkupStripper.stripExternalLinks(content) ;
-			content = MarkupStripper.stripIsolatedLinks(content) ;
-			content = MarkupStripper.stripTables(content) ;
-			content = MarkupStripper.stripHTML(content) ;
-			content = MarkupStripper.stripMagicWords(content) ;
-			content = MarkupStripper.stripListItems(content) ;
-			content = MarkupStripper.stripOrphanedBrackets(content) ;
-			content = MarkupStripper.stripIndentedStart(content) ;
-			content = MarkupStripper.stripExcessNewlines(content) ;
-	
-			fp = "" ;
-			int pos = content.indexOf("\n\n") ;
-	
-			while (pos>=0) {
-				fp = content.substring(0, pos) ;
-	
-				if (pos > 150) 
-					break ;
-	
-				pos = content.indexOf("\n\n", pos+2) ;
-			}
-	
-			fp = fp.replaceAll("\n", " ") ;
-			fp = fp.replaceAll("\\s+", " ") ;  //turn all whitespace into spaces, and collapse them.
-			fp = fp.trim();
-		}
 		return fp ;
 	}
 
@@ -467,6 +459,8 @@ public abstract class Page implements Comparable<Page>{
 	}
 
 	private void setTitleParts() {
+		
+		String title = getTitle() ;
 
 		int pos1 = title.lastIndexOf('(') ;
 		int pos2 = title.lastIndexOf(')') ;
@@ -547,4 +541,24 @@ public abstract class Page implements Comparable<Page>{
 
 		return p ;
 	}
+	
+	/**
+	 * Creates a page from the page cache. Its title is not decoded until it is needed.
+	 * 
+	 * @param database an active WikipediaDatabase
+	 * @param pages the page cache
+	 * @param index the index of the page within the cache
+	 * @return a page of the appropriate subclass, or null if the page's type is not recognized.
+	 */
+	protected static Page createPage(WikipediaDatabase database, PageCache pages, int index) {
+		
+		Page p = createPage(database, pages.getId(index), null, pages.getType(index)) ;
+		
+		if (p != null) {
+			p.titleSource = pages ;
+			p.titleIndex = index ;
+		}
+		
+		return p ;
+	}
 }
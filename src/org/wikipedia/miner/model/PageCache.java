@@ -0,0 +1,421 @@
+/*
+ *    PageCache.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.io.* ;
+import java.nio.* ;
+import java.util.* ;
+
+import gnu.trove.* ;
+
+import org.wikipedia.miner.util.ParallelCsvReader ;
+
+/**
+ * Holds the ids, types and titles of a large number of pages, without creating any objects per page.
+ * <p>
+ * Pages are stored in order of ascending id, in four columns: the ids themselves, a type for each page,
+ * and the titles of all pages encoded as UTF-8 in one contiguous arena, with the offset of each title
+ * within the arena. Pages are found by binary search over ids, and titles are only decoded into Strings
+ * when they are asked for.
+ * <p>
+ * A cache that has been loaded from a snapshot (see map()) reads directly from the mapped file, so it costs
+ * nothing on the java heap at all.
+ *
+ * @author David Milne
+ */
+public class PageCache {
+
+	private static final int HEADER_LENGTH = 16 ;
+
+	private int size ;
+
+	private IntBuffer ids ;
+	private IntBuffer offsets ;
+	private ByteBuffer titles ;
+	private ByteBuffer types ;
+
+	private PageCache(int size, IntBuffer ids, IntBuffer offsets, ByteBuffer titles, ByteBuffer types) {
+		this.size = size ;
+		this.ids = ids ;
+		this.offsets = offsets ;
+		this.titles = titles ;
+		this.types = types ;
+	}
+
+	/**
+	 * @return the number of pages that are cached
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * @param id the id of a page
+	 * @return the index of the given page within this cache, or -1 if it is not cached.
+	 */
+	public int indexOf(int id) {
+
+		int low = 0 ;
+		int high = size - 1 ;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1 ;
+			int midId = ids.get(mid) ;
+
+			if (midId < id)
+				low = mid + 1 ;
+			else if (midId > id)
+				high = mid - 1 ;
+			else
+				return mid ;
+		}
+
+		return -1 ;
+	}
+
+	/**
+	 * @param index the index of a page within this cache
+	 * @return the id of the page
+	 */
+	public int getId(int index) {
+		return ids.get(index) ;
+	}
+
+	/**
+	 * @param index the index of a page within this cache
+	 * @return the type of the page
+	 */
+	public int getType(int index) {
+		return types.get(index) ;
+	}
+
+	/**
+	 * @param index the index of a page within this cache
+	 * @return the title of the page, decoded from UTF-8
+	 */
+	public String getTitle(int index) {
+
+		int start = offsets.get(index) ;
+		int end = offsets.get(index+1) ;
+
+		byte[] bytes = new byte[end-start] ;
+		ByteBuffer b = titles.duplicate() ;
+		b.position(start) ;
+		b.get(bytes) ;
+
+		return new String(bytes, ParallelCsvReader.UTF8) ;
+	}
+
+	/**
+	 * @param index the index of a page within this cache
+	 * @param title a title, encoded as UTF-8
+	 * @return true if the page has exactly the given title, otherwise false. Nothing is decoded.
+	 */
+	public boolean hasTitle(int index, byte[] title) {
+
+		int start = offsets.get(index) ;
+		int end = offsets.get(index+1) ;
+
+		if (end - start != title.length)
+			return false ;
+
+		for (int i=0 ; i<title.length ; i++) {
+			if (titles.get(start+i) != title[i])
+				return false ;
+		}
+
+		return true ;
+	}
+
+	/**
+	 * @param index the index of a page within this cache
+	 * @return a hash of the page's title (as UTF-8 bytes) and type, consistent with hash(byte[], int)
+	 */
+	public int hash(int index) {
+
+		int h = 0 ;
+		int end = offsets.get(index+1) ;
+		for (int i=offsets.get(index) ; i<end ; i++)
+			h = h*31 + titles.get(i) ;
+
+		return spread(h * 31 + getType(index)) ;
+	}
+
+	/**
+	 * @param title a title, encoded as UTF-8
+	 * @param type the type of a page
+	 * @return a hash of the given title and type
+	 */
+	public static int hash(byte[] title, int type) {
+
+		int h = 0 ;
+		for (byte b:title)
+			h = h*31 + b ;
+
+		return spread(h * 31 + type) ;
+	}
+
+	private static int spread(int h) {
+		//spread bits, so that similar titles do not cluster
+		h ^= (h >>> 16) ;
+		h *= 0x85ebca6b ;
+		h ^= (h >>> 13) ;
+		return h ;
+	}
+
+	/**
+	 * @param pageType the type of page of interest, or -1 for pages of all types
+	 * @return the ids of all cached pages of the given type, in ascending order
+	 */
+	public int[] getIds(int pageType) {
+
+		TIntArrayList matches = new TIntArrayList() ;
+		for (int i=0 ; i<size ; i++) {
+			if (pageType < 0 || types.get(i) == pageType)
+				matches.add(ids.get(i)) ;
+		}
+
+		return matches.toNativeArray() ;
+	}
+
+	/**
+	 * Creates a copy of this cache, without the given pages
+	 *
+	 * @param unwantedIds the ids of pages to leave out
+	 * @return a new cache
+	 */
+	public PageCache without(TIntHashSet unwantedIds) {
+
+		Builder builder = new Builder() ;
+
+		for (int i=0 ; i<size ; i++) {
+			int id = ids.get(i) ;
+			if (unwantedIds.contains(id))
+				continue ;
+
+			int start = offsets.get(i) ;
+			int end = offsets.get(i+1) ;
+
+			byte[] title = new byte[end-start] ;
+			ByteBuffer b = titles.duplicate() ;
+			b.position(start) ;
+			b.get(title) ;
+
+			builder.add(id, types.get(i), title, 0, title.length) ;
+		}
+
+		return builder.build() ;
+	}
+
+	/**
+	 * @return the approximate number of bytes used by this cache
+	 */
+	public long getMemoryFootprint() {
+		return 4L * size + 4L * (size + 1) + offsets.get(size) + size ;
+	}
+
+	/**
+	 * Writes this cache in the format expected by map().
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the cache cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+
+		int titleBytes = offsets.get(size) ;
+
+		out.writeInt(size) ;
+		out.writeInt(titleBytes) ;
+		out.writeInt(0) ; //reserved, keeps the arrays aligned
+		out.writeInt(0) ;
+
+		for (int i=0 ; i<size ; i++)
+			out.writeInt(ids.get(i)) ;
+
+		for (int i=0 ; i<=size ; i++)
+			out.writeInt(offsets.get(i)) ;
+
+		for (int i=0 ; i<titleBytes ; i++)
+			out.writeByte(titles.get(i)) ;
+
+		for (int i=0 ; i<size ; i++)
+			out.writeByte(types.get(i)) ;
+	}
+
+	/**
+	 * Creates a cache that reads directly from the given buffer (typically a section of a memory mapped file),
+	 * which must contain data written by write(). No data is copied.
+	 *
+	 * @param data the buffer to read from, positioned at the start of the cache.
+	 * @return the cache
+	 */
+	public static PageCache map(ByteBuffer data) {
+
+		ByteBuffer b = data.slice() ;
+
+		int size = b.getInt(0) ;
+		int titleBytes = b.getInt(4) ;
+
+		int pos = HEADER_LENGTH ;
+		IntBuffer ids = slice(b, pos, 4*size).asIntBuffer() ;
+		pos += 4 * size ;
+
+		IntBuffer offsets = slice(b, pos, 4*(size+1)).asIntBuffer() ;
+		pos += 4 * (size+1) ;
+
+		ByteBuffer titles = slice(b, pos, titleBytes) ;
+		pos += titleBytes ;
+
+		ByteBuffer types = slice(b, pos, size) ;
+
+		return new PageCache(size, ids, offsets, titles, types) ;
+	}
+
+	private static ByteBuffer slice(ByteBuffer b, int pos, int length) {
+		ByteBuffer d = b.duplicate() ;
+		d.position(pos) ;
+		d.limit(pos + length) ;
+		return d.slice() ;
+	}
+
+	/**
+	 * Gathers pages, and then compacts them into a PageCache. Pages can be added in any order, but
+	 * building is cheapest if they are added in order of ascending id.
+	 */
+	public static class Builder {
+
+		private TIntArrayList ids = new TIntArrayList() ;
+		private TIntArrayList offsets = new TIntArrayList() ;
+		private TByteArrayList types = new TByteArrayList() ;
+
+		private byte[] titles = new byte[1 << 16] ;
+		private int titleBytes = 0 ;
+
+		private boolean ordered = true ;
+
+		/**
+		 * Adds a single page
+		 *
+		 * @param id the id of the page
+		 * @param type the type of the page
+		 * @param data a buffer containing the title of the page, encoded as UTF-8
+		 * @param start the index of the first byte of the title
+		 * @param end the index after the last byte of the title
+		 */
+		public void add(int id, int type, byte[] data, int start, int end) {
+
+			if (!ids.isEmpty() && id <= ids.get(ids.size()-1))
+				ordered = false ;
+
+			int length = end - start ;
+			if (titleBytes + length > titles.length) {
+				long capacity = Math.max(2L * titles.length, (long)titleBytes + length) ;
+				if (capacity > Integer.MAX_VALUE)
+					throw new IllegalStateException("too many titles to cache") ;
+
+				titles = Arrays.copyOf(titles, (int)capacity) ;
+			}
+
+			System.arraycopy(data, start, titles, titleBytes, length) ;
+
+			ids.add(id) ;
+			types.add((byte)type) ;
+			offsets.add(titleBytes) ;
+			titleBytes += length ;
+		}
+
+		/**
+		 * Adds all of the pages gathered by another builder.
+		 *
+		 * @param builder the builder to take pages from
+		 */
+		public void addAll(Builder builder) {
+			for (int i=0 ; i<builder.ids.size() ; i++) {
+				int end = (i+1 < builder.ids.size()) ? builder.offsets.get(i+1) : builder.titleBytes ;
+				add(builder.ids.get(i), builder.types.get(i), builder.titles, builder.offsets.get(i), end) ;
+			}
+		}
+
+		/**
+		 * @return the number of pages added so far
+		 */
+		public int size() {
+			return ids.size() ;
+		}
+
+		/**
+		 * @return a cache containing all of the pages that have been added. If a page was added more than once, only the first is kept.
+		 */
+		public PageCache build() {
+
+			int count = ids.size() ;
+
+			int[] order = new int[count] ;
+			if (ordered) {
+				for (int i=0 ; i<count ; i++)
+					order[i] = i ;
+			} else {
+				//sort (id, index) pairs, so the first of any duplicates comes first
+				long[] pairs = new long[count] ;
+				for (int i=0 ; i<count ; i++)
+					pairs[i] = ((long)ids.get(i) << 32) | i ;
+
+				Arrays.sort(pairs) ;
+				for (int i=0 ; i<count ; i++)
+					order[i] = (int)pairs[i] ;
+			}
+
+			int[] finalIds = new int[count] ;
+			int[] finalOffsets = new int[count+1] ;
+			byte[] finalTypes = new byte[count] ;
+			byte[] finalTitles = ordered ? titles : new byte[titleBytes] ;
+
+			int size = 0 ;
+			int pos = 0 ;
+
+			for (int i:order) {
+				int id = ids.get(i) ;
+				if (size > 0 && finalIds[size-1] == id)
+					continue ;
+
+				int start = offsets.get(i) ;
+				int end = (i+1 < count) ? offsets.get(i+1) : titleBytes ;
+
+				if (!ordered)
+					System.arraycopy(titles, start, finalTitles, pos, end-start) ;
+				else
+					pos = start ;
+
+				finalIds[size] = id ;
+				finalTypes[size] = types.get(i) ;
+				finalOffsets[size] = pos ;
+
+				pos += end - start ;
+				size++ ;
+			}
+			finalOffsets[size] = pos ;
+
+			if (finalTitles.length > pos)
+				finalTitles = Arrays.copyOf(finalTitles, pos) ;
+
+			return new PageCache(size, IntBuffer.wrap(finalIds), IntBuffer.wrap(finalOffsets), ByteBuffer.wrap(finalTitles), ByteBuffer.wrap(finalTypes)) ;
+		}
+	}
+}
@@ -77,6 +77,9 @@ public class Redirect extends Page {
 	 */	
 	public Article getTarget() throws SQLException{
 		
+		if (database.areRedirectsCached()) 
+			return database.getCachedArticle(database.getCachedRedirectTarget(id)) ;
+		
 		Article target = null;
 		
 		int currId = id ;
@@ -86,28 +89,24 @@ public class Redirect extends Page {
 		while (target == null && !redirectsFollowed.contains(currId)) {
 			redirectsFollowed.add(currId) ;
 			
-			Statement stmt = getWikipediaDatabase().createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM redirect, page WHERE rd_to=page_id AND rd_from=" + id) ;
+			int targetId = database.getStore().getRedirectTarget(currId) ;
+			if (targetId < 0)
+				break ;
+			
+			Page page = database.getPagesById(new int[] {targetId})[0] ;
+			if (page == null)
+				break ;
 		
-			if (rs.first()) {
-				try {
-					switch(rs.getInt(3)) {
-				
-					case ARTICLE: 
-						target = new Article(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-						break ;
-					case REDIRECT:
-						currId = rs.getInt(1) ; 
-						break ;
-					case DISAMBIGUATION:
-						target = new Disambiguation(database, rs.getInt(1), new String(rs.getBytes(2), "UTF-8")) ;
-						break ;		
-					}
-				} catch (Exception e) {} ;
+			switch(page.getType()) {
+	
+			case ARTICLE: 
+			case DISAMBIGUATION:
+				target = (Article)page ;
+				break ;
+			case REDIRECT:
+				currId = page.getId() ; 
+				break ;
 			}
-		
-			rs.close() ;
-			stmt.close() ;
 		}
 		
 		return target ;		
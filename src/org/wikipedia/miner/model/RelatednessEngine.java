@@ -0,0 +1,518 @@
+/*
+ *    RelatednessEngine.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.nio.* ;
+
+import gnu.trove.* ;
+
+import org.wikipedia.miner.util.CompressedPostings ;
+import org.wikipedia.miner.util.LinkStore ;
+
+/**
+ * Measures the semantic relatedness of articles from cached links, without creating any objects per comparison.
+ * <p>
+ * Relatedness from links out is the cosine of the angle between two vectors, in which each link is weighted
+ * by log(articles/linksInToTarget). This weight depends only on how many articles link to the target, so
+ * the squares of all weights are computed once (indexed by that count), and so is the length of every article's
+ * vector. Comparing two articles then costs a single merge-join over their links, summing the squared weights of
+ * the links they share.
+ * <p>
+ * Relatedness from links in is calculated from the number of links the two articles share, exactly as in
+ * Article.getRelatednessTo().
+ * <p>
+ * An engine is created by WikipediaDatabase whenever links out are cached, and can be obtained with
+ * WikipediaDatabase.getRelatednessEngine(). Its results are identical to those of Article.getRelatednessTo().
+ *
+ * @author David Milne
+ */
+public class RelatednessEngine {
+
+	private WikipediaDatabase database ;
+
+	private LinkStore outLinks ;
+	private double[] squaredWeights ;
+	private DoubleBuffer magnitudes ;
+
+	/**
+	 * Initializes a new engine, precomputing weights and vector lengths for the given links out.
+	 *
+	 * @param database the database that links in are read from
+	 * @param outLinks links out from articles, with counts of the links in to each target; or null if these are not cached.
+	 */
+	protected RelatednessEngine(WikipediaDatabase database, LinkStore outLinks) {
+
+		this.database = database ;
+		this.outLinks = outLinks ;
+
+		if (outLinks == null)
+			return ;
+
+		int totalArticles = database.getArticleCount() ;
+
+		int maxCount = 0 ;
+		for (int i=0 ; i<outLinks.getSize() ; i++)
+			maxCount = Math.max(maxCount, outLinks.getCount(i)) ;
+
+		squaredWeights = new double[maxCount+1] ;
+		for (int count=0 ; count<=maxCount ; count++) {
+			double weight = Math.log((double)totalArticles/count) ;
+			squaredWeights[count] = weight * weight ;
+		}
+
+		//lengths are held off the heap, like the links themselves
+		int maxId = outLinks.getMaxId() ;
+		magnitudes = ByteBuffer.allocateDirect(8 * (maxId+1)).order(ByteOrder.nativeOrder()).asDoubleBuffer() ;
+
+		for (int id=0 ; id<=maxId ; id++) {
+			double magnitude = 0 ;
+			int end = outLinks.getEnd(id) ;
+			for (int i=outLinks.getStart(id) ; i<end ; i++)
+				magnitude = magnitude + squaredWeights[outLinks.getCount(i)] ;
+
+			magnitudes.put(id, Math.sqrt(magnitude)) ;
+		}
+	}
+
+	/**
+	 * @return true if links out are available to this engine, otherwise false.
+	 */
+	public boolean hasOutLinks() {
+		return outLinks != null ;
+	}
+
+	/**
+	 * @param id the id of an article
+	 * @return the number of articles that link to the given one, or 0 if links in are not cached.
+	 */
+	public int getLinksInCount(int id) {
+
+		CompressedPostings compressedInLinks = database.cachedCompressedInLinks ;
+		if (compressedInLinks != null)
+			return compressedInLinks.getLength(id) ;
+
+		LinkStore inLinks = database.cachedInLinks ;
+		if (inLinks != null)
+			return inLinks.getEnd(id) - inLinks.getStart(id) ;
+
+		return 0 ;
+	}
+
+	/**
+	 * @param id the id of an article
+	 * @return the number of articles that the given one links to, or 0 if links out are not cached.
+	 */
+	public int getLinksOutCount(int id) {
+
+		if (outLinks == null)
+			return 0 ;
+
+		return outLinks.getEnd(id) - outLinks.getStart(id) ;
+	}
+
+	/**
+	 * Measures relatedness from whichever links are cached: the average of both measures if links in and
+	 * out are cached, otherwise the measure from whichever of them is. Links out are ignored if links in are cached and
+	 * WikipediaDatabase.setRelatednessFromOutLinks(false) has been called.
+	 *
+	 * @param idA the id of an article
+	 * @param idB the id of another article
+	 * @return the semantic relatedness of the two articles, between 0 and 1.
+	 */
+	public double getRelatedness(int idA, int idB) {
+
+		boolean inLinksCached = database.areInLinksCached() ;
+		boolean useOutLinks = outLinks != null && database.isRelatednessFromOutLinks() ;
+
+		if (useOutLinks && inLinksCached)
+			return (getRelatednessFromInLinks(idA, idB) + getRelatednessFromOutLinks(idA, idB))/2 ;
+
+		if (useOutLinks)
+			return getRelatednessFromOutLinks(idA, idB) ;
+
+		if (inLinksCached)
+			return getRelatednessFromInLinks(idA, idB) ;
+
+		throw new IllegalStateException("links are not cached") ;
+	}
+
+	/**
+	 * Measures the relatedness of one article to many others, as getRelatedness(int, int) would. The links of the
+	 * first article (and the length of its vector) are only located once, rather than once per comparison.
+	 *
+	 * @param id the id of an article
+	 * @param others the ids of the articles to compare it to
+	 * @param relatedness an array (at least as long as others) into which the relatedness of the article to each of the others is written.
+	 */
+	public void getRelatedness(int id, int[] others, double[] relatedness) {
+
+		CompressedPostings compressedInLinks = database.cachedCompressedInLinks ;
+		LinkStore inLinks = database.cachedInLinks ;
+
+		boolean inLinksCached = compressedInLinks != null || inLinks != null ;
+		if (outLinks == null && !inLinksCached)
+			throw new IllegalStateException("links are not cached") ;
+
+		boolean useOutLinks = outLinks != null && database.isRelatednessFromOutLinks() ;
+
+		int outStart = 0 ;
+		int outEnd = 0 ;
+		double magnitude = 0 ;
+		if (useOutLinks) {
+			outStart = outLinks.getStart(id) ;
+			outEnd = outLinks.getEnd(id) ;
+			if (outStart < outEnd)
+				magnitude = magnitudes.get(id) ;
+		}
+
+		int inStart = 0 ;
+		int inEnd = 0 ;
+		int inLength = 0 ;
+		if (compressedInLinks != null) {
+			inLength = compressedInLinks.getLength(id) ;
+		} else if (inLinks != null) {
+			inStart = inLinks.getStart(id) ;
+			inEnd = inLinks.getEnd(id) ;
+			inLength = inEnd - inStart ;
+		}
+
+		for (int i=0 ; i<others.length ; i++) {
+			int other = others[i] ;
+
+			double fromIn = 0 ;
+			if (compressedInLinks != null)
+				fromIn = getRelatednessFromInLinkCounts(inLength, compressedInLinks.getLength(other), compressedInLinks.countCommon(id, other)) ;
+			else if (inLinks != null)
+				fromIn = getRelatednessFromInLinks(inLinks, inStart, inEnd, other) ;
+
+			if (!useOutLinks) {
+				relatedness[i] = fromIn ;
+				continue ;
+			}
+
+			double fromOut = getRelatednessFromOutLinks(id, outStart, outEnd, magnitude, other) ;
+
+			if (inLinksCached)
+				relatedness[i] = (fromIn + fromOut)/2 ;
+			else
+				relatedness[i] = fromOut ;
+		}
+	}
+
+	/**
+	 * Measures the relatedness of every article in one group to every article in another, as getRelatedness(int, int) would.
+	 *
+	 * @param ids the ids of the first group of articles
+	 * @param others the ids of the second group of articles
+	 * @param relatedness an array of at least ids.length rows, each at least others.length long, into which
+	 * the relatedness of ids[i] to others[j] is written at [i][j].
+	 */
+	public void getRelatedness(int[] ids, int[] others, double[][] relatedness) {
+		for (int i=0 ; i<ids.length ; i++)
+			getRelatedness(ids[i], others, relatedness[i]) ;
+	}
+
+	/**
+	 * Finds the articles that are most related to the given one, as measured by getRelatednessFromInLinks().
+	 * <p>
+	 * Only articles that share at least one link in with the given article can be related to it at all, and these are
+	 * exactly the articles that its neighbours (the articles linking to it) link out to. So rather than comparing the article 
+	 * to every other, the links out from its neighbours are walked to count how many links in each candidate shares with it. 
+	 * These counts give each candidate's relatedness directly, and only the best candidates are kept (in a bounded heap). 
+	 * Relatedness is then measured exactly (by merging links in) for these survivors alone.
+	 * <p>
+	 * Both links in and links out must be cached.
+	 *
+	 * @param id the id of an article
+	 * @param ids an array into which the ids of the most related articles are written, most related first. Its length is the maximum number of articles returned.
+	 * @param relatedness an array (at least as long as ids) into which the relatedness of each of these articles is written.
+	 * @return the number of articles found, which may be less than ids.length if few articles are related at all.
+	 */
+	public int getMostRelated(int id, int[] ids, double[] relatedness) {
+
+		CompressedPostings compressedInLinks = database.cachedCompressedInLinks ;
+		LinkStore inLinks = database.cachedInLinks ;
+
+		if (outLinks == null || (compressedInLinks == null && inLinks == null))
+			throw new IllegalStateException("links in and out must be cached") ;
+
+		int[] neighbours ;
+		if (compressedInLinks != null)
+			neighbours = compressedInLinks.get(id) ;
+		else
+			neighbours = inLinks.getTargetArray(id) ;
+
+		//size the counts up front, so popular articles do not cause repeated rehashing
+		long walkLength = 0 ;
+		for (int neighbour:neighbours)
+			walkLength += outLinks.getEnd(neighbour) - outLinks.getStart(neighbour) ;
+
+		//count the links in shared with every candidate, by walking the links out of each neighbour 
+		TIntIntHashMap linksBoth = new TIntIntHashMap((int)Math.min(walkLength, outLinks.getMaxId()+1) + 1) ;
+		for (int neighbour:neighbours) {
+			int end = outLinks.getEnd(neighbour) ;
+			for (int i=outLinks.getStart(neighbour) ; i<end ; i++) {
+				int candidate = outLinks.getTarget(i) ;
+				if (candidate != id)
+					linksBoth.adjustOrPutValue(candidate, 1, 1) ;
+			}
+		}
+
+		//keep the best candidates in a heap, with the least related at the root
+		int capacity = ids.length ;
+		int size = 0 ;
+
+		TIntIntIterator iter = linksBoth.iterator() ;
+		while (iter.hasNext()) {
+			iter.advance() ;
+
+			int candidate = iter.key() ;
+			int candidateLinks = getLinksInCount(candidate) ;
+
+			//links out may reach articles whose links in were not cached (or were filtered), and these can share no more than they have
+			int shared = Math.min(iter.value(), Math.min(neighbours.length, candidateLinks)) ;
+			double sr = getRelatednessFromInLinkCounts(neighbours.length, candidateLinks, shared) ;
+
+			if (sr <= 0)
+				continue ;
+
+			if (size == capacity && (capacity == 0 || !isBetter(sr, candidate, relatedness[0], ids[0])))
+				continue ;
+
+			//links out may also lead to disambiguation pages, which are not wanted
+			if (!isArticle(candidate))
+				continue ;
+
+			if (size < capacity) {
+				ids[size] = candidate ;
+				relatedness[size] = sr ;
+				siftUp(ids, relatedness, size++) ;
+			} else {
+				ids[0] = candidate ;
+				relatedness[0] = sr ;
+				siftDown(ids, relatedness, 0, size) ;
+			}
+		}
+
+		//measure the survivors exactly
+		for (int i=0 ; i<size ; i++)
+			relatedness[i] = getRelatednessFromInLinks(id, ids[i]) ;
+
+		//heap sort, so that the most related come first
+		for (int i=size/2 - 1 ; i>=0 ; i--)
+			siftDown(ids, relatedness, i, size) ;
+
+		for (int end=size-1 ; end>0 ; end--) {
+			swap(ids, relatedness, 0, end) ;
+			siftDown(ids, relatedness, 0, end) ;
+		}
+
+		return size ;
+	}
+
+	private boolean isArticle(int id) {
+
+		PageCache pages = database.cachedPages ;
+		if (pages == null)
+			return true ;
+
+		//pages missing from the cache cannot be returned as articles, so they are skipped too
+		int index = pages.indexOf(id) ;
+		return index >= 0 && pages.getType(index) == Page.ARTICLE ;
+	}
+
+	private static boolean isBetter(double srA, int idA, double srB, int idB) {
+		if (srA != srB)
+			return srA > srB ;
+
+		return idA < idB ;
+	}
+
+	private static void siftUp(int[] ids, double[] relatedness, int index) {
+		while (index > 0) {
+			int parent = (index-1) / 2 ;
+			if (!isBetter(relatedness[parent], ids[parent], relatedness[index], ids[index]))
+				return ;
+
+			swap(ids, relatedness, parent, index) ;
+			index = parent ;
+		}
+	}
+
+	private static void siftDown(int[] ids, double[] relatedness, int index, int size) {
+		while (true) {
+			int worst = index ;
+			int left = 2*index + 1 ;
+			int right = left + 1 ;
+
+			if (left < size && isBetter(relatedness[worst], ids[worst], relatedness[left], ids[left]))
+				worst = left ;
+			if (right < size && isBetter(relatedness[worst], ids[worst], relatedness[right], ids[right]))
+				worst = right ;
+
+			if (worst == index)
+				return ;
+
+			swap(ids, relatedness, worst, index) ;
+			index = worst ;
+		}
+	}
+
+	private static void swap(int[] ids, double[] relatedness, int a, int b) {
+		int id = ids[a] ;
+		ids[a] = ids[b] ;
+		ids[b] = id ;
+
+		double sr = relatedness[a] ;
+		relatedness[a] = relatedness[b] ;
+		relatedness[b] = sr ;
+	}
+
+	/**
+	 * @param idA the id of an article
+	 * @param idB the id of another article
+	 * @return the cosine similarity (scaled to between 0 and 1) of the weighted links out from the two articles.
+	 */
+	public double getRelatednessFromOutLinks(int idA, int idB) {
+
+		int startA = outLinks.getStart(idA) ;
+		int endA = outLinks.getEnd(idA) ;
+
+		return getRelatednessFromOutLinks(idA, startA, endA, (startA < endA) ? magnitudes.get(idA) : 0, idB) ;
+	}
+
+	private double getRelatednessFromOutLinks(int idA, int startA, int endA, double magnitudeA, int idB) {
+
+		if (idA == idB)
+			return 1 ;
+
+		int indexA = startA ;
+		int indexB = outLinks.getStart(idB) ;
+		int endB = outLinks.getEnd(idB) ;
+
+		if (indexA == endA || indexB == endB)
+			return 0 ;
+
+		//only shared links contribute to the dot product, and each has the same weight in both vectors
+		double dotProduct = 0 ;
+
+		while (indexA < endA && indexB < endB) {
+
+			int targetA = outLinks.getTarget(indexA) ;
+			int targetB = outLinks.getTarget(indexB) ;
+
+			if (targetA == targetB) {
+				dotProduct = dotProduct + squaredWeights[outLinks.getCount(indexA)] ;
+				indexA ++ ;
+				indexB ++ ;
+			} else if (targetA < targetB) {
+				indexA ++ ;
+			} else {
+				indexB ++ ;
+			}
+		}
+
+		double sr = Math.acos(dotProduct / (magnitudeA * magnitudes.get(idB))) ;
+		sr = (Math.PI/2) - sr ; // reverse, so 0=no relation, PI/2= same
+		sr = sr / (Math.PI/2) ; // normalize, so measure is between 0 and 1 ;
+
+		return sr ;
+	}
+
+	/**
+	 * @param idA the id of an article
+	 * @param idB the id of another article
+	 * @return a measure (between 0 and 1) of how many of the articles linking to the two articles are shared.
+	 */
+	public double getRelatednessFromInLinks(int idA, int idB) {
+
+		CompressedPostings compressedInLinks = database.cachedCompressedInLinks ;
+		if (compressedInLinks != null)
+			return getRelatednessFromInLinkCounts(compressedInLinks.getLength(idA), compressedInLinks.getLength(idB), compressedInLinks.countCommon(idA, idB)) ;
+
+		LinkStore inLinks = database.cachedInLinks ;
+		if (inLinks == null)
+			throw new IllegalStateException("links in are not cached") ;
+
+		return getRelatednessFromInLinks(inLinks, inLinks.getStart(idA), inLinks.getEnd(idA), idB) ;
+	}
+
+	private double getRelatednessFromInLinks(LinkStore inLinks, int startA, int endA, int idB) {
+
+		int indexA = startA ;
+		int indexB = inLinks.getStart(idB) ;
+		int endB = inLinks.getEnd(idB) ;
+		int lengthB = endB - indexB ;
+
+		int linksBoth = 0 ;
+
+		while (indexA < endA && indexB < endB) {
+
+			int sourceA = inLinks.getTarget(indexA) ;
+			int sourceB = inLinks.getTarget(indexB) ;
+
+			if (sourceA == sourceB) {
+				linksBoth ++ ;
+				indexA ++ ;
+				indexB ++ ;
+			} else if (sourceA < sourceB) {
+				indexA ++ ;
+			} else {
+				indexB ++ ;
+			}
+		}
+
+		return getRelatednessFromInLinkCounts(endA - startA, lengthB, linksBoth) ;
+	}
+
+	/**
+	 * @param linksA the number of articles that link to the first article
+	 * @param linksB the number of articles that link to the second article
+	 * @param linksBoth the number of articles that link to both
+	 * @return the relatedness of the two articles, between 0 and 1.
+	 */
+	protected double getRelatednessFromInLinkCounts(int linksA, int linksB, int linksBoth) {
+
+		double a = Math.log(linksA) ;
+		double b = Math.log(linksB) ;
+		double ab = Math.log(linksBoth) ;
+		double m = Math.log(database.getArticleCount()) ;
+
+		double sr = (Math.max(a, b) -ab) / (m - Math.min(a, b)) ;
+
+		if (Double.isNaN(sr) || Double.isInfinite(sr) || sr > 1)
+			sr = 1 ;
+
+		sr = 1-sr ;
+
+		return sr ;
+	}
+
+	/**
+	 * @return the approximate number of bytes used by the precomputed weights and vector lengths
+	 */
+	public long getMemoryFootprint() {
+
+		if (outLinks == null)
+			return 0 ;
+
+		return 8L * squaredWeights.length + 8L * magnitudes.capacity() ;
+	}
+}
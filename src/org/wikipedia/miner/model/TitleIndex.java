@@ -0,0 +1,103 @@
+/*
+ *    TitleIndex.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model;
+
+import java.util.Arrays ;
+
+import org.wikipedia.miner.util.ParallelCsvReader ;
+
+/**
+ * An index over cached pages, for looking up page ids by title and type without consulting the database.
+ * <p>
+ * This is an open addressing hash table that holds only the positions of pages within the page cache and the hashes 
+ * of their titles, in two flat arrays. Titles themselves are not duplicated or decoded; candidates are compared 
+ * against the UTF-8 bytes held by the page cache.
+ *
+ * @author David Milne
+ */
+public class TitleIndex {
+
+	private int[] indexes ;
+	private int[] hashes ;
+	private int mask ;
+
+	private PageCache pages ;
+
+	/**
+	 * Builds an index over the given pages
+	 *
+	 * @param pages the cached pages
+	 */
+	protected TitleIndex(PageCache pages) {
+
+		this.pages = pages ;
+
+		int capacity = 16 ;
+		while (capacity < pages.size() * 2)
+			capacity = capacity * 2 ;
+
+		indexes = new int[capacity] ;
+		hashes = new int[capacity] ;
+		mask = capacity - 1 ;
+
+		Arrays.fill(indexes, -1) ;
+
+		for (int index=0 ; index<pages.size() ; index++) {
+
+			int hash = pages.hash(index) ;
+			int slot = hash & mask ;
+			while (indexes[slot] >= 0)
+				slot = (slot + 1) & mask ;
+
+			indexes[slot] = index ;
+			hashes[slot] = hash ;
+		}
+	}
+
+	/**
+	 * @param title the (case sensitive) title of the page
+	 * @param type the type of the page (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION)
+	 * @return the id of the page with the given title and type, or -1 if there is no such page in the cache.
+	 */
+	public int getId(String title, int type) {
+
+		byte[] bytes = title.getBytes(ParallelCsvReader.UTF8) ;
+
+		int hash = PageCache.hash(bytes, type) ;
+		int slot = hash & mask ;
+
+		while (indexes[slot] >= 0) {
+			int index = indexes[slot] ;
+			if (hashes[slot] == hash && pages.getType(index) == type && pages.hasTitle(index, bytes))
+				return pages.getId(index) ;
+
+			slot = (slot + 1) & mask ;
+		}
+
+		return -1 ;
+	}
+
+	/**
+	 * @return the approximate number of bytes used by this index (not including the pages themselves)
+	 */
+	public long getMemoryFootprint() {
+		return 8L * indexes.length ;
+	}
+}
@@ -25,6 +25,7 @@ import java.sql.*;
 import java.util.*;
 
 import org.wikipedia.miner.model.Article.AnchorText;
+import org.wikipedia.miner.model.storage.PageRecord ;
 import org.wikipedia.miner.util.*;
 import org.wikipedia.miner.util.text.*;
 
@@ -83,35 +84,24 @@ public class Wikipedia {
 	 */
 	public Page getPageById(int id) throws SQLException {
 
-		String title = null ;
-		int type = 0 ;
+		PageRecord record = database.getStore().getPage(id) ;
 
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_title, page_type FROM page WHERE page_id=" + id) ;
-
-		if (rs.first()) {
-			try {
-				title = new String(rs.getBytes(1), "UTF-8") ;
-			} catch (Exception e) {} ;	
-
-			type = rs.getInt(2) ;
-		}
-
-		rs.close() ;
-		stmt.close();
-
-		switch (type) {
-		case Page.ARTICLE: 
-			return new Article(database, id, title) ;
-		case Page.REDIRECT: 
-			return new Redirect(database, id, title) ;
-		case Page.CATEGORY: 
-			return new Category(database, id, title) ;
-		case Page.DISAMBIGUATION: 
-			return new Disambiguation(database, id, title) ;
-		}
+		if (record == null)
+			return null ;
 
-		return null ;
+		return Page.createPage(database, id, record.getTitle(), record.getType()) ;
+	}
+	
+	/**
+	 * Returns the Pages referenced by many ids at once. This is much more efficient than calling getPageById() 
+	 * for each id, because pages are gathered in batches rather than with one query each. 
+	 * 
+	 * @param ids	the ids of the Pages to retrieve.
+	 * @return an array of the same length as ids, containing the Page referenced by each id (or null, if one does not exist).
+	 * @throws SQLException if there is a problem with the wikipedia database.
+	 */
+	public Page[] getPagesById(int[] ids) throws SQLException {
+		return database.getPagesById(ids) ;
 	}
 
 	/**
@@ -126,11 +116,29 @@ public class Wikipedia {
 	 */
 	public Article getArticleByTitle(String title) {
 		
+		if (title == null || title.length() == 0)
+			return null ;
+		
 		title = title.substring(0,1).toUpperCase() + title.substring(1) ;
 		
-		try {
-			return new Article(database, title) ;			
-		} catch (Exception e) {};
+		if (database.arePagesCached()) {
+			//resolve entirely from the cache, without throwing and catching exceptions for every miss
+			int id = database.getCachedPageId(title, Page.ARTICLE) ;
+			if (id >= 0) 
+				return database.getCachedArticle(id) ;
+			
+			if (database.areRedirectsCached()) {
+				int redirectId = database.getCachedPageId(title, Page.REDIRECT) ;
+				if (redirectId >= 0)
+					return database.getCachedArticle(database.getCachedRedirectTarget(redirectId)) ;
+				
+				return null ;
+			}
+		} else {
+			try {
+				return new Article(database, title) ;			
+			} catch (Exception e) {};
+		}
 		
 		try {
 			Redirect r = new Redirect(database, title) ;
@@ -271,6 +279,8 @@ public class Wikipedia {
 			return articles ;
 		}
 
+		Article[] contextArray = contextArticles.toArray(new Article[contextArticles.size()]) ;
+
 		for (Anchor.Sense sense: anch.getSenses()) {
 
 			//if (sense.getType() == Page.ARTICLE) {
@@ -279,10 +289,10 @@ public class Wikipedia {
 			double relatedness = 0 ;
 			double obviousness = sense.getProbability() ;
 
-			for (Article context: contextArticles) {
-				double r = candidate.getRelatednessTo(context) ;
+			//compare to all context articles at once, so the links of the candidate are gathered only once
+			for (double r:candidate.getRelatednessTo(contextArray)) 
 				relatedness = relatedness + r ;
-			}
+
 			candidate.setWeight(relatedness+obviousness) ;
 			articles.add(candidate, false) ;
 		}
@@ -336,23 +346,26 @@ public class Wikipedia {
 	public boolean isAnchor(String text, TextProcessor tp) throws SQLException {
 		
 		if (database.areAnchorsCached(tp)) {
-			return database.cachedAnchors.containsKey(tp.processText(text)) ;
-		} else {
-			Statement stmt = database.createStatement() ;
-			ResultSet rs ;
+			if (tp != null)
+				text = tp.processText(text) ;
 			
+			return database.cachedAnchors.contains(text) ;
+		} else {
 			boolean isAnchor = false ;
 			
-			if (tp==null)
-				rs = stmt.executeQuery("SELECT an_to FROM anchor WHERE an_text=\"" + text + "\" LIMIT 1") ;
-			else 
-				rs = stmt.executeQuery("SELECT an_to FROM anchor_" + tp.getName() + " WHERE an_text=\"" + tp.processText(text) + "\" LIMIT 1") ;
+			PreparedStatement stmt = database.prepareAnchorStatement("anchorExists", tp) ;
+			try {
+				stmt.setString(1, (tp==null) ? text : tp.processText(text)) ;
+			
+				ResultSet rs = stmt.executeQuery() ;
 			
-			if (rs.first()) 
-				isAnchor = true ;
+				if (rs.first()) 
+					isAnchor = true ;
 			
-			rs.close() ;
-			stmt.close() ;
+				rs.close() ;
+			} finally {
+				stmt.close() ;
+			}
 			
 			return isAnchor ;			
 		}
@@ -375,6 +388,27 @@ public class Wikipedia {
 		return new PageIterator(database, pageType) ;		
 	}
 	
+	/**
+	 * Returns an iterator that reads pages straight from memory if they have been cached, and otherwise streams 
+	 * them from the database. Note that only cached pages are visited, so if pages were cached selectively 
+	 * then this will not cover all of Wikipedia.
+	 * <p>
+	 * The iterator should be closed if it is abandoned before the last page, since it may hold a database connection.
+	 * 
+	 * @param pageType the type of page of interest (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION_PAGE), or -1 for all pages
+	 * @return an iterator for pages of the given type, in order of ascending ids.
+	 * @throws SQLException if there is a problem with the Wikipedia database.
+	 */
+	public CloseableIterator<Page> getCachedPageIterator(int pageType) throws SQLException{
+		
+		boolean needsRedirects = (pageType < 0 || pageType == Page.REDIRECT) ;
+		
+		if (database.arePagesCached() && (!needsRedirects || database.areRedirectsCached()))
+			return new CachedPageIterator(database, pageType) ;
+		else
+			return new PageIterator(database, pageType) ;
+	}
+	
 	/**
 	 * A convenience method that returns an instance of Wikipedia, initialized according to the given 
 	 * array of String arguments. 
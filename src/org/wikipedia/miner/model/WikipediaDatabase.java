@@ -20,13 +20,16 @@
 package org.wikipedia.miner.model;
 
 import java.io.* ;
+import java.nio.IntBuffer ;
 import java.sql.*;
 import java.util.* ;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.* ;
+import java.util.concurrent.atomic.AtomicIntegerArray ;
+import java.util.concurrent.atomic.AtomicLong ;
 
 import gnu.trove.* ;
 
+import org.wikipedia.miner.model.storage.* ;
 import org.wikipedia.miner.util.*;
 import org.wikipedia.miner.util.text.*;
 
@@ -41,7 +44,31 @@ import org.wikipedia.miner.util.text.*;
  */
 public class WikipediaDatabase extends MySqlDatabase {
 	
+	/**
+	 * the largest number of ids that are gathered in a single query by getPagesById(), getLinksInIds(), etc.
+	 */
+	public static final int MAX_BATCH_SIZE = 512 ;
+	
+	private static final int[] BATCH_SIZES = {1, 8, 64, MAX_BATCH_SIZE} ;
+
+	private static final int INSERT_BATCH_SIZE = 1000 ;
+	private static final int PROGRESS_INTERVAL = 100000 ;
+	private static final int INSERT_QUERY_LENGTH = 512 * 1024 ;
+	private static final int DEFINITION_QUEUE_SIZE = 1000 ;
+	private static final int DEFINITION_BATCH_SIZE = 100 ;
+	
+	/**
+	 * the number of categories that are handed to each task, when computing generality
+	 */
+	private static final int GENERALITY_CHUNK_SIZE = 1024 ;
+	
+	/**
+	 * the category from which generality is measured in the english Wikipedia. Other Wikipedias have their own.
+	 */
+	public static final String DEFAULT_ROOT_CATEGORY = "Fundamental" ;
+	
 	private HashMap<String,String> createStatements  ;
+	private HashMap<String,String> anchorQueries ;
 	
 	private boolean contentImported = true ;
 	private boolean anchorOccurancesSummarized = true ;
@@ -51,16 +78,36 @@ public class WikipediaDatabase extends MySqlDatabase {
 	private int category_count = 0 ;
 	private int redirect_count = 0 ;
 	private int disambig_count = 0 ;
-	private int maxPageDepth = 0 ;
+	private volatile int maxPageDepth = -1 ;
+	
+	//caches are volatile, so they become visible to other threads as soon as each one is complete
+	protected volatile AnchorDictionary cachedAnchors = null ;
+	protected volatile PageCache cachedPages = null ;
+	protected volatile TitleIndex cachedTitles = null ;
+	protected volatile TIntIntHashMap cachedRedirectTargets = null ;
+	protected volatile LinkStore cachedInLinks = null ;
+	protected volatile CompressedPostings cachedCompressedInLinks = null ;
+	protected volatile LinkStore cachedOutLinks = null ;
+	protected volatile TIntIntHashMap cachedGenerality = null ; 
+	protected volatile LinkStore cachedParentIds = null ;
+	protected volatile LinkStore cachedChildCategoryIds = null ;
+	protected volatile LinkStore cachedChildArticleIds = null ;
+	
+	private volatile TextProcessor cachedProcessor = null ;
+	
+	//always replaced along with cachedOutLinks, so the two never disagree
+	private volatile RelatednessEngine relatednessEngine = new RelatednessEngine(this, null) ;
+	
+	private int cacheThreads = Runtime.getRuntime().availableProcessors() ;
+	
+	//shared by every cache that is gathered at once, so together they never parse with more than cacheThreads threads
+	private ThreadPoolExecutor csvExecutor = null ;
 	
-	protected THashMap<String,CachedAnchor> cachedAnchors = null ;
-	protected TIntObjectHashMap<CachedPage> cachedPages = null ;
-	protected TIntObjectHashMap<int[]> cachedInLinks = null ;
-	protected TIntObjectHashMap<int[][]> cachedOutLinks = null ;
-	protected TIntIntHashMap cachedGenerality = null ; 
-	protected TIntObjectHashMap<int[]> cachedParentIds = null ;
+	private volatile boolean relatednessFromOutLinks = true ;
 	
-	private TextProcessor cachedProcessor = null ;
+	//anything that is not cached is read from this store, or from this database's own tables if it is null
+	private volatile WikipediaStore store = null ;
+	private final MySqlStore tableStore = new MySqlStore(this) ;
 		
 	/**
 	 * Initializes a newly created WikipediaDatabase and attempts to make a connection to the mysql
@@ -171,6 +218,8 @@ public class WikipediaDatabase extends MySqlDatabase {
 				+ "gn_depth int(2) unsigned NOT NULL, "
 				+ "PRIMARY KEY (gn_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ; 
 		
+		registerQueries() ;
+		
 		try {
 			checkDatabase() ;	
 			setStats() ;
@@ -180,6 +229,387 @@ public class WikipediaDatabase extends MySqlDatabase {
 		}
 	}
 	
+	/**
+	 * Registers the queries that model classes (Page, Article, etc) issue whenever data has not been cached, 
+	 * so they are only parsed once per connection. 
+	 */
+	private void registerQueries() {
+		
+		registerQuery("pageById", "SELECT page_title, page_type FROM page WHERE page_id=?") ;
+		registerQuery("pageIdByTitle", "SELECT page_id FROM page WHERE page_title=? AND page_type=?") ;
+		registerQuery("generality", "SELECT gn_depth FROM generality WHERE gn_id=?") ;
+		registerQuery("content", "SELECT co_content FROM content WHERE co_id=?") ;
+		registerQuery("firstSentence", "SELECT df_firstSentence FROM definition WHERE df_id=?") ;
+		registerQuery("firstParagraph", "SELECT df_firstParagraph FROM definition WHERE df_id=?") ;
+		
+		registerQuery("redirectsTo", "SELECT DISTINCT page_id, page_title, page_type FROM redirect, page WHERE page_id=rd_from AND rd_to=?") ;
+		registerQuery("redirectTarget", "SELECT page_id, page_title, page_type FROM redirect, page WHERE rd_to=page_id AND rd_from=?") ;
+		
+		registerQuery("parentCategories", "SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_parent=page_id AND cl_child=? ORDER BY page_id") ;
+		registerQuery("parentCategoryIds", "SELECT DISTINCT page_id FROM categorylink, page WHERE cl_parent=page_id AND cl_child=? ORDER BY page_id") ;
+		registerQuery("childCategories", "SELECT DISTINCT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.CATEGORY + " AND cl_parent=?") ;
+		registerQuery("childCategoryIds", "SELECT DISTINCT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.CATEGORY + " AND cl_parent=? ORDER BY cl_child") ;
+		registerQuery("childArticles", "SELECT page_id, page_title, page_type FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.ARTICLE + " AND cl_parent=? ORDER BY page_id") ;
+		registerQuery("childArticleIds", "SELECT page_id FROM categorylink, page WHERE cl_child=page_id AND page_type=" + Page.ARTICLE + " AND cl_parent=? ORDER BY page_id") ;
+		registerQuery("categoryLink", "SELECT * FROM categorylink WHERE cl_parent=? AND cl_child=?") ;
+		
+		registerQuery("equivalentCategory", "SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_cat AND eq_art=?") ;
+		registerQuery("equivalentArticle", "SELECT page_id, page_title FROM equivalence, page WHERE page_id=eq_art AND eq_cat=?") ;
+		
+		registerQuery("translationLanguages", "SELECT tl_lang FROM translation WHERE tl_id=?") ;
+		registerQuery("translation", "SELECT tl_text FROM translation WHERE tl_id=? AND tl_lang=?") ;
+		registerQuery("translations", "SELECT tl_lang, tl_text FROM translation WHERE tl_id=?") ;
+		
+		registerQuery("linksIn", "SELECT li_data FROM pagelink_in WHERE li_id=?") ;
+		registerQuery("linksOut", "SELECT lo_data FROM pagelink_out WHERE lo_id=?") ;
+		registerQuery("linkCountIn", "SELECT lc_in FROM linkcount WHERE lc_id=?") ;
+		registerQuery("linkCountOut", "SELECT lc_out FROM linkcount WHERE lc_id=?") ;
+		registerQuery("anchorTexts", "SELECT an_text, an_count FROM anchor WHERE an_to=? ORDER BY an_count DESC") ;
+		
+		registerQuery("disambiguationFirstSense", "SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=? AND da_index=1") ;
+		registerQuery("disambiguationSensesById", "SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=? ORDER BY page_id") ;
+		registerQuery("disambiguationSensesByIndex", "SELECT page_id, page_title, page_type, da_index, da_scope FROM disambiguation, page WHERE da_to=page_id AND da_from=? ORDER BY da_index") ;
+		
+		//anchor tables are suffixed with the name of the text processor they were prepared with, so these are registered on demand
+		anchorQueries = new HashMap<String,String>() ;
+		anchorQueries.put("anchorOccurances", "SELECT ao_linkCount, ao_occCount FROM anchor_occurance%s WHERE ao_text=?") ;
+		anchorQueries.put("anchorSenses", "SELECT an_to, an_count FROM anchor%s WHERE an_text=? ORDER BY an_count DESC, an_to") ;
+		anchorQueries.put("anchorExists", "SELECT an_to FROM anchor%s WHERE an_text=? LIMIT 1") ;
+		
+		for (Map.Entry<String,String> e:anchorQueries.entrySet()) 
+			registerQuery(e.getKey(), String.format(e.getValue(), "")) ;
+	}
+	
+	/**
+	 * Returns a PreparedStatement for one of the queries on anchor tables. These are given by name (anchorOccurances, 
+	 * anchorSenses or anchorExists) and take the (processed) anchor text as their only parameter.
+	 * 
+	 * @param name the name of the query
+	 * @param tp the text processor that the anchor tables were prepared with (may be null)
+	 * @return a prepared statement for the anchor tables that correspond to the given text processor
+	 * @throws SQLException if there is a problem with the database connection
+	 */
+	protected PreparedStatement prepareAnchorStatement(String name, TextProcessor tp) throws SQLException {
+		
+		if (tp == null)
+			return prepareStatement(name) ;
+		
+		String tpName = name + "_" + tp.getName() ;
+		if (!isQueryRegistered(tpName))
+			registerQuery(tpName, String.format(anchorQueries.get(name), "_" + tp.getName())) ;
+		
+		return prepareStatement(tpName) ;
+	}
+	
+	/**
+	 * Retrieves many pages at once. If pages are cached then no database queries are needed at all. Otherwise pages
+	 * are gathered with a handful of queries (each of which retrieves up to MAX_BATCH_SIZE pages), rather than one query per page.
+	 * 
+	 * @param ids the ids of the pages to retrieve
+	 * @return an array of the same length as ids, containing the page for each id (or null, if no such page exists). 
+	 * The pages are instances of the appropriate subclass (Article, Category, etc).
+	 * @throws SQLException if there is a problem with the wikipedia database
+	 */
+	public Page[] getPagesById(int[] ids) throws SQLException {
+		
+		Page[] pages = new Page[ids.length] ;
+		
+		PageCache cache = cachedPages ;
+		if (cache != null) {
+			for (int i=0 ; i<ids.length ; i++) {
+				int index = cache.indexOf(ids[i]) ;
+				if (index >= 0) 
+					pages[i] = Page.createPage(this, cache, index) ;
+			}
+			return pages ;
+		}
+		
+		WikipediaStore s = store ;
+		if (s != null) {
+			for (int i=0 ; i<ids.length ; i++) {
+				PageRecord record = s.getPage(ids[i]) ;
+				if (record != null)
+					pages[i] = Page.createPage(this, record.getId(), record.getTitle(), record.getType()) ;
+			}
+			return pages ;
+		}
+		
+		final TIntObjectHashMap<Page> pagesById = new TIntObjectHashMap<Page>(ids.length) ;
+		
+		fetchBatches("pagesById", "SELECT page_id, page_title, page_type FROM page WHERE page_id IN (%s)", ids, new BatchRowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				int id = rs.getInt(1) ;
+				pagesById.put(id, Page.createPage(WikipediaDatabase.this, id, getUTF8(rs, 2), rs.getInt(3))) ;
+			}
+		}) ;
+		
+		for (int i=0 ; i<ids.length ; i++) 
+			pages[i] = pagesById.get(ids[i]) ;
+		
+		return pages ;
+	}
+	
+	/**
+	 * Retrieves the ids of pages that link to each of the given pages, using the cache if it is available, and 
+	 * otherwise a handful of queries that each gather the links of up to MAX_BATCH_SIZE pages. 
+	 * 
+	 * @param ids the ids of the pages of interest
+	 * @return the sorted ids of the pages that link to each of the given pages, indexed by the id of the page they link to.
+	 * Pages that have no links in are missing from this map. 
+	 * @throws SQLException if there is a problem with the wikipedia database
+	 */
+	public TIntObjectHashMap<int[]> getLinksInIds(int[] ids) throws SQLException {
+		
+		final TIntObjectHashMap<int[]> linksIn = new TIntObjectHashMap<int[]>(ids.length) ;
+		
+		if (areInLinksCached()) {
+			for (int id:ids) {
+				int[] links = areInLinksCompressed() ? cachedCompressedInLinks.get(id) : cachedInLinks.getTargetArray(id) ;
+				if (links.length > 0)
+					linksIn.put(id, links) ;
+			}
+			return linksIn ;
+		}
+		
+		WikipediaStore s = store ;
+		if (s != null) {
+			for (int id:ids) {
+				int[] links = s.getLinksIn(id) ;
+				if (links.length > 0)
+					linksIn.put(id, links) ;
+			}
+			return linksIn ;
+		}
+		
+		fetchBatches("linksInById", "SELECT li_id, li_data FROM pagelink_in WHERE li_id IN (%s)", ids, new BatchRowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				String data = rs.getString(2) ;
+				if (data == null || data.equals(""))
+					return ;
+				
+				String[] values = data.split(":") ;
+				int[] links = new int[values.length] ;
+				for (int i=0 ; i<values.length ; i++)
+					links[i] = Integer.parseInt(values[i]) ;
+				
+				linksIn.put(rs.getInt(1), links) ;
+			}
+		}) ;
+		
+		return linksIn ;
+	}
+	
+	/**
+	 * Retrieves the ids of pages that each of the given pages link to, using the cache if it is available, and 
+	 * otherwise a handful of queries that each gather the links of up to MAX_BATCH_SIZE pages. 
+	 * 
+	 * @param ids the ids of the pages of interest
+	 * @return the sorted ids of the pages that each of the given pages link to, indexed by the id of the page they link from.
+	 * Pages that have no links out are missing from this map. 
+	 * @throws SQLException if there is a problem with the wikipedia database
+	 */
+	public TIntObjectHashMap<int[]> getLinksOutIds(int[] ids) throws SQLException {
+		
+		final TIntObjectHashMap<int[]> linksOut = new TIntObjectHashMap<int[]>(ids.length) ;
+		
+		if (areOutLinksCached()) {
+			for (int id:ids) {
+				int[] links = cachedOutLinks.getTargetArray(id) ;
+				if (links.length > 0)
+					linksOut.put(id, links) ;
+			}
+			return linksOut ;
+		}
+		
+		WikipediaStore s = store ;
+		if (s != null) {
+			for (int id:ids) {
+				int[] links = s.getLinksOut(id) ;
+				if (links.length > 0)
+					linksOut.put(id, links) ;
+			}
+			return linksOut ;
+		}
+		
+		fetchBatches("linksOutById", "SELECT lo_id, lo_data FROM pagelink_out WHERE lo_id IN (%s)", ids, new BatchRowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				String data = rs.getString(2) ;
+				if (data == null || data.equals(""))
+					return ;
+				
+				TIntArrayList links = new TIntArrayList() ;
+				for (String value:data.split(";")) {
+					int sep = value.indexOf(':') ;
+					if (sep > 0)
+						links.add(Integer.parseInt(value.substring(0, sep))) ;
+				}
+				
+				linksOut.put(rs.getInt(1), links.toNativeArray()) ;
+			}
+		}) ;
+		
+		return linksOut ;
+	}
+	
+	/**
+	 * Retrieves the first sentences of many pages at once. See Page.getFirstSentence() for details.
+	 * 
+	 * @param ids the ids of the pages of interest
+	 * @return the first sentence of each page, indexed by page id.
+	 * @throws SQLException if definitions have not been summarized, or if there is a problem with the wikipedia database
+	 */
+	public TIntObjectHashMap<String> getFirstSentences(int[] ids) throws SQLException {
+		if (!areDefinitionsSummarized())
+			throw new SQLException("Definitions have not been summarized") ;
+		
+		WikipediaStore s = store ;
+		if (s != null) {
+			TIntObjectHashMap<String> sentences = new TIntObjectHashMap<String>(ids.length) ;
+			for (int id:ids) {
+				String sentence = s.getFirstSentence(id) ;
+				if (sentence != null)
+					sentences.put(id, sentence) ;
+			}
+			return sentences ;
+		}
+		
+		return fetchStrings("firstSentencesById", "SELECT df_id, df_firstSentence FROM definition WHERE df_id IN (%s)", ids) ;
+	}
+	
+	/**
+	 * Retrieves the first paragraphs of many pages at once. See Page.getFirstParagraph() for details.
+	 * 
+	 * @param ids the ids of the pages of interest
+	 * @return the first paragraph of each page, indexed by page id.
+	 * @throws SQLException if definitions have not been summarized, or if there is a problem with the wikipedia database
+	 */
+	public TIntObjectHashMap<String> getFirstParagraphs(int[] ids) throws SQLException {
+		if (!areDefinitionsSummarized())
+			throw new SQLException("Definitions have not been summarized") ;
+		
+		WikipediaStore s = store ;
+		if (s != null) {
+			TIntObjectHashMap<String> paragraphs = new TIntObjectHashMap<String>(ids.length) ;
+			for (int id:ids) {
+				String paragraph = s.getFirstParagraph(id) ;
+				if (paragraph != null)
+					paragraphs.put(id, paragraph) ;
+			}
+			return paragraphs ;
+		}
+		
+		return fetchStrings("firstParagraphsById", "SELECT df_id, df_firstParagraph FROM definition WHERE df_id IN (%s)", ids) ;
+	}
+	
+	/**
+	 * Retrieves the content (in raw media wiki markup) of many pages at once.
+	 * 
+	 * @param ids the ids of the pages of interest
+	 * @return the content of each page, indexed by page id.
+	 * @throws SQLException if content has not been imported, or if there is a problem with the wikipedia database
+	 */
+	public TIntObjectHashMap<String> getContents(int[] ids) throws SQLException {
+		if (!isContentImported())
+			throw new SQLException("Page content has not been imported") ;
+		
+		WikipediaStore s = store ;
+		if (s != null) {
+			TIntObjectHashMap<String> contents = new TIntObjectHashMap<String>(ids.length) ;
+			for (int id:ids) {
+				String content = s.getContent(id) ;
+				if (content != null)
+					contents.put(id, content) ;
+			}
+			return contents ;
+		}
+		
+		return fetchStrings("contentsById", "SELECT co_id, co_content FROM content WHERE co_id IN (%s)", ids) ;
+	}
+	
+	private TIntObjectHashMap<String> fetchStrings(String name, String sql, int[] ids) throws SQLException {
+		
+		final TIntObjectHashMap<String> strings = new TIntObjectHashMap<String>(ids.length) ;
+		
+		fetchBatches(name, sql, ids, new BatchRowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				String s = getUTF8(rs, 2) ;
+				if (s != null)
+					strings.put(rs.getInt(1), s) ;
+			}
+		}) ;
+		
+		return strings ;
+	}
+	
+	private static String getUTF8(ResultSet rs, int column) throws SQLException {
+		byte[] bytes = rs.getBytes(column) ;
+		if (bytes == null)
+			return null ;
+		
+		try {
+			return new String(bytes, "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			return new String(bytes) ;
+		}
+	}
+	
+	/**
+	 * Handles a single row returned by a batched query
+	 */
+	private interface BatchRowHandler {
+		public void handleRow(ResultSet rs) throws SQLException ;
+	}
+	
+	/**
+	 * Issues a query of the form "... WHERE x IN (%s)" for the given ids, in batches of at most MAX_BATCH_SIZE. 
+	 * <p>
+	 * To keep the number of distinct prepared statements small, each batch is padded (by repeating its last id) up
+	 * to one of a few fixed sizes, so each batch size is only prepared once per connection.
+	 */
+	private void fetchBatches(String name, String sql, int[] ids, BatchRowHandler handler) throws SQLException {
+		
+		//remove duplicates, so the padding below is the only repetition
+		TIntHashSet uniqueIds = new TIntHashSet(ids) ;
+		int[] batchIds = uniqueIds.toArray() ;
+		Arrays.sort(batchIds) ;
+		
+		for (int start=0 ; start<batchIds.length ; start+=MAX_BATCH_SIZE) {
+			int length = Math.min(MAX_BATCH_SIZE, batchIds.length - start) ;
+			
+			int size = BATCH_SIZES[BATCH_SIZES.length-1] ;
+			for (int s:BATCH_SIZES) {
+				if (s >= length) {
+					size = s ;
+					break ;
+				}
+			}
+			
+			String batchName = name + "_" + size ;
+			if (!isQueryRegistered(batchName)) {
+				StringBuffer params = new StringBuffer("?") ;
+				for (int i=1 ; i<size ; i++)
+					params.append(",?") ;
+				
+				registerQuery(batchName, String.format(sql, params)) ;
+			}
+			
+			PreparedStatement stmt = prepareStatement(batchName) ;
+			try {
+				for (int i=0 ; i<size ; i++) 
+					stmt.setInt(i+1, batchIds[start + Math.min(i, length-1)]) ;
+			
+				ResultSet rs = stmt.executeQuery() ;
+				while (rs.next())
+					handler.handleRow(rs) ;
+				
+				rs.close() ;
+			} finally {
+				//make sure pooled connections are handed back, even if a row could not be handled
+				stmt.close() ;
+			}
+		}
+	}
+	
 	private void setStats() throws SQLException {
 		Statement stmt = createStatement() ;
 		ResultSet rs = stmt.executeQuery("SELECT * FROM stats") ;
@@ -230,94 +660,35 @@ public class WikipediaDatabase extends MySqlDatabase {
 						+ "KEY (an_to)) ; ") ;
 		stmt.close() ;
 		
-		HashMap<String, Integer> anchorCounts = new HashMap<String, Integer>() ;
-		
+		//many anchors may collapse to the same processed text, so (text, destination) pairs are sorted and summed on disk 
+		ExternalSorter sorter = new ExternalSorter() ;
 		
+		try {
+			int currRow = 0 ;
 			
-		int currRow = 0 ;
-		
-		int chunkIndex = 0 ;
-		int chunkSize = 100000 ;
-						
-		while (chunkIndex * chunkSize < rows) {
-			
-			//if (chunkIndex > 10) break ;
-			stmt = createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT * FROM anchor LIMIT " + chunkIndex * chunkSize + ", " + chunkSize ) ;
-			
-			while (rs.next()) {
-				try {
-					
-					String an_text = new String(rs.getBytes(1), "UTF-8") ;
-					long an_to = rs.getLong(2) ;
-					int an_count = rs.getInt(3) ;
-					
-					an_text = tp.processText(an_text) ;
-					
-					//System.out.println(an_text + "," + an_to + "," + an_count) ;
+			stmt = createStreamingStatement() ;
+			try {
+				ResultSet rs = stmt.executeQuery("SELECT an_text, an_to, an_count FROM anchor") ;
+				while (rs.next()) {
+					String an_text = tp.processText(new String(rs.getBytes(1), ParallelCsvReader.UTF8)) ;
 					
-					Integer count = anchorCounts.get(an_text + ":" + an_to) ;
+					if (an_text.length() > 0)
+						sorter.add(an_text, rs.getInt(2), rs.getInt(3), 0) ;
 					
-					if (count == null)
-						anchorCounts.put(an_text + ":" + an_to, an_count) ;
-					else
-						anchorCounts.put(an_text + ":" + an_to, count + an_count) ;
-				
-				} catch (Exception e) {e.printStackTrace() ;} ;
-				
-				currRow++ ;
+					if (++currRow % PROGRESS_INTERVAL == 0)
+						pn.update(currRow) ;
+				}
+				rs.close() ;
+			} finally {
+				stmt.close() ;
 			}
 			
-			rs.close() ;
-			stmt.close() ;
-			
-			chunkIndex++ ;
-			pn.update(currRow) ;
-		}
-		
-		rows = anchorCounts.size() ;
-		pn.startTask(rows, "Saving processed anchors") ;
-		
-		chunkIndex = 0 ;
-		
-		currRow = 0 ;
-		
-		StringBuffer insertQuery = new StringBuffer() ; ;
-		
-		for(String key:anchorCounts.keySet()) {
-			currRow ++ ;
-			
-			int pos = key.lastIndexOf(':') ;
+			long maxRows = sorter.getRecordsAdded() ;
+			pn.startTask(maxRows, "Saving processed anchors (at most " + maxRows + " rows)") ;
+			insertSortedRows(tableName, sorter.sort(), true, maxRows, pn) ;
 			
-			String an_text = key.substring(0, pos) ;
-			long an_to = new Long(key.substring(pos+1)).longValue() ;
-			int an_count = anchorCounts.get(key) ;
-			
-			if (an_text != "") 
-				insertQuery.append(" (\"" + addEscapes(an_text) + "\"," + an_to + "," + an_count + "),") ;
-			
-			if (currRow%chunkSize == 0) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-					
-					stmt = createStatement() ;
-					stmt.setEscapeProcessing(false) ;
-					stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-					stmt.close() ;
-					
-					insertQuery = new StringBuffer() ;
-				}
-				pn.update(currRow) ;
-			}
-		}
-		
-		if (insertQuery.length() > 0) {
-			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-						
-			stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-			stmt.close() ;
+		} catch (IOException e) {
+			throw new SQLException("Could not sort processed anchors: " + e.getMessage()) ;
 		}
 	}
 	
@@ -326,7 +697,7 @@ public class WikipediaDatabase extends MySqlDatabase {
 		System.out.println("Preparing anchor occurances for " + tp.getName()) ;
 		String tableName = "anchor_occurance_" + tp.getName() ;
 		
-		int rows = this.getRowCountExact("anchor") ;
+		int rows = this.getRowCountExact("anchor_occurance") ;
 		ProgressNotifier pn = new ProgressNotifier(2) ;
 		pn.startTask(rows, "Gathering and processing anchor occurances") ;
 		
@@ -343,94 +714,106 @@ public class WikipediaDatabase extends MySqlDatabase {
 					
 		stmt.close() ;
 		
-		HashMap<String, Integer[]> occuranceStats = new HashMap<String, Integer[]>() ;
+		ExternalSorter sorter = new ExternalSorter() ;
 		
-		int currRow = 0 ;
-		
-		int chunkIndex = 0 ;
-		int chunkSize = 100000 ;
-						
-		while (chunkIndex * chunkSize < rows) {
-			
-			//if (chunkIndex > 10) break ;
-			stmt = createStatement() ;
-			ResultSet rs = stmt.executeQuery("SELECT * FROM anchor_occurance LIMIT " + chunkIndex * chunkSize + ", " + chunkSize ) ;
+		try {
+			int currRow = 0 ;
 			
-			while (rs.next()) {
-				try {
-					
-					String ao_text = new String(rs.getBytes(1), "UTF-8") ;
-					int ao_linkCount = rs.getInt(2) ;
-					int ao_occCount = rs.getInt(3) ;
-					
-					ao_text = tp.processText(ao_text) ;					
-					Integer[] stats = occuranceStats.get(ao_text) ;
+			stmt = createStreamingStatement() ;
+			try {
+				ResultSet rs = stmt.executeQuery("SELECT ao_text, ao_linkCount, ao_occCount FROM anchor_occurance") ;
+				while (rs.next()) {
+					String ao_text = tp.processText(new String(rs.getBytes(1), ParallelCsvReader.UTF8)) ;
 					
-					if (stats != null) {
-						stats[0] = stats[0] + ao_linkCount ;
-						stats[1] = stats[1] + ao_occCount ;
-					} else {
-						stats = new Integer[2] ;
-						stats[0] = ao_linkCount ;
-						stats[1] = ao_occCount ;
-					}
+					if (ao_text.length() > 0)
+						sorter.add(ao_text, 0, rs.getInt(2), rs.getInt(3)) ;
 					
-					occuranceStats.put(ao_text, stats) ;
-				
-				} catch (Exception e) {e.printStackTrace() ;} ;
-				
-				currRow++ ;
+					if (++currRow % PROGRESS_INTERVAL == 0)
+						pn.update(currRow) ;
+				}
+				rs.close() ;
+			} finally {
+				stmt.close() ;
 			}
 			
-			rs.close() ;
-			stmt.close() ;
+			long maxRows = sorter.getRecordsAdded() ;
+			pn.startTask(maxRows, "Saving processed anchor occurances (at most " + maxRows + " rows)") ;
+			insertSortedRows(tableName, sorter.sort(), false, maxRows, pn) ;
 			
-			chunkIndex++ ;
-			pn.update(currRow) ;
+		} catch (IOException e) {
+			throw new SQLException("Could not sort processed anchor occurances: " + e.getMessage()) ;
 		}
+	}	
+	
+	/**
+	 * Saves aggregated (text, int, int) rows into the given table, INSERT_BATCH_SIZE rows per prepared statement.
+	 * 
+	 * @param withId true if the rows should be (text, id, valueA), false if they should be (text, valueA, valueB)
+	 * @param maxRows the number of records that were sorted. Duplicates are summed, so this is only an upper bound on the rows saved.
+	 * @param pn a progress notifier, whose current task is sized by maxRows
+	 */
+	private void insertSortedRows(String tableName, ExternalSorter.Cursor cursor, boolean withId, long maxRows, ProgressNotifier pn) throws SQLException, IOException {
 		
-		rows = occuranceStats.size() ;
-		pn.startTask(rows, "Saving processed anchor occurances") ;
-		
-		chunkIndex = 0 ;
-		
-		currRow = 0 ;
+		String[] texts = new String[INSERT_BATCH_SIZE] ;
+		int[] firstValues = new int[INSERT_BATCH_SIZE] ;
+		int[] secondValues = new int[INSERT_BATCH_SIZE] ;
 		
-		StringBuffer insertQuery = new StringBuffer() ; ;
+		int rows = 0 ;
+		long rowsDone = 0 ;
 		
-		for(String anchor:occuranceStats.keySet()) {
-			currRow ++ ;
+		try {
+			while (cursor.next()) {
+				texts[rows] = cursor.getText() ;
+				firstValues[rows] = withId ? cursor.getId() : cursor.getValueA() ;
+				secondValues[rows] = withId ? cursor.getValueA() : cursor.getValueB() ;
+				rows++ ;
+				
+				if (rows == INSERT_BATCH_SIZE) {
+					insertRows(tableName, texts, firstValues, secondValues, rows) ;
+					rowsDone += rows ;
+					rows = 0 ;
+					pn.update(rowsDone) ;
+				}
+			}
 			
-			Integer[] stats = occuranceStats.get(anchor) ;
-						
-			if (anchor != "") 
-				insertQuery.append(" (\"" + addEscapes(anchor) + "\"," + stats[0] + "," + stats[1] + "),") ;
+			if (rows > 0) {
+				insertRows(tableName, texts, firstValues, secondValues, rows) ;
+				rowsDone += rows ;
+				pn.update(rowsDone) ;
+			}
 			
-			if (currRow%chunkSize == 0) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-					
-					stmt = createStatement() ;
-					stmt.setEscapeProcessing(false) ;
-					stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-					stmt.close() ;
-					
-					insertQuery = new StringBuffer() ;
-				}
-				
-				pn.update(currRow) ;
+			//every row is saved, even if duplicates left fewer of them than the upper bound
+			pn.update(maxRows) ;
+		} finally {
+			cursor.close() ;
+		}
+	}
+	
+	private void insertRows(String tableName, String[] texts, int[] firstValues, int[] secondValues, int rows) throws SQLException {
+		
+		String name = "insert_" + tableName + "_" + rows ;
+		if (!isQueryRegistered(name)) {
+			StringBuffer sql = new StringBuffer("INSERT IGNORE INTO " + tableName + " VALUES ") ;
+			for (int i=0 ; i<rows ; i++) {
+				if (i > 0) sql.append(",") ;
+				sql.append("(?,?,?)") ;
 			}
+			registerQuery(name, sql.toString()) ;
 		}
 		
-		if (insertQuery.length() > 0) {
-			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-						
-			stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
+		PreparedStatement stmt = prepareStatement(name) ;
+		try {
+			int param = 1 ;
+			for (int i=0 ; i<rows ; i++) {
+				stmt.setString(param++, texts[i]) ;
+				stmt.setInt(param++, firstValues[i]) ;
+				stmt.setInt(param++, secondValues[i]) ;
+			}
+			stmt.executeUpdate() ;
+		} finally {
 			stmt.close() ;
 		}
-	}	
+	}
 	
 	/**
 	 * Loads a directory of summarized csv tables into the database. If overwrite is set to true, then 
@@ -492,162 +875,221 @@ public class WikipediaDatabase extends MySqlDatabase {
 		File pagelink_out = new File(directory.getPath() + File.separatorChar + "pagelink_out.csv") ;
 		checkFile(pagelink_out) ;
 		
-		// load manditory tables 
-		
-		if (overwrite || !tableExists("page")) {
-			initializeTable("page") ;
-			loadFile(page, "page") ;
-		}
+		// gather tables that need to be loaded
 		
-		if (overwrite || !tableExists("redirect")) {
-			initializeTable("redirect") ;
-			loadFile(redirect, "redirect") ;
-		}
+		Vector<String> tables = new Vector<String>() ;
+		Vector<File> files = new Vector<File>() ;
 		
-		if (overwrite || !tableExists("disambiguation")) {
-			initializeTable("disambiguation") ;
-			loadFile(disambig, "disambiguation") ;
-		}
+		queueTable("page", page, overwrite, tables, files) ;
+		queueTable("redirect", redirect, overwrite, tables, files) ;
+		queueTable("disambiguation", disambig, overwrite, tables, files) ;
+		queueTable("translation", translation, overwrite, tables, files) ;
+		queueTable("categorylink", catlink, overwrite, tables, files) ;
+		//queueTable("pagelink", pagelinkFile, overwrite, tables, files) ;
+		queueTable("linkcount", linkcount, overwrite, tables, files) ;
+		queueTable("anchor", anchor, overwrite, tables, files) ;
+		queueTable("stats", stats, overwrite, tables, files) ;
+		queueTable("generality", generality, overwrite, tables, files) ;
+		queueTable("equivalence", equivalence, overwrite, tables, files) ;
+		queueTable("pagelink_in", pagelink_in, overwrite, tables, files) ;
+		queueTable("pagelink_out", pagelink_out, overwrite, tables, files) ;
 		
-		if (overwrite || !tableExists("translation")) {
-			initializeTable("translation") ;
-			loadFile(translation, "translation") ;
-		}
+		// gather optional tables
 		
-		if (overwrite || !tableExists("categorylink")) {
-			initializeTable("categorylink") ;
-			loadFile(catlink, "categorylink") ;
-		}
+		File contentFile = new File(directory.getPath() + File.separatorChar + "content.csv") ;
+		if (contentFile.canRead())
+			queueTable("content", contentFile, overwrite, tables, files) ;
 		
-		/*
-		if (overwrite || !tableExists("pagelink")) {
-			initializeTable("pagelink") ;
-			loadFile(pagelinkFile, "pagelink") ;
-		}
-		*/
-		 
-		if (overwrite || !tableExists("linkcount")) {
-			initializeTable("linkcount") ;
-			loadFile(linkcount, "linkcount") ;
-		}
+		File occFile = new File(directory.getPath() + File.separatorChar + "anchor_occurance.csv") ;
+		if (occFile.canRead())
+			queueTable("anchor_occurance", occFile, overwrite, tables, files) ;
 		
-		if (overwrite || !tableExists("anchor")) {
-			initializeTable("anchor") ;
-			loadFile(anchor, "anchor") ;
+		loadFiles(tables, files) ;
+	}
+	
+	private void queueTable(String tableName, File file, boolean overwrite, Vector<String> tables, Vector<File> files) throws SQLException {
+		if (overwrite || !tableExists(tableName)) {
+			tables.add(tableName) ;
+			files.add(file) ;
 		}
+	}
+	
+	private void checkFile(File file) throws IOException {
+		if (!file.canRead())
+			throw new IOException(file.getPath() + " cannot be read") ;
+	}
+	
+	/**
+	 * Loads each file into its table, using one thread and one connection per table (up to the number of available processors).
+	 */
+	private void loadFiles(Vector<String> tables, Vector<File> files) throws IOException, SQLException {
 		
-		if (overwrite || !tableExists("stats")) {
-			initializeTable("stats") ;
-			loadFile(stats, "stats") ;
-		}
+		if (tables.isEmpty())
+			return ;
 		
-		if (overwrite || !tableExists("generality")) {
-			initializeTable("generality") ;
-			loadFile(generality, "generality") ;
+		long totalBytes = 0 ;
+		for (int i=0 ; i<tables.size() ; i++) {
+			initializeTable(tables.elementAt(i)) ;
+			totalBytes += files.elementAt(i).length() ;
 		}
 		
-		if (overwrite || !tableExists("equivalence")) {
-			initializeTable("equivalence") ;
-			loadFile(equivalence, "equivalence") ;
-		}
+		final ProgressNotifier pn = new ProgressNotifier(totalBytes, "Loading " + tables.size() + " tables") ;
+		final AtomicLong bytesDone = new AtomicLong(0) ;
 		
-		if (overwrite || !tableExists("pagelink_in")) {
-			initializeTable("pagelink_in") ;
-			loadFile(pagelink_in, "pagelink_in") ;
-		}
+		int threads = Math.min(tables.size(), Runtime.getRuntime().availableProcessors()) ;
+		ExecutorService executor = Executors.newFixedThreadPool(threads) ;
 		
-		if (overwrite || !tableExists("pagelink_out")) {
-			initializeTable("pagelink_out") ;
-			loadFile(pagelink_out, "pagelink_out") ;
-		}
-				
-		if (overwrite || !tableExists("content")) {
-			File contentFile = new File(directory.getPath() + File.separatorChar + "content.csv") ;
+		try {
+			Vector<Future<Object>> futures = new Vector<Future<Object>>() ;
 			
-			if (contentFile.canRead()) {
-				initializeTable("content") ;
-				loadFile(contentFile, "content") ;
+			for (int i=0 ; i<tables.size() ; i++) {
+				final String tableName = tables.elementAt(i) ;
+				final File file = files.elementAt(i) ;
+				
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws IOException, SQLException {
+						loadFile(file, tableName, pn, bytesDone) ;
+						return null ;
+					}
+				})) ;
 			}
+			
+			for (Future<Object> f:futures)
+				f.get() ;
+			
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted while loading tables") ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException)e.getCause() ;
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause() ;
+			
+			throw new SQLException("Could not load tables: " + e.getCause()) ;
+		} finally {
+			executor.shutdownNow() ;
 		}
 		
-		if (overwrite || !tableExists("anchor_occurance")) {
-			File occFile = new File(directory.getPath() + File.separatorChar + "anchor_occurance.csv") ;
-			
-			if (occFile.canRead()) {
-				initializeTable("anchor_occurance") ;
-				loadFile(occFile, "anchor_occurance") ;
-			}
-		}	
+		pn.update(totalBytes) ;
 	}
 	
-	private void checkFile(File file) throws IOException {
-		if (!file.canRead())
-			throw new IOException(file.getPath() + " cannot be read") ;
-	}
+	private void loadFile(File file, String tableName, ProgressNotifier pn, AtomicLong bytesDone) throws IOException, SQLException{
 		
-	private void loadFile(File file, String tableName) throws IOException, SQLException{
+		Connection c = openDedicatedConnection() ;
 		
-		long bytes = file.length() ; 
-		ProgressNotifier pn = new ProgressNotifier(bytes, "Loading " + tableName) ;
+		try {
+			Statement stmt = c.createStatement() ;
+			
+			//indexes are rebuilt in one pass once all rows are in, rather than being updated row by row
+			stmt.executeUpdate("ALTER TABLE " + tableName + " DISABLE KEYS") ;
+			
+			try {
+				ProgressInputStream input = new ProgressInputStream(new FileInputStream(file), pn, bytesDone) ;
 				
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
+				try {
+					bulkLoadFile(stmt, input, file, tableName) ;
+				} catch (SQLException e) {
+					//the server may not permit LOAD DATA LOCAL, so fall back to batched inserts. Rows that made it in are ignored as duplicates.
+					System.err.println("WARNING: could not bulk load " + tableName + " (" + e.getMessage() + "), inserting rows instead.") ;
+					
+					input.close() ;
+					bytesDone.addAndGet(-input.getBytesRead()) ;
+					
+					input = new ProgressInputStream(new FileInputStream(file), pn, bytesDone) ;
+					insertFile(stmt, input, tableName) ;
+				} finally {
+					input.close() ;
+				}
+			} finally {
+				stmt.executeUpdate("ALTER TABLE " + tableName + " ENABLE KEYS") ;
+				stmt.close() ;
+			}
+		} finally {
+			c.close() ;
+		}
+	}
+	
+	private void bulkLoadFile(Statement stmt, InputStream input, File file, String tableName) throws SQLException {
+		
+		if (!(stmt instanceof com.mysql.jdbc.Statement))
+			throw new SQLException("driver does not support streamed LOAD DATA LOCAL") ;
+		
+		//the driver reads from this stream instead of the named file, so progress can be tracked.
+		((com.mysql.jdbc.Statement)stmt).setLocalInfileInputStream(input) ;
+		
+		stmt.executeUpdate("LOAD DATA LOCAL INFILE \"" + addEscapes(file.getPath()) + "\" IGNORE INTO TABLE " + tableName 
+				+ " CHARACTER SET utf8" 
+				+ " FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '\\\\'"
+				+ " LINES TERMINATED BY '\\n'") ;
+	}
+	
+	private void insertFile(Statement stmt, InputStream input, String tableName) throws IOException, SQLException {
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8")) ;
 		String line ;
 		
-		long bytesRead = 0 ;		
-		long chunkSize = bytes/100 ;
-				
 		StringBuffer insertQuery = new StringBuffer() ;
+		stmt.setEscapeProcessing(false) ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-				
+		while ((line=reader.readLine()) != null) {
+			if (line.length() == 0)
+				continue ;
+			
 			insertQuery.append("(" + line + "),") ; 
 			
-			if (insertQuery.length() > chunkSize) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-					
-					try {
-						Statement stmt = createStatement() ;
-						stmt.setEscapeProcessing(false) ;
-						stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-						stmt.close() ;
-					} catch (SQLException e) {
-						System.out.println(insertQuery) ;
-						throw(e) ;
-					}
-					
-					insertQuery = new StringBuffer() ;
-				}
-				pn.update(bytesRead) ;
+			if (insertQuery.length() > INSERT_QUERY_LENGTH) {
+				insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
+				stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString()) ;
+				insertQuery = new StringBuffer() ;
 			}
 		}
 		
-		input.close() ;
-		
 		if (insertQuery.length() > 0) {
 			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-			
-			Statement stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString() ) ;
-			stmt.close() ;
+			stmt.executeUpdate("INSERT IGNORE INTO " + tableName + " VALUES" + insertQuery.toString()) ;
 		}
-		
-		pn.update(bytes) ;
 	}
 	
-	private int getLineCount(File file) throws IOException{
-		int count = 0 ;
+	/**
+	 * Reports the number of bytes (rather than characters) read from a file to a progress notifier shared by several loaders.
+	 */
+	private static class ProgressInputStream extends FilterInputStream {
 		
-		BufferedReader input = new BufferedReader(new FileReader(file)) ;
-
-		while (input.readLine() != null) 
-			count ++ ;
+		private ProgressNotifier pn ;
+		private AtomicLong bytesDone ;
+		private long bytesRead = 0 ;
+		
+		ProgressInputStream(InputStream in, ProgressNotifier pn, AtomicLong bytesDone) {
+			super(new BufferedInputStream(in, 1 << 16)) ;
+			this.pn = pn ;
+			this.bytesDone = bytesDone ;
+		}
+		
+		public int read() throws IOException {
+			int b = super.read() ;
+			if (b >= 0)
+				count(1) ;
+			return b ;
+		}
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len) ;
+			if (n > 0)
+				count(n) ;
+			return n ;
+		}
 		
-		input.close();
+		long getBytesRead() {
+			return bytesRead ;
+		}
 		
-		return count ;		
+		private void count(int n) {
+			bytesRead += n ;
+			long done = bytesDone.addAndGet(n) ;
+			synchronized (pn) {
+				pn.update(done) ;
+			}
+		}
 	}
 	
 	private void initializeTable(String tableName) throws SQLException {
@@ -797,26 +1239,62 @@ public class WikipediaDatabase extends MySqlDatabase {
 	}
 	
 	/**
-	 * @return the maximum path length from any article to the root "Fundamental" category. 
+	 * @return the maximum path length from any article to the root "Fundamental" category. This is only 
+	 * queried once; after that (or once generality is cached or computed) it is remembered.
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public int getMaxPageDepth() throws SQLException{
-		if (maxPageDepth > 0)
+		if (maxPageDepth >= 0)
 			return maxPageDepth ;
 			
 		Statement stmt = createStatement() ;
 		ResultSet rs = stmt.executeQuery("SELECT MAX(gn_depth) FROM generality") ;
 		
+		int maxDepth = 0 ;
 		if (rs.first()) {
 			try {
-				maxPageDepth = rs.getInt(1) ; 
+				maxDepth = rs.getInt(1) ; 
 			} catch (Exception e) {} ;
 		}
 		
 		rs.close() ;
 		stmt.close() ;
 		
-		return maxPageDepth ;
+		maxPageDepth = maxDepth ;
+		return maxDepth ;
+	}
+	
+	/**
+	 * Sets the number of threads used to parse csv files when caching. These threads are shared by every cache that is 
+	 * gathered at once. The default is one thread per available processor.
+	 * 
+	 * @param threads the number of threads to use
+	 */
+	public synchronized void setCacheThreads(int threads) {
+		this.cacheThreads = Math.max(1, threads) ;
+		
+		//idle threads of the old executor time out by themselves
+		csvExecutor = null ;
+	}
+	
+	/**
+	 * @return a reader for csv files. Readers all parse with the same bounded set of threads, so caches can be 
+	 * gathered concurrently (as the servlet does) without starting more than cacheThreads parsing threads in total.
+	 */
+	private synchronized ParallelCsvReader getCsvReader() {
+		
+		if (csvExecutor == null) {
+			csvExecutor = new ThreadPoolExecutor(cacheThreads, cacheThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "csv-reader") ;
+					t.setDaemon(true) ;
+					return t ;
+				}
+			}) ;
+			csvExecutor.allowCoreThreadTimeOut(true) ;
+		}
+		
+		return new ParallelCsvReader(csvExecutor, cacheThreads) ;
 	}
 	
 	/**
@@ -830,141 +1308,269 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @param pn an optional progress notifier
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public void cacheAnchors(File dir, TextProcessor tp, TIntHashSet validIds, int minLinkCount, ProgressNotifier pn) throws IOException{
+	public void cacheAnchors(File dir, final TextProcessor tp, final TIntHashSet validIds, final int minLinkCount, ProgressNotifier pn) throws IOException{
 	
 		File anchorFile = new File(dir.getPath() + File.separatorChar + "anchor_summary.csv") ;
 		File occuranceFile = new File(dir.getPath() + File.separatorChar + "anchor_occurance.csv") ;
 		
 		boolean cachingOccurances = occuranceFile.canRead() ;
 		
-		cachedAnchors = new THashMap<String,CachedAnchor>() ;
-		
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(anchorFile), "UTF-8")) ;
-		
 		if (pn == null) pn = new ProgressNotifier(1) ;
 		if (cachingOccurances)
 			pn.startTask(anchorFile.length() + occuranceFile.length(), "caching anchors") ;
 		else
 			pn.startTask(anchorFile.length(), "caching anchors") ;
-				
 		
-		long bytesRead = 0 ;
-		String line ;
-						
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-						
-			int sep = line.lastIndexOf(',') ;
-			String anchor = line.substring(1, sep-1) ;
-			String data = line.substring(sep+2, line.length()-1) ;
-			
-			//System.out.println(anchor + " -> " + data) ;
-			
-			String[] temp = data.split(";") ;
+		ParallelCsvReader reader = getCsvReader() ;
+		
+		// anchors are gathered and merged here, and then compacted into an AnchorDictionary
+		Vector<THashMap<String,CachedAnchor>> chunks = reader.read(anchorFile, new ParallelCsvReader.LineHandler<THashMap<String,CachedAnchor>>() {
 			
-			Vector<int[]> senses = new Vector<int[]>() ;
+			public THashMap<String,CachedAnchor> createChunk() {
+				return new THashMap<String,CachedAnchor>() ;
+			}
 
-			for (String t:temp) {
-				String[] values = t.split(":") ;
-				int[] sense = new int[2] ;
-								
-				sense[0] = new Integer(values[0]) ;
-				sense[1] = new Integer(values[1]) ;
+			public void handleLine(byte[] data, int start, int end, THashMap<String,CachedAnchor> chunk) {
+				
+				int sep = ParallelCsvReader.lastIndexOf(data, (byte)',', start, end) ;
 				
-				if ((validIds == null || validIds.contains(sense[0])) && sense[1] > minLinkCount) {
-					senses.add(sense) ;
+				Vector<int[]> senses = new Vector<int[]>() ;
+				
+				int pos = sep+2 ;
+				while (pos < end-1) {
+					int sep1 = ParallelCsvReader.indexOf(data, (byte)':', pos, end-1) ;
+					int sep2 = ParallelCsvReader.indexOf(data, (byte)';', sep1, end-1) ;
+					if (sep2 < 0) sep2 = end-1 ;
+					
+					int[] sense = new int[2] ;
+					sense[0] = ParallelCsvReader.parseInt(data, pos, sep1) ;
+					sense[1] = ParallelCsvReader.parseInt(data, sep1+1, sep2) ;
+					
+					if ((validIds == null || validIds.contains(sense[0])) && sense[1] > minLinkCount) 
+						senses.add(sense) ;
+					
+					pos = sep2+1 ;
 				}
-			}
-			
-			if (senses.size() > 0) {
-				if (tp != null) 
-					anchor = tp.processText(anchor) ;
 				
-				CachedAnchor ca = cachedAnchors.get(anchor) ;
-				if (ca == null) {
-					ca = new CachedAnchor(senses) ;
-					cachedAnchors.put(anchor, ca) ;
-				} else {			
-					ca.addSenses(senses) ;
+				if (senses.size() > 0) {
+					String anchor = ParallelCsvReader.getString(data, start+1, sep-1) ;
+					if (tp != null) 
+						anchor = tp.processText(anchor) ;
+					
+					CachedAnchor ca = chunk.get(anchor) ;
+					if (ca == null) {
+						ca = new CachedAnchor(senses) ;
+						chunk.put(anchor, ca) ;
+					} else {			
+						ca.addSenses(senses) ;
+					}
 				}
 			}
-			pn.update(bytesRead) ;
-		}
+		}, pn, 0) ;
 		
-		input.close() ;
+		// merge chunks in order, as if the file had been read in one pass
+		final THashMap<String,CachedAnchor> anchors = chunks.remove(0) ;
+		while (!chunks.isEmpty()) {
+			THashMap<String,CachedAnchor> chunk = chunks.remove(0) ;
+			
+			for (Map.Entry<String,CachedAnchor> e:chunk.entrySet()) {
+				CachedAnchor ca = anchors.get(e.getKey()) ;
+				if (ca == null) 
+					anchors.put(e.getKey(), e.getValue()) ;
+				else 
+					ca.addSenses(new Vector<int[]>(Arrays.asList(e.getValue().senses))) ;
+			}
+		}
 		
-		if (occuranceFile.canRead()) {
-			input = new BufferedReader(new InputStreamReader(new FileInputStream(occuranceFile), "UTF-8")) ;
-							
-			while ((line=input.readLine()) != null) {
-				bytesRead = bytesRead + line.length() ;
-				
-				int sep2 = line.lastIndexOf(',') ;
-				int sep1 = line.lastIndexOf(',', sep2-1) ;
-				
-				String ngram = line.substring(1, sep1-1) ;
-				//int linkCount = new Integer(line.substring(sep1+1, sep2)) ;
-				int occCount = new Integer(line.substring(sep2+1)) ;
-				
-				if (tp != null) 
-					ngram = tp.processText(ngram) ;
+		if (cachingOccurances) {
+			
+			Vector<TObjectIntHashMap<String>> occChunks = reader.read(occuranceFile, new ParallelCsvReader.LineHandler<TObjectIntHashMap<String>>() {
 				
-				// if we are doing morphological processing, then we need to resolve collisions
-				CachedAnchor ca = cachedAnchors.get(ngram) ;
-				if (ca != null) 
-					ca.addOccCount(occCount) ;
+				public TObjectIntHashMap<String> createChunk() {
+					return new TObjectIntHashMap<String>() ;
+				}
 				
-				pn.update(bytesRead) ;
+				public void handleLine(byte[] data, int start, int end, TObjectIntHashMap<String> chunk) {
+					
+					int sep2 = ParallelCsvReader.lastIndexOf(data, (byte)',', start, end) ;
+					int sep1 = ParallelCsvReader.lastIndexOf(data, (byte)',', start, sep2) ;
+					
+					String ngram = ParallelCsvReader.getString(data, start+1, sep1-1) ;
+					int occCount = ParallelCsvReader.parseInt(data, sep2+1, end) ;
+					
+					if (tp != null) 
+						ngram = tp.processText(ngram) ;
+					
+					// if we are doing morphological processing, then we need to resolve collisions
+					if (anchors.containsKey(ngram))
+						chunk.adjustOrPutValue(ngram, occCount, occCount) ;
+				}
+			}, pn, anchorFile.length()) ;
+			
+			for (TObjectIntHashMap<String> chunk:occChunks) {
+				TObjectIntIterator<String> iter = chunk.iterator() ;
+				while (iter.hasNext()) {
+					iter.advance() ;
+					anchors.get(iter.key()).addOccCount(iter.value()) ;
+				}
 			}
-			input.close();
 		}
+		
+		AnchorDictionary.Builder builder = new AnchorDictionary.Builder(anchors.size()) ;
+		for (Map.Entry<String,CachedAnchor> e:anchors.entrySet()) 
+			builder.add(e.getKey(), e.getValue().senses, e.getValue().linkCount, e.getValue().occCount) ;
+		
+		anchors.clear() ;
+		
+		//set the processor first, so the anchors are never seen with the wrong one
 		this.cachedProcessor = tp ;
+		this.cachedAnchors = builder.build() ;
 	}
 
 	/**
 	 * Caches pages, so that titles and types can be retrieved 
-	 * very quickly without consulting the database.
+	 * very quickly without consulting the database. Pages are also indexed by title, and if redirect.csv is 
+	 * available then redirects are cached and resolved to their final targets, so that pages can be 
+	 * looked up by title without consulting the database either.
+	 * <p>
+	 * Titles are held as UTF-8 in a single arena rather than as one String per page (see PageCache), and are only 
+	 * decoded when a page's title is asked for.
+	 * <p>
+	 * If a set of valid ids is given, then redirects are only cached if they resolve to one of these ids.
 	 * 
 	 * @param dir	the directory containing csv files extracted from a Wikipedia dump.
 	 * @param validIds an optional set of ids. Only anchors that point to these ids, and only destinations within this list will be cached. 
 	 * @param pn an optional progress notifier
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public void cachePages(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+	public void cachePages(File dir, final TIntHashSet validIds, ProgressNotifier pn) throws IOException {
 		
 		File pageFile = new File(dir.getPath() + File.separatorChar + "page.csv") ;
+		File redirectFile = new File(dir.getPath() + File.separatorChar + "redirect.csv") ;
 		
-		if (validIds == null)
-			cachedPages = new TIntObjectHashMap<CachedPage>(getPageCount(), 1) ;
-		else
-			cachedPages = new TIntObjectHashMap<CachedPage>(validIds.size(), 1) ;
+		final boolean cacheRedirects = redirectFile.canRead() ;
 		
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(pageFile), "UTF-8")) ;
+		long totalBytes = pageFile.length() ;
+		if (cacheRedirects) totalBytes += redirectFile.length() ;
 		
 		if (pn == null) pn = new ProgressNotifier(1) ;
-		pn.startTask(pageFile.length(), "caching pages") ;
+		pn.startTask(totalBytes, "caching pages") ;
 		
-		long bytesRead = 0 ;
-		String line ;
+		ParallelCsvReader reader = getCsvReader() ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
+		Vector<PageCache.Builder> chunks = reader.read(pageFile, new ParallelCsvReader.LineHandler<PageCache.Builder>() {
 			
-			int sep1 = line.indexOf(',') ;
-			int sep2 = line.lastIndexOf(',') ;
-			
-			int id = new Integer(line.substring(0, sep1)) ;
+			public PageCache.Builder createChunk() {
+				return new PageCache.Builder() ;
+			}
 			
-			if (validIds == null || validIds.contains(id)) {
-				String title = line.substring(sep1+2, sep2-1) ;
-				int type = new Integer(line.substring(sep2+1)) ;
+			public void handleLine(byte[] data, int start, int end, PageCache.Builder chunk) {
+				
+				int sep1 = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				int sep2 = ParallelCsvReader.lastIndexOf(data, (byte)',', start, end) ;
+				
+				int id = ParallelCsvReader.parseInt(data, start, sep1) ;
+				int type = ParallelCsvReader.parseInt(data, sep2+1, end) ;
+				
+				//redirects are kept for now, and filtered once their targets are known
+				if (validIds == null || validIds.contains(id) || (cacheRedirects && type == Page.REDIRECT)) 
+					chunk.add(id, type, data, sep1+2, sep2-1) ;
+			}
+		}, pn, 0) ;
+		
+		//chunks are in file order, so merging them keeps pages in id order if the file is
+		PageCache.Builder builder = chunks.isEmpty() ? new PageCache.Builder() : chunks.remove(0) ;
+		while (!chunks.isEmpty()) 
+			builder.addAll(chunks.remove(0)) ;
+		
+		PageCache pages = builder.build() ;
+		builder = null ;
+		
+		TIntIntHashMap redirectTargets = null ;
+		
+		if (cacheRedirects) {
+			Vector<TIntArrayList> redirectChunks = reader.read(redirectFile, new ParallelCsvReader.LineHandler<TIntArrayList>() {
+				
+				public TIntArrayList createChunk() {
+					return new TIntArrayList() ;
+				}
+				
+				public void handleLine(byte[] data, int start, int end, TIntArrayList chunk) {
+					
+					int sep = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+					if (sep < 0) 
+						return ;
+					
+					try {
+						int from = ParallelCsvReader.parseInt(data, start, sep) ;
+						int to = ParallelCsvReader.parseInt(data, sep+1, end) ;
 						
-				CachedPage p = new CachedPage(title, type) ;
-				cachedPages.put(id, p) ;
+						chunk.add(from) ;
+						chunk.add(to) ;
+					} catch (NumberFormatException e) {
+						//ignore malformed lines
+					}
+				}
+			}, pn, pageFile.length()) ;
+			
+			TIntIntHashMap directTargets = new TIntIntHashMap() ;
+			for (TIntArrayList chunk:redirectChunks) 
+				for (int i=0 ; i<chunk.size() ; i+=2) 
+					directTargets.put(chunk.get(i), chunk.get(i+1)) ;
+			
+			redirectChunks = null ;
+			
+			redirectTargets = resolveRedirects(directTargets, pages) ;
+			
+			//discard redirects which were only kept so their targets could be checked
+			if (validIds != null) {
+				TIntHashSet unwanted = new TIntHashSet() ;
+				for (int i=0 ; i<pages.size() ; i++) {
+					int id = pages.getId(i) ;
+					if (pages.getType(i) == Page.REDIRECT && !redirectTargets.containsKey(id) && !validIds.contains(id))
+						unwanted.add(id) ;
+				}
+				
+				if (!unwanted.isEmpty())
+					pages = pages.without(unwanted) ;
+			}
+		}
+		
+		setCachedPages(pages, redirectTargets) ;
+	}
+	
+	/**
+	 * Follows chains of redirects (A->B->C) until they reach a page that is not a redirect. 
+	 * 
+	 * @param directTargets the direct target of each redirect
+	 * @param pages the cached pages
+	 * @return the final target of each redirect, for redirects whose final target is a cached article or disambiguation page.
+	 */
+	private TIntIntHashMap resolveRedirects(TIntIntHashMap directTargets, PageCache pages) {
+		
+		TIntIntHashMap finalTargets = new TIntIntHashMap(directTargets.size()) ;
+		TIntHashSet followed = new TIntHashSet() ;
+		
+		TIntIntIterator iter = directTargets.iterator() ;
+		while (iter.hasNext()) {
+			iter.advance() ;
+			
+			int currId = iter.value() ;
+			followed.clear() ;
+			followed.add(iter.key()) ;
+			
+			//stop at anything that is not a redirect, or if we have gone around in a circle
+			while (directTargets.containsKey(currId) && !followed.contains(currId)) {
+				followed.add(currId) ;
+				currId = directTargets.get(currId) ;
 			}
-			pn.update(bytesRead) ;
+			
+			int target = pages.indexOf(currId) ;
+			if (target >= 0 && (pages.getType(target) == Page.ARTICLE || pages.getType(target) == Page.DISAMBIGUATION))
+				finalTargets.put(iter.key(), currId) ;
 		}
-		input.close();
+		
+		return finalTargets ;
 	}
 	
 	/**
@@ -977,48 +1583,45 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @throws IOException if the relevant files cannot be read.
 	 */
 	public void cacheInLinks(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
+		cacheInLinks(dir, validIds, false, pn) ;
+	}
+	
+	/**
+	 * Caches links in to pages, so these and relatedness measures can be calculated very quickly,
+	 * without consulting the database. 
+	 * <p>
+	 * The links can optionally be compressed (see CompressedPostings). This typically needs less than half of the memory, 
+	 * so the whole in-link graph can be held on smaller machines, and relatedness between a popular article and an obscure one 
+	 * is calculated faster. Retrieving the links of an individual article is slower, however, since they must be decompressed.
+	 * 
+	 * @param dir	the directory containing csv files extracted from a Wikipedia dump.
+	 * @param validIds an optional set of ids. Only anchors that point to these ids, and only destinations within this list will be cached. 
+	 * @param compress true if links are to be compressed, otherwise false.
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public void cacheInLinks(File dir, TIntHashSet validIds, boolean compress, ProgressNotifier pn) throws IOException {
 		
 		File file = new File(dir.getPath() + File.separatorChar + "pagelink_in.csv") ;		
 		
-		if (validIds == null)
-			cachedInLinks = new TIntObjectHashMap<int[]>(getLineCount(file), 1) ;
-		else
-			cachedInLinks = new TIntObjectHashMap<int[]>(validIds.size(), 1) ;
-		
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
-		
 		if (pn == null) pn = new ProgressNotifier(1) ;
-		pn.startTask(file.length(), "caching links into pages") ;
-		
-		long bytesRead = 0 ;
-		String line ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-						
-			int pos = line.indexOf(',') ;
-			int id = new Integer(line.substring(0, pos)) ;
+		if (compress) {
+			pn.startTask(file.length(), "caching links into pages") ;
 			
-			if (validIds == null || validIds.contains(id)) {
-				String data = line.substring(pos+2, line.length()-1) ;
-				
-				String[] temp = data.split(":") ;
-				int[] links = new int[temp.length] ;
-				
-				int i = 0 ;
-				for (String t:temp) {
-					if (!t.equals("")) {
-						links[i] = new Integer(t) ;
-						i++ ;
-					}
-				}
-				
-				cachedInLinks.put(id, links) ;
-			}
-
-			pn.update(bytesRead) ;
+			//rows are compressed as they are parsed, so the uncompressed links are never gathered anywhere
+			CompressedPostings.Builder builder = new CompressedPostings.Builder((int)Math.min(file.length()/4, 1<<26)) ;
+			getCsvReader().read(file, new LinkRowHandler(validIds, builder), pn, 0) ;
+			
+			cachedInLinks = null ;
+			cachedCompressedInLinks = builder.build() ;
+		} else {
+			//the file is read twice (see readLinkStore())
+			pn.startTask(2 * file.length(), "caching links into pages") ;
+			
+			cachedInLinks = readLinkStore(file, validIds, false, pn) ;
+			cachedCompressedInLinks = null ;
 		}
-		input.close();
 	}
 	
 	/**
@@ -1034,44 +1637,33 @@ public class WikipediaDatabase extends MySqlDatabase {
 		
 		File file = new File(dir.getPath() + File.separatorChar + "pagelink_out.csv") ;
 		
-		if (validIds == null)
-			cachedOutLinks = new TIntObjectHashMap<int[][]>(getLineCount(file), 1) ;
-		else
-			cachedOutLinks = new TIntObjectHashMap<int[][]>(validIds.size(), 1) ;
-			
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")) ;
-		
 		if (pn == null) pn = new ProgressNotifier(1) ;
-		pn.startTask(file.length(), "caching links out from pages") ;
 		
-		long bytesRead = 0 ;
-		String line ;
+		//the file is read twice (see readLinkStore())
+		pn.startTask(2 * file.length(), "caching links out from pages") ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-						
-			int pos = line.indexOf(',') ;
-			int id = new Integer(line.substring(0, pos)) ;
-			
-			if (validIds == null || validIds.contains(id)) {
-				String data = line.substring(pos+2, line.length()-1) ;
-				String[] temp = data.split(";") ;
-	
-				int[][] links = new int[temp.length][2] ;
+		setCachedOutLinks(readLinkStore(file, validIds, true, pn)) ;
+	}
 	
-				int i = 0 ;
-				for (String t:temp) {
-					String[] values = t.split(":") ;
-					links[i][0] = new Integer(values[0]) ;
-					links[i][1] = new Integer(values[1]) ;
+	/**
+	 * Replaces the cache of links out from pages, along with the relatedness engine that is built on it.
+	 * 
+	 * @param outLinks links out from pages, with counts of the links in to each target; or null to discard them.
+	 */
+	protected void setCachedOutLinks(LinkStore outLinks) {
+		relatednessEngine = new RelatednessEngine(this, outLinks) ;
+		cachedOutLinks = outLinks ;
+	}
 	
-					i++ ;
-				}
-				cachedOutLinks.put(id, links) ;
-			}
-			
-			pn.update(bytesRead) ;
-		}
+	/**
+	 * @return an engine that measures relatedness from cached links without creating any objects, or null if no links are cached.
+	 */
+	public RelatednessEngine getRelatednessEngine() {
+		
+		if (!areOutLinksCached() && !areInLinksCached())
+			return null ;
+		
+		return relatednessEngine ;
 	}
 	
 	
@@ -1084,133 +1676,456 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @param pn an optional progress notifier
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public void cacheGenerality(File dir, TIntHashSet validIds, ProgressNotifier pn) throws IOException {
-		
+	public void cacheGenerality(File dir, final TIntHashSet validIds, ProgressNotifier pn) throws IOException {
 
 		File pageFile = new File(dir.getPath() + File.separatorChar + "generality.csv") ;		
 
-		if (validIds == null)
-			cachedGenerality = new TIntIntHashMap(getPageCount() , 1) ;
-		else
-			cachedGenerality = new TIntIntHashMap(validIds.size(), 1) ;
-
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(pageFile), "UTF-8")) ;
-		
 		if (pn == null) pn = new ProgressNotifier(1) ;
 		pn.startTask(pageFile.length(), "caching generality") ;
 		
-		long bytesRead = 0 ;
-		String line ;
+		Vector<TIntArrayList> chunks = getCsvReader().read(pageFile, new ParallelCsvReader.LineHandler<TIntArrayList>() {
+			
+			public TIntArrayList createChunk() {
+				return new TIntArrayList() ;
+			}
+			
+			public void handleLine(byte[] data, int start, int end, TIntArrayList chunk) {
+				
+				int sep = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				int id = ParallelCsvReader.parseInt(data, start, sep) ;
+				
+				if (validIds==null || validIds.contains(id)){
+					chunk.add(id) ;
+					chunk.add(ParallelCsvReader.parseInt(data, sep+1, end)) ;
+				}
+			}
+		}, pn, 0) ;
 		
+		int size = 0 ;
+		for (TIntArrayList chunk:chunks)
+			size += chunk.size()/2 ;
+		
+		TIntIntHashMap generality = new TIntIntHashMap(size, 1) ;
 		int maxDepth = 0 ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-						
-			int sep = line.indexOf(',') ;			
-			int id = new Integer(line.substring(0, sep)) ;
-			
-			if (validIds==null || validIds.contains(id)){
-				int depth = new Integer(line.substring(sep+1).trim()) ;
-				cachedGenerality.put(id, depth) ;
+		for (TIntArrayList chunk:chunks) {
+			for (int i=0 ; i<chunk.size() ; i+=2) {
+				int depth = chunk.get(i+1) ;
+				generality.put(chunk.get(i), depth) ;
 				if (depth > maxDepth) maxDepth = depth ;	
 			}
-
-			pn.update(bytesRead) ;
 		}
 		
 		this.maxPageDepth = maxDepth ;
-		input.close();
+		this.cachedGenerality = generality ;
 	}
 	
 	/**
-	 * Caches parent categories of articles and categories, so that they can be retrieved and 
-	 * traversed very quickly without consulting the database.
+	 * Computes generality (the minimum depth of each article and category beneath the given root category) 
+	 * directly from the cached category graph, instead of reading it from generality.csv. The result is cached 
+	 * exactly as cacheGenerality() would cache it, so it is included in cache snapshots, and can be saved 
+	 * to the generality table with saveGenerality().
+	 * <p>
+	 * This is a level-synchronous breadth first search: the categories at each depth are split between 
+	 * the threads used for caching, and each page is claimed by whichever thread reaches it first. 
 	 * 
-	 * @param dataDirectory the directory containing csv files extracted from a Wikipedia dump.
+	 * @param rootTitle the title of the root category (DEFAULT_ROOT_CATEGORY for the english Wikipedia, but "Main page" for the simple 
+	 * english Wikipedia and others)
+	 * @param validIds an optional set of ids. Only generality of pages within this set will be cached.
 	 * @param pn an optional progress notifier
-	 * @throws IOException if the relevant files cannot be read.
+	 * @throws SQLException if the root category cannot be found, or the search is interrupted.
+	 * @throws IllegalStateException if the category graph has not been cached (see cacheCategoryGraph())
 	 */
-	public void cacheParentIds(File dataDirectory, ProgressNotifier pn) throws IOException{
-		//TODO: make this work for a set of article ids
-		cachedParentIds = new TIntObjectHashMap<int[]> () ;
+	public void computeGenerality(String rootTitle, TIntHashSet validIds, ProgressNotifier pn) throws SQLException {
 		
-		File categoryFile = new File(dataDirectory.getPath() + File.separatorChar + "categorylink.csv") ;	
+		final LinkStore childCategoryIds = cachedChildCategoryIds ;
+		final LinkStore childArticleIds = cachedChildArticleIds ;
+		LinkStore parentIds = cachedParentIds ;
 		
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(categoryFile), "UTF-8")) ;
+		if (childCategoryIds == null || childArticleIds == null || parentIds == null)
+			throw new IllegalStateException("the category graph must be cached before generality can be computed") ;
 		
-		if (pn== null) pn = new ProgressNotifier(1) ;
-		pn.startTask(categoryFile.length(), "caching parents") ;
+		int rootId = new Category(this, rootTitle).getId() ;
 		
-		long bytesRead = 0 ;
-		String line ;
-		Pattern p = Pattern.compile("^(\\d*),(\\d*)$") ;
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(childCategoryIds.getSize() + childArticleIds.getSize(), "computing generality") ;
 		
-		int lastChild = -1 ;
-		Vector<Integer> parents = new Vector<Integer>() ;
+		//every page in the graph has parents, unless it is the root. Depths are stored plus one, so zero means unvisited.
+		final AtomicIntegerArray depths = new AtomicIntegerArray(Math.max(parentIds.getMaxId(), rootId) + 1) ;
+		depths.set(rootId, 1) ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-			
-			Matcher m = p.matcher(line) ;
-			if (m.matches()) {
-				int parentId = new Integer(m.group(1)) ;
-				int childId = new Integer(m.group(2)) ;
+		int[] frontier = {rootId} ;
+		int depth = 0 ;
+		long linksDone = 0 ;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(cacheThreads) ;
+		
+		try {
+			while (frontier.length > 0) {
 				
-				if (childId == lastChild)
-					parents.add(parentId) ;
-				else {
-					if (!parents.isEmpty()) {
-						int[] pArray = new int[parents.size()] ;
-						
-						int i=0 ;
-						for (int pId:parents) {
-							pArray[i] = pId ;
-							i++ ;
+				final int[] categories = frontier ;
+				final int childDepth = depth + 1 ;
+				
+				Vector<Callable<TIntArrayList>> tasks = new Vector<Callable<TIntArrayList>>() ;
+				
+				for (int start=0 ; start<categories.length ; start+=GENERALITY_CHUNK_SIZE) {
+					final int chunkStart = start ;
+					final int chunkEnd = Math.min(start + GENERALITY_CHUNK_SIZE, categories.length) ;
+					
+					tasks.add(new Callable<TIntArrayList>() {
+						public TIntArrayList call() {
+							TIntArrayList nextCategories = new TIntArrayList() ;
+							
+							for (int i=chunkStart ; i<chunkEnd ; i++) {
+								
+								IntBuffer articles = childArticleIds.getTargets(categories[i]) ;
+								while (articles.hasRemaining()) 
+									depths.compareAndSet(articles.get(), 0, childDepth+1) ;
+								
+								IntBuffer children = childCategoryIds.getTargets(categories[i]) ;
+								while (children.hasRemaining()) {
+									int childId = children.get() ;
+									if (depths.compareAndSet(childId, 0, childDepth+1))
+										nextCategories.add(childId) ;
+								}
+							}
+							return nextCategories ;
 						}
-						
-						cachedParentIds.put(lastChild, pArray) ;
-					}
-
-					lastChild = childId ;
-					parents = new Vector<Integer>() ;
-					parents.add(parentId) ;
+					}) ;
 				}
+				
+				TIntArrayList nextFrontier = new TIntArrayList() ;
+				for (Future<TIntArrayList> f:executor.invokeAll(tasks))
+					nextFrontier.add(f.get().toNativeArray()) ;
+				
+				for (int id:categories) 
+					linksDone += childCategoryIds.getLinkCount(id) + childArticleIds.getLinkCount(id) ;
+				pn.update(linksDone) ;
+				
+				frontier = nextFrontier.toNativeArray() ;
+				if (frontier.length > 0)
+					depth++ ;
 			}
-			
-			pn.update(bytesRead) ;
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted while computing generality") ;
+		} catch (ExecutionException e) {
+			throw new SQLException("Could not compute generality: " + e.getCause()) ;
+		} finally {
+			executor.shutdownNow() ;
 		}
 		
-		if (!parents.isEmpty()) {
-			int[] pArray = new int[parents.size()] ;
-			
-			int i=0 ;
-			for(int pId :parents) {
-				pArray[i] = pId ;
-				i++ ;				
-			}
+		TIntIntHashMap generality = new TIntIntHashMap() ;
+		int maxDepth = 0 ;
+		
+		for (int id=0 ; id<depths.length() ; id++) {
+			int d = depths.get(id) - 1 ;
+			if (d < 0 || (validIds != null && !validIds.contains(id)))
+				continue ;
 			
-			cachedParentIds.put(lastChild, pArray) ;
+			generality.put(id, d) ;
+			if (d > maxDepth) maxDepth = d ;
 		}
 		
-		input.close();
+		pn.update(childCategoryIds.getSize() + childArticleIds.getSize()) ;
+		setCachedGenerality(generality, maxDepth) ;
 	}
 	
-	
 	/**
-	 * @return true if parent category ids are cached, otherwise false
+	 * Replaces the contents of the generality table with the generality that is currently cached (typically by 
+	 * computeGenerality()), so that pages can report their generality even when it is not cached.
+	 * 
+	 * @param pn an optional progress notifier
+	 * @throws SQLException if there is a problem with the database
+	 * @throws IllegalStateException if generality has not been cached
 	 */
-	public boolean areParentIdsCached() {
-		return !(cachedParentIds == null) ;
+	public void saveGenerality(ProgressNotifier pn) throws SQLException {
+		
+		TIntIntHashMap generality = cachedGenerality ;
+		if (generality == null)
+			throw new IllegalStateException("generality must be cached or computed before it can be saved") ;
+		
+		initializeTable("generality") ;
+		
+		if (pn == null) pn = new ProgressNotifier(1) ;
+		pn.startTask(generality.size(), "saving generality") ;
+		
+		int[] ids = new int[INSERT_BATCH_SIZE] ;
+		int[] depths = new int[INSERT_BATCH_SIZE] ;
+		int rows = 0 ;
+		long rowsDone = 0 ;
+		
+		TIntIntIterator iter = generality.iterator() ;
+		while (iter.hasNext()) {
+			iter.advance() ;
+			
+			ids[rows] = iter.key() ;
+			depths[rows] = iter.value() ;
+			rows++ ;
+			
+			if (rows == INSERT_BATCH_SIZE) {
+				insertIntPairs("generality", ids, depths, rows) ;
+				rowsDone += rows ;
+				rows = 0 ;
+				pn.update(rowsDone) ;
+			}
+		}
+		
+		if (rows > 0) {
+			insertIntPairs("generality", ids, depths, rows) ;
+			rowsDone += rows ;
+		}
+		
+		pn.update(rowsDone) ;
 	}
 	
-	/**
-	 * @return true if page titles and types are cached, otherwise false
+	private void insertIntPairs(String tableName, int[] firstValues, int[] secondValues, int rows) throws SQLException {
+		
+		String name = "insert_" + tableName + "_" + rows ;
+		if (!isQueryRegistered(name)) {
+			StringBuffer sql = new StringBuffer("INSERT IGNORE INTO " + tableName + " VALUES ") ;
+			for (int i=0 ; i<rows ; i++) {
+				if (i > 0) sql.append(",") ;
+				sql.append("(?,?)") ;
+			}
+			registerQuery(name, sql.toString()) ;
+		}
+		
+		PreparedStatement stmt = prepareStatement(name) ;
+		try {
+			int param = 1 ;
+			for (int i=0 ; i<rows ; i++) {
+				stmt.setInt(param++, firstValues[i]) ;
+				stmt.setInt(param++, secondValues[i]) ;
+			}
+			stmt.executeUpdate() ;
+		} finally {
+			stmt.close() ;
+		}
+	}
+	
+	/**
+	 * Caches parent categories of articles and categories, so that they can be retrieved and 
+	 * traversed very quickly without consulting the database. This caches the entire category graph 
+	 * (see cacheCategoryGraph()).
+	 * 
+	 * @param dataDirectory the directory containing csv files extracted from a Wikipedia dump.
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public void cacheParentIds(File dataDirectory, ProgressNotifier pn) throws IOException{
+		cacheCategoryGraph(dataDirectory, null, pn) ;
+	}
+	
+	/**
+	 * Caches the category graph in both directions; the parent categories of every page, and the child categories 
+	 * and child articles of every category. Categories can then be retrieved and traversed (see Category.getDescendantArticleIds() 
+	 * and Category.getAncestorCategoryIds()) without consulting the database at all.
+	 * <p>
+	 * Each direction is held in a LinkStore, so the graph lives outside of the java heap and every list of ids is sorted. 
+	 * 
+	 * @param dataDirectory the directory containing csv files extracted from a Wikipedia dump.
+	 * @param validIds an optional set of ids. Only links where both the parent and child are within this set will be cached.
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public void cacheCategoryGraph(File dataDirectory, final TIntHashSet validIds, ProgressNotifier pn) throws IOException{
+		
+		File pageFile = new File(dataDirectory.getPath() + File.separatorChar + "page.csv") ;	
+		File categoryFile = new File(dataDirectory.getPath() + File.separatorChar + "categorylink.csv") ;	
+		
+		if (pn== null) pn = new ProgressNotifier(1) ;
+		pn.startTask(pageFile.length() + categoryFile.length(), "caching category graph") ;
+		
+		ParallelCsvReader reader = getCsvReader() ;
+		
+		// page types are needed to tell child categories from child articles. Each chunk gathers (id, type) pairs
+		Vector<TIntArrayList> pageChunks = reader.read(pageFile, new ParallelCsvReader.LineHandler<TIntArrayList>() {
+			
+			public TIntArrayList createChunk() {
+				return new TIntArrayList() ;
+			}
+			
+			public void handleLine(byte[] data, int start, int end, TIntArrayList chunk) {
+				
+				int sep1 = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				int sep2 = ParallelCsvReader.lastIndexOf(data, (byte)',', start, end) ;
+				
+				int id = ParallelCsvReader.parseInt(data, start, sep1) ;
+				int type = ParallelCsvReader.parseInt(data, sep2+1, end) ;
+				
+				if (type == Page.ARTICLE || type == Page.CATEGORY) {
+					chunk.add(id) ;
+					chunk.add(type) ;
+				}
+			}
+		}, pn, 0) ;
+		
+		final TIntHashSet categoryIds = new TIntHashSet() ;
+		final TIntHashSet articleIds = new TIntHashSet() ;
+		
+		while (!pageChunks.isEmpty()) {
+			TIntArrayList chunk = pageChunks.remove(0) ;
+			for (int i=0 ; i<chunk.size() ; i+=2) {
+				if (chunk.get(i+1) == Page.CATEGORY)
+					categoryIds.add(chunk.get(i)) ;
+				else
+					articleIds.add(chunk.get(i)) ;
+			}
+		}
+		
+		Vector<CategoryLinks> chunks = reader.read(categoryFile, new ParallelCsvReader.LineHandler<CategoryLinks>() {
+			
+			public CategoryLinks createChunk() {
+				return new CategoryLinks() ;
+			}
+			
+			public void handleLine(byte[] data, int start, int end, CategoryLinks chunk) {
+				
+				int sep = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				if (sep < 0) 
+					return ;
+				
+				int parentId ;
+				int childId ;
+				try {
+					parentId = ParallelCsvReader.parseInt(data, start, sep) ;
+					childId = ParallelCsvReader.parseInt(data, sep+1, end) ;
+				} catch (NumberFormatException e) {
+					//ignore malformed lines
+					return ;
+				}
+				
+				if (!categoryIds.contains(parentId))
+					return ;
+				
+				if (validIds != null && !(validIds.contains(parentId) && validIds.contains(childId)))
+					return ;
+				
+				chunk.parents.add(CategoryLinks.pair(childId, parentId)) ;
+				
+				if (categoryIds.contains(childId))
+					chunk.childCategories.add(CategoryLinks.pair(parentId, childId)) ;
+				else if (articleIds.contains(childId))
+					chunk.childArticles.add(CategoryLinks.pair(parentId, childId)) ;
+			}
+		}, pn, pageFile.length()) ;
+		
+		LinkStore childCategoryIds = CategoryLinks.buildStore(chunks, CategoryLinks.CHILD_CATEGORIES) ;
+		LinkStore childArticleIds = CategoryLinks.buildStore(chunks, CategoryLinks.CHILD_ARTICLES) ;
+		LinkStore parentIds = CategoryLinks.buildStore(chunks, CategoryLinks.PARENTS) ;
+		
+		cachedChildCategoryIds = childCategoryIds ;
+		cachedChildArticleIds = childArticleIds ;
+		cachedParentIds = parentIds ;
+	}
+	
+	/**
+	 * @return true if parent category ids are cached, otherwise false
+	 */
+	public boolean areParentIdsCached() {
+		return !(cachedParentIds == null) ;
+	}
+	
+	/**
+	 * @return true if child categories and child articles are cached (along with parent categories), otherwise false
+	 */
+	public boolean isCategoryGraphCached() {
+		return !(cachedParentIds == null || cachedChildCategoryIds == null || cachedChildArticleIds == null) ;
+	}
+	
+	/**
+	 * @return true if page titles and types are cached, otherwise false
 	 */
 	public boolean arePagesCached() {
 		return !(cachedPages == null) ;
 	}
 	
+	/**
+	 * @return true if redirects and their (resolved) targets are cached, otherwise false
+	 */
+	public boolean areRedirectsCached() {
+		return !(cachedRedirectTargets == null) ;
+	}
+	
+	/**
+	 * @param title the (case sensitive) title of the page
+	 * @param type the type of the page
+	 * @return the id of the cached page with the given title and type, or -1 if there is no such page (or pages are not cached).
+	 */
+	protected int getCachedPageId(String title, int type) {
+		if (cachedTitles == null) 
+			return -1 ;
+		
+		return cachedTitles.getId(title, type) ;
+	}
+	
+	/**
+	 * @param redirectId the id of a redirect
+	 * @return the id of the article or disambiguation page that the redirect (eventually) points to, or -1 if it is not known.
+	 */
+	protected int getCachedRedirectTarget(int redirectId) {
+		if (cachedRedirectTargets == null || !cachedRedirectTargets.containsKey(redirectId))
+			return -1 ;
+		
+		return cachedRedirectTargets.get(redirectId) ;
+	}
+	
+	/**
+	 * @param id the id of an article or disambiguation page
+	 * @return the cached article or disambiguation page with the given id, or null if it is not cached (or is some other type of page).
+	 */
+	protected Article getCachedArticle(int id) {
+		PageCache pages = cachedPages ;
+		if (pages == null || id < 0)
+			return null ;
+		
+		int index = pages.indexOf(id) ;
+		if (index < 0)
+			return null ;
+		
+		switch (pages.getType(index)) {
+		case Page.ARTICLE:
+		case Page.DISAMBIGUATION:
+			return (Article)Page.createPage(this, pages, index) ;
+		default:
+			return null ;
+		}
+	}
+	
+	/**
+	 * @param pageType the type of page of interest (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION), or -1 for pages of all types
+	 * @return the ids of all cached pages of the given type, in ascending order, or null if pages are not cached.
+	 */
+	public int[] getCachedPageIds(int pageType) {
+		PageCache pages = cachedPages ;
+		if (pages == null)
+			return null ;
+		
+		return pages.getIds(pageType) ;
+	}
+	
+	/**
+	 * @param id the id of a page
+	 * @return the cached page with the given id, or null if it is not cached.
+	 */
+	public Page getCachedPage(int id) {
+		PageCache pages = cachedPages ;
+		if (pages == null)
+			return null ;
+		
+		int index = pages.indexOf(id) ;
+		if (index < 0)
+			return null ;
+		
+		return Page.createPage(this, pages, index) ;
+	}
+	
+	protected void setCachedPages(PageCache pages, TIntIntHashMap redirectTargets) {
+		this.cachedTitles = new TitleIndex(pages) ;
+		this.cachedRedirectTargets = redirectTargets ;
+		this.cachedPages = pages ;
+	}
+	
 	/**
 	 * @param tp an optional textProcessor
 	 * @return true if anchors and their destinations are cached according to the given textProcessor, otherwise false
@@ -1232,6 +2147,205 @@ public class WikipediaDatabase extends MySqlDatabase {
 		return true ;
 	}
 	
+	/**
+	 * @return the text processor that anchors were cached with, or null if they were cached without one.
+	 */
+	protected TextProcessor getCachedProcessor() {
+		return cachedProcessor ;
+	}
+	
+	protected void setCachedAnchors(AnchorDictionary anchors, TextProcessor tp) {
+		this.cachedProcessor = tp ;
+		this.cachedAnchors = anchors ;
+	}
+	
+	protected void setCachedGenerality(TIntIntHashMap generality, int maxDepth) {
+		this.maxPageDepth = maxDepth ;
+		this.cachedGenerality = generality ;
+	}
+	
+	/**
+	 * Saves everything that is currently cached to a binary snapshot, so that it can be reloaded 
+	 * much more quickly than it can be gathered from csv files. See CacheSnapshot for details of the format.
+	 * 
+	 * @param file the file to which the snapshot will be written
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void saveCacheSnapshot(File file, ProgressNotifier pn) throws IOException {
+		CacheSnapshot.write(this, file, pn) ;
+	}
+	
+	/**
+	 * Loads caches from a binary snapshot that was previously created with saveCacheSnapshot(). 
+	 * Any caches that are stored in the snapshot replace those that are currently held. 
+	 * 
+	 * @param file the snapshot file
+	 * @param tp an optional text processor. Anchors are only loaded if they were cached with a text processor of the same name. 
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the snapshot cannot be read, or was written in an incompatible format.
+	 */
+	public void loadCacheSnapshot(File file, TextProcessor tp, ProgressNotifier pn) throws IOException {
+		CacheSnapshot.load(this, file, tp, pn) ;
+	}
+
+	/**
+	 * Discards every cache, so that the memory they hold (including memory mapped from snapshots) can be reclaimed
+	 * once nothing else refers to it. Subsequent requests are answered directly from the database.
+	 */
+	public void clearCaches() {
+		cachedPages = null ;
+		cachedTitles = null ;
+		cachedRedirectTargets = null ;
+		cachedAnchors = null ;
+		cachedProcessor = null ;
+		cachedInLinks = null ;
+		cachedCompressedInLinks = null ;
+		setCachedOutLinks(null) ;
+		cachedGenerality = null ;
+		cachedParentIds = null ;
+		cachedChildCategoryIds = null ;
+		cachedChildArticleIds = null ;
+		maxPageDepth = -1 ;
+	}
+
+	/**
+	 * Estimates how much memory each cache would need if it were gathered from the given data directory, and 
+	 * chooses the caches and minimum link count (see getValidPageIds()) that fit within the given budget. 
+	 * Nothing is cached; the plan can be carried out with cache().
+	 * 
+	 * @param dataDirectory the directory containing csv files extracted from a Wikipedia dump.
+	 * @param budget the number of bytes that caches may use, both on and off the java heap
+	 * @param caches the caches that are wanted (CachePlan.PAGES, CachePlan.ANCHORS, etc, or'ed together)
+	 * @param pn an optional progress notifier
+	 * @return the plan
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public CachePlan planCaches(File dataDirectory, long budget, int caches, ProgressNotifier pn) throws IOException {
+		return CachePlan.create(dataDirectory, budget, caches, category_count, cacheThreads, pn) ;
+	}
+	
+	/**
+	 * Gathers the caches chosen by the given plan, filtered by the plan's minimum link count. 
+	 * <p>
+	 * If generality is planned but generality.csv is not available, then it is computed from the category graph 
+	 * (if that is planned too), starting from the given root category.
+	 * 
+	 * @param dataDirectory the directory containing csv files extracted from a Wikipedia dump.
+	 * @param plan the caches to gather (see planCaches())
+	 * @param rootCategory the title of the category from which generality is computed (see computeGenerality())
+	 * @param tp an optional text processor, for anchors
+	 * @param pn an optional progress notifier
+	 * @throws IOException if the relevant files cannot be read.
+	 */
+	public void cache(File dataDirectory, CachePlan plan, String rootCategory, TextProcessor tp, ProgressNotifier pn) throws IOException {
+		
+		int tasks = 1 ;
+		for (int cache:CachePlan.CACHES) 
+			if (plan.includes(cache)) tasks++ ;
+		
+		if (pn == null) pn = new ProgressNotifier(tasks) ;
+		
+		TIntHashSet ids = getValidPageIds(dataDirectory, plan.getMinLinkCount(), pn) ;
+		
+		if (plan.includes(CachePlan.PAGES))
+			cachePages(dataDirectory, ids, pn) ;
+		
+		if (plan.includes(CachePlan.ANCHORS))
+			cacheAnchors(dataDirectory, tp, ids, plan.getMinLinkCount(), pn) ;
+		
+		if (plan.includes(CachePlan.IN_LINKS))
+			cacheInLinks(dataDirectory, ids, pn) ;
+		
+		if (plan.includes(CachePlan.CATEGORY_GRAPH))
+			cacheCategoryGraph(dataDirectory, null, pn) ;
+		
+		if (plan.includes(CachePlan.GENERALITY)) {
+			if (new File(dataDirectory.getPath() + File.separatorChar + "generality.csv").canRead() || !isCategoryGraphCached()) {
+				cacheGenerality(dataDirectory, ids, pn) ;
+			} else {
+				try {
+					computeGenerality(rootCategory, ids, pn) ;
+				} catch (SQLException e) {
+					throw new IOException("Could not compute generality: " + e.getMessage()) ;
+				}
+			}
+		}
+		
+		if (plan.includes(CachePlan.OUT_LINKS))
+			cacheOutLinks(dataDirectory, ids, pn) ;
+	}
+	
+	/**
+	 * @param cache a single cache (CachePlan.PAGES, CachePlan.ANCHORS, etc)
+	 * @return the number of bytes (both on and off the java heap) used by the given cache, or 0 if it is not cached. 
+	 * This is measured from the sizes of the cache's arrays, and is approximate for caches that are held in trove maps.
+	 */
+	public long getCacheFootprint(int cache) {
+		
+		long bytes = 0 ;
+		
+		switch (cache) {
+		case CachePlan.PAGES :
+			PageCache pages = cachedPages ;
+			TitleIndex titles = cachedTitles ;
+			TIntIntHashMap redirects = cachedRedirectTargets ;
+			
+			if (pages != null) bytes += pages.getMemoryFootprint() ;
+			if (titles != null) bytes += titles.getMemoryFootprint() ;
+			if (redirects != null) bytes += CachePlan.estimateIntMap(redirects.size()) ;
+			break ;
+		case CachePlan.ANCHORS :
+			AnchorDictionary anchors = cachedAnchors ;
+			if (anchors != null) bytes += anchors.getMemoryFootprint() ;
+			break ;
+		case CachePlan.IN_LINKS :
+			LinkStore inLinks = cachedInLinks ;
+			CompressedPostings compressedInLinks = cachedCompressedInLinks ;
+			
+			if (inLinks != null) bytes += inLinks.getMemoryFootprint() ;
+			if (compressedInLinks != null) bytes += compressedInLinks.getMemoryFootprint() ;
+			break ;
+		case CachePlan.GENERALITY :
+			TIntIntHashMap generality = cachedGenerality ;
+			if (generality != null) bytes += CachePlan.estimateIntMap(generality.size()) ;
+			break ;
+		case CachePlan.CATEGORY_GRAPH :
+			for (LinkStore store:new LinkStore[] {cachedParentIds, cachedChildCategoryIds, cachedChildArticleIds}) 
+				if (store != null) bytes += store.getMemoryFootprint() ;
+			break ;
+		case CachePlan.OUT_LINKS :
+			LinkStore outLinks = cachedOutLinks ;
+			if (outLinks != null) bytes += outLinks.getMemoryFootprint() + relatednessEngine.getMemoryFootprint() ;
+			break ;
+		default:
+			throw new IllegalArgumentException(cache + " is not a single cache") ;
+		}
+		
+		return bytes ;
+	}
+	
+	/**
+	 * @return a description of the caches that are currently held, and the memory each of them uses.
+	 */
+	public String getCacheReport() {
+		
+		StringBuffer sb = new StringBuffer("Caches:\n") ;
+		long total = 0 ;
+		
+		for (int cache:CachePlan.CACHES) {
+			long bytes = getCacheFootprint(cache) ;
+			if (bytes == 0)
+				continue ;
+			
+			sb.append(" - " + CachePlan.getName(cache) + ": " + CachePlan.formatBytes(bytes) + "\n") ;
+			total += bytes ;
+		}
+		
+		sb.append(" - total: " + CachePlan.formatBytes(total) + "\n") ;
+		return sb.toString() ;
+	}
+	
 	/**
 	 * Identifies the set of valid article ids which fit the given constrains. 
 	 * 
@@ -1241,54 +2355,65 @@ public class WikipediaDatabase extends MySqlDatabase {
 	 * @return the set of valid ids which fit the given constrains. 
 	 * @throws IOException if the relevant files cannot be read.
 	 */
-	public TIntHashSet getValidPageIds(File dir, int minLinkCount, ProgressNotifier pn) throws IOException{
+	public TIntHashSet getValidPageIds(File dir, final int minLinkCount, ProgressNotifier pn) throws IOException{
 		
 		File linkCountFile = new File(dir.getPath() + File.separatorChar + "linkcount.csv") ;		
 		File pageFile = new File(dir.getPath() + File.separatorChar + "page.csv") ;
 		
-		TIntHashSet pageIds = new TIntHashSet() ;
-				
-		BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(linkCountFile), "UTF-8")) ;
 		if (pn == null) pn = new ProgressNotifier(1) ;
 		pn.startTask(linkCountFile.length() + pageFile.length(), "gathering valid page ids") ;
 		
-		long bytesRead = 0 ;
-		String line ;
+		ParallelCsvReader reader = getCsvReader() ;
 		
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-			
-			String[] vals = line.split(",") ;
-						
-			int id = new Integer(vals[0]) ;
-			int lc_in = new Integer(vals[1]) ;
-			int lc_out = new Integer(vals[2]) ;
+		Vector<TIntArrayList> chunks = reader.read(linkCountFile, new ParallelCsvReader.LineHandler<TIntArrayList>() {
 			
-			if (lc_in >= minLinkCount && lc_out >= minLinkCount)
-				pageIds.add(id) ;
+			public TIntArrayList createChunk() {
+				return new TIntArrayList() ;
+			}
 			
-			pn.update(bytesRead) ;
-		}
+			public void handleLine(byte[] data, int start, int end, TIntArrayList chunk) {
+				
+				int sep1 = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				int sep2 = ParallelCsvReader.indexOf(data, (byte)',', sep1+1, end) ;
+				
+				int lc_in = ParallelCsvReader.parseInt(data, sep1+1, sep2) ;
+				int lc_out = ParallelCsvReader.parseInt(data, sep2+1, end) ;
+				
+				if (lc_in >= minLinkCount && lc_out >= minLinkCount)
+					chunk.add(ParallelCsvReader.parseInt(data, start, sep1)) ;
+			}
+		}, pn, 0) ;
 		
-		input.close();
+		chunks.addAll(reader.read(pageFile, new ParallelCsvReader.LineHandler<TIntArrayList>() {
+			
+			public TIntArrayList createChunk() {
+				return new TIntArrayList() ;
+			}
+			
+			public void handleLine(byte[] data, int start, int end, TIntArrayList chunk) {
+				
+				int sep1 = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+				int sep2 = ParallelCsvReader.lastIndexOf(data, (byte)',', start, end) ;
+				
+				if (sep1 < 0 || sep2 <= sep1)
+					return ;
+				
+				try {
+					if (ParallelCsvReader.parseInt(data, sep2+1, end) == Page.CATEGORY)
+						chunk.add(ParallelCsvReader.parseInt(data, start, sep1)) ;
+				} catch (NumberFormatException e) {
+					//ignore malformed lines
+				}
+			}
+		}, pn, linkCountFile.length())) ;
 		
+		int size = 0 ;
+		for (TIntArrayList chunk:chunks)
+			size += chunk.size() ;
 		
-		input = new BufferedReader(new InputStreamReader(new FileInputStream(pageFile), "UTF-8")) ;
-		Pattern p = Pattern.compile("(\\d*),.*?,(\\d*)");	
-		while ((line=input.readLine()) != null) {
-			bytesRead = bytesRead + line.length() ;
-			
-			Matcher m = p.matcher(line) ;
-			if (m.matches()) {
-				int id = Integer.parseInt(m.group(1)) ;
-				int type = Integer.parseInt(m.group(2)) ;
-
-				if (type == Page.CATEGORY)
-					pageIds.add(id) ;
-			}	
-			pn.update(bytesRead) ;
-		}
-		input.close();
+		TIntHashSet pageIds = new TIntHashSet(size) ;
+		for (TIntArrayList chunk:chunks)
+			pageIds.addAll(chunk.toNativeArray()) ;
 		
 		return pageIds ;
 	}
@@ -1300,11 +2425,63 @@ public class WikipediaDatabase extends MySqlDatabase {
 		return !(cachedOutLinks == null) ;
 	}
 	
+	/**
+	 * Sets whether cached links out contribute to measures of relatedness. By default they do, so relatedness is the average of 
+	 * the measures from links in and out whenever both are cached. The disambiguator and link detector are trained with relatedness 
+	 * from links in alone, so links out that are only cached to find related articles (see Article.getMostRelatedArticles()) 
+	 * should not change the measure they are given. 
+	 * 
+	 * @param relatednessFromOutLinks false if relatedness should be measured from links in alone whenever these are cached, otherwise true.
+	 */
+	public void setRelatednessFromOutLinks(boolean relatednessFromOutLinks) {
+		this.relatednessFromOutLinks = relatednessFromOutLinks ;
+	}
+	
+	/**
+	 * @return true if cached links out contribute to measures of relatedness: that is, if they are cached, and either links in 
+	 * are not or setRelatednessFromOutLinks(false) has not been called. Otherwise false.
+	 */
+	public boolean isRelatednessFromOutLinks() {
+		return areOutLinksCached() && (relatednessFromOutLinks || !areInLinksCached()) ;
+	}
+	
+	/**
+	 * Sets the store from which pages, links, anchors, categories, translations, content and definitions are read whenever 
+	 * they have not been cached. An EmbeddedStore, for example, answers these lookups from local segment files rather than 
+	 * with a round trip to MySQL. This database still needs its connection, though: everything the store does not cover (see WikipediaStore)
+	 * is always read from its own tables.
+	 * 
+	 * @param store the store to read from, or null to read from the tables of this database.
+	 */
+	public void setStore(WikipediaStore store) {
+		//a MySqlStore over this database would only hand every lookup straight back
+		if (store instanceof MySqlStore && ((MySqlStore)store).getDatabase() == this)
+			store = null ;
+		
+		this.store = store ;
+	}
+	
+	/**
+	 * @return the store from which anything that has not been cached is read (see setStore()). Unless another has been set, this 
+	 * is a MySqlStore over this database.
+	 */
+	public WikipediaStore getStore() {
+		WikipediaStore s = store ;
+		return (s == null) ? tableStore : s ;
+	}
+	
 	/**
 	 * @return true if links in from pages are cached, otherwise false.
 	 */
 	public boolean areInLinksCached() {
-		return !(cachedInLinks == null) ;
+		return !(cachedInLinks == null && cachedCompressedInLinks == null) ;
+	}
+	
+	/**
+	 * @return true if links in to pages are cached in compressed form, otherwise false.
+	 */
+	public boolean areInLinksCompressed() {
+		return !(cachedCompressedInLinks == null) ;
 	}
 	
 	
@@ -1315,21 +2492,234 @@ public class WikipediaDatabase extends MySqlDatabase {
 		return !(cachedGenerality == null) ;
 	}
 	
-	protected class CachedPage {
-		String title ;
-		int type ;
+	/**
+	 * Reads a pagelink_in or pagelink_out file into a LinkStore, in two passes. The first only measures how many links 
+	 * each page has, so the second can write links straight into a store of exactly the right size. The links are 
+	 * never gathered on the java heap.
+	 */
+	private LinkStore readLinkStore(File file, TIntHashSet validIds, boolean withCounts, ProgressNotifier pn) throws IOException {
+		
+		//the same reader splits the file into the same chunks on both passes
+		ParallelCsvReader reader = getCsvReader() ;
+		
+		Vector<LinkRows> chunks = reader.read(file, new LinkRowHandler(validIds, withCounts), pn, 0) ;
+		
+		TIntArrayList ids = new TIntArrayList() ;
+		TIntArrayList lengths = new TIntArrayList() ;
+		for (LinkRows chunk:chunks) {
+			ids.add(chunk.ids.toNativeArray()) ;
+			lengths.add(chunk.lengths.toNativeArray()) ;
+			
+			chunk.ids = null ;
+			chunk.lengths = null ;
+		}
+		
+		LinkStore.Builder builder = new LinkStore.Builder(withCounts, ids, lengths) ;
+		
+		//each chunk writes its links after those of the chunks before it
+		int index = 0 ;
+		for (LinkRows chunk:chunks) {
+			chunk.nextIndex = index ;
+			index += (int)chunk.linkCount ;
+		}
+		
+		reader.reread(file, new LinkRowHandler(validIds, withCounts, builder), chunks, pn, file.length()) ;
 		
-		public CachedPage(String title, int type) {
-			this.title = title ;
-			this.type = type ;
-		}		
+		return builder.build() ;
 	}
 	
-	protected class CachedAnchor {
+	/**
+	 * Measures the links within one chunk of a pagelink_in or pagelink_out file, and then tracks where the chunk's 
+	 * links are written when the file is read again.
+	 */
+	private static class LinkRows {
+		TIntArrayList ids = new TIntArrayList() ;
+		TIntArrayList lengths = new TIntArrayList() ;
+		long linkCount = 0 ;
+		
+		int nextIndex = 0 ;
+		int[] rowLinks = new int[1024] ;
+	}
+	
+	/**
+	 * Parses lines of pagelink_in ("id,"a:b:c"") or pagelink_out ("id,"a:count;b:count"") files. Depending on how it is 
+	 * created, it either measures each row, writes links into a LinkStore.Builder that was sized from those measurements, 
+	 * or adds each row to a CompressedPostings.Builder as soon as it is parsed. 
+	 */
+	private static class LinkRowHandler implements ParallelCsvReader.LineHandler<LinkRows> {
+		
+		private TIntHashSet validIds ;
+		private boolean withCounts ;
+		
+		private LinkStore.Builder store ;
+		private CompressedPostings.Builder postings ;
+		
+		LinkRowHandler(TIntHashSet validIds, boolean withCounts) {
+			this.validIds = validIds ;
+			this.withCounts = withCounts ;
+		}
+		
+		LinkRowHandler(TIntHashSet validIds, boolean withCounts, LinkStore.Builder store) {
+			this(validIds, withCounts) ;
+			this.store = store ;
+		}
+		
+		LinkRowHandler(TIntHashSet validIds, CompressedPostings.Builder postings) {
+			this(validIds, false) ;
+			this.postings = postings ;
+		}
+		
+		public LinkRows createChunk() {
+			return new LinkRows() ;
+		}
+		
+		public void handleLine(byte[] data, int start, int end, LinkRows chunk) {
+			
+			int pos = ParallelCsvReader.indexOf(data, (byte)',', start, end) ;
+			int id = ParallelCsvReader.parseInt(data, start, pos) ;
+			
+			if (validIds != null && !validIds.contains(id)) 
+				return ;
+			
+			int length = 0 ;
+			
+			pos = pos+2 ;
+			while (pos < end-1) {
+				if (withCounts) {
+					int sep1 = ParallelCsvReader.indexOf(data, (byte)':', pos, end-1) ;
+					int sep2 = ParallelCsvReader.indexOf(data, (byte)';', sep1, end-1) ;
+					if (sep2 < 0) sep2 = end-1 ;
+					
+					addLink(chunk, length++, ParallelCsvReader.parseInt(data, pos, sep1), ParallelCsvReader.parseInt(data, sep1+1, sep2)) ;
+					pos = sep2+1 ;
+				} else {
+					int sep = ParallelCsvReader.indexOf(data, (byte)':', pos, end-1) ;
+					if (sep < 0) sep = end-1 ;
+					
+					if (sep > pos) 
+						addLink(chunk, length++, ParallelCsvReader.parseInt(data, pos, sep), 0) ;
+					
+					pos = sep+1 ;
+				}
+			}
+			
+			if (store != null) 
+				return ;
+			
+			if (postings != null) {
+				//rows are compressed one at a time, but parsed by many threads
+				synchronized (postings) {
+					postings.add(id, chunk.rowLinks, length) ;
+				}
+				return ;
+			}
+			
+			chunk.ids.add(id) ;
+			chunk.lengths.add(length) ;
+			chunk.linkCount += length ;
+		}
+		
+		private void addLink(LinkRows chunk, int index, int target, int count) {
+			
+			if (store != null) {
+				store.set(chunk.nextIndex++, target, count) ;
+			} else if (postings != null) {
+				if (index == chunk.rowLinks.length)
+					chunk.rowLinks = Arrays.copyOf(chunk.rowLinks, index * 2) ;
+				
+				chunk.rowLinks[index] = target ;
+			}
+		}
+	}
+	
+	/**
+	 * Gathers the links within one chunk of a categorylink file, as pairs of ids packed into longs so they can be 
+	 * sorted cheaply. The first id of each pair is the one the link is stored under.
+	 */
+	private static class CategoryLinks {
+		
+		static final int PARENTS = 0 ;
+		static final int CHILD_CATEGORIES = 1 ;
+		static final int CHILD_ARTICLES = 2 ;
+		
+		TLongArrayList parents = new TLongArrayList() ;
+		TLongArrayList childCategories = new TLongArrayList() ;
+		TLongArrayList childArticles = new TLongArrayList() ;
+		
+		static long pair(int id, int target) {
+			return ((long)id << 32) | (target & 0xFFFFFFFFL) ;
+		}
+		
+		private TLongArrayList getPairs(int direction) {
+			switch (direction) {
+			case PARENTS: return parents ;
+			case CHILD_CATEGORIES: return childCategories ;
+			default: return childArticles ;
+			}
+		}
+		
+		/**
+		 * Sorts and groups the pairs for one direction of the graph into a LinkStore, discarding them from the chunks as it goes.
+		 */
+		private static LinkStore buildStore(Vector<CategoryLinks> chunks, int direction) {
+			
+			int size = 0 ;
+			for (CategoryLinks chunk:chunks)
+				size += chunk.getPairs(direction).size() ;
+			
+			long[] pairs = new long[size] ;
+			int offset = 0 ;
+			for (CategoryLinks chunk:chunks) {
+				TLongArrayList chunkPairs = chunk.getPairs(direction) ;
+				for (int i=0 ; i<chunkPairs.size() ; i++)
+					pairs[offset++] = chunkPairs.getQuick(i) ;
+				chunkPairs.clear(0) ;
+			}
+			
+			Arrays.sort(pairs) ;
+			
+			LinkStore.Builder builder = new LinkStore.Builder(false, size) ;
+			
+			int[] targets = new int[1024] ;
+			int length = 0 ;
+			int lastId = -1 ;
+			
+			for (long pair:pairs) {
+				int id = (int)(pair >>> 32) ;
+				int target = (int)pair ;
+				
+				if (id != lastId) {
+					if (length > 0)
+						builder.add(lastId, targets, length, null) ;
+					
+					lastId = id ;
+					length = 0 ;
+				} else if (targets[length-1] == target) {
+					//ignore duplicate links
+					continue ;
+				}
+				
+				if (length == targets.length) {
+					int[] newTargets = new int[length*2] ;
+					System.arraycopy(targets, 0, newTargets, 0, length) ;
+					targets = newTargets ;
+				}
+				
+				targets[length++] = target ;
+			}
+			
+			if (length > 0)
+				builder.add(lastId, targets, length, null) ;
+			
+			return builder.build() ;
+		}
+	}
+	
+	protected static class CachedAnchor {
 		int linkCount ;
 		int occCount ;
 		int[][] senses ;
-				
+		
 		public CachedAnchor(Vector<int[]> senses) {
 			this.occCount = -1 ;  //flag this as unavailable for now
 			this.linkCount = 0 ;
@@ -1405,7 +2795,7 @@ public class WikipediaDatabase extends MySqlDatabase {
 			}
 		}
 		
-		private class Sense implements Comparable<Sense> {
+		private static class Sense implements Comparable<Sense> {
 			Integer id ;
 			Integer count ;
 			
@@ -1425,81 +2815,239 @@ public class WikipediaDatabase extends MySqlDatabase {
 	
 	/**
 	 * Summarizes first paragraphs and first sentences so short definitions can be obtained efficiently. 
+	 * This is done from scratch, using one cleaning thread per available processor.
 	 * 
-	 * @throws SQLException 
+	 * @throws SQLException if content has not been imported, or if there is a problem with the Wikipedia database
 	 */
 	public void summarizeDefinitions() throws SQLException {
+		summarizeDefinitions(Runtime.getRuntime().availableProcessors(), false) ;
+	}
+	
+	/**
+	 * Summarizes first paragraphs and first sentences so short definitions can be obtained efficiently. 
+	 * <p>
+	 * This is done as a pipeline: one thread streams page content from the database, several threads strip 
+	 * markup and split sentences, and one thread saves the resulting definitions in batches. The stages 
+	 * are joined by bounded queues, so memory use does not depend on the size of Wikipedia. 
+	 * <p>
+	 * Definitions are saved as soon as they are ready, so if this is interrupted it can be resumed without 
+	 * repeating any pages that were already saved.
+	 * 
+	 * @param threads the number of threads to use for stripping markup and splitting sentences.
+	 * @param resume true if pages that have already been summarized should be skipped, false if all pages should be summarized from scratch.
+	 * @throws SQLException if content has not been imported, or if there is a problem with the Wikipedia database
+	 */
+	public void summarizeDefinitions(int threads, boolean resume) throws SQLException {
 		
 		if (!isContentImported())
 			throw new SQLException("You must import article content first!") ;
 		
-		int rows = this.getPageCount() ;
+		threads = Math.max(1, threads) ;
 		
-		ProgressNotifier pn = new ProgressNotifier(1) ;
+		if (!resume || !tableExists("definition")) {
+			Statement stmt = createStatement() ;
+			stmt.executeUpdate("DROP TABLE IF EXISTS definition") ;
+			stmt.close() ;
+			
+			stmt = createStatement() ;
+			stmt.executeUpdate("CREATE TABLE definition (" 
+					+ "df_id int(8) unsigned NOT NULL, "
+					+ "df_firstSentence mediumblob NOT NULL, "
+					+ "df_firstParagraph mediumblob NOT NULL, "
+					+ "PRIMARY KEY (df_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ;
+						
+			stmt.close() ;
+		}
+		
+		int rows = this.getPageCount() - this.getRowCountExact("definition") ;
+		
+		final ProgressNotifier pn = new ProgressNotifier(1) ;
 		pn.startTask(rows, "Summarizing definitions") ;
 		
-		Statement stmt = createStatement() ;
-		stmt.executeUpdate("DROP TABLE IF EXISTS definition") ;
-		stmt.close() ;
+		final ArrayBlockingQueue<Definition> contentQueue = new ArrayBlockingQueue<Definition>(DEFINITION_QUEUE_SIZE) ;
+		final ArrayBlockingQueue<Definition> definitionQueue = new ArrayBlockingQueue<Definition>(DEFINITION_QUEUE_SIZE) ;
 		
-		stmt = createStatement() ;
-		stmt.executeUpdate("CREATE TABLE definition (" 
-				+ "df_id int(8) unsigned NOT NULL, "
-				+ "df_firstSentence mediumblob NOT NULL, "
-				+ "df_firstParagraph mediumblob NOT NULL, "
-				+ "PRIMARY KEY (df_id)) ENGINE=MyISAM DEFAULT CHARSET=utf8;") ;
-					
-		stmt.close() ;
+		final int workers = threads ;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(workers + 2) ;
+		ExecutorCompletionService<Object> stages = new ExecutorCompletionService<Object>(executor) ;
+		
+		stages.submit(new Callable<Object>() {
+			public Object call() throws SQLException, InterruptedException {
+				readDefinitionContent(contentQueue, workers) ;
+				return null ;
+			}
+		}) ;
+		
+		for (int w=0 ; w<workers ; w++) {
+			stages.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					summarizeDefinitionContent(contentQueue, definitionQueue) ;
+					return null ;
+				}
+			}) ;
+		}
 		
-		int currRow = 0 ;
+		stages.submit(new Callable<Object>() {
+			public Object call() throws SQLException, InterruptedException {
+				saveDefinitions(definitionQueue, workers, pn) ;
+				return null ;
+			}
+		}) ;
 		
-		int chunkSize = 100 ;
+		try {
+			//if any stage fails, the others are stopped rather than left waiting on queues that will never move
+			for (int s=0 ; s<workers+2 ; s++) 
+				stages.take().get() ;
 			
-		StringBuffer insertQuery = new StringBuffer() ;
-		SentenceSplitter ss = new SentenceSplitter() ;
+		} catch (InterruptedException e) {
+			throw new SQLException("Interrupted while summarizing definitions") ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException)e.getCause() ;
+			
+			throw new SQLException("Could not summarize definitions: " + e.getCause()) ;
+		} finally {
+			executor.shutdownNow() ;
+		}
+		
+		definitionsSummarized = true ;
+	}
+	
+	/**
+	 * Streams the content of every page that has not been summarized yet, in order of id.
+	 */
+	private void readDefinitionContent(ArrayBlockingQueue<Definition> contentQueue, int workers) throws SQLException, InterruptedException {
+		
+		Connection c = openDedicatedConnection() ;
 		
-		PageIterator i = new PageIterator(this) ;
-		while (i.hasNext()) {
-			Page p = i.next() ;
-			currRow ++ ;
+		try {
+			Statement stmt = c.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) ;
+			stmt.setFetchSize(Integer.MIN_VALUE) ;
 			
-			String paragraph = "" ;
-			String sentence = "" ;
+			//pages without content still get an (empty) definition, so every page is accounted for
+			ResultSet rs = stmt.executeQuery("SELECT page_id, co_content FROM page " 
+					+ "LEFT JOIN content ON co_id=page_id " 
+					+ "LEFT JOIN definition ON df_id=page_id " 
+					+ "WHERE df_id IS NULL ORDER BY page_id") ;
 			
+			while (rs.next()) {
+				byte[] content = rs.getBytes(2) ;
+				contentQueue.put(new Definition(rs.getInt(1), content == null ? null : new String(content, ParallelCsvReader.UTF8))) ;
+			}
+		} finally {
+			c.close() ;
+		}
+		
+		for (int w=0 ; w<workers ; w++)
+			contentQueue.put(Definition.END) ;
+	}
+	
+	private void summarizeDefinitionContent(ArrayBlockingQueue<Definition> contentQueue, ArrayBlockingQueue<Definition> definitionQueue) throws Exception {
+		
+		SentenceSplitter ss = new SentenceSplitter() ;
+		
+		Definition d ;
+		while ((d = contentQueue.take()) != Definition.END) {
 			try {
-				paragraph = p.getFirstParagraph() ;
-				sentence = p.getFirstSentence(paragraph, ss) ;
+				if (d.content == null) {
+					d.paragraph = "" ;
+					d.sentence = "" ;
+				} else {
+					d.paragraph = Page.extractFirstParagraph(d.content) ;
+					d.sentence = Page.extractFirstSentence(d.paragraph, ss) ;
+				}
 			} catch (Exception e) {
-				System.err.println(p + " " + e.getMessage()) ;
+				System.err.println(d.id + " " + e.getMessage()) ;
+				d.paragraph = "" ;
+				d.sentence = "" ;
 			}
 			
-			insertQuery.append(" (" + p.getId() + ",\"" + addEscapes(sentence) + "\",\"" + addEscapes(paragraph) + "\"),") ;
+			d.content = null ;
+			definitionQueue.put(d) ;
+		}
+		
+		definitionQueue.put(Definition.END) ;
+	}
+	
+	private void saveDefinitions(ArrayBlockingQueue<Definition> definitionQueue, int workers, ProgressNotifier pn) throws SQLException, InterruptedException {
+		
+		Definition[] batch = new Definition[DEFINITION_BATCH_SIZE] ;
+		int batchSize = 0 ;
+		
+		int workersDone = 0 ;
+		long rowsDone = 0 ;
+		
+		while (workersDone < workers) {
+			Definition d = definitionQueue.take() ;
 			
-			if (currRow%chunkSize == 0) {
-				if (insertQuery.length() > 0) {
-					insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-					
-					stmt = createStatement() ;
-					stmt.setEscapeProcessing(false) ;
-					stmt.executeUpdate("INSERT IGNORE INTO definition VALUES" + insertQuery.toString() ) ;
-					stmt.close() ;
-					
-					insertQuery = new StringBuffer() ;
-				}
-				
-				pn.update(currRow) ;
+			if (d == Definition.END) {
+				workersDone++ ;
+				continue ;
+			}
+			
+			batch[batchSize++] = d ;
+			
+			if (batchSize == DEFINITION_BATCH_SIZE) {
+				insertDefinitions(batch, batchSize) ;
+				rowsDone += batchSize ;
+				batchSize = 0 ;
+				pn.update(rowsDone) ;
 			}
 		}
 		
-		if (insertQuery.length() > 0) {
-			insertQuery.delete(insertQuery.length()-1, insertQuery.length()) ;
-						
-			stmt = createStatement() ;
-			stmt.setEscapeProcessing(false) ;
-			stmt.executeUpdate("INSERT IGNORE INTO definition VALUES" + insertQuery.toString() ) ;
+		if (batchSize > 0) {
+			insertDefinitions(batch, batchSize) ;
+			rowsDone += batchSize ;
+			pn.update(rowsDone) ;
+		}
+	}
+	
+	private void insertDefinitions(Definition[] definitions, int count) throws SQLException {
+		
+		String name = "insertDefinitions_" + count ;
+		if (!isQueryRegistered(name)) {
+			StringBuffer sql = new StringBuffer("INSERT IGNORE INTO definition VALUES ") ;
+			for (int i=0 ; i<count ; i++) {
+				if (i > 0) sql.append(",") ;
+				sql.append("(?,?,?)") ;
+			}
+			registerQuery(name, sql.toString()) ;
+		}
+		
+		PreparedStatement stmt = prepareStatement(name) ;
+		try {
+			int param = 1 ;
+			for (int i=0 ; i<count ; i++) {
+				stmt.setInt(param++, definitions[i].id) ;
+				stmt.setBytes(param++, definitions[i].sentence.getBytes(ParallelCsvReader.UTF8)) ;
+				stmt.setBytes(param++, definitions[i].paragraph.getBytes(ParallelCsvReader.UTF8)) ;
+				definitions[i] = null ;
+			}
+			stmt.executeUpdate() ;
+		} finally {
 			stmt.close() ;
 		}
-	}	
+	}
+	
+	/**
+	 * A page as it moves through the summarizeDefinitions() pipeline.
+	 */
+	private static class Definition {
+		
+		//marks the end of a queue
+		static final Definition END = new Definition(-1, null) ;
+		
+		int id ;
+		String content ;
+		String paragraph ;
+		String sentence ;
+		
+		Definition(int id, String content) {
+			this.id = id ;
+			this.content = content ;
+		}
+	}
 	
 	
 	/**
@@ -0,0 +1,62 @@
+/*
+ *    AnchorRecord.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+/**
+ * @author David Milne
+ *
+ * The senses of a single anchor, as held by a WikipediaStore. Senses are ordered by the number of times the anchor
+ * is used to link to them (most frequent first), and then by id.
+ */
+public class AnchorRecord {
+
+	private String text ;
+	private int[] senseIds ;
+	private int[] senseCounts ;
+
+	/**
+	 * @param text the text of the anchor
+	 * @param senseIds the ids of the pages the anchor links to
+	 * @param senseCounts the number of times the anchor links to each of these pages
+	 */
+	public AnchorRecord(String text, int[] senseIds, int[] senseCounts) {
+		this.text = text ;
+		this.senseIds = senseIds ;
+		this.senseCounts = senseCounts ;
+	}
+
+	public String getText() {
+		return text ;
+	}
+
+	/**
+	 * @return the ids of the pages this anchor links to, most frequent first.
+	 */
+	public int[] getSenseIds() {
+		return senseIds ;
+	}
+
+	/**
+	 * @return the number of times this anchor links to each of the pages given by getSenseIds().
+	 */
+	public int[] getSenseCounts() {
+		return senseCounts ;
+	}
+}
@@ -0,0 +1,661 @@
+/*
+ *    EmbeddedStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+import java.io.* ;
+import java.nio.ByteBuffer ;
+import java.sql.* ;
+import java.util.* ;
+
+import gnu.trove.* ;
+
+import org.wikipedia.miner.model.* ;
+import org.wikipedia.miner.util.* ;
+
+/**
+ * @author David Milne
+ *
+ * A WikipediaStore that reads from a directory of segment files (see SegmentFile). The store itself needs no database server.
+ * <p>
+ * There is one segment for each kind of lookup, keyed by page id, title or anchor text. Segments are immutable, 
+ * and are built from an existing Wikipedia database with export(). The directory can then be copied to any machine 
+ * that needs to read Wikipedia locally. Once the store is handed to WikipediaDatabase.setStore(), pages, articles, 
+ * categories and anchors read anything they have not cached from it rather than from MySQL. The toolkit as a whole 
+ * still needs a connected WikipediaDatabase, though: see WikipediaStore for the lookups that are not covered.
+ * <p>
+ * Content and definitions are optional; if they were not available when the store was exported, then getContent(), 
+ * getFirstSentence() and getFirstParagraph() return null.
+ */
+public class EmbeddedStore implements WikipediaStore {
+
+	private static final int[] NO_IDS = new int[0] ;
+
+	private static final String PAGES = "pages" ;
+	private static final String TITLES = "titles" ;
+	private static final String REDIRECTS = "redirects" ;
+	private static final String REDIRECTS_TO = "redirectsTo" ;
+	private static final String LINKS_IN = "linksIn" ;
+	private static final String LINKS_OUT = "linksOut" ;
+	private static final String ANCHORS = "anchors" ;
+	private static final String PARENTS = "parentCategories" ;
+	private static final String CHILD_CATEGORIES = "childCategories" ;
+	private static final String CHILD_ARTICLES = "childArticles" ;
+	private static final String TRANSLATIONS = "translations" ;
+	private static final String CONTENT = "content" ;
+	private static final String DEFINITIONS = "definitions" ;
+
+	private static final String[] REQUIRED_SEGMENTS = {PAGES, TITLES, REDIRECTS, REDIRECTS_TO, LINKS_IN, LINKS_OUT, ANCHORS, PARENTS, CHILD_CATEGORIES, CHILD_ARTICLES, TRANSLATIONS} ;
+
+	private HashMap<String,SegmentFile> segments = new HashMap<String,SegmentFile>() ;
+
+	/**
+	 * Opens a store that was previously exported to the given directory.
+	 * 
+	 * @param directory the directory containing segment files
+	 * @throws IOException if any required segment is missing or cannot be read
+	 */
+	public EmbeddedStore(File directory) throws IOException {
+
+		try {
+			for (String name:REQUIRED_SEGMENTS) 
+				segments.put(name, new SegmentFile(getSegmentFile(directory, name))) ;
+
+			for (String name:new String[] {CONTENT, DEFINITIONS}) {
+				File f = getSegmentFile(directory, name) ;
+				if (f.canRead())
+					segments.put(name, new SegmentFile(f)) ;
+			}
+		} catch (IOException e) {
+			close() ;
+			throw e ;
+		}
+	}
+
+	public PageRecord getPage(int id) throws SQLException {
+
+		byte[] value = get(PAGES, intKey(id)) ;
+		if (value == null)
+			return null ;
+
+		return new PageRecord(id, new String(value, 1, value.length-1, ParallelCsvReader.UTF8), value[0]) ;
+	}
+
+	public int getPageId(String title, int type) throws SQLException {
+
+		byte[] value = get(TITLES, titleKey(type, title.getBytes(ParallelCsvReader.UTF8))) ;
+		if (value == null)
+			return -1 ;
+
+		return ByteBuffer.wrap(value).getInt() ;
+	}
+
+	public int getRedirectTarget(int redirectId) throws SQLException {
+
+		byte[] value = get(REDIRECTS, intKey(redirectId)) ;
+		if (value == null)
+			return -1 ;
+
+		return ByteBuffer.wrap(value).getInt() ;
+	}
+
+	public int[] getRedirects(int id) throws SQLException {
+		return getIds(REDIRECTS_TO, id) ;
+	}
+
+	public int[] getLinksIn(int id) throws SQLException {
+		return getIds(LINKS_IN, id) ;
+	}
+
+	public int[] getLinksOut(int id) throws SQLException {
+		return getIds(LINKS_OUT, id) ;
+	}
+
+	public AnchorRecord getAnchor(String text) throws SQLException {
+
+		byte[] value = get(ANCHORS, text.getBytes(ParallelCsvReader.UTF8)) ;
+		if (value == null)
+			return null ;
+
+		ByteBuffer data = ByteBuffer.wrap(value) ;
+		int senses = value.length / 8 ;
+
+		int[] ids = new int[senses] ;
+		int[] counts = new int[senses] ;
+
+		for (int i=0 ; i<senses ; i++) {
+			ids[i] = data.getInt() ;
+			counts[i] = data.getInt() ;
+		}
+
+		return new AnchorRecord(text, ids, counts) ;
+	}
+
+	public int[] getParentCategories(int id) throws SQLException {
+		return getIds(PARENTS, id) ;
+	}
+
+	public int[] getChildCategories(int categoryId) throws SQLException {
+		return getIds(CHILD_CATEGORIES, categoryId) ;
+	}
+
+	public int[] getChildArticles(int categoryId) throws SQLException {
+		return getIds(CHILD_ARTICLES, categoryId) ;
+	}
+
+	public HashMap<String,String> getTranslations(int id) throws SQLException {
+
+		HashMap<String,String> translations = new HashMap<String,String>() ;
+
+		byte[] value = get(TRANSLATIONS, intKey(id)) ;
+		if (value == null)
+			return translations ;
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(value)) ;
+			int count = in.readInt() ;
+			for (int i=0 ; i<count ; i++) 
+				translations.put(in.readUTF(), in.readUTF()) ;
+		} catch (IOException e) {
+			throw new SQLException("Could not read translations of " + id + ": " + e.getMessage()) ;
+		}
+
+		return translations ;
+	}
+
+	public String getContent(int id) throws SQLException {
+
+		if (!segments.containsKey(CONTENT))
+			return null ;
+
+		byte[] value = get(CONTENT, intKey(id)) ;
+		if (value == null)
+			return null ;
+
+		return new String(value, ParallelCsvReader.UTF8) ;
+	}
+
+	public String getFirstSentence(int id) throws SQLException {
+
+		if (!segments.containsKey(DEFINITIONS))
+			return null ;
+
+		byte[] value = get(DEFINITIONS, intKey(id)) ;
+		if (value == null)
+			return null ;
+
+		int sentenceLength = ByteBuffer.wrap(value).getInt() ;
+		return new String(value, 4, sentenceLength, ParallelCsvReader.UTF8) ;
+	}
+
+	public String getFirstParagraph(int id) throws SQLException {
+
+		if (!segments.containsKey(DEFINITIONS))
+			return null ;
+
+		byte[] value = get(DEFINITIONS, intKey(id)) ;
+		if (value == null)
+			return null ;
+
+		int sentenceLength = ByteBuffer.wrap(value).getInt() ;
+		return new String(value, 4 + sentenceLength, value.length - 4 - sentenceLength, ParallelCsvReader.UTF8) ;
+	}
+
+	public void close() {
+		for (SegmentFile segment:segments.values()) {
+			try {
+				segment.close() ;
+			} catch (IOException e) {} ;
+		}
+		segments.clear() ;
+	}
+
+	private byte[] get(String segmentName, byte[] key) throws SQLException {
+
+		SegmentFile segment = segments.get(segmentName) ;
+		try {
+			return segment.get(key) ;
+		} catch (IOException e) {
+			throw new SQLException("Could not read " + segment.getFile().getPath() + ": " + e.getMessage()) ;
+		}
+	}
+
+	private int[] getIds(String segmentName, int id) throws SQLException {
+
+		byte[] value = get(segmentName, intKey(id)) ;
+		if (value == null)
+			return NO_IDS ;
+
+		int[] ids = new int[value.length / 4] ;
+		ByteBuffer.wrap(value).asIntBuffer().get(ids) ;
+		return ids ;
+	}
+
+
+	/**
+	 * Exports everything needed by an EmbeddedStore from the given database. Each table is streamed once, 
+	 * in key order, so the database does all of the sorting. 
+	 * 
+	 * @param database an active (connected) Wikipedia database
+	 * @param directory the directory to write segment files to (any existing segments are overwritten)
+	 * @throws SQLException if there is a problem with the Wikipedia database
+	 * @throws IOException if the segment files cannot be written
+	 */
+	public static void export(WikipediaDatabase database, File directory) throws SQLException, IOException {
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create " + directory.getPath()) ;
+
+		ProgressNotifier pn = new ProgressNotifier(13) ;
+
+		exportPages(database, directory, pn) ;
+		exportTitles(database, directory, pn) ;
+
+		exportIdLists(database, "SELECT rd_from, rd_to FROM redirect ORDER BY rd_from, rd_to", getSegmentFile(directory, REDIRECTS), true, pn) ;
+		exportIdLists(database, "SELECT rd_to, rd_from FROM redirect ORDER BY rd_to, rd_from", getSegmentFile(directory, REDIRECTS_TO), false, pn) ;
+
+		exportLinks(database, "SELECT li_id, li_data FROM pagelink_in ORDER BY li_id", getSegmentFile(directory, LINKS_IN), false, pn) ;
+		exportLinks(database, "SELECT lo_id, lo_data FROM pagelink_out ORDER BY lo_id", getSegmentFile(directory, LINKS_OUT), true, pn) ;
+
+		exportAnchors(database, directory, pn) ;
+
+		exportIdLists(database, "SELECT DISTINCT cl_child, cl_parent FROM categorylink, page WHERE page_id=cl_parent ORDER BY cl_child, cl_parent", 
+				getSegmentFile(directory, PARENTS), false, pn) ;
+		exportIdLists(database, "SELECT DISTINCT cl_parent, cl_child FROM categorylink, page WHERE page_id=cl_child AND page_type=" + Page.CATEGORY + " ORDER BY cl_parent, cl_child", 
+				getSegmentFile(directory, CHILD_CATEGORIES), false, pn) ;
+		exportIdLists(database, "SELECT DISTINCT cl_parent, cl_child FROM categorylink, page WHERE page_id=cl_child AND page_type=" + Page.ARTICLE + " ORDER BY cl_parent, cl_child", 
+				getSegmentFile(directory, CHILD_ARTICLES), false, pn) ;
+
+		exportTranslations(database, directory, pn) ;
+
+		if (database.isContentImported())
+			exportContent(database, directory, pn) ;
+		else 
+			pn.startTask(1, "Skipping content") ;
+
+		if (database.areDefinitionsSummarized())
+			exportDefinitions(database, directory, pn) ;
+		else 
+			pn.startTask(1, "Skipping definitions") ;
+	}
+
+	private static void exportPages(WikipediaDatabase database, File directory, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(database.getPageCount(), "Exporting pages") ;
+		SegmentWriter writer = new SegmentWriter(getSegmentFile(directory, PAGES)) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM page ORDER BY page_id") ;
+			while (rs.next()) {
+				byte[] title = rs.getBytes(2) ;
+
+				byte[] value = new byte[title.length + 1] ;
+				value[0] = (byte)rs.getInt(3) ;
+				System.arraycopy(title, 0, value, 1, title.length) ;
+
+				writer.add(intKey(rs.getInt(1)), value) ;
+				pn.update() ;
+			}
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+	}
+
+	private static void exportTitles(WikipediaDatabase database, File directory, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(database.getPageCount(), "Exporting titles") ;
+		SegmentWriter writer = new SegmentWriter(getSegmentFile(directory, TITLES)) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			//titles are compared as bytes, so they must be ordered as bytes too
+			ResultSet rs = stmt.executeQuery("SELECT page_type, page_title, page_id FROM page ORDER BY page_type, BINARY page_title") ;
+			while (rs.next()) {
+				writer.add(titleKey(rs.getInt(1), rs.getBytes(2)), intKey(rs.getInt(3))) ;
+				pn.update() ;
+			}
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+	}
+
+	/**
+	 * Exports (key, value) rows as lists of values for each key. 
+	 * 
+	 * @param firstOnly true if only the first value of each key should be kept
+	 */
+	private static void exportIdLists(WikipediaDatabase database, String sql, File file, boolean firstOnly, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(1, "Exporting " + file.getName()) ;
+		SegmentWriter writer = new SegmentWriter(file) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery(sql) ;
+
+			int lastKey = -1 ;
+			TIntArrayList values = new TIntArrayList() ;
+
+			while (rs.next()) {
+				int key = rs.getInt(1) ;
+				int value = rs.getInt(2) ;
+
+				if (key != lastKey) {
+					if (!values.isEmpty())
+						writer.add(intKey(lastKey), intValues(values.toNativeArray())) ;
+
+					values.clear() ;
+					lastKey = key ;
+				}
+
+				if (values.isEmpty() || (!firstOnly && values.get(values.size()-1) != value))
+					values.add(value) ;
+			}
+
+			if (!values.isEmpty())
+				writer.add(intKey(lastKey), intValues(values.toNativeArray())) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+
+		pn.update(1) ;
+	}
+
+	private static void exportLinks(WikipediaDatabase database, String sql, File file, boolean outLinks, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(database.getPageCount(), "Exporting " + file.getName()) ;
+		SegmentWriter writer = new SegmentWriter(file) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery(sql) ;
+			while (rs.next()) {
+				pn.update() ;
+
+				String data = rs.getString(2) ;
+				if (data == null || data.equals(""))
+					continue ;
+
+				int[] links = outLinks ? parseOutLinkIds(data) : parseInLinkIds(data) ;
+				if (links.length > 0)
+					writer.add(intKey(rs.getInt(1)), intValues(links)) ;
+			}
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+	}
+
+	/**
+	 * Parses links in, which are stored as id:id:id...
+	 */
+	private static int[] parseInLinkIds(String data) {
+
+		TIntArrayList links = new TIntArrayList() ;
+		for (String value:data.split(":")) {
+			if (!value.equals(""))
+				links.add(Integer.parseInt(value)) ;
+		}
+
+		return toSortedSet(links) ;
+	}
+
+	/**
+	 * Parses links out, which are stored as id:count;id:count... Only the ids are kept.
+	 */
+	private static int[] parseOutLinkIds(String data) {
+
+		TIntArrayList links = new TIntArrayList() ;
+		for (String value:data.split(";")) {
+			int sep = value.indexOf(':') ;
+			if (sep > 0)
+				links.add(Integer.parseInt(value.substring(0, sep))) ;
+		}
+
+		return toSortedSet(links) ;
+	}
+
+	private static int[] toSortedSet(TIntArrayList ids) {
+
+		if (ids.isEmpty())
+			return NO_IDS ;
+
+		ids.sort() ;
+
+		int count = 1 ;
+		for (int i=1 ; i<ids.size() ; i++) {
+			if (ids.get(i) != ids.get(count-1))
+				ids.set(count++, ids.get(i)) ;
+		}
+
+		return ids.toNativeArray(0, count) ;
+	}
+
+	private static void exportAnchors(WikipediaDatabase database, File directory, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(1, "Exporting anchors") ;
+		SegmentWriter writer = new SegmentWriter(getSegmentFile(directory, ANCHORS)) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT an_text, an_to, an_count FROM anchor ORDER BY BINARY an_text, an_count DESC, an_to") ;
+
+			byte[] lastText = null ;
+			TIntArrayList senses = new TIntArrayList() ;
+
+			while (rs.next()) {
+				byte[] text = rs.getBytes(1) ;
+
+				if (lastText == null || !Arrays.equals(text, lastText)) {
+					if (lastText != null)
+						writer.add(lastText, intValues(senses.toNativeArray())) ;
+
+					senses.clear() ;
+					lastText = text ;
+				}
+
+				senses.add(rs.getInt(2)) ;
+				senses.add(rs.getInt(3)) ;
+			}
+
+			if (lastText != null)
+				writer.add(lastText, intValues(senses.toNativeArray())) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+
+		pn.update(1) ;
+	}
+
+	private static void exportTranslations(WikipediaDatabase database, File directory, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(1, "Exporting translations") ;
+		SegmentWriter writer = new SegmentWriter(getSegmentFile(directory, TRANSLATIONS)) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT tl_id, tl_lang, tl_text FROM translation ORDER BY tl_id") ;
+
+			int lastId = -1 ;
+			Vector<String> pairs = new Vector<String>() ;
+
+			while (rs.next()) {
+				int id = rs.getInt(1) ;
+
+				if (id != lastId) {
+					if (!pairs.isEmpty())
+						writer.add(intKey(lastId), translationValue(pairs)) ;
+
+					pairs.clear() ;
+					lastId = id ;
+				}
+
+				pairs.add(new String(rs.getBytes(2), ParallelCsvReader.UTF8)) ;
+				pairs.add(new String(rs.getBytes(3), ParallelCsvReader.UTF8)) ;
+			}
+
+			if (!pairs.isEmpty())
+				writer.add(intKey(lastId), translationValue(pairs)) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+
+		pn.update(1) ;
+	}
+
+	private static void exportContent(WikipediaDatabase database, File directory, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(database.getPageCount(), "Exporting content") ;
+		SegmentWriter writer = new SegmentWriter(getSegmentFile(directory, CONTENT)) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT co_id, co_content FROM content ORDER BY co_id") ;
+			while (rs.next()) {
+				writer.add(intKey(rs.getInt(1)), rs.getBytes(2)) ;
+				pn.update() ;
+			}
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+	}
+
+	private static void exportDefinitions(WikipediaDatabase database, File directory, ProgressNotifier pn) throws SQLException, IOException {
+
+		pn.startTask(database.getPageCount(), "Exporting definitions") ;
+		SegmentWriter writer = new SegmentWriter(getSegmentFile(directory, DEFINITIONS)) ;
+
+		Statement stmt = database.createStreamingStatement() ;
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT df_id, df_firstSentence, df_firstParagraph FROM definition ORDER BY df_id") ;
+			while (rs.next()) {
+				byte[] sentence = rs.getBytes(2) ;
+				byte[] paragraph = rs.getBytes(3) ;
+
+				ByteBuffer value = ByteBuffer.allocate(4 + sentence.length + paragraph.length) ;
+				value.putInt(sentence.length) ;
+				value.put(sentence) ;
+				value.put(paragraph) ;
+
+				writer.add(intKey(rs.getInt(1)), value.array()) ;
+				pn.update() ;
+			}
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+			writer.close() ;
+		}
+	}
+
+	private static File getSegmentFile(File directory, String name) {
+		return new File(directory, name + ".seg") ;
+	}
+
+	/**
+	 * Ids are written big-endian, so (as long as they are not negative) their bytes sort in the same order as the ids themselves.
+	 */
+	private static byte[] intKey(int id) {
+		return ByteBuffer.allocate(4).putInt(id).array() ;
+	}
+
+	private static byte[] titleKey(int type, byte[] title) {
+		byte[] key = new byte[title.length + 1] ;
+		key[0] = (byte)type ;
+		System.arraycopy(title, 0, key, 1, title.length) ;
+		return key ;
+	}
+
+	private static byte[] intValues(int[] values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 4) ;
+		buffer.asIntBuffer().put(values) ;
+		return buffer.array() ;
+	}
+
+	private static byte[] translationValue(Vector<String> pairs) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream() ;
+		DataOutputStream out = new DataOutputStream(bytes) ;
+
+		out.writeInt(pairs.size() / 2) ;
+		for (String s:pairs)
+			out.writeUTF(s) ;
+
+		out.close() ;
+		return bytes.toByteArray() ;
+	}
+
+	/**
+	 * Exports a Wikipedia database to an embedded store, and then reads a few lookups back from the store's segment files.
+	 * The lookups themselves need no database, but a connection is needed to export the store, and to show the same lookups 
+	 * being made through the model once the store has been handed to the database.
+	 * 
+	 * @param args the directory to export the store to, followed by the arguments for connecting to a wikipedia database: 
+	 * server and database names at a minimum, and optionally a username and password
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length < 3) 
+				throw new Exception("You must specify a store directory, a server and a database. Username and password are optional") ;
+			
+			File directory = new File(args[0]) ;
+			
+			String[] dbArgs = new String[args.length-1] ;
+			System.arraycopy(args, 1, dbArgs, 0, dbArgs.length) ;
+
+			WikipediaDatabase database = Wikipedia.getInstanceFromArguments(dbArgs).getDatabase() ;
+			EmbeddedStore.export(database, directory) ;
+
+			WikipediaStore store = new EmbeddedStore(directory) ;
+
+			int id = store.getPageId("Kiwi", Page.ARTICLE) ;
+			System.out.println(store.getPage(id) + " links in: " + store.getLinksIn(id).length + ", links out: " + store.getLinksOut(id).length) ;
+
+			AnchorRecord anchor = store.getAnchor("Kiwi") ;
+			if (anchor != null) {
+				for (int i=0 ; i<anchor.getSenseIds().length ; i++) 
+					System.out.println(" - " + store.getPage(anchor.getSenseIds()[i]) + " (" + anchor.getSenseCounts()[i] + ")") ;
+			}
+			
+			//from now on, the model reads from the store
+			database.setStore(store) ;
+			System.out.println(new Article(database, id).getLinksIn()) ;
+
+			database.setStore(null) ;
+			store.close() ;
+		} catch (Exception e) {
+			e.printStackTrace() ;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ *    MySqlStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+import java.sql.* ;
+import java.util.* ;
+
+import gnu.trove.* ;
+
+import org.wikipedia.miner.model.* ;
+import org.wikipedia.miner.util.ParallelCsvReader ;
+
+/**
+ * @author David Milne
+ *
+ * A WikipediaStore that reads from the tables of a WikipediaDatabase, using the named queries registered
+ * by that database (and its caches, where the database makes use of them).
+ * <p>
+ * The database is not owned by this store, so it is left open when the store is closed.
+ */
+public class MySqlStore implements WikipediaStore {
+
+	private static final int[] NO_IDS = new int[0] ;
+
+	private WikipediaDatabase database ;
+
+	/**
+	 * @param database an active (connected) Wikipedia database.
+	 */
+	public MySqlStore(WikipediaDatabase database) {
+		this.database = database ;
+	}
+
+	/**
+	 * @return the database this store reads from.
+	 */
+	public WikipediaDatabase getDatabase() {
+		return database ;
+	}
+
+	public PageRecord getPage(int id) throws SQLException {
+
+		PageRecord page = null ;
+
+		PreparedStatement stmt = database.prepareStatement("pageById") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
+
+			if (rs.next())
+				page = new PageRecord(id, getUTF8(rs, 1), rs.getInt(2)) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
+
+		return page ;
+	}
+
+	public int getPageId(String title, int type) throws SQLException {
+
+		int id = -1 ;
+
+		PreparedStatement stmt = database.prepareStatement("pageIdByTitle") ;
+		try {
+			stmt.setString(1, title) ;
+			stmt.setInt(2, type) ;
+			ResultSet rs = stmt.executeQuery() ;
+
+			if (rs.next())
+				id = rs.getInt(1) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
+
+		return id ;
+	}
+
+	public int getRedirectTarget(int redirectId) throws SQLException {
+		int[] targets = getIds("redirectTarget", redirectId) ;
+		return targets.length > 0 ? targets[0] : -1 ;
+	}
+
+	public int[] getRedirects(int id) throws SQLException {
+		return getIds("redirectsTo", id) ;
+	}
+
+	public int[] getLinksIn(int id) throws SQLException {
+		int[] links = database.getLinksInIds(new int[] {id}).get(id) ;
+		return links == null ? NO_IDS : links ;
+	}
+
+	public int[] getLinksOut(int id) throws SQLException {
+		int[] links = database.getLinksOutIds(new int[] {id}).get(id) ;
+		return links == null ? NO_IDS : links ;
+	}
+
+	public AnchorRecord getAnchor(String text) throws SQLException {
+
+		TIntArrayList ids = new TIntArrayList() ;
+		TIntArrayList counts = new TIntArrayList() ;
+
+		PreparedStatement stmt = database.prepareStatement("anchorSenses") ;
+		try {
+			stmt.setString(1, text) ;
+			ResultSet rs = stmt.executeQuery() ;
+
+			while (rs.next()) {
+				ids.add(rs.getInt(1)) ;
+				counts.add(rs.getInt(2)) ;
+			}
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
+
+		if (ids.isEmpty())
+			return null ;
+
+		return new AnchorRecord(text, ids.toNativeArray(), counts.toNativeArray()) ;
+	}
+
+	public int[] getParentCategories(int id) throws SQLException {
+		return getIds("parentCategoryIds", id) ;
+	}
+
+	public int[] getChildCategories(int categoryId) throws SQLException {
+		return getIds("childCategoryIds", categoryId) ;
+	}
+
+	public int[] getChildArticles(int categoryId) throws SQLException {
+		return getIds("childArticleIds", categoryId) ;
+	}
+
+	public HashMap<String,String> getTranslations(int id) throws SQLException {
+
+		HashMap<String,String> translations = new HashMap<String,String>() ;
+
+		PreparedStatement stmt = database.prepareStatement("translations") ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
+
+			while (rs.next())
+				translations.put(getUTF8(rs, 1), getUTF8(rs, 2)) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
+
+		return translations ;
+	}
+
+	public String getContent(int id) throws SQLException {
+		if (!database.isContentImported())
+			return null ;
+
+		return getString("content", id) ;
+	}
+
+	public String getFirstSentence(int id) throws SQLException {
+		if (!database.areDefinitionsSummarized())
+			return null ;
+
+		return getString("firstSentence", id) ;
+	}
+
+	public String getFirstParagraph(int id) throws SQLException {
+		if (!database.areDefinitionsSummarized())
+			return null ;
+
+		return getString("firstParagraph", id) ;
+	}
+
+	public void close() {
+		//the database belongs to whoever created this store
+	}
+
+	/**
+	 * Issues a named query that takes a single id, and gathers the ids found in the first column of its results.
+	 */
+	private int[] getIds(String queryName, int id) throws SQLException {
+
+		TIntArrayList ids = new TIntArrayList() ;
+
+		PreparedStatement stmt = database.prepareStatement(queryName) ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
+
+			while (rs.next())
+				ids.add(rs.getInt(1)) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
+
+		int[] sortedIds = ids.toNativeArray() ;
+		Arrays.sort(sortedIds) ;
+		return sortedIds ;
+	}
+
+	private String getString(String queryName, int id) throws SQLException {
+
+		String s = null ;
+
+		PreparedStatement stmt = database.prepareStatement(queryName) ;
+		try {
+			stmt.setInt(1, id) ;
+			ResultSet rs = stmt.executeQuery() ;
+
+			if (rs.next())
+				s = getUTF8(rs, 1) ;
+
+			rs.close() ;
+		} finally {
+			stmt.close() ;
+		}
+
+		return s ;
+	}
+
+	private static String getUTF8(ResultSet rs, int column) throws SQLException {
+		byte[] bytes = rs.getBytes(column) ;
+		return bytes == null ? null : new String(bytes, ParallelCsvReader.UTF8) ;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ *    PageRecord.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+/**
+ * @author David Milne
+ *
+ * The id, title and type of a single page, as held by a WikipediaStore.
+ */
+public class PageRecord {
+
+	private int id ;
+	private String title ;
+	private int type ;
+
+	/**
+	 * @param id the unique identifier of the page
+	 * @param title the (case dependent) title of the page
+	 * @param type the type of the page (as given by the constants in org.wikipedia.miner.model.Page)
+	 */
+	public PageRecord(int id, String title, int type) {
+		this.id = id ;
+		this.title = title ;
+		this.type = type ;
+	}
+
+	public int getId() {
+		return id ;
+	}
+
+	public String getTitle() {
+		return title ;
+	}
+
+	public int getType() {
+		return type ;
+	}
+
+	public String toString() {
+		return id + ":" + title ;
+	}
+}
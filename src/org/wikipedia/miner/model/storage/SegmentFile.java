@@ -0,0 +1,200 @@
+/*
+ *    SegmentFile.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.FileChannel ;
+
+/**
+ * @author David Milne
+ *
+ * Reads a segment file that was written by SegmentWriter.
+ * <p>
+ * The block index is held in memory, so finding a record costs a binary search over block keys and a scan through a
+ * single block. Files that fit within a single buffer are memory mapped, so the scan is a local memory access; larger
+ * files are read a block at a time. Either way, the file can be read by many threads at once.
+ */
+public class SegmentFile {
+
+	private File file ;
+	private RandomAccessFile raf ;
+	private FileChannel channel ;
+	private ByteBuffer mapped ;
+
+	private byte[][] blockKeys ;
+	private long[] blockOffsets ;
+	private long indexOffset ;
+	private int records ;
+
+	/**
+	 * Opens a segment file.
+	 *
+	 * @param file the file to read
+	 * @throws IOException if the file cannot be read, or is not a segment file
+	 */
+	public SegmentFile(File file) throws IOException {
+
+		this.file = file ;
+		raf = new RandomAccessFile(file, "r") ;
+		channel = raf.getChannel() ;
+
+		try {
+			long length = channel.size() ;
+			if (length < SegmentWriter.FOOTER_LENGTH)
+				throw new IOException(file.getPath() + " is not a segment file") ;
+
+			ByteBuffer footer = read(length - SegmentWriter.FOOTER_LENGTH, SegmentWriter.FOOTER_LENGTH) ;
+			indexOffset = footer.getLong() ;
+			int blocks = footer.getInt() ;
+			records = footer.getInt() ;
+
+			if (footer.getInt() != SegmentWriter.MAGIC)
+				throw new IOException(file.getPath() + " is not a segment file") ;
+
+			ByteBuffer index = read(indexOffset, (int)(length - SegmentWriter.FOOTER_LENGTH - indexOffset)) ;
+
+			blockKeys = new byte[blocks][] ;
+			blockOffsets = new long[blocks] ;
+
+			for (int b=0 ; b<blocks ; b++) {
+				blockKeys[b] = new byte[index.getShort() & 0xFFFF] ;
+				index.get(blockKeys[b]) ;
+				blockOffsets[b] = index.getLong() ;
+			}
+
+			if (length <= Integer.MAX_VALUE)
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length) ;
+
+		} catch (IOException e) {
+			raf.close() ;
+			throw e ;
+		}
+	}
+
+	/**
+	 * @param key the key of the record of interest
+	 * @return the value of the record with the given key, or null if there is no such record.
+	 * @throws IOException if the file cannot be read
+	 */
+	public byte[] get(byte[] key) throws IOException {
+
+		int block = findBlock(key) ;
+		if (block < 0)
+			return null ;
+
+		long start = blockOffsets[block] ;
+		long end = (block+1 < blockOffsets.length) ? blockOffsets[block+1] : indexOffset ;
+
+		ByteBuffer data = read(start, (int)(end - start)) ;
+
+		byte[] buffer = new byte[256] ;
+		while (data.hasRemaining()) {
+			int keyLength = data.getShort() & 0xFFFF ;
+			if (keyLength > buffer.length)
+				buffer = new byte[keyLength] ;
+
+			data.get(buffer, 0, keyLength) ;
+			int valueLength = data.getInt() ;
+
+			int c = SegmentWriter.compare(buffer, 0, keyLength, key) ;
+			if (c == 0) {
+				byte[] value = new byte[valueLength] ;
+				data.get(value) ;
+				return value ;
+			}
+
+			//records are sorted, so we have gone past where the key would be
+			if (c > 0)
+				return null ;
+
+			data.position(data.position() + valueLength) ;
+		}
+
+		return null ;
+	}
+
+	/**
+	 * @return the number of records in this segment
+	 */
+	public int getRecordCount() {
+		return records ;
+	}
+
+	/**
+	 * @return the file this segment is read from
+	 */
+	public File getFile() {
+		return file ;
+	}
+
+	/**
+	 * Closes the file. Mapped memory is released once it is garbage collected.
+	 *
+	 * @throws IOException if the file cannot be closed
+	 */
+	public void close() throws IOException {
+		mapped = null ;
+		raf.close() ;
+	}
+
+	/**
+	 * @return the index of the last block whose first key is not greater than the given key, or -1 if there is no such block.
+	 */
+	private int findBlock(byte[] key) {
+
+		int low = 0 ;
+		int high = blockKeys.length - 1 ;
+		int found = -1 ;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1 ;
+
+			if (SegmentWriter.compare(blockKeys[mid], key) <= 0) {
+				found = mid ;
+				low = mid + 1 ;
+			} else {
+				high = mid - 1 ;
+			}
+		}
+
+		return found ;
+	}
+
+	private ByteBuffer read(long start, int length) throws IOException {
+
+		ByteBuffer m = mapped ;
+		if (m != null) {
+			ByteBuffer slice = m.duplicate() ;
+			slice.position((int)start) ;
+			slice.limit((int)start + length) ;
+			return slice.slice() ;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length) ;
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, start + buffer.position()) ;
+			if (n < 0)
+				throw new EOFException(file.getPath()) ;
+		}
+		buffer.flip() ;
+		return buffer ;
+	}
+}
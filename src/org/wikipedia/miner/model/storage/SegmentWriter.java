@@ -0,0 +1,155 @@
+/*
+ *    SegmentWriter.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+import java.io.* ;
+import java.util.* ;
+
+/**
+ * @author David Milne
+ *
+ * Writes a segment file: an immutable sequence of (key, value) records, sorted by key, which can be read with SegmentFile.
+ * <p>
+ * Records are grouped into blocks of roughly BLOCK_SIZE bytes. The first key of every block is written to an index at
+ * the end of the file, followed by a fixed length footer that locates the index. Keys must be added in strictly
+ * ascending order (comparing bytes as unsigned values), and each may be added only once.
+ */
+public class SegmentWriter {
+
+	/**
+	 * the number of bytes after which a new block is started
+	 */
+	public static final int BLOCK_SIZE = 16 * 1024 ;
+
+	/**
+	 * identifies segment files
+	 */
+	public static final int MAGIC = 0x57534547 ;
+
+	/**
+	 * the length in bytes of the footer at the end of each segment file
+	 */
+	public static final int FOOTER_LENGTH = 20 ;
+
+	private File file ;
+	private DataOutputStream out ;
+	private long position = 0 ;
+
+	private Vector<byte[]> blockKeys = new Vector<byte[]>() ;
+	private Vector<Long> blockOffsets = new Vector<Long>() ;
+	private long blockStart = -1 ;
+
+	private byte[] lastKey = null ;
+	private int records = 0 ;
+
+	/**
+	 * Creates a segment file, overwriting any file that already exists.
+	 *
+	 * @param file the file to write to
+	 * @throws IOException if the file cannot be created
+	 */
+	public SegmentWriter(File file) throws IOException {
+		this.file = file ;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) ;
+	}
+
+	/**
+	 * Adds a record.
+	 *
+	 * @param key the key of the record, which must be greater than that of every record added so far
+	 * @param value the value of the record
+	 * @throws IOException if the key is out of order, or the record cannot be written
+	 */
+	public void add(byte[] key, byte[] value) throws IOException {
+
+		if (key.length > 0xFFFF)
+			throw new IOException("key of " + key.length + " bytes is too long for " + file.getPath()) ;
+
+		if (lastKey != null && compare(lastKey, key) >= 0)
+			throw new IOException("keys must be added to " + file.getPath() + " in ascending order, without duplicates") ;
+
+		if (blockStart < 0 || position - blockStart >= BLOCK_SIZE) {
+			blockStart = position ;
+			blockKeys.add(key) ;
+			blockOffsets.add(position) ;
+		}
+
+		out.writeShort(key.length) ;
+		out.write(key) ;
+		out.writeInt(value.length) ;
+		out.write(value) ;
+
+		position += 6 + key.length + value.length ;
+		lastKey = key ;
+		records++ ;
+	}
+
+	/**
+	 * @return the number of records added so far
+	 */
+	public int getRecordCount() {
+		return records ;
+	}
+
+	/**
+	 * Writes the block index and footer, and closes the file.
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	public void close() throws IOException {
+
+		long indexOffset = position ;
+
+		for (int b=0 ; b<blockKeys.size() ; b++) {
+			byte[] key = blockKeys.elementAt(b) ;
+			out.writeShort(key.length) ;
+			out.write(key) ;
+			out.writeLong(blockOffsets.elementAt(b)) ;
+		}
+
+		out.writeLong(indexOffset) ;
+		out.writeInt(blockKeys.size()) ;
+		out.writeInt(records) ;
+		out.writeInt(MAGIC) ;
+
+		out.close() ;
+	}
+
+	/**
+	 * Compares two keys, treating their bytes as unsigned values.
+	 *
+	 * @return a negative number, zero, or a positive number as a is less than, equal to, or greater than b
+	 */
+	public static int compare(byte[] a, byte[] b) {
+		return compare(a, 0, a.length, b) ;
+	}
+
+	protected static int compare(byte[] a, int aStart, int aLength, byte[] b) {
+
+		int length = Math.min(aLength, b.length) ;
+		for (int i=0 ; i<length ; i++) {
+			int c = (a[aStart+i] & 0xFF) - (b[i] & 0xFF) ;
+			if (c != 0)
+				return c ;
+		}
+
+		return aLength - b.length ;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ *    WikipediaStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.model.storage;
+
+import java.sql.SQLException ;
+import java.util.HashMap ;
+
+/**
+ * @author David Milne
+ *
+ * Provides read access to the structure and content of Wikipedia, independently of where it is stored.
+ * <p>
+ * Everything is expressed in terms of page ids and plain strings, so that stores need know nothing about the
+ * classes in org.wikipedia.miner.model. MySqlStore reads from a WikipediaDatabase, while EmbeddedStore reads from
+ * local segment files and needs no database server at all. The model classes read anything that has not been cached 
+ * through the store given by WikipediaDatabase.getStore().
+ * <p>
+ * A store covers pages, titles, redirects, links, unprocessed anchors, categories, translations, content and definitions. 
+ * It does not replace the database: a WikipediaDatabase still connects to MySQL when it is created, and still reads 
+ * statistics (such as article counts), generality, link counts, links out with their counts (used to measure relatedness), 
+ * anchor occurrences, anchors prepared with a text processor, equivalences and disambiguation senses from its own tables. 
+ * A store moves the most frequent lookups off the server; it does not remove the need for one.
+ * <p>
+ * Problems with any kind of store are reported as SQLExceptions, to match the rest of the toolkit. All implementations
+ * must be safe for use by many threads at once.
+ */
+public interface WikipediaStore {
+
+	/**
+	 * @param id the id of a page
+	 * @return the page with the given id, or null if there is no such page.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public PageRecord getPage(int id) throws SQLException ;
+
+	/**
+	 * @param title the (case sensitive) title of a page
+	 * @param type the type of the page
+	 * @return the id of the page with the given title and type, or -1 if there is no such page.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getPageId(String title, int type) throws SQLException ;
+
+	/**
+	 * @param redirectId the id of a redirect
+	 * @return the id of the page the redirect points to, or -1 if it is not known.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int getRedirectTarget(int redirectId) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the sorted ids of redirects that point to the given page
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getRedirects(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the sorted ids of pages that link to the given page
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getLinksIn(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the sorted ids of pages that the given page links to
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getLinksOut(int id) throws SQLException ;
+
+	/**
+	 * @param text the (unprocessed) text of an anchor
+	 * @return the senses of the anchor, or null if the text is never used as an anchor.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public AnchorRecord getAnchor(String text) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the sorted ids of categories the given page belongs to
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getParentCategories(int id) throws SQLException ;
+
+	/**
+	 * @param categoryId the id of a category
+	 * @return the sorted ids of categories that belong to the given category
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getChildCategories(int categoryId) throws SQLException ;
+
+	/**
+	 * @param categoryId the id of a category
+	 * @return the sorted ids of articles that belong to the given category
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public int[] getChildArticles(int categoryId) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the titles of equivalent pages in other language versions of Wikipedia, indexed by language code.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public HashMap<String,String> getTranslations(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the content of the given page in media wiki markup, or null if content is not available.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public String getContent(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the summarized first sentence of the given page, or null if definitions are not available.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public String getFirstSentence(int id) throws SQLException ;
+
+	/**
+	 * @param id the id of a page
+	 * @return the summarized first paragraph of the given page, or null if definitions are not available.
+	 * @throws SQLException if there is a problem with the store
+	 */
+	public String getFirstParagraph(int id) throws SQLException ;
+
+	/**
+	 * Releases any resources held by this store.
+	 */
+	public void close() ;
+}
@@ -36,6 +36,9 @@ import org.wikipedia.miner.util.text.*;
 public class Comparer {
 
 	private WikipediaMinerServlet wms ;
+	private Wikipedia wikipedia ;
+	private Definer definer ;
+	private RelatednessCache relatednessCache ;
 	
 	private boolean defaultShowDetails = false ;
 	private int defaultMaxLinkCount = 250 ;
@@ -43,9 +46,15 @@ public class Comparer {
 	/**
 	 * Initializes a new Comparer
 	 * @param wms the servlet that hosts this service
+	 * @param wikipedia the instance of Wikipedia that terms are compared within
+	 * @param definer the service used to format definitions of compared articles
+	 * @param relatednessCache a cache of relatedness measures, which may be shared with other services
 	 */
-	public Comparer(WikipediaMinerServlet wms) {
+	public Comparer(WikipediaMinerServlet wms, Wikipedia wikipedia, Definer definer, RelatednessCache relatednessCache) {
 		this.wms = wms;
+		this.wikipedia = wikipedia ;
+		this.definer = definer ;
+		this.relatednessCache = relatednessCache ;
 	}
 	
 	/**
@@ -134,7 +143,7 @@ public class Comparer {
 				
 		TextProcessor tp = new CaseFolder() ;
 
-		Anchor anchor1 = new Anchor(term1, tp, wms.wikipedia.getDatabase()) ;
+		Anchor anchor1 = new Anchor(term1, tp, wikipedia.getDatabase()) ;
 		SortedVector<Anchor.Sense> senses1 = anchor1.getSenses() ; 
 
 		if (senses1.size() == 0) {
@@ -142,7 +151,7 @@ public class Comparer {
 			return response ;
 		}
 
-		Anchor anchor2 = new Anchor(term2, tp, wms.wikipedia.getDatabase()) ;
+		Anchor anchor2 = new Anchor(term2, tp, wikipedia.getDatabase()) ;
 		SortedVector<Anchor.Sense> senses2 = anchor2.getSenses() ; 
 
 		if (senses2.size() == 0) {
@@ -153,7 +162,7 @@ public class Comparer {
 		response.setAttribute("term1", term1) ;
 		response.setAttribute("term2", term2) ;
 
-		double sr = anchor1.getRelatednessTo(anchor2) ;
+		double sr = anchor1.getRelatednessTo(anchor2, relatednessCache) ;
 
 		response.setAttribute("relatedness", wms.df.format(sr)) ;
 
@@ -184,7 +193,7 @@ public class Comparer {
 				if (sense2.getProbability() < minProb) break ;
 				sensesB++ ;
 
-				double relatedness = sense1.getRelatednessTo(sense2) ;
+				double relatedness = relatednessCache.getRelatedness(sense1, sense2) ;
 				double obviousness = (sense1.getProbability() + sense2.getProbability()) / 2 ;
 
 				if (relatedness > (benchmark_relatedness - benchmark_distance)) {
@@ -218,7 +227,7 @@ public class Comparer {
 		String firstSentence = null;
 		try { 
 			firstSentence = art1.getFirstSentence(null, null) ;
-			firstSentence = wms.definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+			firstSentence = definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 		} catch (Exception e) {} ;
 		
 		if (firstSentence != null) 
@@ -237,7 +246,7 @@ public class Comparer {
 		firstSentence = null;
 		try { 
 			firstSentence = art2.getFirstSentence(null, null) ;
-			firstSentence = wms.definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+			firstSentence = definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 		} catch (Exception e) {} ;
 		
 		if (firstSentence != null) 
@@ -316,7 +325,7 @@ public class Comparer {
 			if (count++ >= linkLimit) break ;
 			
 			try {
-				Article art = new Article(wms.wikipedia.getDatabase(), link) ;
+				Article art = new Article(wikipedia.getDatabase(), link) ;
 				
 				Element xmlLink = wms.doc.createElement(tag) ;
 				xmlLink.setAttribute("id", String.valueOf(art.getId())) ;
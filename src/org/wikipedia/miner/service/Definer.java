@@ -47,6 +47,7 @@ import javax.servlet.ServletException;
 public class Definer {
 
 	private WikipediaMinerServlet wms ;
+	private Wikipedia wikipedia ;
 	
 	/**
 	 * Only first sentences are used for definitions.
@@ -130,10 +131,12 @@ public class Definer {
 	 * Initializes a new instance of Definer
 	 * 
 	 * @param wms the servlet that hosts this service
+	 * @param wikipedia the instance of Wikipedia that pages are defined from
 	 * @throws ServletException 
 	 */
-	public Definer(final WikipediaMinerServlet wms) throws  ServletException{
+	public Definer(final WikipediaMinerServlet wms, Wikipedia wikipedia) throws  ServletException{
 		this.wms = wms ;
+		this.wikipedia = wikipedia ;
 		
 		try {
 			String proxyHost = wms.context.getInitParameter("proxy_host") ;
@@ -247,7 +250,7 @@ public class Definer {
 	
 		response.setAttribute("id", String.valueOf(pageId)) ;
 		
-		Page page = wms.wikipedia.getPageById(pageId) ;
+		Page page = wikipedia.getPageById(pageId) ;
 		if (page==null) {
 			response.setAttribute("unknownId", "true") ;
 			return response ;
@@ -369,7 +372,7 @@ public class Definer {
 					anchor = link ;
 				}
 				
-				Article art = wms.wikipedia.getArticleByTitle(dest) ;
+				Article art = wikipedia.getArticleByTitle(dest) ;
 				
 				if (art == null || linkDestination == LINK_NONE) {
 					sb.append(anchor) ;
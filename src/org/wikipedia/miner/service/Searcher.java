@@ -40,15 +40,25 @@ import org.wikipedia.miner.util.text.*;
 public class Searcher {
 
 	private WikipediaMinerServlet wms ;
+	private Wikipedia wikipedia ;
+	private Definer definer ;
+	private RelatednessCache relatednessCache ;
 		
 	private int defaultMaxLinkCount = 250 ;
 	private int defaultMaxSenseCount = 25 ;
+	private int defaultMaxRelatedCount = 50 ;
 
 	/**
 	 * @param wms the servlet that hosts this service
+	 * @param wikipedia the instance of Wikipedia to search
+	 * @param definer the service used to format definitions of the pages that are found
+	 * @param relatednessCache a cache of relatedness measures, which may be shared with other services
 	 */
-	public Searcher(WikipediaMinerServlet wms) {
+	public Searcher(WikipediaMinerServlet wms, Wikipedia wikipedia, Definer definer, RelatednessCache relatednessCache) {
 		this.wms = wms ;
+		this.wikipedia = wikipedia ;
+		this.definer = definer ;
+		this.relatednessCache = relatednessCache ;
 	}
 	
 	/**
@@ -65,6 +75,13 @@ public class Searcher {
 		return defaultMaxSenseCount ;
 	}
 	
+	/**
+	 * @return the default number of related articles that are returned for an article. 
+	 */
+	public int getDefaultMaxRelatedCount() {
+		return defaultMaxRelatedCount ;
+	}
+	
 	/**
 	 * @return an Element description of this service; what it does, and what parameters it takes.
 	 */
@@ -111,6 +128,108 @@ public class Searcher {
 	}
 	
 	
+	/**
+	 * @return an Element description of the related articles task; what it does, and what parameters it takes.
+	 */
+	public Element getRelatedDescription() {
+		
+		Element description = wms.doc.createElement("Description") ;
+		description.setAttribute("task", "related") ;
+		
+		description.appendChild(wms.createElement("Details", "<p>This service finds the articles that are most related to a given article, as measured by the links made to them. For example, you can find the articles most related to <a href=\"" + wms.context.getInitParameter("service_name") + "?task=related&term=kiwi\">kiwi</a>.</p>" 
+				+ "<p>Only articles that share links with the given article are considered, so this is fast enough to be used for recommendations.</p>")) ;
+		
+		Element group1 = wms.doc.createElement("ParameterGroup") ;
+		description.appendChild(group1) ;
+		
+		Element paramTerm = wms.doc.createElement("Parameter") ;
+		paramTerm.setAttribute("name", "term") ;
+		paramTerm.appendChild(wms.doc.createTextNode("The term (or phrase) to find related articles for. This is resolved to its most likely sense.")) ;
+		group1.appendChild(paramTerm) ;
+		
+		Element group2 = wms.doc.createElement("ParameterGroup") ;
+		description.appendChild(group2) ;
+		
+		Element paramId = wms.doc.createElement("Parameter") ;
+		paramId.setAttribute("name", "id") ;
+		paramId.appendChild(wms.doc.createTextNode("The unique identifier of the article to find related articles for.")) ;
+		group2.appendChild(paramId) ;
+		
+		Element paramLimit = wms.doc.createElement("Parameter") ;
+		paramLimit.setAttribute("name", "limit") ;
+		paramLimit.appendChild(wms.doc.createTextNode("The maximum number of related articles to return.")) ;
+		paramLimit.setAttribute("optional", "true") ;
+		paramLimit.setAttribute("default", String.valueOf(getDefaultMaxRelatedCount())) ; 
+		description.appendChild(paramLimit) ;
+		
+		return description ;
+	}
+	
+	/**
+	 * @param term the term to find related articles for, which is resolved to its most likely sense
+	 * @param limit the maximum number of related articles to return
+	 * @return xml list of the articles that are most related to the one the term refers to.
+	 * @throws Exception
+	 */
+	public Element getRelatedArticles(String term, int limit) throws Exception {
+		
+		if (term == null) {
+			Element response = wms.doc.createElement("RelatedArticlesResponse") ;
+			response.setAttribute("unspecifiedParameters", "true") ;
+			return response ;
+		}
+		
+		Article article = wikipedia.getMostLikelyArticle(term, new CaseFolder()) ;
+		
+		if (article == null) {
+			Element response = wms.doc.createElement("RelatedArticlesResponse") ;
+			response.setAttribute("unknownTerm", term) ; 
+			return response ;
+		}
+		
+		return getRelatedArticles(article.getId(), limit) ;
+	}
+	
+	/**
+	 * @param id the id of the article to find related articles for
+	 * @param limit the maximum number of related articles to return
+	 * @return xml list of the articles that are most related to the given one.
+	 * @throws Exception
+	 */
+	public Element getRelatedArticles(int id, int limit) throws Exception {
+		
+		Element response = wms.doc.createElement("RelatedArticlesResponse") ;
+		
+		if (limit < 0) {
+			response.setAttribute("invalidLimit", String.valueOf(limit)) ;
+			return response ;
+		}
+		
+		Page page = wikipedia.getPageById(id) ;
+		if (page == null || page.getType() != Page.ARTICLE) {
+			response.setAttribute("unknownId", String.valueOf(id)) ;
+			return response ;
+		}
+		
+		Article article = (Article)page ;
+		response.setAttribute("id", String.valueOf(article.getId())) ;
+		response.setAttribute("title", article.getTitle()) ;
+		
+		Element xmlRelated = wms.doc.createElement("RelatedArticleList") ;
+		
+		for (Article art:article.getMostRelatedArticles(limit)) {
+			Element xmlArt = wms.doc.createElement("RelatedArticle") ;
+			xmlArt.setAttribute("id", String.valueOf(art.getId())) ;
+			xmlArt.setAttribute("title", art.getTitle()) ;
+			xmlArt.setAttribute("relatedness", wms.df.format(art.getWeight())) ;
+			
+			xmlRelated.appendChild(xmlArt) ;
+		}
+		response.appendChild(xmlRelated) ;
+		
+		return response ;
+	}
+	
 	/**
 	 * @param term the term to search for
 	 * @param linkLimit the number of links to be shown extending out from and into the article, if the term is unambiguous
@@ -128,7 +247,7 @@ public class Searcher {
 		}
 		
 		TextProcessor tp = new CaseFolder() ;			
-		Anchor anchor = new Anchor(term, tp, wms.wikipedia.getDatabase()) ;
+		Anchor anchor = new Anchor(term, tp, wikipedia.getDatabase()) ;
 		SortedVector<Anchor.Sense> senses = anchor.getSenses() ; 
 		
 		if (senses.size() == 0) {
@@ -163,7 +282,7 @@ public class Searcher {
 			String firstSentence = null;
 			try { 
 				firstSentence = sense.getFirstSentence(null, null) ;
-				firstSentence = wms.definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+				firstSentence = definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 			} catch (Exception e) {} ;
 			
 			if (firstSentence != null) 
@@ -187,7 +306,7 @@ public class Searcher {
 		
 		Element response = wms.doc.createElement("SearchResponse") ;
 		
-		Page page = wms.wikipedia.getPageById(id) ;
+		Page page = wikipedia.getPageById(id) ;
 		if (page != null) {
 			
 			response.setAttribute("term", page.getTitle()) ;
@@ -225,7 +344,7 @@ public class Searcher {
 		String firstParagraph = null;
 		try { 
 			firstParagraph = article.getFirstParagraph() ;
-			firstParagraph =  wms.definer.formatDefinition(firstParagraph, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+			firstParagraph =  definer.formatDefinition(firstParagraph, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 		} catch (Exception e) {};
 		
 		if (firstParagraph != null) 
@@ -319,13 +438,13 @@ public class Searcher {
 				if (count++ == linkLimit) break ;
 				
 				try {
-					Article link = new Article(wms.wikipedia.getDatabase(), id) ;	
+					Article link = new Article(wikipedia.getDatabase(), id) ;	
 				
 					Element xmlLink = wms.doc.createElement("LinkOut") ;
 				
 					xmlLink.setAttribute("id", String.valueOf(link.getId())) ;
 					xmlLink.setAttribute("title", link.getTitle()) ;
-					xmlLink.setAttribute("relatedness", wms.df.format(link.getRelatednessTo(article))) ;
+					xmlLink.setAttribute("relatedness", wms.df.format(relatednessCache.getRelatedness(link, article))) ;
 										
 					xmlLinks.appendChild(xmlLink) ;
 				} catch (Exception e) {} ;
@@ -345,13 +464,13 @@ public class Searcher {
 				if (count++ == linkLimit) break ;
 				
 				try {
-					Article link = new Article(wms.wikipedia.getDatabase(), id) ;	
+					Article link = new Article(wikipedia.getDatabase(), id) ;	
 				
 					Element xmlLink = wms.doc.createElement("LinkIn") ;
 				
 					xmlLink.setAttribute("id", String.valueOf(link.getId())) ;
 					xmlLink.setAttribute("title", link.getTitle()) ;
-					xmlLink.setAttribute("relatedness", wms.df.format(link.getRelatednessTo(article))) ;
+					xmlLink.setAttribute("relatedness", wms.df.format(relatednessCache.getRelatedness(link, article))) ;
 										
 					xmlLinks.appendChild(xmlLink) ;
 				} catch (Exception e) {} ;
@@ -375,7 +494,7 @@ public class Searcher {
 		String firstParagraph = null;
 		try { 
 			firstParagraph = category.getFirstParagraph() ;
-			firstParagraph = wms.definer.formatDefinition(firstParagraph, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+			firstParagraph = definer.formatDefinition(firstParagraph, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 		} catch (Exception e) {};
 		
 		if (firstParagraph != null) 
@@ -414,7 +533,7 @@ public class Searcher {
 		String firstParagraph = null;
 		try { 
 			firstParagraph = disambig.getFirstParagraph() ;
-			firstParagraph = wms.definer.formatDefinition(firstParagraph, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+			firstParagraph = definer.formatDefinition(firstParagraph, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 		} catch (Exception e) {};
 		
 		if (firstParagraph != null) 
@@ -433,7 +552,7 @@ public class Searcher {
 			String firstSentence = null;
 			try { 
 				firstSentence = sp.getFirstSentence(null, null) ;
-				firstSentence = wms.definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+				firstSentence = definer.formatDefinition(firstSentence, Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 			} catch (Exception e) {} ;
 			
 			if (firstSentence != null) 
@@ -481,7 +600,7 @@ public class Searcher {
 			if (count++ > linkLimit) break ;
 			
 			try {
-				Category c = (Category) wms.wikipedia.getPageById(id) ;
+				Category c = (Category) wikipedia.getPageById(id) ;
 			
 				Element xmlPage = wms.doc.createElement(tag) ;
 
@@ -504,7 +623,7 @@ public class Searcher {
 			if (count++ > linkLimit) break ;
 			
 			try {
-				Article a = (Article) wms.wikipedia.getPageById(id) ;
+				Article a = (Article) wikipedia.getPageById(id) ;
 			
 				Element xmlPage = wms.doc.createElement(tag) ;
 
@@ -524,7 +643,7 @@ public class Searcher {
 			return "This is a disambiguation page, created to list the possible senses of the page's title\n" ;
 		} else {
 			try {			
-				return wms.definer.formatDefinition(page.getFirstSentence(null, null), Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
+				return definer.formatDefinition(page.getFirstSentence(null, null), Definer.FORMAT_HTML, Definer.LINK_TOOLKIT) ;
 			} catch (Exception e) {
 				return "" ;
 			} 
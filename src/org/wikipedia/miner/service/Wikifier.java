@@ -48,6 +48,8 @@ import org.wikipedia.miner.annotation.weighting.*;
 public class Wikifier {
 
 	private WikipediaMinerServlet wms ;
+	private Wikipedia wikipedia ;
+	private RelatednessCache relatednessCache ;
 	
 	private Disambiguator disambiguator ;
 	private TopicDetector topicDetector ;
@@ -89,12 +91,16 @@ public class Wikifier {
 	 * Initializes a new instance of Wikifier.
 	 *
 	 * @param wms the servlet that hosts this service
+	 * @param wikipedia the instance of Wikipedia that topics are detected and linked to
+	 * @param relatednessCache a cache of relatedness measures, which may be shared with other services
 	 * @param tp an (optional) text processor to use for modifying how text is compared to anchors in Wikipedia.
 	 * @throws ServletException
 	 */
-	public Wikifier(WikipediaMinerServlet wms, TextProcessor tp) throws ServletException {
+	public Wikifier(WikipediaMinerServlet wms, Wikipedia wikipedia, RelatednessCache relatednessCache, TextProcessor tp) throws ServletException {
 		
 		this.wms = wms ;
+		this.wikipedia = wikipedia ;
+		this.relatednessCache = relatednessCache ;
 		//homePage = "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.0 Transitional//EN\"> <html><head> <title>MW Wikifier</title> <link rel=\"stylesheet\" href=\"css/style.css\" type=\"text/css\"></head><body><p>Welcome to the Wikipedia Miner wikifier service. This service automatically augments web pages with links to relevant Wikipedia topics. It doesn't just use Wikipedia as a source of information to link to, but also as training data for how best to do it. In other words, it has been trained to make the same decisions as the people who edit Wikipedia. </p> <p>Try it out! Just enter a url above, or drag this <a href=\"javascript:void(document.location='" + wms.context.getInitParameter("server_path") + "wikifier?url='+escape(document.location)')\" target=\"_top\">Wikifier</a> link into your bookmarks and you will be able to wikify pages with the click of a button.</p></body></html>" ;
 		errorPage = "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.0 Transitional//EN\"> <html><head> <title>MW Wikifier | error</title> <link rel=\"stylesheet\" href=\"css/style.css\" type=\"text/css\"></head><body><p><em>Ooops!</em></p><p>I've run into a problem while processing this document. Can you try a different one?</p></body></html>" ;
 		lostPage = "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.0 Transitional//EN\"> <html><head> <title>MW Wikifier | error</title> <link rel=\"stylesheet\" href=\"css/style.css\" type=\"text/css\"></head><body><p><em>Ooops!</em></p><p>I couldn't find the page you wanted to wikify. Can you please check that the url is correct, or try a different one?</p></body></html>" ;
@@ -102,7 +108,7 @@ public class Wikifier {
 		
 		
 		try {	
-			disambiguator = new Disambiguator(wms.wikipedia, tp, 0.01, 0, 25) ;
+			disambiguator = new Disambiguator(wikipedia, tp, 0.01, 0, 25) ;
 			disambiguator.loadClassifier(new File(wms.context.getInitParameter("wikifier_disambigModel"))) ;
 		} catch (Exception e) {
 			throw new ServletException("WikipediaMiner | could not retrieve disambiguation model for wikification (" + wms.context.getInitParameter("wikifier_disambigModel") + ")") ;
@@ -114,13 +120,13 @@ public class Wikifier {
 		}
 
 		try {
-			topicDetector = new TopicDetector(wms.wikipedia, disambiguator, stopwordFile, true, false) ;
+			topicDetector = new TopicDetector(wikipedia, disambiguator, stopwordFile, true, false) ;
 		} catch (IOException e) {
 			throw new ServletException("WikipediaMiner | could not retrieve stopwords for wikification (" + wms.context.getInitParameter("stopword_file")  + ")") ;
 		}
 
 		try {
-			linkDetector = new LinkDetector(wms.wikipedia) ;
+			linkDetector = new LinkDetector(wikipedia) ;
 			linkDetector.loadClassifier(new File(wms.context.getInitParameter("wikifier_linkModel"))) ;
 		} catch (Exception e) {
 			throw new ServletException("WikipediaMiner | could not retrieve link detection model for wikification") ;
@@ -366,10 +372,10 @@ public class Wikifier {
 			try {
 				// try it as an id first
 				Integer id = Integer.parseInt(t) ;
-				topics.add(new Article(wms.wikipedia.getDatabase(), id)) ;
+				topics.add(new Article(wikipedia.getDatabase(), id)) ;
 			} catch (Exception e) {
 				// if that fails, try as an article title				
-				Article art = wms.wikipedia.getArticleByTitle(t.trim()) ;
+				Article art = wikipedia.getArticleByTitle(t.trim()) ;
 				if (art != null)
 					topics.add(art) ;				
 			}
@@ -393,7 +399,7 @@ public class Wikifier {
 		DocumentTagger dt ;
 		
 		if (sourceMode == SOURCE_WIKI) {
-			dp = new WikiPreprocessor(wms.wikipedia) ;
+			dp = new WikiPreprocessor(wikipedia) ;
 			dt = new MyWikiTagger(linkColor, baseColor) ;
 		} else {
 			dp = new HtmlPreprocessor() ;
@@ -425,7 +431,7 @@ public class Wikifier {
 		//TODO: find smarter way to resolve this hack, which stops wikifier from detecting "Space (punctuation)" ;
 		doc.banTopic(143856) ;
 		
-		SortedVector<Topic> allTopics = linkDetector.getWeightedTopics(topicDetector.getTopics(doc, null)) ;
+		SortedVector<Topic> allTopics = linkDetector.getWeightedTopics(topicDetector.getTopics(doc, relatednessCache)) ;
 		SortedVector<Topic> bestTopics = new SortedVector<Topic>() ;
 		for (Topic t:allTopics) {
 			if (t.getWeight() >= minProbability)
@@ -29,8 +29,11 @@ import javax.xml.transform.dom.*;
 import javax.xml.transform.stream.*;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.text.DecimalFormat;
 import java.util.* ;
+import java.util.concurrent.* ;
+import java.util.concurrent.atomic.AtomicInteger ;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -51,15 +54,28 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Flags for each of the caches that tasks may depend on. These match the flags used by CachePlan.
+	 */
+	public static final int CACHE_PAGES = CachePlan.PAGES ;
+	public static final int CACHE_ANCHORS = CachePlan.ANCHORS ;
+	public static final int CACHE_IN_LINKS = CachePlan.IN_LINKS ;
+	public static final int CACHE_GENERALITY = CachePlan.GENERALITY ;
+	public static final int CACHE_PARENT_IDS = CachePlan.CATEGORY_GRAPH ;
+	public static final int CACHE_OUT_LINKS = CachePlan.OUT_LINKS ;
+	public static final int CACHE_ALL = CACHE_PAGES | CACHE_ANCHORS | CACHE_IN_LINKS | CACHE_GENERALITY | CACHE_PARENT_IDS ;
+
 	protected ServletContext context ;
 
-	protected Wikipedia wikipedia ;
-	private CacherThread cachingThread ;
+	private TextProcessor tp ;
+	private boolean sqlFallback = false ;
+	private boolean allowSwap = false ;
+	private boolean cacheOutLinks = false ;
+	private String rootCategory = WikipediaDatabase.DEFAULT_ROOT_CATEGORY ;
 
-	protected Comparer comparer ;
-	protected Searcher searcher ;
-	protected Definer definer ;
-	protected Wikifier wikifier ;
+	//the snapshot that new requests are served from, and the one (if any) that is being loaded to replace it
+	private volatile Deployment deployment ;
+	private Deployment pendingDeployment ;
 
 	private HashMap<String,Transformer> transformersByName ;
 	DOMParser parser = new DOMParser() ;
@@ -71,40 +87,35 @@ public class WikipediaMinerServlet extends HttpServlet {
 		super.init(config);
 		context = config.getServletContext() ;
 
-		TextProcessor tp = new CaseFolder() ; 
+		tp = new CaseFolder() ; 
 
-		try {
-			wikipedia = new Wikipedia(context.getInitParameter("mysql_server"), context.getInitParameter("mysql_database"), context.getInitParameter("mysql_user"), context.getInitParameter("mysql_password")) ;
-		} catch (Exception e) {
-			throw new ServletException("Could not connect to wikipedia database.") ;
-		}
-
-		//Escaper escaper = new Escaper() ;
-
-		definer = new Definer(this) ;
-		comparer = new Comparer(this) ;
-		searcher = new Searcher(this) ;
-		
-		try {
-			wikifier = new Wikifier(this, tp) ;
-			
-		} catch (Exception e) {
-			System.err.println("Could not initialize wikifier") ;			
-		}
+		sqlFallback = "true".equalsIgnoreCase(context.getInitParameter("sql_fallback")) ;
+		allowSwap = "true".equalsIgnoreCase(context.getInitParameter("allow_swap")) ;
+		cacheOutLinks = "true".equalsIgnoreCase(context.getInitParameter("cache_out_links")) ;
 		
+		String root = context.getInitParameter("root_category") ;
+		if (root != null && !root.trim().equals(""))
+			rootCategory = root.trim() ;
+
+		File dataDirectory ;
 		try {
-			File dataDirectory = new File(context.getInitParameter("data_directory")) ;
+			dataDirectory = new File(context.getInitParameter("data_directory")) ;
 
 			if (!dataDirectory.exists() || !dataDirectory.isDirectory()) {
 				throw new Exception() ;
 			}
-
-			cachingThread = new CacherThread(dataDirectory, tp) ;
-			cachingThread.start() ;
 		} catch (Exception e) {
 			throw new ServletException("Could not locate wikipedia data directory.") ;
 		}
 
+		File snapshotFile = null ;
+		String snapshotPath = context.getInitParameter("cache_snapshot") ;
+		if (snapshotPath != null && !snapshotPath.trim().equals("")) 
+			snapshotFile = new File(snapshotPath) ;
+
+		deployment = new Deployment(context.getInitParameter("mysql_database"), dataDirectory, snapshotFile) ;
+		deployment.cachingThread.start() ;
+
 		try {
 			TransformerFactory tf = TransformerFactory.newInstance();
 
@@ -151,6 +162,17 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 
+		//the whole request is served from the same snapshot, even if another is swapped in part way through
+		Deployment d = acquireDeployment() ;
+		try {
+			doGet(d, request, response) ;
+		} finally {
+			d.release() ;
+		}
+	}
+
+	private void doGet(Deployment d, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+
 		try {
 
 
@@ -167,7 +189,7 @@ public class WikipediaMinerServlet extends HttpServlet {
 
 			//process help request
 			if (request.getParameter("help") != null) 
-				data = getDescription(task) ;
+				data = getDescription(d, task) ;
 
 			//redirect to home page if there is no task
 			if (data==null && task==null) {
@@ -179,23 +201,36 @@ public class WikipediaMinerServlet extends HttpServlet {
 			//process definition request
 			if (data==null && task.equals("define")) {
 				int id = resolveIntegerArg(request.getParameter("id"), -1) ; 
-				int length = resolveIntegerArg(request.getParameter("length"), definer.getDefaultLength()) ;
-				int format = resolveIntegerArg(request.getParameter("format"), definer.getDefaultFormat()) ; 
-				int maxImageWidth = resolveIntegerArg(request.getParameter("maxImageWidth"), definer.getDefaultMaxImageWidth()) ; 
-				int maxImageHeight = resolveIntegerArg(request.getParameter("maxImageHeight"), definer.getDefaultMaxImageHeight()) ;
-				int linkDestination = resolveIntegerArg(request.getParameter("linkDestination"), definer.getDefaultLinkDestination()) ;
+				int length = resolveIntegerArg(request.getParameter("length"), d.definer.getDefaultLength()) ;
+				int format = resolveIntegerArg(request.getParameter("format"), d.definer.getDefaultFormat()) ; 
+				int maxImageWidth = resolveIntegerArg(request.getParameter("maxImageWidth"), d.definer.getDefaultMaxImageWidth()) ; 
+				int maxImageHeight = resolveIntegerArg(request.getParameter("maxImageHeight"), d.definer.getDefaultMaxImageHeight()) ;
+				int linkDestination = resolveIntegerArg(request.getParameter("linkDestination"), d.definer.getDefaultLinkDestination()) ;
 				boolean getImages = resolveBooleanArg(request.getParameter("getImages"), false) ;
 
-				data = definer.getDefinition(id, length, format, linkDestination, getImages, maxImageWidth, maxImageHeight) ;				
+				data = d.definer.getDefinition(id, length, format, linkDestination, getImages, maxImageWidth, maxImageHeight) ;				
 			}
 
-			
-			//all of the remaining tasks require data to be cached, so lets make sure that is finished before continuing.
-			if (!cachingThread.isOk())
+			//process swap request, which is only accepted from this machine
+			if (data==null && task.equals("swap")) {
+				if (!allowSwap || !InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress())
+					throw new ServletException("Swapping snapshots is not allowed from " + request.getRemoteAddr()) ;
+				
+				String dataDirectory = request.getParameter("data_directory") ;
+				if (dataDirectory != null) {
+					String snapshotPath = request.getParameter("cache_snapshot") ;
+					swap(request.getParameter("database"), new File(dataDirectory), snapshotPath == null ? null : new File(snapshotPath)) ;
+				}
+				
+				data = getSwapStatus() ;
+			}
+
+			//the remaining tasks are much faster with cached data, so lets make sure the caches they need are ready before continuing.
+			if (!d.cachingThread.isOk())
 				throw new ServletException("Could not cache wikipedia data") ;
 
-			double progress = cachingThread.getProgress() ;
-			if (data==null && (progress < 1 || task.equals("progress"))) {
+			double progress = d.cachingThread.getProgress() ;
+			if (data==null && (!isReady(d, task) || task.equals("progress"))) {
 				//still caching up data, not ready to return a response yet.
 
 				data = doc.createElement("loading") ;
@@ -207,47 +242,63 @@ public class WikipediaMinerServlet extends HttpServlet {
 			if (data==null && task.equals("search")) {
 				String term = request.getParameter("term") ;
 				String id = request.getParameter("id") ;
-				int linkLimit = resolveIntegerArg(request.getParameter("linkLimit"), searcher.getDefaultMaxLinkCount()) ;
-				int senseLimit = resolveIntegerArg(request.getParameter("senseLimit"), searcher.getDefaultMaxSenseCount()) ;
+				int linkLimit = resolveIntegerArg(request.getParameter("linkLimit"), d.searcher.getDefaultMaxLinkCount()) ;
+				int senseLimit = resolveIntegerArg(request.getParameter("senseLimit"), d.searcher.getDefaultMaxSenseCount()) ;
 
 				if (id == null) 
-					data = searcher.doSearch(term, linkLimit, senseLimit) ;
+					data = d.searcher.doSearch(term, linkLimit, senseLimit) ;
+				else
+					data = d.searcher.doSearch(Integer.parseInt(id), linkLimit) ;
+			}
+			
+			//process related articles request
+			if (data==null && task.equals("related")) {
+				
+				if (!cacheOutLinks)
+					throw new ServletException("Related articles are not available. You must configure the servlet so that it caches links out.") ;
+				
+				String term = request.getParameter("term") ;
+				String id = request.getParameter("id") ;
+				int limit = resolveIntegerArg(request.getParameter("limit"), d.searcher.getDefaultMaxRelatedCount()) ;
+				
+				if (id == null) 
+					data = d.searcher.getRelatedArticles(term, limit) ;
 				else
-					data = searcher.doSearch(Integer.parseInt(id), linkLimit) ;
+					data = d.searcher.getRelatedArticles(Integer.parseInt(id), limit) ;
 			}
 			
 			//process compare request
 			if (data==null && task.equals("compare")) {
 				String term1 = request.getParameter("term1");
 				String term2 = request.getParameter("term2") ;
-				int linkLimit = resolveIntegerArg(request.getParameter("linkLimit"), comparer.getDefaultMaxLinkCount()) ;	
-				boolean details = resolveBooleanArg(request.getParameter("details"), comparer.getDefaultShowDetails()) ;
+				int linkLimit = resolveIntegerArg(request.getParameter("linkLimit"), d.comparer.getDefaultMaxLinkCount()) ;	
+				boolean details = resolveBooleanArg(request.getParameter("details"), d.comparer.getDefaultShowDetails()) ;
 
-				data = comparer.getRelatedness(term1, term2, details, linkLimit) ;
+				data = d.comparer.getRelatedness(term1, term2, details, linkLimit) ;
 			}
 			
 			//process wikify request
 			if (data==null && task.equals("wikify")) {
 				
-				if (this.wikifier == null) 
+				if (d.wikifier == null) 
 					throw new ServletException("Wikifier is not available. You must configure the servlet so that it has access to link detection and disambiguation models.") ;
 
 				String source = request.getParameter("source") ;
 				int sourceMode = resolveIntegerArg(request.getParameter("sourceMode"), Wikifier.SOURCE_AUTODETECT) ;
 				String linkColor = request.getParameter("linkColor") ;
 				String baseColor = request.getParameter("baseColor") ;
-				double minProb = resolveDoubleArg(request.getParameter("minProbability"), wikifier.getDefaultMinProbability()) ;
-				int repeatMode = resolveIntegerArg(request.getParameter("repeatMode"), wikifier.getDefaultRepeatMode()) ;
-				boolean showTooltips = resolveBooleanArg(request.getParameter("showTooltips"), wikifier.getDefaultShowTooltips()) ;
+				double minProb = resolveDoubleArg(request.getParameter("minProbability"), d.wikifier.getDefaultMinProbability()) ;
+				int repeatMode = resolveIntegerArg(request.getParameter("repeatMode"), d.wikifier.getDefaultRepeatMode()) ;
+				boolean showTooltips = resolveBooleanArg(request.getParameter("showTooltips"), d.wikifier.getDefaultShowTooltips()) ;
 				String bannedTopics = request.getParameter("bannedTopics") ;
 
 				boolean wrapInXml = resolveBooleanArg(request.getParameter("wrapInXml"), true) ;
 
 				if (wrapInXml) {				
-					data = wikifier.wikifyAndWrapInXML(source, sourceMode, minProb, repeatMode, bannedTopics, baseColor, linkColor, showTooltips) ;
+					data = d.wikifier.wikifyAndWrapInXML(source, sourceMode, minProb, repeatMode, bannedTopics, baseColor, linkColor, showTooltips) ;
 				} else {
 					response.setContentType("text/html");
-					response.getWriter().append(wikifier.wikify(source, sourceMode, minProb, repeatMode, bannedTopics, baseColor, linkColor, showTooltips)) ;
+					response.getWriter().append(d.wikifier.wikify(source, sourceMode, minProb, repeatMode, bannedTopics, baseColor, linkColor, showTooltips)) ;
 					return ;
 				}
 			}
@@ -317,31 +368,34 @@ public class WikipediaMinerServlet extends HttpServlet {
 		}
 	}
 
-	private Element getDescription(String task) {
+	private Element getDescription(Deployment d, String task) {
 
 
 		if (task != null) {
 
 			if (task.equals("define")) 
-				return definer.getDescription() ;
+				return d.definer.getDescription() ;
 			
 			if (task.equals("compare")) 
-				return comparer.getDescription() ;
+				return d.comparer.getDescription() ;
 
 			if (task.equals("search")) 
-				return searcher.getDescription() ;
+				return d.searcher.getDescription() ;
+			
+			if (task.equals("related")) 
+				return d.searcher.getRelatedDescription() ;
 
 			if (task.equals("wikify")) 
-				return wikifier.getDescription() ;
+				return d.wikifier.getDescription() ;
 			 
 		}
 
 		Element description = doc.createElement("Description") ;
 
 		description.appendChild(createElement("Details", "<p>This servlet provides a range of services for mining information from Wikipedia. Further details depend on what you want to do.</p>"
-				+ "<p>You can <a href=\"" + context.getInitParameter("service_name") + "?task=search&help\">search for pages</a>, <a href=\"" + context.getInitParameter("service_name") + "?task=compare&help\">measure how terms or articles related to each other</a>, <a href=\"" + context.getInitParameter("service_name") + "?task=define&help\">obtain short definitions from articles</a>, and <a href=\"" + context.getInitParameter("service_name") + "?task=wikify&help\">detect topics in web pages</a>.</p>")) ; 		
+				+ "<p>You can <a href=\"" + context.getInitParameter("service_name") + "?task=search&help\">search for pages</a>, <a href=\"" + context.getInitParameter("service_name") + "?task=related&help\">find the articles most related to another</a>, <a href=\"" + context.getInitParameter("service_name") + "?task=compare&help\">measure how terms or articles related to each other</a>, <a href=\"" + context.getInitParameter("service_name") + "?task=define&help\">obtain short definitions from articles</a>, and <a href=\"" + context.getInitParameter("service_name") + "?task=wikify&help\">detect topics in web pages</a>.</p>")) ; 		
 	
-		Element paramTask = createElement("Parameter", "Specifies what you want to do: can be <em>search</em>, <em>compare</em>, <em>define</em>, or <em>wikify</em>") ;
+		Element paramTask = createElement("Parameter", "Specifies what you want to do: can be <em>search</em>, <em>related</em>, <em>compare</em>, <em>define</em>, or <em>wikify</em>") ;
 		paramTask.setAttribute("name", "task") ;
 		description.appendChild(paramTask) ;
 
@@ -380,18 +434,279 @@ public class WikipediaMinerServlet extends HttpServlet {
 		}
 	}
 
+	/**
+	 * @param task the name of a task
+	 * @return the caches (CACHE_PAGES, CACHE_ANCHORS, etc, or'ed together) that the given task needs in order to be responsive. 
+	 */
+	protected int getRequiredCaches(String task) {
+		
+		if (task.equals("define"))
+			return 0 ;
+		
+		if (task.equals("search"))
+			return CACHE_PAGES | CACHE_ANCHORS ;
+		
+		if (task.equals("related"))
+			return CACHE_PAGES | CACHE_ANCHORS | CACHE_IN_LINKS | CACHE_OUT_LINKS ;
+		
+		if (task.equals("compare"))
+			return CACHE_PAGES | CACHE_ANCHORS | CACHE_IN_LINKS ;
+		
+		if (task.equals("wikify"))
+			return CACHE_PAGES | CACHE_ANCHORS | CACHE_IN_LINKS | CACHE_GENERALITY ;
+		
+		return CACHE_ALL ;
+	}
+	
+	/**
+	 * @param task the name of a task
+	 * @return true if the given task can be served now; either because the caches it needs are ready, 
+	 * or because it is allowed to fall back to the database. Related articles are only ever found from cached 
+	 * links in and out, so they wait for these even when falling back.
+	 */
+	private boolean isReady(Deployment d, String task) {
+		
+		if (d.cachingThread.getProgress() >= 1)
+			return true ;
+		
+		if (sqlFallback) 
+			return !task.equals("related") || d.cachingThread.areCached(CACHE_IN_LINKS | CACHE_OUT_LINKS) ;
+		
+		return d.cachingThread.areCached(getRequiredCaches(task)) ;
+	}
+
+	/**
+	 * Loads another snapshot of Wikipedia in the background, while the current one carries on serving requests. 
+	 * Once the new snapshot is cached and warmed up it replaces the current one atomically: requests that are already 
+	 * underway finish on the old snapshot, and its caches and connections are released as soon as the last of them is done.
+	 * 
+	 * @param databaseName the name of the mysql database that holds the new snapshot, or null to use the current one
+	 * @param dataDirectory the directory containing csv files extracted from the new snapshot
+	 * @param snapshotFile an optional cache snapshot (see WikipediaDatabase.saveCacheSnapshot()) of the new snapshot 
+	 * @throws ServletException if the new snapshot cannot be connected to, or another is already being loaded
+	 */
+	public synchronized void swap(String databaseName, File dataDirectory, File snapshotFile) throws ServletException {
+		
+		if (pendingDeployment != null)
+			throw new ServletException("Snapshot " + pendingDeployment.name + " is still being loaded") ;
+		
+		if (!dataDirectory.isDirectory())
+			throw new ServletException("Could not locate wikipedia data directory " + dataDirectory.getPath()) ;
+		
+		if (databaseName == null || databaseName.trim().equals(""))
+			databaseName = deployment.name ;
+		
+		final Deployment next = new Deployment(databaseName, dataDirectory, snapshotFile) ;
+		pendingDeployment = next ;
+		
+		Thread swapper = new Thread() {
+			public void run() {
+				
+				try {
+					next.cachingThread.start() ;
+					next.cachingThread.join() ;
+					
+					if (next.cachingThread.isOk())
+						next.warm() ;
+				} catch (InterruptedException e) {
+					//give up on the new snapshot
+				}
+
+				Deployment retired ;
+				synchronized (WikipediaMinerServlet.this) {
+					pendingDeployment = null ;
+					
+					if (next.cachingThread.isOk() && !isInterrupted()) {
+						retired = deployment ;
+						deployment = next ;
+					} else {
+						System.err.println("WARNING: could not cache data for " + next.name + ", so it has not been swapped in") ;
+						retired = next ;
+					}
+				}
+				
+				retired.retire() ;
+			}
+		} ;
+		
+		swapper.setDaemon(true) ;
+		swapper.start() ;
+	}
+
+	private synchronized Element getSwapStatus() {
+		
+		Element status = doc.createElement("Swap") ;
+		status.setAttribute("current", deployment.name) ;
+		
+		if (pendingDeployment != null) {
+			status.setAttribute("pending", pendingDeployment.name) ;
+			status.setAttribute("progress", df.format(pendingDeployment.cachingThread.getProgress())) ;
+		}
+		
+		return status ;
+	}
+
+	private Deployment acquireDeployment() {
+		
+		//if the deployment is retired between reading and acquiring it, then just try again with its replacement.
+		while (true) {
+			Deployment d = deployment ;
+			if (d.acquire())
+				return d ;
+		}
+	}
+
+	/**
+	 * A snapshot of Wikipedia, together with the services that are built on it and the thread that caches its data. 
+	 * Requests hold on to the deployment they started with, so it is only released once it has been swapped out
+	 * and the last of those requests has finished.
+	 */
+	private class Deployment {
+		
+		final String name ;
+		final Wikipedia wikipedia ;
+		final File snapshotFile ;
+		final CacherThread cachingThread ;
+		
+		final Definer definer ;
+		final Comparer comparer ;
+		final Searcher searcher ;
+		final Wikifier wikifier ;
+		
+		//relatedness measures are shared by every service and request, but depend on the snapshot
+		final RelatednessCache relatednessCache ;
+		
+		private final AtomicInteger activeRequests = new AtomicInteger() ;
+		private volatile boolean retired = false ;
+		private boolean released = false ;
+		
+		Deployment(String databaseName, File dataDirectory, File snapshotFile) throws ServletException {
+			
+			this.name = databaseName ;
+			this.snapshotFile = snapshotFile ;
+			
+			try {
+				wikipedia = new Wikipedia(context.getInitParameter("mysql_server"), databaseName, context.getInitParameter("mysql_user"), context.getInitParameter("mysql_password")) ;
+			} catch (Exception e) {
+				throw new ServletException("Could not connect to wikipedia database.") ;
+			}
+
+			//the disambiguator and link detector were trained with relatedness from links in alone, so links out are only 
+			//used to find related articles unless told otherwise
+			wikipedia.getDatabase().setRelatednessFromOutLinks("true".equalsIgnoreCase(context.getInitParameter("relatedness_from_out_links"))) ;
+
+			//request threads each borrow their own connection, rather than queueing on a single one
+			String poolSize = context.getInitParameter("mysql_pool_size") ;
+			if (poolSize != null && !poolSize.trim().equals("")) {
+				try {
+					wikipedia.getDatabase().setPoolSize(Integer.parseInt(poolSize.trim())) ;
+				} catch (NumberFormatException e) {
+					throw new ServletException("mysql_pool_size must be an integer") ;
+				}
+			}
+
+			long cacheSize = 64 ;
+			String relatednessCacheSize = context.getInitParameter("relatedness_cache_size") ;
+			if (relatednessCacheSize != null && !relatednessCacheSize.trim().equals("")) {
+				try {
+					cacheSize = Long.parseLong(relatednessCacheSize.trim()) ;
+				} catch (NumberFormatException e) {
+					throw new ServletException("relatedness_cache_size must be an integer") ;
+				}
+			}
+			relatednessCache = new RelatednessCache(cacheSize * 1024 * 1024) ;
+
+			definer = new Definer(WikipediaMinerServlet.this, wikipedia) ;
+			comparer = new Comparer(WikipediaMinerServlet.this, wikipedia, definer, relatednessCache) ;
+			searcher = new Searcher(WikipediaMinerServlet.this, wikipedia, definer, relatednessCache) ;
+			
+			Wikifier w = null ;
+			try {
+				w = new Wikifier(WikipediaMinerServlet.this, wikipedia, relatednessCache, tp) ;
+			} catch (Exception e) {
+				System.err.println("Could not initialize wikifier") ;			
+			}
+			wikifier = w ;
+			
+			cachingThread = new CacherThread(wikipedia, dataDirectory, snapshotFile, tp) ;
+		}
+		
+		/**
+		 * @return true if the deployment is now held by the calling request, or false if it has already been retired.
+		 */
+		boolean acquire() {
+			activeRequests.incrementAndGet() ;
+			if (retired) {
+				release() ;
+				return false ;
+			}
+			return true ;
+		}
+		
+		void release() {
+			if (activeRequests.decrementAndGet() == 0 && retired)
+				releaseResources() ;
+		}
+		
+		/**
+		 * Stops any new requests from acquiring this deployment, and releases it once current ones are finished.
+		 */
+		void retire() {
+			retired = true ;
+			if (activeRequests.get() == 0)
+				releaseResources() ;
+		}
+		
+		/**
+		 * Reads through the cache snapshot (if there is one) so that its memory mapped pages are resident 
+		 * before the first request touches them.
+		 */
+		void warm() {
+			
+			if (snapshotFile == null || !snapshotFile.canRead())
+				return ;
+			
+			try {
+				InputStream in = new FileInputStream(snapshotFile) ;
+				try {
+					byte[] buffer = new byte[1 << 20] ;
+					while (in.read(buffer) >= 0) ;
+				} finally {
+					in.close() ;
+				}
+			} catch (IOException e) {
+				System.err.println("WARNING: could not warm up " + snapshotFile.getPath() + ": " + e.getMessage()) ;
+			}
+		}
+		
+		private synchronized void releaseResources() {
+			
+			if (released)
+				return ;
+			released = true ;
+			
+			relatednessCache.clear() ;
+			wikipedia.getDatabase().clearCaches() ;
+			wikipedia.getDatabase().close() ;
+		}
+	}
+
 	private class CacherThread extends Thread {
-		private ProgressNotifier pn ;
+		private Wikipedia wikipedia ;
+		private Vector<ProgressNotifier> notifiers ;
 		private TextProcessor tp ;
-		private boolean completed ;
+		private volatile boolean completed ;
 		File dataDirectory ;
-		boolean ok = true ;
+		File snapshotFile ;
+		volatile boolean ok = true ;
 
-		CacherThread(File dataDirectory, TextProcessor tp) {
-			this.pn = null ;
+		CacherThread(Wikipedia wikipedia, File dataDirectory, File snapshotFile, TextProcessor tp) {
+			this.wikipedia = wikipedia ;
+			this.notifiers = new Vector<ProgressNotifier>() ;
 			this.tp = tp ;
 			this.completed = false ;
 			this.dataDirectory = dataDirectory ;
+			this.snapshotFile = snapshotFile ;
 		}
 
 		public boolean isOk() {
@@ -403,31 +718,193 @@ public class WikipediaMinerServlet extends HttpServlet {
 			if (completed)
 				return 1 ;
 
-			if (pn == null) 
-				return 0 ;
+			synchronized (notifiers) {
+				if (notifiers.isEmpty()) 
+					return 0 ;
+
+				double progress = 0 ;
+				for (ProgressNotifier pn:notifiers)
+					progress += pn.getGlobalProgress() ;
 
-			return pn.getGlobalProgress() ;
+				return progress / notifiers.size() ;
+			}
+		}
+		
+		/**
+		 * @param caches the caches of interest (CACHE_PAGES, CACHE_ANCHORS, etc, or'ed together)
+		 * @return true if all of the given caches are ready, otherwise false
+		 */
+		public boolean areCached(int caches) {
+			WikipediaDatabase db = wikipedia.getDatabase() ;
+			
+			if ((caches & CACHE_PAGES) != 0 && !db.arePagesCached())
+				return false ;
+			
+			if ((caches & CACHE_ANCHORS) != 0 && !db.areAnchorsCached(tp))
+				return false ;
+			
+			if ((caches & CACHE_IN_LINKS) != 0 && !db.areInLinksCached())
+				return false ;
+			
+			if ((caches & CACHE_GENERALITY) != 0 && !db.isGeneralityCached())
+				return false ;
+			
+			if ((caches & CACHE_PARENT_IDS) != 0 && !db.areParentIdsCached())
+				return false ;
+			
+			if ((caches & CACHE_OUT_LINKS) != 0 && !db.areOutLinksCached())
+				return false ;
+			
+			return true ;
 		}
 
 		public void run() {
-			pn = new ProgressNotifier(5) ;
 
 			try {
-				TIntHashSet ids = wikipedia.getDatabase().getValidPageIds(dataDirectory, 3, pn) ;
-				wikipedia.getDatabase().cacheParentIds(dataDirectory, pn) ;
-				wikipedia.getDatabase().cacheGenerality(dataDirectory, ids, null) ;
-				wikipedia.getDatabase().cachePages(dataDirectory, ids, pn) ;
-				wikipedia.getDatabase().cacheAnchors(dataDirectory, tp, ids, 3, pn) ;
-				wikipedia.getDatabase().cacheInLinks(dataDirectory, ids, pn) ;
-
-				ids = null ;
+				boolean loaded = false ;
+				
+				if (snapshotFile != null && snapshotFile.canRead()) {
+					//caches have already been compiled, so just map them in
+					ProgressNotifier pn = new ProgressNotifier(1) ;
+					notifiers.add(pn) ;
+					
+					try {
+						wikipedia.getDatabase().loadCacheSnapshot(snapshotFile, tp, pn) ;
+						loaded = true ;
+					} catch (IOException e) {
+						//the snapshot is stale or damaged, so it is gathered again (and replaced) below
+						System.err.println("WARNING: could not load cache snapshot: " + e.getMessage()) ;
+						wikipedia.getDatabase().clearCaches() ;
+					}
+				}
+				
+				if (!loaded) {
+					ProgressNotifier pn = new ProgressNotifier(2) ;
+					notifiers.add(pn) ;
+					
+					//if a memory budget is given, only gather the caches (and filter them as aggressively as) it allows
+					int caches = CACHE_ALL ;
+					if (cacheOutLinks)
+						caches = caches | CACHE_OUT_LINKS ;
+					
+					int linkCount = 3 ;
+					
+					String budget = context.getInitParameter("cache_memory_budget") ;
+					if (budget != null && !budget.trim().equals("")) {
+						CachePlan plan = wikipedia.getDatabase().planCaches(dataDirectory, Long.parseLong(budget.trim()) * 1024 * 1024, caches, pn) ;
+						System.out.println(plan) ;
+						
+						caches = plan.getCaches() ;
+						linkCount = plan.getMinLinkCount() ;
+					} else {
+						pn.startTask(1, "planning caches") ;
+						pn.update(1) ;
+					}
+					
+					final int minLinkCount = linkCount ;
+					final TIntHashSet ids = wikipedia.getDatabase().getValidPageIds(dataDirectory, minLinkCount, pn) ;
+					final boolean compressInLinks = "true".equalsIgnoreCase(context.getInitParameter("compress_in_links")) ;
+					
+					//each cache is independent of the others, so gather them all at once. Each is usable as soon as it is done.
+					Vector<Callable<Object>> tasks = new Vector<Callable<Object>>() ;
+					
+					if ((caches & CACHE_PAGES) != 0) {
+						tasks.add(new CacheTask() {
+							void cache(ProgressNotifier pn) throws IOException {
+								wikipedia.getDatabase().cachePages(dataDirectory, ids, pn) ;
+							}
+						}) ;
+					}
+					if ((caches & CACHE_ANCHORS) != 0) {
+						tasks.add(new CacheTask() {
+							void cache(ProgressNotifier pn) throws IOException {
+								wikipedia.getDatabase().cacheAnchors(dataDirectory, tp, ids, minLinkCount, pn) ;
+							}
+						}) ;
+					}
+					if ((caches & CACHE_IN_LINKS) != 0) {
+						tasks.add(new CacheTask() {
+							void cache(ProgressNotifier pn) throws IOException {
+								wikipedia.getDatabase().cacheInLinks(dataDirectory, ids, compressInLinks, pn) ;
+							}
+						}) ;
+					}
+					//generality is computed from the category graph (once that is cached) if it was not summarized during extraction
+					File generalityFile = new File(dataDirectory.getPath() + File.separatorChar + "generality.csv") ;
+					boolean computeGenerality = (caches & CACHE_GENERALITY) != 0 && (caches & CACHE_PARENT_IDS) != 0 && !generalityFile.canRead() ;
+					
+					if ((caches & CACHE_GENERALITY) != 0 && !computeGenerality) {
+						tasks.add(new CacheTask() {
+							void cache(ProgressNotifier pn) throws IOException {
+								wikipedia.getDatabase().cacheGenerality(dataDirectory, ids, pn) ;
+							}
+						}) ;
+					}
+					if ((caches & CACHE_PARENT_IDS) != 0) {
+						tasks.add(new CacheTask() {
+							void cache(ProgressNotifier pn) throws IOException {
+								wikipedia.getDatabase().cacheParentIds(dataDirectory, pn) ;
+							}
+						}) ;
+					}
+					if ((caches & CACHE_OUT_LINKS) != 0) {
+						tasks.add(new CacheTask() {
+							void cache(ProgressNotifier pn) throws IOException {
+								wikipedia.getDatabase().cacheOutLinks(dataDirectory, ids, pn) ;
+							}
+						}) ;
+					}
+					
+					ExecutorService executor = Executors.newFixedThreadPool(Math.max(tasks.size(), 1)) ;
+					try {
+						for (Future<Object> f:executor.invokeAll(tasks))
+							f.get() ;
+					} finally {
+						executor.shutdown() ;
+					}
+					
+					if (computeGenerality) {
+						ProgressNotifier generalityPn = new ProgressNotifier(2) ;
+						notifiers.add(generalityPn) ;
+						wikipedia.getDatabase().computeGenerality(rootCategory, ids, generalityPn) ;
+						
+						//saved to the generality table, so pages can still report generality when it is not cached
+						wikipedia.getDatabase().saveGenerality(generalityPn) ;
+					}
+
+					//compile caches, so the next restart is much faster
+					if (snapshotFile != null) 
+						wikipedia.getDatabase().saveCacheSnapshot(snapshotFile, null) ;
+				}
+				
+				System.out.println(wikipedia.getDatabase().getCacheReport()) ;
 			} catch (Exception e) {
+				System.err.println("WARNING: could not cache wikipedia data: " + e.getMessage()) ;
 				ok = false ;
-
 			} ;
 
 			completed = true ;
 		}
+		
+		/**
+		 * Gathers a single cache, with its own progress notifier. 
+		 */
+		private abstract class CacheTask implements Callable<Object> {
+			
+			private ProgressNotifier pn ;
+			
+			CacheTask() {
+				pn = new ProgressNotifier(1) ;
+				notifiers.add(pn) ;
+			}
+			
+			public Object call() throws IOException {
+				cache(pn) ;
+				return null ;
+			}
+			
+			abstract void cache(ProgressNotifier pn) throws IOException ;
+		}
 	}
 
 	/**
@@ -435,9 +912,10 @@ public class WikipediaMinerServlet extends HttpServlet {
 	 */
 	public boolean checkConnection() {
 
-		if (!wikipedia.getDatabase().checkConnection()) {	
+		WikipediaDatabase db = deployment.wikipedia.getDatabase() ;
+		if (!db.checkConnection()) {	
 			try {
-				wikipedia.getDatabase().connect() ;
+				db.connect() ;
 			} catch (Exception e) {
 				return false ;
 			}
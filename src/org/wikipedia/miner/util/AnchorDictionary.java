@@ -0,0 +1,536 @@
+/*
+ *    AnchorDictionary.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.* ;
+import java.nio.* ;
+import java.util.* ;
+
+import gnu.trove.* ;
+
+/**
+ * @author David Milne
+ *
+ * A compact, read-only dictionary of anchor texts, along with the link counts, occurrence counts and senses (destinations) of each one.
+ * <p>
+ * Texts are located with a minimal perfect hash: each text hashes to a bucket, and each bucket stores a seed that
+ * sends all of its texts to distinct slots. Every slot is filled, so slots are simply ordinals from 0 to size()-1.
+ * Because texts that were never added also hash to some slot, the UTF-8 bytes of every text are kept so that lookups can be verified.
+ * <p>
+ * Everything else is held in flat arrays indexed by ordinal (or, for senses, by the range of an ordinal), outside of the java heap.
+ * There are no objects per anchor, so the dictionary costs little more than the raw data, and can be mapped straight from a file (see map()).
+ */
+public class AnchorDictionary {
+
+	private static final int HEADER_LENGTH = 16 ;
+
+	private int size ;
+	private int bucketCount ;
+	private int senseTotal ;
+
+	private IntBuffer seeds ;
+	private IntBuffer keyOffsets ;
+	private ByteBuffer keys ;
+
+	private IntBuffer linkCounts ;
+	private IntBuffer occCounts ;
+
+	private IntBuffer senseOffsets ;
+	private IntBuffer senseIds ;
+	private IntBuffer senseCounts ;
+
+	private AnchorDictionary(int size, int bucketCount, int senseTotal, IntBuffer seeds, IntBuffer keyOffsets, ByteBuffer keys, IntBuffer linkCounts, IntBuffer occCounts, IntBuffer senseOffsets, IntBuffer senseIds, IntBuffer senseCounts) {
+		this.size = size ;
+		this.bucketCount = bucketCount ;
+		this.senseTotal = senseTotal ;
+
+		this.seeds = seeds.asReadOnlyBuffer() ;
+		this.keyOffsets = keyOffsets.asReadOnlyBuffer() ;
+		this.keys = keys.asReadOnlyBuffer() ;
+		this.linkCounts = linkCounts.asReadOnlyBuffer() ;
+		this.occCounts = occCounts.asReadOnlyBuffer() ;
+		this.senseOffsets = senseOffsets.asReadOnlyBuffer() ;
+		this.senseIds = senseIds.asReadOnlyBuffer() ;
+		this.senseCounts = senseCounts.asReadOnlyBuffer() ;
+	}
+
+	/**
+	 * @return the number of anchor texts in this dictionary
+	 */
+	public int size() {
+		return size ;
+	}
+
+	/**
+	 * @param text the (already processed) text to search for
+	 * @return the ordinal of the given text, or -1 if it is not in this dictionary.
+	 */
+	public int lookup(String text) {
+
+		if (size == 0)
+			return -1 ;
+
+		long hash = hash(text) ;
+
+		int slot ;
+		int seed = seeds.get(getBucket(hash, bucketCount)) ;
+		if (seed == 0)
+			return -1 ;
+		else if (seed < 0)
+			slot = -seed - 1 ;
+		else
+			slot = getSlot(hash, seed, size) ;
+
+		if (!matches(text, slot))
+			return -1 ;
+
+		return slot ;
+	}
+
+	/**
+	 * @param text the (already processed) text to search for
+	 * @return true if the given text is in this dictionary, otherwise false.
+	 */
+	public boolean contains(String text) {
+		return lookup(text) >= 0 ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of an anchor
+	 * @return the text of the anchor
+	 */
+	public String getText(int ordinal) {
+		int start = keyOffsets.get(ordinal) ;
+		int end = keyOffsets.get(ordinal+1) ;
+
+		byte[] bytes = new byte[end-start] ;
+		for (int i=start ; i<end ; i++)
+			bytes[i-start] = keys.get(i) ;
+
+		try {
+			return new String(bytes, "UTF-8") ;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e) ;
+		}
+	}
+
+	/**
+	 * @param ordinal the ordinal of an anchor
+	 * @return the number of times the anchor is used as a link
+	 */
+	public int getLinkCount(int ordinal) {
+		return linkCounts.get(ordinal) ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of an anchor
+	 * @return the number of times the anchor occurs, whether as a link or not (or -1 if this was not available).
+	 */
+	public int getOccCount(int ordinal) {
+		return occCounts.get(ordinal) ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of an anchor
+	 * @return the number of distinct destinations of the anchor
+	 */
+	public int getSenseCount(int ordinal) {
+		return senseOffsets.get(ordinal+1) - senseOffsets.get(ordinal) ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of an anchor
+	 * @param index the index of the sense, from 0 to getSenseCount(ordinal)-1
+	 * @return the id of the destination page of the given sense
+	 */
+	public int getSenseId(int ordinal, int index) {
+		return senseIds.get(senseOffsets.get(ordinal) + index) ;
+	}
+
+	/**
+	 * @param ordinal the ordinal of an anchor
+	 * @param index the index of the sense, from 0 to getSenseCount(ordinal)-1
+	 * @return the number of times the anchor is used to link to the given sense
+	 */
+	public int getSenseLinkCount(int ordinal, int index) {
+		return senseCounts.get(senseOffsets.get(ordinal) + index) ;
+	}
+
+	/**
+	 * @return the approximate number of bytes (off the java heap) used by this dictionary
+	 */
+	public long getMemoryFootprint() {
+		return 4L*bucketCount + 4L*(size+1) + keys.capacity() + 8L*size + 4L*(size+1) + 8L*senseTotal ;
+	}
+
+	/**
+	 * Writes this dictionary in the format expected by map().
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the dictionary cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+
+		int keyBytes = keyOffsets.get(size) ;
+
+		out.writeInt(size) ;
+		out.writeInt(bucketCount) ;
+		out.writeInt(senseTotal) ;
+		out.writeInt(keyBytes) ;
+
+		writeInts(seeds, bucketCount, out) ;
+		writeInts(keyOffsets, size+1, out) ;
+		writeInts(linkCounts, size, out) ;
+		writeInts(occCounts, size, out) ;
+		writeInts(senseOffsets, size+1, out) ;
+		writeInts(senseIds, senseTotal, out) ;
+		writeInts(senseCounts, senseTotal, out) ;
+
+		for (int i=0 ; i<keyBytes ; i++)
+			out.writeByte(keys.get(i)) ;
+	}
+
+	private static void writeInts(IntBuffer buffer, int length, DataOutputStream out) throws IOException {
+		for (int i=0 ; i<length ; i++)
+			out.writeInt(buffer.get(i)) ;
+	}
+
+	/**
+	 * Creates a dictionary that reads directly from the given buffer (typically a section of a memory mapped file),
+	 * which must contain data written by write(). No data is copied.
+	 *
+	 * @param data the buffer to read from, positioned at the start of the dictionary.
+	 * @return the dictionary
+	 */
+	public static AnchorDictionary map(ByteBuffer data) {
+
+		ByteBuffer b = data.slice() ;
+
+		int size = b.getInt(0) ;
+		int bucketCount = b.getInt(4) ;
+		int senseTotal = b.getInt(8) ;
+		int keyBytes = b.getInt(12) ;
+
+		int pos = HEADER_LENGTH ;
+
+		IntBuffer seeds = sliceInts(b, pos, bucketCount) ;
+		pos += 4*bucketCount ;
+		IntBuffer keyOffsets = sliceInts(b, pos, size+1) ;
+		pos += 4*(size+1) ;
+		IntBuffer linkCounts = sliceInts(b, pos, size) ;
+		pos += 4*size ;
+		IntBuffer occCounts = sliceInts(b, pos, size) ;
+		pos += 4*size ;
+		IntBuffer senseOffsets = sliceInts(b, pos, size+1) ;
+		pos += 4*(size+1) ;
+		IntBuffer senseIds = sliceInts(b, pos, senseTotal) ;
+		pos += 4*senseTotal ;
+		IntBuffer senseCounts = sliceInts(b, pos, senseTotal) ;
+		pos += 4*senseTotal ;
+
+		ByteBuffer keys = b.duplicate() ;
+		keys.position(pos) ;
+		keys.limit(pos + keyBytes) ;
+
+		return new AnchorDictionary(size, bucketCount, senseTotal, seeds, keyOffsets, keys.slice(), linkCounts, occCounts, senseOffsets, senseIds, senseCounts) ;
+	}
+
+	private static IntBuffer sliceInts(ByteBuffer b, int pos, int length) {
+		ByteBuffer d = b.duplicate() ;
+		d.position(pos) ;
+		d.limit(pos + 4*length) ;
+		return d.slice().asIntBuffer() ;
+	}
+
+	/**
+	 * Compares the given text with the UTF-8 bytes stored for a slot, without encoding the text
+	 */
+	private boolean matches(String text, int slot) {
+
+		int pos = keyOffsets.get(slot) ;
+		int end = keyOffsets.get(slot+1) ;
+
+		int i = 0 ;
+		int length = text.length() ;
+
+		while (pos < end) {
+			int b = keys.get(pos++) & 0xFF ;
+			int c ;
+
+			if (b < 0x80) {
+				c = b ;
+			} else if (b < 0xE0) {
+				c = ((b & 0x1F) << 6) | (keys.get(pos++) & 0x3F) ;
+			} else if (b < 0xF0) {
+				c = ((b & 0x0F) << 12) | ((keys.get(pos++) & 0x3F) << 6) | (keys.get(pos++) & 0x3F) ;
+			} else {
+				int cp = ((b & 0x07) << 18) | ((keys.get(pos++) & 0x3F) << 12) | ((keys.get(pos++) & 0x3F) << 6) | (keys.get(pos++) & 0x3F) ;
+
+				//compare as a surrogate pair
+				if (i+1 >= length || text.charAt(i) != Character.highSurrogate(cp) || text.charAt(i+1) != Character.lowSurrogate(cp))
+					return false ;
+				i += 2 ;
+				continue ;
+			}
+
+			if (i >= length || text.charAt(i) != c)
+				return false ;
+			i++ ;
+		}
+
+		return i == length ;
+	}
+
+	private static long hash(String text) {
+		long h = 0xcbf29ce484222325L ;
+		for (int i=0 ; i<text.length() ; i++) {
+			h ^= text.charAt(i) ;
+			h *= 0x100000001b3L ;
+		}
+		return mix(h) ;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33 ;
+		h *= 0xff51afd7ed558ccdL ;
+		h ^= h >>> 33 ;
+		h *= 0xc4ceb9fe1a85ec53L ;
+		h ^= h >>> 33 ;
+		return h ;
+	}
+
+	private static int getBucket(long hash, int bucketCount) {
+		return (int)((hash >>> 1) % bucketCount) ;
+	}
+
+	private static int getSlot(long hash, int seed, int size) {
+		return (int)((mix(hash + seed * 0x9E3779B97F4A7C15L) >>> 1) % size) ;
+	}
+
+
+	/**
+	 * Gathers anchors, and then builds an AnchorDictionary from them.
+	 */
+	public static class Builder {
+
+		private static final int MAX_SEED = 1 << 24 ;
+
+		private Vector<String> texts ;
+		private TIntArrayList linkCounts ;
+		private TIntArrayList occCounts ;
+		private TIntArrayList senseOffsets ;
+		private TIntArrayList senseIds ;
+		private TIntArrayList senseCounts ;
+
+		/**
+		 * @param expectedSize the number of anchors expected (this is only used for initial sizing)
+		 */
+		public Builder(int expectedSize) {
+			texts = new Vector<String>(expectedSize) ;
+			linkCounts = new TIntArrayList(expectedSize) ;
+			occCounts = new TIntArrayList(expectedSize) ;
+			senseOffsets = new TIntArrayList(expectedSize+1) ;
+			senseIds = new TIntArrayList(expectedSize) ;
+			senseCounts = new TIntArrayList(expectedSize) ;
+
+			senseOffsets.add(0) ;
+		}
+
+		/**
+		 * Adds an anchor. Each text must only be added once.
+		 *
+		 * @param text the (already processed) anchor text
+		 * @param senses the destinations of the anchor, as {id, count} pairs.
+		 * @param linkCount the number of times the anchor is used as a link
+		 * @param occCount the number of times the anchor occurs, whether as a link or not (or -1 if this is not available).
+		 */
+		public void add(String text, int[][] senses, int linkCount, int occCount) {
+			texts.add(text) ;
+			linkCounts.add(linkCount) ;
+			occCounts.add(occCount) ;
+
+			for (int[] sense:senses) {
+				senseIds.add(sense[0]) ;
+				senseCounts.add(sense[1]) ;
+			}
+			senseOffsets.add(senseIds.size()) ;
+		}
+
+		/**
+		 * @return a dictionary containing all of the anchors that have been added
+		 * @throws IllegalStateException if the same text was added more than once.
+		 */
+		public AnchorDictionary build() {
+
+			int size = texts.size() ;
+			int bucketCount = Math.max(1, size/2) ;
+
+			long[] hashes = new long[size] ;
+			for (int i=0 ; i<size ; i++)
+				hashes[i] = hash(texts.elementAt(i)) ;
+
+			//group entries by bucket, and order buckets so the largest are placed first
+			int[] bucketSizes = new int[bucketCount] ;
+			for (int i=0 ; i<size ; i++)
+				bucketSizes[getBucket(hashes[i], bucketCount)]++ ;
+
+			int[] bucketStarts = new int[bucketCount+1] ;
+			for (int b=0 ; b<bucketCount ; b++)
+				bucketStarts[b+1] = bucketStarts[b] + bucketSizes[b] ;
+
+			int[] members = new int[size] ;
+			int[] fill = new int[bucketCount] ;
+			for (int i=0 ; i<size ; i++) {
+				int b = getBucket(hashes[i], bucketCount) ;
+				members[bucketStarts[b] + fill[b]++] = i ;
+			}
+
+			long[] order = new long[bucketCount] ;
+			for (int b=0 ; b<bucketCount ; b++)
+				order[b] = ((long)(Integer.MAX_VALUE - bucketSizes[b]) << 32) | b ;
+			Arrays.sort(order) ;
+
+			int[] seeds = new int[bucketCount] ;
+			int[] slotEntries = new int[size] ;
+			Arrays.fill(slotEntries, -1) ;
+
+			int nextFreeSlot = 0 ;
+			int[] trial = new int[0] ;
+
+			for (long o:order) {
+				int b = (int)(o & 0xFFFFFFFFL) ;
+				int bSize = bucketSizes[b] ;
+
+				if (bSize == 0)
+					break ;
+
+				if (bSize == 1) {
+					//singletons can go straight into any free slot
+					while (slotEntries[nextFreeSlot] >= 0)
+						nextFreeSlot++ ;
+
+					slotEntries[nextFreeSlot] = members[bucketStarts[b]] ;
+					seeds[b] = -(nextFreeSlot + 1) ;
+					continue ;
+				}
+
+				if (trial.length < bSize)
+					trial = new int[bSize] ;
+
+				boolean placed = false ;
+				for (int seed=1 ; seed<MAX_SEED && !placed ; seed++) {
+					placed = true ;
+
+					for (int m=0 ; m<bSize ; m++) {
+						int slot = getSlot(hashes[members[bucketStarts[b]+m]], seed, size) ;
+
+						boolean clash = slotEntries[slot] >= 0 ;
+						for (int p=0 ; p<m && !clash ; p++)
+							clash = trial[p] == slot ;
+
+						if (clash) {
+							placed = false ;
+							break ;
+						}
+						trial[m] = slot ;
+					}
+
+					if (placed) {
+						for (int m=0 ; m<bSize ; m++)
+							slotEntries[trial[m]] = members[bucketStarts[b]+m] ;
+						seeds[b] = seed ;
+					}
+				}
+
+				if (!placed)
+					throw new IllegalStateException("could not place anchors in bucket " + b + ". Is the same text included more than once?") ;
+			}
+
+			return store(size, bucketCount, seeds, slotEntries) ;
+		}
+
+		private AnchorDictionary store(int size, int bucketCount, int[] seedArray, int[] slotEntries) {
+
+			byte[][] encoded = new byte[size][] ;
+			int keyBytes = 0 ;
+
+			try {
+				for (int s=0 ; s<size ; s++) {
+					encoded[s] = texts.elementAt(slotEntries[s]).getBytes("UTF-8") ;
+					keyBytes += encoded[s].length ;
+				}
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e) ;
+			}
+
+			int senseTotal = senseIds.size() ;
+
+			IntBuffer seeds = allocate(bucketCount) ;
+			seeds.put(seedArray) ;
+
+			IntBuffer keyOffsets = allocate(size+1) ;
+			ByteBuffer keys = ByteBuffer.allocateDirect(Math.max(keyBytes, 1)) ;
+			IntBuffer lc = allocate(size) ;
+			IntBuffer oc = allocate(size) ;
+			IntBuffer so = allocate(size+1) ;
+			IntBuffer si = allocate(senseTotal) ;
+			IntBuffer sc = allocate(senseTotal) ;
+
+			int keyPos = 0 ;
+			int sensePos = 0 ;
+
+			for (int s=0 ; s<size ; s++) {
+				int e = slotEntries[s] ;
+
+				keyOffsets.put(s, keyPos) ;
+				keys.put(encoded[s]) ;
+				keyPos += encoded[s].length ;
+				encoded[s] = null ;
+
+				lc.put(s, linkCounts.get(e)) ;
+				oc.put(s, occCounts.get(e)) ;
+
+				so.put(s, sensePos) ;
+				for (int i=senseOffsets.get(e) ; i<senseOffsets.get(e+1) ; i++) {
+					si.put(sensePos, senseIds.get(i)) ;
+					sc.put(sensePos, senseCounts.get(i)) ;
+					sensePos++ ;
+				}
+			}
+			keyOffsets.put(size, keyPos) ;
+			so.put(size, sensePos) ;
+
+			keys.flip() ;
+
+			texts = null ;
+			linkCounts = null ;
+			occCounts = null ;
+			senseOffsets = null ;
+			senseIds = null ;
+			senseCounts = null ;
+
+			return new AnchorDictionary(size, bucketCount, senseTotal, seeds, keyOffsets, keys, lc, oc, so, si, sc) ;
+		}
+
+		private static IntBuffer allocate(int length) {
+			return ByteBuffer.allocateDirect(4 * Math.max(length, 1)).asIntBuffer() ;
+		}
+	}
+}
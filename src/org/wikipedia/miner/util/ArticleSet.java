@@ -156,19 +156,24 @@ public class ArticleSet {
 		Vector<Article> articles = new Vector<Article>() ;
 		ProgressNotifier pn = new ProgressNotifier(wikipedia.getDatabase().getArticleCount(), "Gathering rough candidates") ;
 		
-		Iterator<Page> i = wikipedia.getPageIterator(Page.ARTICLE) ;
+		//pages may have been cached selectively, so every article is read from the database
+		PageIterator i = wikipedia.getPageIterator(Page.ARTICLE) ;
 		
-		while (i.hasNext()) {
-			Article art = (Article)i.next() ;
-			pn.update() ;
-			
-			if (minOutLinks >= 0 && art.getLinksOutCount() < minOutLinks)
-				continue ;
-			
-			if (minInLinks >= 0 && art.getLinksInCount() < minInLinks)
-				continue ;
-			
-			articles.add(art) ;
+		try {
+			while (i.hasNext()) {
+				Article art = (Article)i.next() ;
+				pn.update() ;
+				
+				if (minOutLinks >= 0 && art.getLinksOutCount() < minOutLinks)
+					continue ;
+				
+				if (minInLinks >= 0 && art.getLinksInCount() < minInLinks)
+					continue ;
+				
+				articles.add(art) ;
+			}
+		} finally {
+			i.close() ;
 		}
 		
 		return articles ;
@@ -0,0 +1,97 @@
+/*
+ *    CachedPageIterator.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.util.* ;
+import org.wikipedia.miner.model.* ;
+
+/**
+ * @author David Milne
+ * 
+ * Iterates over pages that have been cached in memory (see WikipediaDatabase.cachePages()), without touching the database.
+ * <p>
+ * Only cached pages are visited, so if pages were cached selectively (e.g. with a set of valid ids) then this 
+ * will not cover all of Wikipedia.
+ */
+public class CachedPageIterator implements CloseableIterator<Page> {
+
+	private WikipediaDatabase database ;
+	private int[] ids ;
+	private int index = 0 ;
+	private Page nextPage ;
+	
+	/**
+	 * Creates an iterator that will loop through all cached pages, in order of ascending ids.
+	 * 
+	 * @param database a Wikipedia database whose pages have been cached.
+	 */
+	public CachedPageIterator(WikipediaDatabase database) {
+		this(database, -1) ;
+	}
+	
+	/**
+	 * Creates an iterator that will loop through all cached pages of the given type, in order of ascending ids.
+	 * 
+	 * @param database a Wikipedia database whose pages have been cached.
+	 * @param pageType the type of page to restrict the iterator to (ARTICLE, CATEGORY, REDIRECT or DISAMBIGUATION_PAGE)
+	 * @throws IllegalStateException if pages have not been cached
+	 */
+	public CachedPageIterator(WikipediaDatabase database, int pageType) {
+		this.database = database ;
+		this.ids = database.getCachedPageIds(pageType) ;
+		
+		if (ids == null)
+			throw new IllegalStateException("pages have not been cached") ;
+	}
+	
+	public boolean hasNext() {
+		return fetchNext() != null ;
+	}
+
+	public Page next() {
+		Page p = fetchNext() ;
+		if (p == null)
+			throw new NoSuchElementException() ;
+		
+		nextPage = null ;
+		return p ;
+	}
+	
+	private Page fetchNext() {
+		//skip over any pages that have dropped out of the cache since iteration began
+		while (nextPage == null && index < ids.length) 
+			nextPage = database.getCachedPage(ids[index++]) ;
+		
+		return nextPage ;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException() ;
+	}
+	
+	/**
+	 * Stops iterating. No resources are held, so this is only needed when the type of iterator is not known 
+	 * (see Wikipedia.getCachedPageIterator()).
+	 */
+	public void close() {
+		index = ids.length ;
+		nextPage = null ;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ *    CloseableIterator.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.Closeable ;
+import java.util.Iterator ;
+
+/**
+ * @author David Milne
+ *
+ * An iterator that may hold resources (such as a database connection) until it is closed.
+ * <p>
+ * Callers that stop before the last element is reached should call close(), typically in a finally block.
+ *
+ * @param <T> the type of element returned by the iterator
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+	/**
+	 * Stops iterating, and releases any resources held by this iterator. Calling this more than once has no further effect.
+	 */
+	public void close() ;
+}
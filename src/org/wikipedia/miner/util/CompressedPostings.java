@@ -0,0 +1,514 @@
+/*
+ *    CompressedPostings.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.FileChannel ;
+
+import gnu.trove.* ;
+
+/**
+ * @author David Milne
+ *
+ * Stores sorted lists of ids (such as the links in to each page) in compressed form, and counts the
+ * ids that two lists have in common without decompressing either of them.
+ * <p>
+ * Each list is split into blocks of BLOCK_SIZE ids. Every block begins with its first id, and each following id is stored
+ * as the gap from the one before it. All of these numbers are written as variable length integers (7 bits per byte), so small gaps
+ * (which are typical within long lists) only need a single byte.
+ * <p>
+ * A list of more than one block is preceded by a skip table giving the first id and position of each block, so that
+ * searching for an id within a long list only needs to decode a single block. This makes intersecting a short
+ * list with a very long one (e.g. an obscure article with a very popular one) much faster than a straight merge.
+ * <p>
+ * As with LinkStore, the data lives outside of the java heap, and lists for page <em>id</em> are located via an offsets array indexed by id.
+ * Here the offsets array holds the position of each list plus one, so that zero can mark pages that have no list.
+ */
+public class CompressedPostings {
+
+	/**
+	 * the number of ids within each block
+	 */
+	public static final int BLOCK_SIZE = 64 ;
+
+	private static final int HEADER_LENGTH = 16 ;
+
+	//each thread reuses a single pair of cursors for every comparison, with any store
+	private static final ThreadLocal<Cursor[]> CURSORS = new ThreadLocal<Cursor[]>() {
+		protected Cursor[] initialValue() {
+			return new Cursor[] {new Cursor(), new Cursor()} ;
+		}
+	} ;
+
+	private int maxId ;
+	private int size ;
+	private int dataLength ;
+
+	private IntBuffer offsets ;
+	private ByteBuffer data ;
+
+	private CompressedPostings(int maxId, int size, int dataLength, IntBuffer offsets, ByteBuffer data) {
+		this.maxId = maxId ;
+		this.size = size ;
+		this.dataLength = dataLength ;
+		this.offsets = offsets.asReadOnlyBuffer() ;
+		this.data = data.asReadOnlyBuffer() ;
+	}
+
+	/**
+	 * @return the largest id for which a list could be stored
+	 */
+	public int getMaxId() {
+		return maxId ;
+	}
+
+	/**
+	 * @return the total number of ids stored, over all lists
+	 */
+	public int getSize() {
+		return size ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return the number of ids in the list for the given page
+	 */
+	public int getLength(int id) {
+		if (id < 0 || id > maxId)
+			return 0 ;
+
+		int pos = offsets.get(id) ;
+		if (pos == 0)
+			return 0 ;
+
+		return readVInt(data, pos-1) ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return the decompressed list for the given page.
+	 */
+	public int[] get(int id) {
+
+		Cursor c = new Cursor() ;
+		c.reset(this, id) ;
+
+		int[] values = new int[c.length] ;
+		for (int i=0 ; i<values.length ; i++)
+			values[i] = c.next() ;
+
+		return values ;
+	}
+
+	/**
+	 * Counts the ids that are shared by the lists of two pages. The shorter list is walked through, and each of
+	 * its ids is searched for in the longer one using the skip table, so the cost depends mostly on the length of the
+	 * shorter list. No objects are created; each thread reuses its own pair of cursors.
+	 *
+	 * @param idA the id of the first page
+	 * @param idB the id of the second page
+	 * @return the number of ids that occur in both lists.
+	 */
+	public int countCommon(int idA, int idB) {
+
+		Cursor[] cursors = CURSORS.get() ;
+
+		Cursor a = cursors[0] ;
+		Cursor b = cursors[1] ;
+
+		try {
+			a.reset(this, idA) ;
+			b.reset(this, idB) ;
+
+			if (a.length == 0 || b.length == 0)
+				return 0 ;
+
+			if (a.length > b.length) {
+				Cursor tmp = a ;
+				a = b ;
+				b = tmp ;
+			}
+
+			int common = 0 ;
+			while (a.hasNext()) {
+				int value = a.next() ;
+
+				int found = b.advance(value) ;
+				if (found == value)
+					common++ ;
+				else if (found == Integer.MAX_VALUE)
+					break ;
+			}
+
+			return common ;
+		} finally {
+			//so that idle threads do not keep discarded stores (and their mapped data) reachable
+			a.release() ;
+			b.release() ;
+		}
+	}
+
+	/**
+	 * @return the approximate number of bytes (off the java heap) used by this store
+	 */
+	public long getMemoryFootprint() {
+		return 4L * (maxId + 1) + dataLength ;
+	}
+
+	/**
+	 * Writes this store in the format expected by map().
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the store cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+
+		out.writeInt(maxId) ;
+		out.writeInt(size) ;
+		out.writeInt(dataLength) ;
+		out.writeInt(0) ; //reserved, keeps the arrays aligned
+
+		for (int i=0 ; i<maxId+1 ; i++)
+			out.writeInt(offsets.get(i)) ;
+
+		ByteBuffer d = data.duplicate() ;
+		d.position(0) ;
+		d.limit(dataLength) ;
+
+		byte[] chunk = new byte[65536] ;
+		while (d.hasRemaining()) {
+			int n = Math.min(chunk.length, d.remaining()) ;
+			d.get(chunk, 0, n) ;
+			out.write(chunk, 0, n) ;
+		}
+	}
+
+	/**
+	 * Creates a store that reads directly from the given buffer (typically a section of a memory mapped file),
+	 * which must contain data written by write(). No data is copied.
+	 *
+	 * @param buffer the buffer to read from, positioned at the start of the store.
+	 * @return the store
+	 */
+	public static CompressedPostings map(ByteBuffer buffer) {
+
+		ByteBuffer b = buffer.slice() ;
+
+		int maxId = b.getInt(0) ;
+		int size = b.getInt(4) ;
+		int length = b.getInt(8) ;
+
+		int pos = HEADER_LENGTH ;
+
+		ByteBuffer d = b.duplicate() ;
+		d.position(pos) ;
+		d.limit(pos + 4*(maxId+1)) ;
+		IntBuffer offsets = d.slice().asIntBuffer() ;
+		pos += 4*(maxId+1) ;
+
+		d = b.duplicate() ;
+		d.position(pos) ;
+		d.limit(pos + length) ;
+
+		return new CompressedPostings(maxId, size, length, offsets, d.slice()) ;
+	}
+
+	/**
+	 * Creates a store that reads directly from a file, which must contain data written by write() at the given position. 
+	 * The offsets and the compressed data are mapped separately, so each may be up to 2GB.
+	 *
+	 * @param channel the file to map
+	 * @param position the position of the store within the file
+	 * @return the store
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static CompressedPostings map(FileChannel channel, long position) throws IOException {
+
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, HEADER_LENGTH) ;
+
+		int maxId = header.getInt(0) ;
+		int size = header.getInt(4) ;
+		int length = header.getInt(8) ;
+
+		long pos = position + HEADER_LENGTH ;
+		IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*(maxId+1)).asIntBuffer() ;
+		pos += 4L*(maxId+1) ;
+
+		ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, pos, length) ;
+
+		return new CompressedPostings(maxId, size, length, offsets, data) ;
+	}
+
+	private static int readVInt(ByteBuffer buffer, int pos) {
+		int value = 0 ;
+		int shift = 0 ;
+		byte b ;
+		do {
+			b = buffer.get(pos++) ;
+			value |= (b & 0x7F) << shift ;
+			shift += 7 ;
+		} while (b < 0) ;
+
+		return value ;
+	}
+
+
+	/**
+	 * Decodes a single list, either sequentially or by jumping forward to particular values. A cursor can be reset to 
+	 * any list of any store, so that it can be reused.
+	 */
+	private static class Cursor {
+
+		private IntBuffer offsets ;
+		private ByteBuffer data ;
+
+		private int length ;
+		private int blocks ;
+
+		private int skipStart ;
+		private int dataStart ;
+
+		private int index ;
+		private int pos ;
+		private int current ;
+
+		private void reset(CompressedPostings store, int id) {
+			offsets = store.offsets ;
+			data = store.data ;
+
+			length = 0 ;
+			index = 0 ;
+
+			if (id < 0 || id > store.maxId)
+				return ;
+
+			pos = offsets.get(id) - 1 ;
+			if (pos < 0)
+				return ;
+
+			length = readVInt() ;
+			blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE ;
+
+			if (blocks > 1) {
+				skipStart = pos ;
+				pos += 8 * blocks ;
+			}
+			dataStart = pos ;
+		}
+
+		private void release() {
+			offsets = null ;
+			data = null ;
+		}
+
+		private boolean hasNext() {
+			return index < length ;
+		}
+
+		private int next() {
+			if (index % BLOCK_SIZE == 0)
+				current = readVInt() ;
+			else
+				current = current + readVInt() ;
+
+			index++ ;
+			return current ;
+		}
+
+		/**
+		 * Moves forward to the first value that is greater than or equal to the given target.
+		 *
+		 * @return the value moved to, or Integer.MAX_VALUE if there is no such value
+		 */
+		private int advance(int target) {
+
+			if (index > 0 && current >= target)
+				return current ;
+
+			if (blocks > 1) {
+				int block = (index == 0) ? 0 : (index-1) / BLOCK_SIZE ;
+
+				if (block+1 < blocks && getBlockFirst(block+1) <= target) {
+					//gallop forward through the skip table, then binary search the range found
+					int low = block+1 ;
+					int step = 1 ;
+					int high = low + step ;
+					while (high < blocks && getBlockFirst(high) <= target) {
+						low = high ;
+						step = step * 2 ;
+						high = low + step ;
+					}
+					if (high > blocks)
+						high = blocks ;
+
+					while (high - low > 1) {
+						int mid = (low + high) >>> 1 ;
+						if (getBlockFirst(mid) <= target)
+							low = mid ;
+						else
+							high = mid ;
+					}
+
+					index = low * BLOCK_SIZE ;
+					pos = dataStart + data.getInt(skipStart + 8*low + 4) ;
+				}
+			}
+
+			while (index < length) {
+				if (next() >= target)
+					return current ;
+			}
+
+			return Integer.MAX_VALUE ;
+		}
+
+		private int getBlockFirst(int block) {
+			return data.getInt(skipStart + 8*block) ;
+		}
+
+		private int readVInt() {
+			int value = 0 ;
+			int shift = 0 ;
+			byte b ;
+			do {
+				b = data.get(pos++) ;
+				value |= (b & 0x7F) << shift ;
+				shift += 7 ;
+			} while (b < 0) ;
+
+			return value ;
+		}
+	}
+
+
+	/**
+	 * Gathers and compresses lists for each page. Pages can be added in any order.
+	 */
+	public static class Builder {
+
+		private int maxId = 0 ;
+		private int size = 0 ;
+
+		private TIntArrayList rowIds ;
+		private TIntArrayList rowStarts ;
+
+		private ByteBuffer data ;
+
+		/**
+		 * @param expectedBytes the number of bytes of compressed data expected (this is only used for initial sizing)
+		 */
+		public Builder(int expectedBytes) {
+			rowIds = new TIntArrayList() ;
+			rowStarts = new TIntArrayList() ;
+
+			data = ByteBuffer.allocateDirect(Math.max(expectedBytes, 1024)) ;
+		}
+
+		/**
+		 * Adds the list for a single page
+		 *
+		 * @param id the id of the page
+		 * @param values the ordered ids to store for this page
+		 * @param length the number of values to use
+		 */
+		public void add(int id, int[] values, int length) {
+
+			if (length == 0)
+				return ;
+
+			maxId = Math.max(maxId, id) ;
+			rowIds.add(id) ;
+			rowStarts.add(data.position()) ;
+
+			int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE ;
+
+			writeVInt(length) ;
+
+			int skipStart = data.position() ;
+			if (blocks > 1) {
+				ensureCapacity(8 * blocks) ;
+				data.position(skipStart + 8 * blocks) ;
+			}
+
+			int dataStart = data.position() ;
+
+			for (int i=0 ; i<length ; i++) {
+				if (i % BLOCK_SIZE == 0) {
+					if (blocks > 1) {
+						data.putInt(skipStart + 8*(i/BLOCK_SIZE), values[i]) ;
+						data.putInt(skipStart + 8*(i/BLOCK_SIZE) + 4, data.position() - dataStart) ;
+					}
+					writeVInt(values[i]) ;
+				} else {
+					writeVInt(values[i] - values[i-1]) ;
+				}
+			}
+
+			size += length ;
+		}
+
+		private void writeVInt(int value) {
+			ensureCapacity(5) ;
+			while ((value & ~0x7F) != 0) {
+				data.put((byte)((value & 0x7F) | 0x80)) ;
+				value >>>= 7 ;
+			}
+			data.put((byte)value) ;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (data.remaining() >= extra)
+				return ;
+
+			long newCapacity = Math.max((long)data.capacity()*2, (long)data.position() + extra) ;
+			if (newCapacity > Integer.MAX_VALUE)
+				throw new IllegalStateException("compressed data exceeds 2GB") ;
+
+			ByteBuffer d = ByteBuffer.allocateDirect((int)newCapacity) ;
+
+			data.flip() ;
+			d.put(data) ;
+			data = d ;
+		}
+
+		/**
+		 * @return a store containing all of the lists that have been added.
+		 */
+		public CompressedPostings build() {
+
+			int length = data.position() ;
+
+			IntBuffer offsets = ByteBuffer.allocateDirect(4 * (maxId+1)).asIntBuffer() ;
+
+			for (int r=0 ; r<rowIds.size() ; r++)
+				offsets.put(rowIds.get(r), rowStarts.get(r) + 1) ;
+
+			ByteBuffer finalData = data.duplicate() ;
+			finalData.flip() ;
+
+			data = null ;
+			rowIds = null ;
+			rowStarts = null ;
+
+			return new CompressedPostings(maxId, size, length, offsets, finalData.slice()) ;
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ *    ExternalSorter.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.* ;
+import java.util.* ;
+
+/**
+ * @author David Milne
+ *
+ * Sorts and aggregates an arbitrarily large number of records, using a bounded amount of memory.
+ * <p>
+ * Each record is a (text, id) key with two int values. Records are gathered in memory until there are too many of them, and
+ * are then sorted and written out to a temporary file (a run). Once all records have been added, the runs are merged to
+ * produce every distinct key exactly once, in order, with the values of all records that share that key summed together.
+ * <p>
+ * This is used to re-aggregate anchors once their texts have been altered by a TextProcessor, since many distinct anchors
+ * can collapse to the same processed text.
+ */
+public class ExternalSorter {
+
+	/**
+	 * the default number of records that are held in memory before they are written out to a run.
+	 */
+	public static final int DEFAULT_RUN_SIZE = 1000000 ;
+
+	private File tempDirectory ;
+	private int runSize ;
+
+	private Record[] buffer ;
+	private int bufferedRecords = 0 ;
+
+	private Vector<File> runs = new Vector<File>() ;
+	private long recordsAdded = 0 ;
+
+	/**
+	 * Initializes a sorter that writes runs of DEFAULT_RUN_SIZE records to the default temporary directory.
+	 */
+	public ExternalSorter() {
+		this(null, DEFAULT_RUN_SIZE) ;
+	}
+
+	/**
+	 * Initializes a sorter.
+	 *
+	 * @param tempDirectory the directory to write runs to (or null, to use the default temporary directory)
+	 * @param runSize the number of records to hold in memory before they are written out to a run.
+	 */
+	public ExternalSorter(File tempDirectory, int runSize) {
+		this.tempDirectory = tempDirectory ;
+		this.runSize = Math.max(runSize, 1) ;
+
+		buffer = new Record[Math.min(this.runSize, 1024)] ;
+	}
+
+	/**
+	 * Adds a single record.
+	 *
+	 * @param text the textual part of the record's key
+	 * @param id the numeric part of the record's key
+	 * @param valueA the first value to aggregate
+	 * @param valueB the second value to aggregate
+	 * @throws IOException if a run cannot be written
+	 */
+	public void add(String text, int id, int valueA, int valueB) throws IOException {
+
+		if (bufferedRecords == buffer.length) {
+			if (buffer.length < runSize)
+				buffer = Arrays.copyOf(buffer, (int)Math.min((long)buffer.length * 2, runSize)) ;
+			else
+				writeRun() ;
+		}
+
+		buffer[bufferedRecords++] = new Record(text, id, valueA, valueB) ;
+		recordsAdded++ ;
+	}
+
+	/**
+	 * @return the number of records that have been added so far
+	 */
+	public long getRecordsAdded() {
+		return recordsAdded ;
+	}
+
+	/**
+	 * Finishes adding records, and returns a cursor over the distinct keys in order. No more records can be added
+	 * once this has been called.
+	 *
+	 * @return a cursor over the aggregated records. This must be closed once it is finished with, so that runs are deleted.
+	 * @throws IOException if runs cannot be written or read
+	 */
+	public Cursor sort() throws IOException {
+
+		Arrays.sort(buffer, 0, bufferedRecords) ;
+
+		if (runs.isEmpty()) {
+			//everything fit into memory, so there is no need to touch disk at all
+			Cursor c = new Cursor(new MemoryRun(buffer, bufferedRecords)) ;
+			buffer = null ;
+			return c ;
+		}
+
+		writeRun() ;
+		buffer = null ;
+
+		Vector<Run> fileRuns = new Vector<Run>() ;
+		for (File f:runs)
+			fileRuns.add(new FileRun(f)) ;
+
+		return new Cursor(new MergedRun(fileRuns)) ;
+	}
+
+	private void writeRun() throws IOException {
+
+		Arrays.sort(buffer, 0, bufferedRecords) ;
+
+		File file = File.createTempFile("wm_sort", ".run", tempDirectory) ;
+		file.deleteOnExit() ;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) ;
+
+		Record last = null ;
+		for (int i=0 ; i<bufferedRecords ; i++) {
+			Record r = buffer[i] ;
+
+			//combine duplicates now, so runs are as small as possible
+			if (last != null && last.compareTo(r) == 0) {
+				last.valueA += r.valueA ;
+				last.valueB += r.valueB ;
+			} else {
+				if (last != null)
+					last.write(out) ;
+				last = r ;
+			}
+			buffer[i] = null ;
+		}
+		if (last != null)
+			last.write(out) ;
+
+		out.close() ;
+
+		runs.add(file) ;
+		bufferedRecords = 0 ;
+	}
+
+
+	/**
+	 * Iterates through aggregated records, in order of text and then id.
+	 */
+	public class Cursor {
+
+		private Run run ;
+
+		private String text ;
+		private int id ;
+		private int valueA ;
+		private int valueB ;
+
+		private Cursor(Run run) throws IOException {
+			this.run = run ;
+		}
+
+		/**
+		 * Moves to the next distinct key.
+		 *
+		 * @return true if there is such a key, otherwise false
+		 * @throws IOException if a run cannot be read
+		 */
+		public boolean next() throws IOException {
+
+			Record r = run.peek() ;
+			if (r == null)
+				return false ;
+
+			text = r.text ;
+			id = r.id ;
+			valueA = 0 ;
+			valueB = 0 ;
+
+			while (r != null && r.id == id && r.text.equals(text)) {
+				valueA += r.valueA ;
+				valueB += r.valueB ;
+
+				run.advance() ;
+				r = run.peek() ;
+			}
+
+			return true ;
+		}
+
+		public String getText() {
+			return text ;
+		}
+
+		public int getId() {
+			return id ;
+		}
+
+		public int getValueA() {
+			return valueA ;
+		}
+
+		public int getValueB() {
+			return valueB ;
+		}
+
+		/**
+		 * Closes the cursor, and deletes any runs that were written to disk.
+		 */
+		public void close() {
+			try {
+				run.close() ;
+			} catch (IOException e) {} ;
+
+			for (File f:runs)
+				f.delete() ;
+			runs.clear() ;
+		}
+	}
+
+
+	private static class Record implements Comparable<Record> {
+		String text ;
+		int id ;
+		int valueA ;
+		int valueB ;
+
+		Record(String text, int id, int valueA, int valueB) {
+			this.text = text ;
+			this.id = id ;
+			this.valueA = valueA ;
+			this.valueB = valueB ;
+		}
+
+		public int compareTo(Record r) {
+			int c = text.compareTo(r.text) ;
+			if (c != 0)
+				return c ;
+
+			if (id < r.id) return -1 ;
+			if (id > r.id) return 1 ;
+			return 0 ;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeUTF(text) ;
+			out.writeInt(id) ;
+			out.writeInt(valueA) ;
+			out.writeInt(valueB) ;
+		}
+
+		static Record read(DataInputStream in) throws IOException {
+			String text ;
+			try {
+				text = in.readUTF() ;
+			} catch (EOFException e) {
+				return null ;
+			}
+			return new Record(text, in.readInt(), in.readInt(), in.readInt()) ;
+		}
+	}
+
+	/**
+	 * A sorted sequence of records
+	 */
+	private static abstract class Run {
+		abstract Record peek() ;
+		abstract void advance() throws IOException ;
+		abstract void close() throws IOException ;
+	}
+
+	private static class MemoryRun extends Run {
+		private Record[] records ;
+		private int length ;
+		private int index = 0 ;
+
+		MemoryRun(Record[] records, int length) {
+			this.records = records ;
+			this.length = length ;
+		}
+
+		Record peek() {
+			return index < length ? records[index] : null ;
+		}
+
+		void advance() {
+			records[index++] = null ;
+		}
+
+		void close() {
+			records = null ;
+			length = 0 ;
+		}
+	}
+
+	private static class FileRun extends Run {
+		private DataInputStream in ;
+		private Record current ;
+
+		FileRun(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)) ;
+			current = Record.read(in) ;
+		}
+
+		Record peek() {
+			return current ;
+		}
+
+		void advance() throws IOException {
+			current = Record.read(in) ;
+		}
+
+		void close() throws IOException {
+			in.close() ;
+		}
+	}
+
+	/**
+	 * Merges several runs into one, by always taking the smallest record from the run at the head of a priority queue.
+	 */
+	private static class MergedRun extends Run {
+		private Vector<Run> runs ;
+		private PriorityQueue<Run> queue ;
+
+		MergedRun(Vector<Run> runs) {
+			this.runs = runs ;
+
+			queue = new PriorityQueue<Run>(Math.max(runs.size(), 1), new Comparator<Run>() {
+				public int compare(Run a, Run b) {
+					return a.peek().compareTo(b.peek()) ;
+				}
+			}) ;
+
+			for (Run r:runs)
+				if (r.peek() != null)
+					queue.add(r) ;
+		}
+
+		Record peek() {
+			Run r = queue.peek() ;
+			return r == null ? null : r.peek() ;
+		}
+
+		void advance() throws IOException {
+			Run r = queue.poll() ;
+			r.advance() ;
+			if (r.peek() != null)
+				queue.add(r) ;
+		}
+
+		void close() throws IOException {
+			for (Run r:runs)
+				r.close() ;
+		}
+	}
+}
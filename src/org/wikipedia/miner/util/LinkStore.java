@@ -0,0 +1,524 @@
+/*
+ *    LinkStore.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.* ;
+import java.nio.* ;
+import java.nio.channels.FileChannel ;
+
+import gnu.trove.* ;
+
+/**
+ * @author David Milne
+ *
+ * Stores lists of links (or any other sorted lists of ids) for a large number of pages, in compressed sparse row form.
+ * <p>
+ * There is one offsets array (indexed directly by page id), one array of targets, and optionally a parallel array
+ * of counts. The links from page <em>id</em> are found between offsets[id] (inclusive) and offsets[id+1] (exclusive).
+ * <p>
+ * All of these arrays live outside of the java heap; either in direct buffers, or in buffers mapped from a file (see map()).
+ * This means millions of links cost the garbage collector nothing, and lists can be handed out as zero-copy slices.
+ * Direct buffers are limited by the -XX:MaxDirectMemorySize setting of the JVM.
+ */
+public class LinkStore {
+
+	private static final IntBuffer EMPTY = IntBuffer.allocate(0).asReadOnlyBuffer() ;
+
+	private static final int HEADER_LENGTH = 16 ;
+
+	private int maxId ;
+	private int size ;
+
+	private IntBuffer offsets ;
+	private IntBuffer targets ;
+	private IntBuffer counts ;
+
+	private LinkStore(int maxId, int size, IntBuffer offsets, IntBuffer targets, IntBuffer counts) {
+		this.maxId = maxId ;
+		this.size = size ;
+		this.offsets = offsets.asReadOnlyBuffer() ;
+		this.targets = targets.asReadOnlyBuffer() ;
+
+		if (counts != null)
+			this.counts = counts.asReadOnlyBuffer() ;
+	}
+
+	/**
+	 * @return the largest id for which links could be stored
+	 */
+	public int getMaxId() {
+		return maxId ;
+	}
+
+	/**
+	 * @return the total number of links stored, over all pages
+	 */
+	public int getSize() {
+		return size ;
+	}
+
+	/**
+	 * @return true if a count is stored alongside each link, otherwise false
+	 */
+	public boolean hasCounts() {
+		return counts != null ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return the index (within the targets array) of the first link from the given page
+	 */
+	public int getStart(int id) {
+		if (id < 0 || id > maxId)
+			return 0 ;
+
+		return offsets.get(id) ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return the index (within the targets array) after the last link from the given page
+	 */
+	public int getEnd(int id) {
+		if (id < 0 || id > maxId)
+			return 0 ;
+
+		return offsets.get(id+1) ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return the number of links stored for the given page
+	 */
+	public int getLinkCount(int id) {
+		return getEnd(id) - getStart(id) ;
+	}
+
+	/**
+	 * @param index an index into the targets array, between getStart(id) and getEnd(id) for some page.
+	 * @return the target stored at the given index
+	 */
+	public int getTarget(int index) {
+		return targets.get(index) ;
+	}
+
+	/**
+	 * @param index an index into the targets array, between getStart(id) and getEnd(id) for some page.
+	 * @return the count stored at the given index
+	 */
+	public int getCount(int index) {
+		return counts.get(index) ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return a read-only view of the (ordered) targets of the given page. No data is copied.
+	 */
+	public IntBuffer getTargets(int id) {
+		return slice(targets, id) ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return a read-only view of the counts of the given page, in the same order as getTargets(). No data is copied.
+	 */
+	public IntBuffer getCounts(int id) {
+		if (counts == null)
+			throw new UnsupportedOperationException("counts are not stored") ;
+
+		return slice(counts, id) ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @return a copy of the (ordered) targets of the given page.
+	 */
+	public int[] getTargetArray(int id) {
+		IntBuffer slice = getTargets(id) ;
+
+		int[] array = new int[slice.remaining()] ;
+		slice.get(array) ;
+		return array ;
+	}
+
+	/**
+	 * @param id the id of the page of interest
+	 * @param target the id of a potential target
+	 * @return true if the given page links to the given target, otherwise false. This is a binary search, so no data is copied.
+	 */
+	public boolean contains(int id, int target) {
+
+		int low = getStart(id) ;
+		int high = getEnd(id) - 1 ;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1 ;
+			int t = targets.get(mid) ;
+
+			if (t < target)
+				low = mid + 1 ;
+			else if (t > target)
+				high = mid - 1 ;
+			else
+				return true ;
+		}
+
+		return false ;
+	}
+
+	private IntBuffer slice(IntBuffer buffer, int id) {
+
+		int start = getStart(id) ;
+		int end = getEnd(id) ;
+
+		if (start == end)
+			return EMPTY ;
+
+		IntBuffer b = buffer.duplicate() ;
+		b.limit(end) ;
+		b.position(start) ;
+		return b.slice() ;
+	}
+
+	/**
+	 * @return the approximate number of bytes (off the java heap) used by this store
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 4L * (maxId + 2) + 4L * size ;
+		if (counts != null)
+			bytes += 4L * size ;
+
+		return bytes ;
+	}
+
+	/**
+	 * Writes this store in the format expected by map().
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the store cannot be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(maxId) ;
+		out.writeInt(size) ;
+		out.writeInt(counts == null ? 0 : 1) ;
+		out.writeInt(0) ; //reserved, keeps the arrays aligned
+
+		writeInts(offsets, maxId+2, out) ;
+		writeInts(targets, size, out) ;
+
+		if (counts != null)
+			writeInts(counts, size, out) ;
+	}
+
+	private void writeInts(IntBuffer buffer, int length, DataOutputStream out) throws IOException {
+		for (int i=0 ; i<length ; i++)
+			out.writeInt(buffer.get(i)) ;
+	}
+
+	/**
+	 * Creates a store that reads directly from the given buffer (typically a section of a memory mapped file),
+	 * which must contain data written by write(). No data is copied.
+	 *
+	 * @param data the buffer to read from, positioned at the start of the store.
+	 * @return the store
+	 */
+	public static LinkStore map(ByteBuffer data) {
+
+		ByteBuffer b = data.slice() ;
+
+		int maxId = b.getInt(0) ;
+		int size = b.getInt(4) ;
+		boolean hasCounts = b.getInt(8) != 0 ;
+
+		int pos = HEADER_LENGTH ;
+		IntBuffer offsets = sliceInts(b, pos, maxId+2) ;
+		pos += 4 * (maxId+2) ;
+
+		IntBuffer targets = sliceInts(b, pos, size) ;
+		pos += 4 * size ;
+
+		IntBuffer counts = null ;
+		if (hasCounts)
+			counts = sliceInts(b, pos, size) ;
+
+		return new LinkStore(maxId, size, offsets, targets, counts) ;
+	}
+
+	/**
+	 * Creates a store that reads directly from a file, which must contain data written by write() at the given position. 
+	 * Each array is mapped separately, so unlike map(ByteBuffer), the store as a whole may be larger than 2GB. 
+	 *
+	 * @param channel the file to map
+	 * @param position the position of the store within the file
+	 * @return the store
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static LinkStore map(FileChannel channel, long position) throws IOException {
+
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, HEADER_LENGTH) ;
+
+		int maxId = header.getInt(0) ;
+		int size = header.getInt(4) ;
+		boolean hasCounts = header.getInt(8) != 0 ;
+
+		long pos = position + HEADER_LENGTH ;
+		IntBuffer offsets = mapInts(channel, pos, maxId+2) ;
+		pos += 4L * (maxId+2) ;
+
+		IntBuffer targets = mapInts(channel, pos, size) ;
+		pos += 4L * size ;
+
+		IntBuffer counts = null ;
+		if (hasCounts)
+			counts = mapInts(channel, pos, size) ;
+
+		return new LinkStore(maxId, size, offsets, targets, counts) ;
+	}
+
+	private static IntBuffer mapInts(FileChannel channel, long pos, int length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L * length).asIntBuffer() ;
+	}
+
+	private static IntBuffer sliceInts(ByteBuffer b, int pos, int length) {
+		ByteBuffer d = b.duplicate() ;
+		d.position(pos) ;
+		d.limit(pos + 4*length) ;
+		return d.slice().asIntBuffer() ;
+	}
+
+	private static IntBuffer allocate(int length) {
+		return ByteBuffer.allocateDirect(4 * Math.max(length, 1)).asIntBuffer() ;
+	}
+
+
+	/**
+	 * Gathers links for each page, and then compacts them into a LinkStore.
+	 * Pages can be added in any order, but building is cheapest if they are added in order of ascending id.
+	 * <p>
+	 * Alternatively, if the number of links from each page is known in advance, the builder can be sized exactly and
+	 * links can be set directly (see set()), so they never need to be gathered anywhere else first.
+	 */
+	public static class Builder {
+
+		private boolean withCounts ;
+
+		private TIntArrayList rowIds ;
+		private TIntArrayList rowStarts ;
+		private boolean rowsOrdered = true ;
+
+		private IntBuffer targets ;
+		private IntBuffer counts ;
+		private int size = 0 ;
+
+		/**
+		 * @param withCounts true if a count is to be stored alongside each link
+		 * @param expectedSize the number of links expected, over all pages (this is only used for initial sizing).
+		 */
+		public Builder(boolean withCounts, int expectedSize) {
+			this.withCounts = withCounts ;
+
+			rowIds = new TIntArrayList() ;
+			rowStarts = new TIntArrayList() ;
+
+			targets = allocate(Math.max(expectedSize, 1024)) ;
+			if (withCounts)
+				counts = allocate(Math.max(expectedSize, 1024)) ;
+		}
+
+		/**
+		 * Creates a builder for pages whose numbers of links are already known. Space for exactly this many links is allocated, 
+		 * and links must then be given with set() rather than add().
+		 *
+		 * @param withCounts true if a count is to be stored alongside each link
+		 * @param ids the ids of the pages, in the order that their links will be indexed
+		 * @param lengths the number of links from each of these pages
+		 * @throws IllegalArgumentException if there are too many links to be held in a single store
+		 */
+		public Builder(boolean withCounts, TIntArrayList ids, TIntArrayList lengths) {
+			this.withCounts = withCounts ;
+
+			rowIds = ids ;
+			rowStarts = new TIntArrayList(ids.size()) ;
+
+			long total = 0 ;
+			for (int r=0 ; r<ids.size() ; r++) {
+				if (r > 0 && ids.get(r) <= ids.get(r-1))
+					rowsOrdered = false ;
+
+				rowStarts.add((int)total) ;
+				total += lengths.get(r) ;
+
+				if (total > Integer.MAX_VALUE/4)
+					throw new IllegalArgumentException("too many links to be held in a single store") ;
+			}
+
+			size = (int)total ;
+
+			targets = allocate(size) ;
+			if (withCounts)
+				counts = allocate(size) ;
+		}
+
+		/**
+		 * Sets a single link, for a builder that was created with the number of links from each page. Links can be set 
+		 * in any order, and by several threads at once, as long as each one is set exactly once.
+		 *
+		 * @param index the index of the link; the links of the first page come first, then those of the second, and so on.
+		 * @param target the id that the link points to
+		 * @param count the count associated with the link (ignored unless the store was created with counts)
+		 */
+		public void set(int index, int target, int count) {
+			targets.put(index, target) ;
+			if (withCounts)
+				counts.put(index, count) ;
+		}
+
+		/**
+		 * Adds the links for a single page.
+		 *
+		 * @param id the id of the page
+		 * @param linkTargets the ordered ids that this page links to
+		 * @param linkCount the number of values in linkTargets to use
+		 * @param linkCounts the counts associated with each target (ignored unless the store was created with counts)
+		 */
+		public void add(int id, int[] linkTargets, int linkCount, int[] linkCounts) {
+
+			if (rowIds.size() > 0 && id <= rowIds.get(rowIds.size()-1))
+				rowsOrdered = false ;
+
+			rowIds.add(id) ;
+			rowStarts.add(size) ;
+
+			ensureCapacity(size + linkCount) ;
+
+			targets.position(size) ;
+			targets.put(linkTargets, 0, linkCount) ;
+
+			if (withCounts) {
+				counts.position(size) ;
+				counts.put(linkCounts, 0, linkCount) ;
+			}
+
+			size += linkCount ;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity <= targets.capacity())
+				return ;
+
+			int newCapacity = (int)Math.min(Integer.MAX_VALUE/4, Math.max((long)targets.capacity()*2, capacity)) ;
+
+			targets = grow(targets, newCapacity) ;
+			if (withCounts)
+				counts = grow(counts, newCapacity) ;
+		}
+
+		private IntBuffer grow(IntBuffer buffer, int capacity) {
+			IntBuffer b = allocate(capacity) ;
+
+			buffer.position(0) ;
+			buffer.limit(size) ;
+			b.put(buffer) ;
+
+			return b ;
+		}
+
+		/**
+		 * @return a store containing all of the links that have been added.
+		 */
+		public LinkStore build() {
+
+			int rows = rowIds.size() ;
+			int maxId = 0 ;
+			for (int r=0 ; r<rows ; r++)
+				maxId = Math.max(maxId, rowIds.get(r)) ;
+
+			int[] order = new int[rows] ;
+			for (int r=0 ; r<rows ; r++)
+				order[r] = r ;
+
+			if (!rowsOrdered)
+				order = sortRowsById(order) ;
+
+			IntBuffer offsets = allocate(maxId+2) ;
+			IntBuffer finalTargets = targets ;
+			IntBuffer finalCounts = counts ;
+
+			if (!rowsOrdered) {
+				//rows have to be copied into id order
+				finalTargets = allocate(size) ;
+				if (withCounts)
+					finalCounts = allocate(size) ;
+			}
+
+			int pos = 0 ;
+			int nextId = 0 ;
+			int lastId = -1 ;
+
+			for (int r:order) {
+				int id = rowIds.get(r) ;
+				if (id == lastId)
+					continue ; //ignore duplicate rows
+
+				int start = rowStarts.get(r) ;
+				int end = (r+1 < rows) ? rowStarts.get(r+1) : size ;
+
+				while (nextId <= id)
+					offsets.put(nextId++, pos) ;
+
+				if (!rowsOrdered) {
+					for (int i=start ; i<end ; i++) {
+						finalTargets.put(pos + i - start, targets.get(i)) ;
+						if (withCounts)
+							finalCounts.put(pos + i - start, counts.get(i)) ;
+					}
+					pos += end - start ;
+				} else {
+					pos = end ;
+				}
+				lastId = id ;
+			}
+
+			while (nextId <= maxId+1)
+				offsets.put(nextId++, pos) ;
+
+			targets = null ;
+			counts = null ;
+			rowIds = null ;
+			rowStarts = null ;
+
+			return new LinkStore(maxId, pos, offsets, finalTargets, finalCounts) ;
+		}
+
+		private int[] sortRowsById(int[] order) {
+			long[] keys = new long[order.length] ;
+
+			for (int r=0 ; r<order.length ; r++)
+				keys[r] = ((long)rowIds.get(r) << 32) | r ;
+
+			java.util.Arrays.sort(keys) ;
+
+			for (int r=0 ; r<order.length ; r++)
+				order[r] = (int)(keys[r] & 0xFFFFFFFFL) ;
+
+			return order ;
+		}
+	}
+}
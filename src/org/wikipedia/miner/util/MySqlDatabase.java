@@ -19,20 +19,50 @@
 
 package org.wikipedia.miner.util;
 
+import java.lang.reflect.*;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This convenience class provides access to a MySql database via the MySqlConnector-J toolkit. 
+ * <p>
+ * By default all statements are issued over a single connection, which is fine for one thread at a time. 
+ * If the database is to be shared by many threads (e.g. within a servlet) then setPoolSize() should be used to switch to 
+ * a pool of connections. In this mode every statement borrows its own connection, and hands it back to the pool when 
+ * the statement is closed, so callers must always close the statements they create.
+ * <p>
+ * Queries that are issued often can be registered under a name (see registerQuery()), and then issued via prepareStatement().
+ * These are parsed once per connection, and the resulting prepared statements are reused for as long as the connection lives.
  * 
  * @author David Milne
  */
 public class MySqlDatabase {
 	
+	/**
+	 * the number of seconds to wait for a connection to respond when checking that it is still valid
+	 */
+	public static final int VALIDATION_TIMEOUT = 5 ;
+	
+	/**
+	 * the number of seconds to wait for a connection to be returned to an exhausted pool
+	 */
+	public static final int BORROW_TIMEOUT = 60 ;
+	
 	private Connection connection ;
+	private volatile boolean autoCommit = true ;
+	
+	private volatile int poolSize = 0 ;
+	private volatile LinkedBlockingQueue<Connection> idleConnections ;
+	private AtomicInteger pooledConnections = new AtomicInteger(0) ;
+	
+	private ConcurrentHashMap<String,String> queries = new ConcurrentHashMap<String,String>() ;
+	private ConcurrentHashMap<Connection,ConcurrentHashMap<String,PreparedStatement>> preparedStatements = new ConcurrentHashMap<Connection,ConcurrentHashMap<String,PreparedStatement>>() ;
 	
 	private String server ;
 	private String databaseName ;
@@ -40,7 +70,7 @@ public class MySqlDatabase {
 	private String password ;
 	private String encoding ;
 	
-	private int statementsIssued ;
+	private AtomicInteger statementsIssued ;
 	
 	/**
 	 * Initializes a newly created MySqlDatabase and attempts to make a connection to the 
@@ -60,7 +90,7 @@ public class MySqlDatabase {
 		this.userName = userName ;
 		this.password = password ;
 		this.encoding = encoding ;
-		this.statementsIssued = 0 ;
+		this.statementsIssued = new AtomicInteger(0) ;
 		connect() ;
 	}
 	
@@ -89,7 +119,14 @@ public class MySqlDatabase {
 	 * @throws IllegalAccessException	if the mysql driver class cannot be instantiated
 	 * @throws ClassNotFoundException	if the mysql driver class cannot be found
 	 */
-	public void connect() throws SQLException, InstantiationException, IllegalAccessException, ClassNotFoundException{
+	public synchronized void connect() throws SQLException, InstantiationException, IllegalAccessException, ClassNotFoundException{
+		if (connection != null)
+			discardConnection(connection) ;
+		
+		connection = openConnection() ;
+	}
+	
+	private Connection openConnection() throws SQLException, InstantiationException, IllegalAccessException, ClassNotFoundException{
 			
 		// load the sql drivers
 		Class.forName("org.gjt.mm.mysql.Driver").newInstance(); 
@@ -118,21 +155,104 @@ public class MySqlDatabase {
 				url = url + "&characterEncoding=" + encoding ;
 			else
 				url = url + "?characterEncoding=" + encoding ;	
+			
+			argsStarted = true ;
+		}
+		
+		//have the server parse prepared statements once, rather than every time they are executed
+		if (argsStarted)
+			url = url + "&useServerPrepStmts=true" ;
+		else
+			url = url + "?useServerPrepStmts=true" ;
+		
+		return DriverManager.getConnection(url) ; 
+	}
+	
+	/**
+	 * Opens a new connection which is not shared with any other statements, for long-running work (such as bulk loading)
+	 * that should not hold up, or be held up by, other queries. The caller is responsible for closing it. 
+	 * 
+	 * @return a new connection to the database
+	 * @throws SQLException if the connection cannot be made
+	 */
+	protected Connection openDedicatedConnection() throws SQLException {
+		try {
+			return openConnection() ;
+		} catch (SQLException e) {
+			throw e ;
+		} catch (Exception e) {
+			throw new SQLException("Could not load mysql driver: " + e.getMessage()) ;
 		}
+	}
+	
+	/**
+	 * Specifies how many connections may be opened for concurrent use. If this is 0 (the default), then 
+	 * all statements share a single connection. Otherwise each statement borrows a connection from a pool of at most 
+	 * the given size, which is checked before it is handed out, and reopened if it has gone stale. 
+	 * <p>
+	 * Connections are opened lazily, as they are needed. 
+	 * 
+	 * @param size the maximum number of pooled connections
+	 */
+	public synchronized void setPoolSize(int size) {
 		
-		connection = DriverManager.getConnection(url) ; 
+		if (size > 0 && idleConnections == null) 
+			idleConnections = new LinkedBlockingQueue<Connection>() ;
+			
+		if (size <= 0 && idleConnections != null) {
+			closeIdleConnections() ;
+			idleConnections = null ;
+		}
+		
+		this.poolSize = Math.max(0, size) ;
+	}
+	
+	/**
+	 * @return the maximum number of pooled connections, or 0 if all statements share a single connection.
+	 */
+	public int getPoolSize() {
+		return poolSize ;
+	}
+	
+	/**
+	 * Closes every connection to the database. Pooled connections that are currently in use are closed as
+	 * soon as their statements are.
+	 */
+	public synchronized void close() {
+		setPoolSize(0) ;
+		
+		discardConnection(connection) ;
+	}
+	
+	private void closeIdleConnections() {
+		Connection c ;
+		while ((c = idleConnections.poll()) != null) {
+			pooledConnections.decrementAndGet() ;
+			discardConnection(c) ;
+		}
+	}
+	
+	private void discardConnection(Connection c) {
+		preparedStatements.remove(c) ;
+		try {
+			c.close() ;
+		} catch (SQLException e) {} ;
 	}
 	
 	/**
 	 * Specifies whether each update statement is to be automatically executed immediately, or left until commit() is called. 
 	 * It is often more efficent set this to false and wait for several update statements to be issued before calling commit().
 	 * This is false by default. 
+	 * <p>
+	 * While autocommit is off, statements are always issued over the main connection rather than a pooled one, so that 
+	 * they are all committed together.
 	 *  
 	 * @param autocommit	true if each update statement is to be automatically executed immediately, otherwise false.
 	 * @throws SQLException if there is a problem with the database connection
 	 */
-	public void setAutoCommit(boolean autocommit) throws SQLException {
+	public synchronized void setAutoCommit(boolean autocommit) throws SQLException {
 		this.connection.setAutoCommit(autocommit) ;
+		this.autoCommit = autocommit ;
 	}
 	
 	/**
@@ -146,21 +266,284 @@ public class MySqlDatabase {
 		
 	/**
 	 * Creates a Statement object for sending SQL statements to the database.
+	 * <p>
+	 * If a pool of connections is in use, then the statement holds on to its own connection until it is closed.
 	 *  
 	 * @return the statement object
 	 * @throws SQLException if there is a problem with the database connection
 	 */
 	public Statement createStatement() throws SQLException {
-		statementsIssued ++ ;
+		statementsIssued.incrementAndGet() ;
+		
+		LinkedBlockingQueue<Connection> pool = idleConnections ;
+		if (pool != null && autoCommit)
+			return createPooledStatement(pool) ;
 		
+		synchronized (this) {
+			try {
+				return connection.createStatement() ;
+			} catch (SQLException e) {
+				try {
+					this.connect() ;
+					return connection.createStatement() ;
+				} catch (Exception e2) {
+					throw new SQLException() ;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Creates a forward-only, read-only Statement whose results are streamed from the server row by row, rather than
+	 * being read into memory all at once. This is intended for single passes over very large tables.
+	 * <p>
+	 * No other query can be issued over the statement's connection until its results have been read or closed, so
+	 * any statements needed while iterating should be issued through a pool, or after the results are closed.
+	 *
+	 * @return the statement object
+	 * @throws SQLException if there is a problem with the database connection
+	 */
+	public Statement createStreamingStatement() throws SQLException {
+		Statement stmt = createStatement() ;
+		stmt.setFetchSize(Integer.MIN_VALUE) ;
+		return stmt ;
+	}
+
+	private Statement createPooledStatement(LinkedBlockingQueue<Connection> pool) throws SQLException {
+		
+		Connection c = borrowConnection(pool) ;
+		
+		Statement stmt ;
 		try {
-			return connection.createStatement() ;
+			stmt = c.createStatement() ;
 		} catch (SQLException e) {
+			releaseConnection(pool, c) ;
+			throw e ;
+		}
+		
+		return (Statement)Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class}, new StatementHandler(stmt, c, pool, null)) ;
+	}
+	
+	/**
+	 * Registers a query so that it can be issued by name via prepareStatement(). Parameters within the 
+	 * query are marked with '?', as for any PreparedStatement. 
+	 * <p>
+	 * Registering the same name twice has no effect. 
+	 * 
+	 * @param name a unique name for the query
+	 * @param sql the (parameterized) query
+	 */
+	public void registerQuery(String name, String sql) {
+		queries.putIfAbsent(name, sql) ;
+	}
+	
+	/**
+	 * @param name the name of a query
+	 * @return true if a query has been registered with the given name, otherwise false.
+	 */
+	public boolean isQueryRegistered(String name) {
+		return queries.containsKey(name) ;
+	}
+	
+	/**
+	 * Returns a PreparedStatement for the query registered under the given name. Each connection keeps its own 
+	 * copy of each prepared statement, which is handed back for reuse (with its parameters cleared) when the
+	 * statement returned here is closed. 
+	 * <p>
+	 * The statement is not shared while it is open, so it is safe for one query to be issued while iterating 
+	 * through the results of another query of the same name.
+	 * 
+	 * @param name the name the query was registered with
+	 * @return a prepared statement, whose parameters must be set before it is executed.
+	 * @throws SQLException if no query is registered for the name, or if there is a problem with the database connection
+	 */
+	public PreparedStatement prepareStatement(String name) throws SQLException {
+		
+		String sql = queries.get(name) ;
+		if (sql == null)
+			throw new SQLException("No query has been registered as \"" + name + "\"") ;
+		
+		statementsIssued.incrementAndGet() ;
+		
+		LinkedBlockingQueue<Connection> pool = idleConnections ;
+		if (pool != null && autoCommit) {
+			Connection c = borrowConnection(pool) ;
+			
+			PreparedStatement stmt ;
 			try {
-				this.connect() ;
-				return connection.createStatement() ;
-			} catch (Exception e2) {
-				throw new SQLException() ;
+				stmt = getPreparedStatement(c, name, sql) ;
+			} catch (SQLException e) {
+				releaseConnection(pool, c) ;
+				throw e ;
+			}
+			
+			return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new StatementHandler(stmt, c, pool, name)) ;
+		}
+		
+		synchronized (this) {
+			PreparedStatement stmt ;
+			try {
+				stmt = getPreparedStatement(connection, name, sql) ;
+			} catch (SQLException e) {
+				try {
+					this.connect() ;
+					stmt = getPreparedStatement(connection, name, sql) ;
+				} catch (Exception e2) {
+					throw new SQLException() ;
+				}
+			}
+			
+			return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new StatementHandler(stmt, connection, null, name)) ;
+		}
+	}
+	
+	private PreparedStatement getPreparedStatement(Connection c, String name, String sql) throws SQLException {
+		
+		ConcurrentHashMap<String,PreparedStatement> statements = preparedStatements.get(c) ;
+		if (statements == null) {
+			statements = new ConcurrentHashMap<String,PreparedStatement>() ;
+			
+			ConcurrentHashMap<String,PreparedStatement> existing = preparedStatements.putIfAbsent(c, statements) ;
+			if (existing != null)
+				statements = existing ;
+		}
+		
+		//take the statement out of the cache while it is in use, so nobody else can
+		PreparedStatement stmt = statements.remove(name) ;
+		if (stmt == null)
+			stmt = c.prepareStatement(sql) ;
+		
+		return stmt ;
+	}
+	
+	private void recyclePreparedStatement(Connection c, String name, PreparedStatement stmt) throws SQLException {
+		
+		ConcurrentHashMap<String,PreparedStatement> statements = preparedStatements.get(c) ;
+		
+		if (statements != null) {
+			stmt.clearParameters() ;
+			if (statements.putIfAbsent(name, stmt) == null)
+				return ;
+		}
+		
+		//the connection has been discarded, or another copy of this statement has already been cached
+		stmt.close() ;
+	}
+	
+	private Connection borrowConnection(LinkedBlockingQueue<Connection> pool) throws SQLException {
+		
+		Connection c = pool.poll() ;
+		
+		if (c == null) {
+			//open another connection if the pool is not full yet, otherwise wait for one to be returned
+			if (pooledConnections.incrementAndGet() <= poolSize) {
+				try {
+					return openConnection() ;
+				} catch (Exception e) {
+					pooledConnections.decrementAndGet() ;
+					throw new SQLException("Could not open a database connection: " + e.getMessage()) ;
+				}
+			} 
+			pooledConnections.decrementAndGet() ;
+			
+			try {
+				c = pool.poll(BORROW_TIMEOUT, TimeUnit.SECONDS) ;
+			} catch (InterruptedException e) {
+				throw new SQLException("Interrupted while waiting for a database connection") ;
+			}
+			
+			if (c == null)
+				throw new SQLException("Timed out waiting for a database connection. Are statements being closed?") ;
+		}
+		
+		boolean valid ;
+		try {
+			valid = c.isValid(VALIDATION_TIMEOUT) ;
+		} catch (SQLException e) {
+			valid = false ;
+		}
+		
+		if (!valid) {
+			discardConnection(c) ;
+			
+			try {
+				c = openConnection() ;
+			} catch (Exception e) {
+				pooledConnections.decrementAndGet() ;
+				throw new SQLException("Could not reopen a database connection: " + e.getMessage()) ;
+			}
+		}
+		
+		return c ;
+	}
+	
+	private void releaseConnection(LinkedBlockingQueue<Connection> pool, Connection c) {
+		
+		if (pool == idleConnections) {
+			pool.offer(c) ;
+		} else {
+			//the pool has since been shut down or replaced
+			pooledConnections.decrementAndGet() ;
+			discardConnection(c) ;
+		}
+	}
+	
+	/**
+	 * Passes every call through to a statement, and when the statement is closed returns its connection to the pool 
+	 * (if it was borrowed from one) and hands prepared statements back for reuse. 
+	 * <p>
+	 * Statements are also closed as soon as they throw an SQLException, because callers typically 
+	 * let the exception propagate without closing them, and the connection would otherwise never be returned.
+	 */
+	private class StatementHandler implements InvocationHandler {
+		
+		private Statement statement ;
+		private Connection connection ;
+		private LinkedBlockingQueue<Connection> pool ;
+		private String queryName ;
+		
+		private boolean closed = false ;
+		
+		public StatementHandler(Statement statement, Connection connection, LinkedBlockingQueue<Connection> pool, String queryName) {
+			this.statement = statement ;
+			this.connection = connection ;
+			this.pool = pool ;
+			this.queryName = queryName ;
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			
+			if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+				close(true) ;
+				return null ;
+			}
+			
+			try {
+				return method.invoke(statement, args) ;
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof SQLException) {
+					try {
+						close(false) ;
+					} catch (SQLException e2) {} ;
+				}
+				
+				throw e.getCause() ;
+			}
+		}
+		
+		private synchronized void close(boolean reusable) throws SQLException {
+			if (closed)
+				return ;
+			
+			closed = true ;
+			try {
+				if (queryName != null && reusable)
+					recyclePreparedStatement(connection, queryName, (PreparedStatement)statement) ;
+				else
+					statement.close() ;
+			} finally {
+				if (pool != null)
+					releaseConnection(pool, connection) ;
 			}
 		}
 	}
@@ -172,7 +555,7 @@ public class MySqlDatabase {
 	 * @return as above
 	 */
 	public int getStatementsIssuedSinceStartup() {
-		return statementsIssued ;
+		return statementsIssued.get() ;
 	}
 	
 	
@@ -19,7 +19,9 @@
 
 package org.wikipedia.miner.util;
 
+import java.lang.ref.WeakReference ;
 import java.util.* ;
+import java.util.concurrent.* ;
 import java.sql.* ;
 import org.wikipedia.miner.model.* ;
 
@@ -27,16 +29,35 @@ import org.wikipedia.miner.model.* ;
  * @author David Milne
  * 
  * Provides efficient iteration over the pages in Wikipedia
+ * <p>
+ * Pages are streamed from a single query over a connection of their own, by a background thread which keeps a 
+ * bounded queue of pages ahead of the caller. The caller is free to issue other queries while iterating, and 
+ * does not wait on the database except when it consumes pages faster than they can be read.
+ * <p>
+ * The connection is released once the last page has been read. If iteration is abandoned before then, close() should be 
+ * called so that the connection is released straight away. Otherwise the background thread gives up (and releases the 
+ * connection) only once the iterator has been garbage collected.
+ * <p>
+ * If pages cannot be read, then hasNext() and next() throw a RuntimeException whose cause is the SQLException, 
+ * rather than ending the iteration early.
  */
-public class PageIterator implements Iterator<Page> {
-
-	WikipediaDatabase database ;
-
-	Vector<Page> pageBuffer ;
-	int pageType = -1 ;
-
-	int lastId = 0 ;
-	int bufferSize = 100000 ;
+public class PageIterator implements CloseableIterator<Page> {
+	
+	/**
+	 * the number of pages that are read ahead of the caller
+	 */
+	public static final int QUEUE_SIZE = 10000 ;
+	
+	//how often a background thread that is waiting for space in the queue checks whether the iterator is still wanted
+	private static final long POLL_MILLIS = 1000 ;
+
+	private Prefetcher prefetcher ;
+	private Thread prefetchThread ;
+	
+	private Page nextPage ;
+	
+	//marks the end of the queue
+	private static final Page END = new Article(null, -1, "") ;
 
 	/**
 	 * Creates an iterator that will loop through all pages in Wikipedia.
@@ -45,10 +66,7 @@ public class PageIterator implements Iterator<Page> {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public PageIterator(WikipediaDatabase database) throws SQLException {
-		this.database = database ;
-		pageBuffer = new Vector<Page>() ;
-
-		fillBuffer() ;
+		this(database, -1) ;
 	}
 
 	/**
@@ -59,73 +77,153 @@ public class PageIterator implements Iterator<Page> {
 	 * @throws SQLException if there is a problem with the Wikipedia database.
 	 */
 	public PageIterator(WikipediaDatabase database, int pageType) throws SQLException {
-		this.database = database ;
-		this.pageType = pageType ;
-		pageBuffer = new Vector<Page>() ;
-
-		fillBuffer() ;
+		
+		//open the connection and issue the query here, so that problems are reported to the caller
+		Connection connection = database.openDedicatedConnection() ;
+		ResultSet rs ;
+		
+		try {
+			Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) ;
+			stmt.setFetchSize(Integer.MIN_VALUE) ;
+			
+			if (pageType < 0)
+				rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM page ORDER BY page_id") ;
+			else
+				rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM page WHERE page_type=" + pageType + " ORDER BY page_id") ;
+		} catch (SQLException e) {
+			connection.close() ;
+			throw e ;
+		}
+		
+		//the background thread must not refer to this iterator, or it could never be garbage collected while the thread waits
+		prefetcher = new Prefetcher(this, database, pageType, connection, rs) ;
+		
+		prefetchThread = new Thread(prefetcher, "PageIterator") ;
+		prefetchThread.setDaemon(true) ;
+		prefetchThread.start() ;
 	}
 
+	/**
+	 * @throws RuntimeException if pages could not be read from the database. The cause is the SQLException that was thrown.
+	 */
 	public boolean hasNext() {
-		return !pageBuffer.isEmpty() ;
+		return fetchNext() != END ;
 	}
 
 	public void remove() {
 		throw new UnsupportedOperationException() ;
 	}
 
+	/**
+	 * @throws RuntimeException if pages could not be read from the database. The cause is the SQLException that was thrown.
+	 */
 	public Page next() {
 
-		if (pageBuffer.isEmpty())
+		Page p = fetchNext() ;
+		if (p == END)
 			throw new NoSuchElementException() ;
 
-		Page p = pageBuffer.firstElement() ;
-		pageBuffer.remove(0) ;
-
-		try {
-			while (pageBuffer.isEmpty()) 
-				fillBuffer() ;
-		} catch (SQLException e) {} ;
-
+		nextPage = null ;
 		return p ;
 	}
-
-	private void fillBuffer() throws SQLException{
-
-		Statement stmt = database.createStatement() ;
-		ResultSet rs = stmt.executeQuery("SELECT page_id, page_title, page_type FROM page WHERE page_id>" + lastId + " ORDER BY page_id LIMIT " + bufferSize) ;
-
-		if (!rs.first()) {
-			// there is nothing left to retrieve
-			rs.close() ;
-			stmt.close() ;
-			
-			throw new SQLException("No pages left to retrieve") ;
+	
+	/**
+	 * Stops reading pages, and releases the connection they are read over. This happens automatically once the last 
+	 * page has been read.
+	 */
+	public void close() {
+		prefetcher.closed = true ;
+		prefetchThread.interrupt() ;
+		
+		prefetcher.queue.clear() ;
+		nextPage = END ;
+	}
+	
+	private Page fetchNext() {
+		
+		if (nextPage == null) {
+			try {
+				nextPage = prefetcher.queue.take() ;
+			} catch (InterruptedException e) {
+				close() ;
+			}
 		}
+		
+		SQLException error = prefetcher.error ;
+		if (nextPage == END && error != null && !prefetcher.closed)
+			throw new RuntimeException("could not read all pages", error) ;
+		
+		return nextPage ;
+	}
 
-		do {
-
+	/**
+	 * Reads pages into the queue, on a background thread.
+	 */
+	private static class Prefetcher implements Runnable {
+		
+		final ArrayBlockingQueue<Page> queue = new ArrayBlockingQueue<Page>(QUEUE_SIZE) ;
+		volatile boolean closed = false ;
+		volatile SQLException error = null ;
+		
+		private WeakReference<PageIterator> owner ;
+		private WikipediaDatabase database ;
+		private int pageType ;
+		private Connection connection ;
+		private ResultSet rs ;
+		
+		Prefetcher(PageIterator owner, WikipediaDatabase database, int pageType, Connection connection, ResultSet rs) {
+			this.owner = new WeakReference<PageIterator>(owner) ;
+			this.database = database ;
+			this.pageType = pageType ;
+			this.connection = connection ;
+			this.rs = rs ;
+		}
+		
+		public void run() {
+			
 			try {
-				int id = rs.getInt(1) ;
-				String title = new String(rs.getBytes(2), "UTF-8") ;
-				int type = rs.getInt(3) ;
-
-				Page p = Page.createPage(database, id, title, type) ; ;
-				
-				//oddly, it is faster to cut out unwanted page types here, rather than with the database call
-				if (p != null && (pageType<0 || type == pageType)) {
-					pageBuffer.add(p) ;
+				while (!closed && rs.next()) {
+					
+					int id = rs.getInt(1) ;
+					String title = new String(rs.getBytes(2), ParallelCsvReader.UTF8) ;
+					int type = rs.getInt(3) ;
+
+					Page p = Page.createPage(database, id, title, type) ; 
+					if (p != null && (pageType<0 || type == pageType) && !put(p))
+						return ;
 				}
-
-				lastId = id ;
-
-			} catch (Exception e) {
-				e.printStackTrace() ;
-			} ;	
-		} while (rs.next());
+			} catch (SQLException e) {
+				//handed to the caller once it reaches the end of the queue
+				error = e ;
+			} catch (InterruptedException e) {
+				//closed by the caller
+			} finally {
+				try {
+					//closes the statement and result set along with it
+					connection.close() ;
+				} catch (SQLException e) {} ;
+				
+				try {
+					put(END) ;
+				} catch (InterruptedException e) {} ;
+			}
+		}
 		
-		rs.close() ;
-		stmt.close() ;
+		/**
+		 * Waits for space in the queue, unless the iterator is closed or has been garbage collected while waiting.
+		 * 
+		 * @return true if the page was queued, otherwise false.
+		 */
+		private boolean put(Page p) throws InterruptedException {
+			
+			while (!closed) {
+				if (queue.offer(p, POLL_MILLIS, TimeUnit.MILLISECONDS))
+					return true ;
+				
+				if (owner.get() == null)
+					closed = true ;
+			}
+			return false ;
+		}
 	}
 }
-
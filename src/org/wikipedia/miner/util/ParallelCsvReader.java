@@ -0,0 +1,381 @@
+/*
+ *    ParallelCsvReader.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.io.* ;
+import java.nio.ByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.charset.Charset ;
+import java.util.* ;
+import java.util.concurrent.* ;
+import java.util.concurrent.atomic.AtomicLong ;
+
+/**
+ * @author David Milne
+ *
+ * Reads the csv files extracted from a Wikipedia dump using several threads at once.
+ * <p>
+ * A file is split into byte ranges (chunks) whose boundaries fall at the ends of lines, and each chunk is parsed
+ * by a separate task. Lines are handed to a LineHandler as raw UTF-8 bytes, which can be picked apart with the static parsing
+ * methods of this class, so only the fields that are actually needed are ever turned into Strings.
+ * <p>
+ * Each chunk gathers its results into its own object, so handlers need no synchronization. These objects are returned
+ * in the order the chunks occur within the file, so they can be merged as if the file had been read from start to finish.
+ * <p>
+ * Readers can share a single executor, so that several files can be read at once without starting more threads than the executor allows.
+ */
+public class ParallelCsvReader {
+
+	/**
+	 * The character set of all csv files.
+	 */
+	public static final Charset UTF8 = Charset.forName("UTF-8") ;
+
+	private static final int BUFFER_SIZE = 1 << 20 ;
+	private static final int CHUNKS_PER_THREAD = 4 ;
+
+	private int threads ;
+	private ExecutorService executor ;
+
+	/**
+	 * Parses the lines of a single chunk.
+	 *
+	 * @param <T> the type of object that each chunk gathers its results into.
+	 */
+	public interface LineHandler<T> {
+
+		/**
+		 * @return a new, empty object for a chunk to gather its results into.
+		 */
+		public T createChunk() ;
+
+		/**
+		 * Parses a single line.
+		 *
+		 * @param data a buffer containing the line
+		 * @param start the index of the first byte of the line
+		 * @param end the index after the last byte of the line (line terminators are excluded)
+		 * @param chunk the object this line's chunk is gathering results into
+		 */
+		public void handleLine(byte[] data, int start, int end, T chunk) ;
+	}
+
+	/**
+	 * Initializes a reader that uses one thread for each available processor.
+	 */
+	public ParallelCsvReader() {
+		this(Runtime.getRuntime().availableProcessors()) ;
+	}
+
+	/**
+	 * Initializes a reader that uses the given number of threads.
+	 *
+	 * @param threads the number of threads to parse with
+	 */
+	public ParallelCsvReader(int threads) {
+		this.threads = Math.max(1, threads) ;
+	}
+
+	/**
+	 * Initializes a reader that parses with the given executor, which may be shared with other readers. The executor
+	 * is not shut down when reading is done.
+	 *
+	 * @param executor the executor that chunks are parsed by
+	 * @param threads the number of threads the executor has, which decides how many chunks each file is split into
+	 */
+	public ParallelCsvReader(ExecutorService executor, int threads) {
+		this(threads) ;
+		this.executor = executor ;
+	}
+
+	/**
+	 * Parses every line of the given file.
+	 *
+	 * @param file the file to read
+	 * @param handler the handler that will parse each line
+	 * @param pn an optional progress notifier. Progress is reported in bytes, relative to the given offset
+	 * @param progressOffset the number of bytes already reported to the progress notifier (for tasks which span several files)
+	 * @return the objects that results were gathered into, in the order in which their chunks occur within the file.
+	 * @throws IOException if the file cannot be read
+	 */
+	public <T> Vector<T> read(File file, final LineHandler<T> handler, final ProgressNotifier pn, final long progressOffset) throws IOException {
+		return read(file, handler, null, pn, progressOffset) ;
+	}
+
+	/**
+	 * Parses every line of the given file a second time, into the objects that an earlier read of the same file (by this reader)
+	 * returned, rather than into new ones. The file is split into the same chunks as before, so each object is handed exactly the
+	 * lines it was handed the first time. This allows a file to be read in two passes: one to measure what it contains, and one to fill
+	 * space that was allocated from those measurements.
+	 *
+	 * @param file the file to read
+	 * @param handler the handler that will parse each line
+	 * @param chunks the objects returned by an earlier read of the same file
+	 * @param pn an optional progress notifier. Progress is reported in bytes, relative to the given offset
+	 * @param progressOffset the number of bytes already reported to the progress notifier (for tasks which span several files)
+	 * @return the given objects
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file is not split into as many chunks as there are objects
+	 */
+	public <T> Vector<T> reread(File file, final LineHandler<T> handler, Vector<T> chunks, final ProgressNotifier pn, final long progressOffset) throws IOException {
+		return read(file, handler, chunks, pn, progressOffset) ;
+	}
+
+	private <T> Vector<T> read(File file, final LineHandler<T> handler, Vector<T> chunks, final ProgressNotifier pn, final long progressOffset) throws IOException {
+
+		long[] boundaries = getChunkBoundaries(file, threads * CHUNKS_PER_THREAD) ;
+
+		if (chunks != null && chunks.size() != boundaries.length-1)
+			throw new IllegalArgumentException("expected " + (boundaries.length-1) + " chunks, but was given " + chunks.size()) ;
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		final FileChannel channel = raf.getChannel() ;
+		final AtomicLong bytesDone = new AtomicLong(0) ;
+
+		ExecutorService executor = this.executor ;
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(threads) ;
+
+		Vector<Future<T>> futures = new Vector<Future<T>>() ;
+
+		try {
+			for (int c=0 ; c<boundaries.length-1 ; c++) {
+				final long start = boundaries[c] ;
+				final long end = boundaries[c+1] ;
+				final T chunk = (chunks == null) ? null : chunks.get(c) ;
+
+				futures.add(executor.submit(new Callable<T>() {
+					public T call() throws IOException {
+						return readChunk(channel, start, end, handler, chunk, pn, progressOffset, bytesDone) ;
+					}
+				})) ;
+			}
+
+			Vector<T> results = new Vector<T>() ;
+			for (Future<T> f:futures)
+				results.add(f.get()) ;
+
+			return results ;
+
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted while reading " + file.getPath()) ;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause() ;
+
+			throw new IOException("could not parse " + file.getPath() + ": " + e.getCause()) ;
+		} finally {
+			//a shared executor may still be busy with other files, so only this file's chunks are stopped
+			if (executor == this.executor) {
+				for (Future<T> f:futures)
+					f.cancel(true) ;
+			} else {
+				executor.shutdownNow() ;
+			}
+			raf.close() ;
+		}
+	}
+
+	private <T> T readChunk(FileChannel channel, long start, long end, LineHandler<T> handler, T chunk, ProgressNotifier pn, long progressOffset, AtomicLong bytesDone) throws IOException {
+
+		if (chunk == null)
+			chunk = handler.createChunk() ;
+
+		byte[] data = new byte[BUFFER_SIZE] ;
+		int dataLength = 0 ;
+
+		long pos = start ;
+
+		while (pos < end || dataLength > 0) {
+
+			//fill the rest of the buffer
+			if (pos < end) {
+				if (dataLength == data.length)
+					data = Arrays.copyOf(data, data.length * 2) ; //a single line is longer than the buffer
+
+				int toRead = (int)Math.min(data.length - dataLength, end - pos) ;
+				ByteBuffer bb = ByteBuffer.wrap(data, dataLength, toRead) ;
+
+				while (bb.hasRemaining()) {
+					int n = channel.read(bb, pos) ;
+					if (n < 0)
+						throw new EOFException() ;
+					pos += n ;
+				}
+
+				dataLength += toRead ;
+
+				if (pn != null) {
+					long done = bytesDone.addAndGet(toRead) ;
+					synchronized (pn) {
+						pn.update(progressOffset + done) ;
+					}
+				}
+			}
+
+			//parse all complete lines
+			int lineStart = 0 ;
+			for (int i=0 ; i<dataLength ; i++) {
+				if (data[i] == '\n') {
+					handleLine(data, lineStart, i, handler, chunk) ;
+					lineStart = i+1 ;
+				}
+			}
+
+			if (pos >= end && lineStart < dataLength) {
+				//last line of the file has no terminator
+				handleLine(data, lineStart, dataLength, handler, chunk) ;
+				lineStart = dataLength ;
+			}
+
+			//keep any partial line for the next pass
+			System.arraycopy(data, lineStart, data, 0, dataLength - lineStart) ;
+			dataLength = dataLength - lineStart ;
+		}
+
+		return chunk ;
+	}
+
+	private <T> void handleLine(byte[] data, int start, int end, LineHandler<T> handler, T chunk) {
+		if (end > start && data[end-1] == '\r')
+			end-- ;
+
+		if (end > start)
+			handler.handleLine(data, start, end, chunk) ;
+	}
+
+	private long[] getChunkBoundaries(File file, int chunks) throws IOException {
+
+		long length = file.length() ;
+		long[] boundaries = new long[chunks+1] ;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		try {
+			byte[] buffer = new byte[8192] ;
+
+			for (int c=1 ; c<chunks ; c++) {
+				long pos = Math.max(boundaries[c-1], (length * c) / chunks) ;
+
+				//move forward to the start of the next line
+				boolean found = false ;
+				while (!found && pos < length) {
+					raf.seek(pos) ;
+					int n = raf.read(buffer) ;
+					if (n <= 0)
+						break ;
+
+					for (int i=0 ; i<n ; i++) {
+						if (buffer[i] == '\n') {
+							pos = pos + i + 1 ;
+							found = true ;
+							break ;
+						}
+					}
+					if (!found)
+						pos += n ;
+				}
+				boundaries[c] = Math.min(pos, length) ;
+			}
+		} finally {
+			raf.close() ;
+		}
+
+		boundaries[chunks] = length ;
+		return boundaries ;
+	}
+
+
+	/**
+	 * Parses a (possibly negative) decimal integer, ignoring any surrounding whitespace.
+	 *
+	 * @param data the buffer containing the integer
+	 * @param start the index of the first byte of the integer
+	 * @param end the index after the last byte of the integer
+	 * @return the integer
+	 * @throws NumberFormatException if the bytes do not contain an integer
+	 */
+	public static int parseInt(byte[] data, int start, int end) {
+
+		while (start < end && data[start] <= ' ')
+			start++ ;
+		while (end > start && data[end-1] <= ' ')
+			end-- ;
+
+		if (start == end)
+			throw new NumberFormatException("empty integer") ;
+
+		boolean negative = false ;
+		if (data[start] == '-') {
+			negative = true ;
+			start++ ;
+		}
+
+		int value = 0 ;
+		for (int i=start ; i<end ; i++) {
+			int digit = data[i] - '0' ;
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("\"" + new String(data, start, end-start, UTF8) + "\" is not an integer") ;
+
+			value = value*10 + digit ;
+		}
+
+		return negative ? -value : value ;
+	}
+
+	/**
+	 * @param data the buffer to search
+	 * @param b the byte to search for
+	 * @param start the index to start searching from
+	 * @param end the index to search up to (exclusive)
+	 * @return the index of the first occurrence of the given byte, or -1 if there is none.
+	 */
+	public static int indexOf(byte[] data, byte b, int start, int end) {
+		for (int i=start ; i<end ; i++)
+			if (data[i] == b)
+				return i ;
+
+		return -1 ;
+	}
+
+	/**
+	 * @param data the buffer to search
+	 * @param b the byte to search for
+	 * @param start the index to search back to (inclusive)
+	 * @param end the index to start searching back from (exclusive)
+	 * @return the index of the last occurrence of the given byte, or -1 if there is none.
+	 */
+	public static int lastIndexOf(byte[] data, byte b, int start, int end) {
+		for (int i=end-1 ; i>=start ; i--)
+			if (data[i] == b)
+				return i ;
+
+		return -1 ;
+	}
+
+	/**
+	 * @param data the buffer containing the string
+	 * @param start the index of the first byte of the string
+	 * @param end the index after the last byte of the string
+	 * @return the string, decoded from UTF-8
+	 */
+	public static String getString(byte[] data, int start, int end) {
+		return new String(data, start, end-start, UTF8) ;
+	}
+}
@@ -20,48 +20,372 @@
 package org.wikipedia.miner.util;
 
 import org.wikipedia.miner.model.Article;
-import gnu.trove.* ;
 import java.sql.*;
+import java.util.Arrays ;
+import java.util.concurrent.atomic.AtomicLong ;
 
 /**
  * @author David Milne
  *
- * This class caches the results of calculating relatedness measures; 
- * If all relatedness comparisons are performed via this class, then no calculations will be repeated.
+ * This class caches the results of calculating relatedness measures;
+ * If all relatedness comparisons are performed via this class, then no calculations will be repeated (until the cache fills up).
+ * <p>
+ * A single cache can safely be shared by any number of threads, and never uses more than the memory it is given.
+ * Pairs are held in open addressed tables of primitive keys and values, which are split into segments that are
+ * locked independently, so threads rarely wait for each other. Each pair hashes to a small set of slots within its segment;
+ * once all of these are full, one of them is evicted with the CLOCK algorithm (an approximation of least recently used
+ * that needs only a single bit per slot).
+ * <p>
+ * Relatedness is calculated outside of any lock, so a slow calculation never holds up other threads. One article can be 
+ * compared to many others at once, in which case only the pairs that are missing are calculated, in a single pass.
  */
 public class RelatednessCache {
 
-	TLongDoubleHashMap cachedRelatedness ;
-	
 	/**
-	 * Initializes the relatedness cache.
+	 * the number of bytes used by a cache created with the default constructor
+	 */
+	public static final long DEFAULT_MAX_BYTES = 1 << 20 ;
+
+	//key, value and reference bit
+	private static final int BYTES_PER_ENTRY = 8 + 8 + 1 ;
+
+	//the number of slots that each pair could be stored in
+	private static final int SET_SIZE = 8 ;
+
+	private static final long EMPTY = -1 ;
+
+	private Segment[] segments ;
+	private int segmentBits ;
+
+	private AtomicLong hits = new AtomicLong() ;
+	private AtomicLong misses = new AtomicLong() ;
+	private AtomicLong evictions = new AtomicLong() ;
+
+	/**
+	 * Initializes a relatedness cache that uses at most DEFAULT_MAX_BYTES; enough for a single document or request.
 	 */
 	public RelatednessCache() {
-		cachedRelatedness = new TLongDoubleHashMap() ;
+		this(DEFAULT_MAX_BYTES) ;
+	}
+
+	/**
+	 * Initializes a relatedness cache that uses at most the given amount of memory. This is only allocated as it is needed.
+	 *
+	 * @param maxBytes the maximum number of bytes the cache may use
+	 */
+	public RelatednessCache(long maxBytes) {
+
+		long sets = Math.max(1, maxBytes / (BYTES_PER_ENTRY * SET_SIZE)) ;
+
+		//enough segments that threads seldom contend, as long as each still has plenty of sets
+		int maxSegments = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1 ;
+		segmentBits = 0 ;
+		while ((1 << segmentBits) < maxSegments && sets >> (segmentBits+1) >= 64)
+			segmentBits++ ;
+
+		int setsPerSegment = (int)Math.min(Long.highestOneBit(sets >> segmentBits), 1 << 24) ;
+
+		segments = new Segment[1 << segmentBits] ;
+		for (int s=0 ; s<segments.length ; s++)
+			segments[s] = new Segment(setsPerSegment) ;
 	}
-	
+
 	/**
-	 * Calculates (or retrieves) the semantic relatedness of two articles. 
+	 * Calculates (or retrieves) the semantic relatedness of two articles.
 	 * The result will be identical to that returned by art1.getRelatednessTo(art2) or art2.getRelatednessTo(art1)
-	 * 
-	 * @param art1 
+	 *
+	 * @param art1
 	 * @param art2
 	 * @return the semantic relatedness of art1 and art2
 	 * @throws SQLException
 	 */
 	public double getRelatedness(Article art1, Article art2) throws SQLException {
-		
+
+		double[] found = new double[1] ;
+		if (find(art1.getId(), art2.getId(), found, 0))
+			return found[0] ;
+
+		double rel = art1.getRelatednessTo(art2) ;
+		store(art1.getId(), art2.getId(), rel) ;
+
+		return rel ;
+	}
+
+	/**
+	 * Calculates (or retrieves) the semantic relatedness of one article to many others. Any pairs that are not cached
+	 * are calculated together with art.getRelatednessTo(Article[]), so the links of art are only gathered once.
+	 *
+	 * @param art an article
+	 * @param others the articles to compare it to
+	 * @return the relatedness of art to each of the others, in the same order
+	 * @throws SQLException
+	 */
+	public double[] getRelatedness(Article art, Article[] others) throws SQLException {
+
+		double[] relatedness = new double[others.length] ;
+
+		int[] missing = new int[others.length] ;
+		int missingCount = 0 ;
+
+		for (int i=0 ; i<others.length ; i++) {
+			if (!find(art.getId(), others[i].getId(), relatedness, i))
+				missing[missingCount++] = i ;
+		}
+
+		if (missingCount == 0)
+			return relatedness ;
+
+		Article[] toCalculate = new Article[missingCount] ;
+		for (int m=0 ; m<missingCount ; m++)
+			toCalculate[m] = others[missing[m]] ;
+
+		double[] calculated = art.getRelatednessTo(toCalculate) ;
+
+		for (int m=0 ; m<missingCount ; m++) {
+			relatedness[missing[m]] = calculated[m] ;
+			store(art.getId(), toCalculate[m].getId(), calculated[m]) ;
+		}
+
+		return relatedness ;
+	}
+
+	/**
+	 * Calculates (or retrieves) the semantic relatedness of every article in one group to every article in another.
+	 * Rows are calculated in order, so if the groups overlap then pairs calculated for earlier rows are reused by later ones.
+	 *
+	 * @param arts the first group of articles
+	 * @param others the second group of articles
+	 * @return the relatedness of arts[i] to others[j], at [i][j]
+	 * @throws SQLException
+	 */
+	public double[][] getRelatedness(Article[] arts, Article[] others) throws SQLException {
+
+		double[][] relatedness = new double[arts.length][] ;
+		for (int i=0 ; i<arts.length ; i++)
+			relatedness[i] = getRelatedness(arts[i], others) ;
+
+		return relatedness ;
+	}
+
+	/**
+	 * Looks up a pair, counting it as a hit or a miss.
+	 *
+	 * @return true if the pair was cached (in which case its relatedness is written to dest[index]), otherwise false.
+	 */
+	private boolean find(int id1, int id2, double[] dest, int index) {
+
+		long key = getKey(id1, id2) ;
+		int hash = hash(key) ;
+		Segment segment = segments[hash & ((1 << segmentBits) - 1)] ;
+
+		synchronized (segment) {
+			int slot = segment.indexOf(key, hash >>> segmentBits) ;
+			if (slot >= 0) {
+				hits.incrementAndGet() ;
+				segment.referenced[slot] = true ;
+				dest[index] = segment.values[slot] ;
+				return true ;
+			}
+		}
+
+		misses.incrementAndGet() ;
+		return false ;
+	}
+
+	private void store(int id1, int id2, double relatedness) {
+
+		long key = getKey(id1, id2) ;
+		int hash = hash(key) ;
+		Segment segment = segments[hash & ((1 << segmentBits) - 1)] ;
+
+		synchronized (segment) {
+			if (segment.put(key, hash >>> segmentBits, relatedness))
+				evictions.incrementAndGet() ;
+		}
+	}
+
+	private static long getKey(int id1, int id2) {
+
 		//generate unique key for this pair
-		long min = Math.min(art1.getId(), art2.getId()) ;
-		long max = Math.max(art1.getId(), art2.getId()) ;
-		long key = min + (max << 30) ;
-				
-		if (!cachedRelatedness.containsKey(key)) {		
-			Double rel = art1.getRelatednessTo(art2) ;		
-			cachedRelatedness.put(key, rel) ;
-			return rel ;
-		} else {			
-			return cachedRelatedness.get(key) ;
+		long min = Math.min(id1, id2) ;
+		long max = Math.max(id1, id2) ;
+		return (max << 32) | min ;
+	}
+
+	/**
+	 * @return the number of requests that were answered from the cache
+	 */
+	public long getHitCount() {
+		return hits.get() ;
+	}
+
+	/**
+	 * @return the number of requests that had to be calculated
+	 */
+	public long getMissCount() {
+		return misses.get() ;
+	}
+
+	/**
+	 * @return the number of pairs that have been discarded to make room for others
+	 */
+	public long getEvictionCount() {
+		return evictions.get() ;
+	}
+
+	/**
+	 * @return the proportion of requests that were answered from the cache, or 0 if there have been none
+	 */
+	public double getHitRate() {
+		long h = hits.get() ;
+		long total = h + misses.get() ;
+
+		return total == 0 ? 0 : (double)h / total ;
+	}
+
+	/**
+	 * @return the number of pairs currently cached
+	 */
+	public int size() {
+		int size = 0 ;
+		for (Segment segment:segments) {
+			synchronized (segment) {
+				size += segment.size ;
+			}
+		}
+		return size ;
+	}
+
+	/**
+	 * @return the maximum number of pairs that can be cached at once
+	 */
+	public long getCapacity() {
+		return (long)segments.length * segments[0].sets * SET_SIZE ;
+	}
+
+	/**
+	 * @return the number of bytes currently allocated by the cache
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 0 ;
+		for (Segment segment:segments) {
+			synchronized (segment) {
+				if (segment.keys != null)
+					bytes += (long)segment.keys.length * BYTES_PER_ENTRY + segment.sets ;
+			}
+		}
+		return bytes ;
+	}
+
+	/**
+	 * Discards every cached pair. Counts of hits and misses are kept.
+	 */
+	public void clear() {
+		for (Segment segment:segments) {
+			synchronized (segment) {
+				segment.keys = null ;
+				segment.values = null ;
+				segment.referenced = null ;
+				segment.hands = null ;
+				segment.size = 0 ;
+			}
+		}
+	}
+
+	public String toString() {
+		return size() + " of " + getCapacity() + " pairs cached, " + getHitCount() + " hits, " + getMissCount() + " misses, " + getEvictionCount() + " evictions" ;
+	}
+
+	private static int hash(long key) {
+		//mix bits of both ids, so pairs spread evenly over segments and sets
+		key ^= (key >>> 33) ;
+		key *= 0xff51afd7ed558ccdL ;
+		key ^= (key >>> 33) ;
+		key *= 0xc4ceb9fe1a85ec53L ;
+		key ^= (key >>> 33) ;
+		return (int)key ;
+	}
+
+	/**
+	 * A set-associative table of pairs. All access must be synchronized on the segment.
+	 */
+	private static class Segment {
+
+		int sets ;
+		int size = 0 ;
+
+		//allocated on first use, so small or short-lived caches cost little
+		long[] keys ;
+		double[] values ;
+		boolean[] referenced ;
+		byte[] hands ;
+
+		Segment(int sets) {
+			this.sets = sets ;
 		}
-	}	
+
+		/**
+		 * @return the slot holding the given key, or -1 if it is not cached
+		 */
+		int indexOf(long key, int hash) {
+
+			if (keys == null)
+				return -1 ;
+
+			int start = (hash & (sets-1)) * SET_SIZE ;
+			for (int slot=start ; slot<start+SET_SIZE ; slot++) {
+				if (keys[slot] == key)
+					return slot ;
+
+				//slots within a set are filled in order, and never emptied
+				if (keys[slot] == EMPTY)
+					return -1 ;
+			}
+
+			return -1 ;
+		}
+
+		/**
+		 * @return true if another pair had to be evicted to make room for this one, otherwise false
+		 */
+		boolean put(long key, int hash, double value) {
+
+			if (keys == null) {
+				keys = new long[sets * SET_SIZE] ;
+				Arrays.fill(keys, EMPTY) ;
+				values = new double[sets * SET_SIZE] ;
+				referenced = new boolean[sets * SET_SIZE] ;
+				hands = new byte[sets] ;
+			}
+
+			int set = hash & (sets-1) ;
+			int start = set * SET_SIZE ;
+
+			for (int slot=start ; slot<start+SET_SIZE ; slot++) {
+				if (keys[slot] == key || keys[slot] == EMPTY) {
+					if (keys[slot] == EMPTY)
+						size++ ;
+
+					keys[slot] = key ;
+					values[slot] = value ;
+					referenced[slot] = false ;
+					return false ;
+				}
+			}
+
+			//set is full, so sweep the clock hand past recently used slots until one is found that has not been
+			while (true) {
+				int slot = start + hands[set] ;
+				hands[set] = (byte)((hands[set] + 1) % SET_SIZE) ;
+
+				if (referenced[slot]) {
+					referenced[slot] = false ;
+				} else {
+					keys[slot] = key ;
+					values[slot] = value ;
+					return true ;
+				}
+			}
+		}
+	}
 }
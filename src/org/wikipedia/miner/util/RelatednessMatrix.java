@@ -0,0 +1,300 @@
+/*
+ *    RelatednessMatrix.java
+ *    Copyright (C) 2007 David Milne, d.n.milne@gmail.com
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.wikipedia.miner.util;
+
+import java.sql.*;
+import java.util.concurrent.ForkJoinPool ;
+import java.util.concurrent.RecursiveAction ;
+
+import org.wikipedia.miner.model.* ;
+
+/**
+ * @author David Milne
+ *
+ * This class measures the semantic relatedness of every pair of articles in a group, as a symmetric matrix.
+ * <p>
+ * Relatedness is symmetric, so only the upper triangle of the matrix is calculated, and each result is copied to
+ * the lower triangle. Each row is compared in a single pass (see RelatednessCache.getRelatedness(Article, Article[])). If links
+ * are cached, blocks of rows are spread over the common fork-join pool, split so that each block holds roughly the same number of pairs.
+ * <p>
+ * An optional Cutoff can skip pairs that cannot possibly be strongly related, judging only by how many links the two
+ * articles have. Skipped pairs are given a relatedness of 0.
+ */
+public class RelatednessMatrix {
+
+	//blocks with fewer pairs than this are calculated on a single thread
+	private static final int MIN_BLOCK_PAIRS = 256 ;
+
+	private WikipediaDatabase database ;
+	private RelatednessCache cache ;
+	private Cutoff cutoff ;
+
+	/**
+	 * Initializes a new relatedness matrix.
+	 *
+	 * @param database the database that the articles belong to
+	 * @param cache a cache in which relatedness measures will be saved so they aren't repeatedly calculated. This may be null.
+	 * @param cutoff a cutoff that decides which pairs are not worth calculating. This may be null, in which case every pair is calculated.
+	 */
+	public RelatednessMatrix(WikipediaDatabase database, RelatednessCache cache, Cutoff cutoff) {
+		this.database = database ;
+		this.cache = cache ;
+		this.cutoff = cutoff ;
+	}
+
+	/**
+	 * Measures the relatedness of every pair of the given articles.
+	 *
+	 * @param articles the articles of interest
+	 * @return the relatedness of articles[i] to articles[j], at [i][j]. The matrix is symmetric, and its diagonal is 1.
+	 * @throws SQLException if there is a problem with the wikipedia database
+	 */
+	public double[][] getRelatedness(Article[] articles) throws SQLException {
+
+		int n = articles.length ;
+
+		double[][] relatedness = new double[n][n] ;
+		for (int i=0 ; i<n ; i++)
+			relatedness[i][i] = 1 ;
+
+		int[] linksIn = null ;
+		int[] linksOut = null ;
+		if (cutoff != null) {
+			//gather link counts once per article, rather than once per pair
+			linksIn = new int[n] ;
+			linksOut = new int[n] ;
+
+			RelatednessEngine engine = database.getRelatednessEngine() ;
+			for (int i=0 ; i<n ; i++) {
+				if (engine != null) {
+					linksIn[i] = engine.getLinksInCount(articles[i].getId()) ;
+					linksOut[i] = engine.getLinksOutCount(articles[i].getId()) ;
+				} else {
+					linksIn[i] = articles[i].getLinksInCount() ;
+					linksOut[i] = articles[i].getLinksOutCount() ;
+				}
+			}
+		}
+
+		Block block = new Block(articles, linksIn, linksOut, relatedness, 0, n) ;
+
+		//rows only run in parallel when links are cached. Otherwise articles load their links lazily from the database, 
+		//and the same articles appear in many rows, so they are compared on this thread alone.
+		boolean parallel = database.getRelatednessEngine() != null && block.getPairCount() >= 2 * MIN_BLOCK_PAIRS ;
+
+		try {
+			if (!parallel)
+				block.calculate() ;
+			else
+				ForkJoinPool.commonPool().invoke(block) ;
+		} catch (RuntimeException e) {
+			//unwrap any database error thrown by one of the pool's threads
+			for (Throwable t = e ; t != null ; t = t.getCause()) {
+				if (t instanceof SQLException)
+					throw (SQLException)t ;
+			}
+			throw e ;
+		}
+
+		return relatedness ;
+	}
+
+	/**
+	 * A contiguous range of rows of the upper triangle, which splits itself in two until it is small enough to calculate.
+	 */
+	private class Block extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L ;
+
+		private Article[] articles ;
+		private int[] linksIn ;
+		private int[] linksOut ;
+		private double[][] relatedness ;
+
+		private int startRow ;
+		private int endRow ;
+
+		Block(Article[] articles, int[] linksIn, int[] linksOut, double[][] relatedness, int startRow, int endRow) {
+			this.articles = articles ;
+			this.linksIn = linksIn ;
+			this.linksOut = linksOut ;
+			this.relatedness = relatedness ;
+			this.startRow = startRow ;
+			this.endRow = endRow ;
+		}
+
+		long getPairCount() {
+			return getPairCount(startRow, endRow) ;
+		}
+
+		private long getPairCount(int start, int end) {
+			//row i of the upper triangle holds n-1-i pairs
+			int n = articles.length ;
+			return (long)(end - start) * (2*n - 1 - start - end) / 2 ;
+		}
+
+		protected void compute() {
+
+			long pairs = getPairCount() ;
+
+			if (endRow - startRow < 2 || pairs < 2 * MIN_BLOCK_PAIRS) {
+				try {
+					calculate() ;
+				} catch (SQLException e) {
+					throw new RuntimeException(e) ;
+				}
+				return ;
+			}
+
+			//early rows are longer than later ones, so split where half of the pairs fall on either side
+			int mid = startRow + 1 ;
+			while (mid < endRow - 1 && getPairCount(startRow, mid) < pairs / 2)
+				mid++ ;
+
+			invokeAll(new Block(articles, linksIn, linksOut, relatedness, startRow, mid), new Block(articles, linksIn, linksOut, relatedness, mid, endRow)) ;
+		}
+
+		void calculate() throws SQLException {
+
+			int n = articles.length ;
+
+			int[] columns = new int[n] ;
+
+			for (int i=startRow ; i<endRow ; i++) {
+
+				int columnCount = 0 ;
+				for (int j=i+1 ; j<n ; j++) {
+					if (cutoff != null && articles[i].getId() != articles[j].getId() && cutoff.canSkip(linksIn[i], linksOut[i], linksIn[j], linksOut[j]))
+						continue ;
+
+					columns[columnCount++] = j ;
+				}
+
+				if (columnCount == 0)
+					continue ;
+
+				Article[] others = new Article[columnCount] ;
+				for (int c=0 ; c<columnCount ; c++)
+					others[c] = articles[columns[c]] ;
+
+				double[] row ;
+				if (cache != null)
+					row = cache.getRelatedness(articles[i], others) ;
+				else
+					row = articles[i].getRelatednessTo(others) ;
+
+				//each cell is written by exactly one block, so no locking is needed
+				for (int c=0 ; c<columnCount ; c++) {
+					relatedness[i][columns[c]] = row[c] ;
+					relatedness[columns[c]][i] = row[c] ;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decides which pairs of articles are not worth calculating, from the sizes of their link sets alone.
+	 */
+	public interface Cutoff {
+
+		/**
+		 * @param linksInA the number of articles that link to the first article
+		 * @param linksOutA the number of articles that the first article links to
+		 * @param linksInB the number of articles that link to the second article
+		 * @param linksOutB the number of articles that the second article links to
+		 * @return true if the pair should be skipped (and given a relatedness of 0), otherwise false.
+		 */
+		public boolean canSkip(int linksInA, int linksOutA, int linksInB, int linksOutB) ;
+	}
+
+	/**
+	 * A cutoff that skips pairs whose relatedness cannot possibly reach a given minimum.
+	 * <p>
+	 * Relatedness from links in can be no greater than it would be if every article linking to the less popular article
+	 * also linked to the other, so a large difference in popularity places an upper bound on it. Relatedness from
+	 * links out cannot be bounded by counts alone, except that it is 0 if either article has no links out.
+	 */
+	public static class LinkCountCutoff implements Cutoff {
+
+		private WikipediaDatabase database ;
+		private double minRelatedness ;
+
+		/**
+		 * Initializes a new cutoff.
+		 *
+		 * @param database the database that articles will be drawn from
+		 * @param minRelatedness pairs that are certain to be less related than this will be skipped
+		 */
+		public LinkCountCutoff(WikipediaDatabase database, double minRelatedness) {
+			this.database = database ;
+			this.minRelatedness = minRelatedness ;
+		}
+
+		public boolean canSkip(int linksInA, int linksOutA, int linksInB, int linksOutB) {
+			return getMaxRelatedness(linksInA, linksOutA, linksInB, linksOutB) < minRelatedness ;
+		}
+
+		/**
+		 * @return the greatest relatedness that two articles with the given numbers of links could have, as measured by
+		 * Article.getRelatednessTo() with the links that are currently cached.
+		 */
+		public double getMaxRelatedness(int linksInA, int linksOutA, int linksInB, int linksOutB) {
+
+			boolean inLinksCached = database.areInLinksCached() ;
+			boolean outLinksMeasured = database.isRelatednessFromOutLinks() ;
+
+			//if neither are cached, then both are used. Links out may be cached but left out of the measure (see WikipediaDatabase.setRelatednessFromOutLinks())
+			boolean useInLinks = inLinksCached || !outLinksMeasured ;
+			boolean useOutLinks = outLinksMeasured || !inLinksCached ;
+
+			double maxFromIn = getMaxRelatednessFromInLinks(linksInA, linksInB) ;
+			double maxFromOut = (linksOutA == 0 || linksOutB == 0) ? 0 : 1 ;
+
+			if (useInLinks && useOutLinks)
+				return (maxFromIn + maxFromOut)/2 ;
+
+			if (useInLinks)
+				return maxFromIn ;
+
+			return maxFromOut ;
+		}
+
+		private double getMaxRelatednessFromInLinks(int linksInA, int linksInB) {
+
+			if (linksInA == 0 || linksInB == 0)
+				return 0 ;
+
+			double a = Math.log(linksInA) ;
+			double b = Math.log(linksInB) ;
+			double m = Math.log(database.getArticleCount()) ;
+
+			if (m - Math.min(a, b) <= 0)
+				return 1 ;
+
+			//at best, all links to the less popular article are shared
+			double sr = (Math.max(a, b) - Math.min(a, b)) / (m - Math.min(a, b)) ;
+
+			if (Double.isNaN(sr) || sr > 1)
+				sr = 1 ;
+
+			return 1-sr ;
+		}
+	}
+}
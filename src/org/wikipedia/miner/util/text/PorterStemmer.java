@@ -26,14 +26,12 @@ package org.wikipedia.miner.util.text;
 public class PorterStemmer extends TextProcessor {  
 
 	private Cleaner cleaner ;
-	private Stemmer stemmer ;
 
 	/**
 	 * Initializes a newly created PorterStemmer.  
 	 */	
 	public PorterStemmer() {  
 		cleaner = new Cleaner() ;
-		stemmer = new Stemmer() ;
 	}
 
 	/**
@@ -46,6 +44,9 @@ public class PorterStemmer extends TextProcessor {
 
 		String processedText = "" ;
 		String[] terms = text.split(" ") ;
+		
+		// stemmers hold state, so a new one is needed for each call if this is to be used from several threads at once
+		Stemmer stemmer = new Stemmer() ;
 
 		for (String term: terms) {
 			if (term != "") {